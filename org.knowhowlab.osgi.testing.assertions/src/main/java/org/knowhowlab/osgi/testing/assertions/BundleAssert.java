@@ -17,19 +17,25 @@
 package org.knowhowlab.osgi.testing.assertions;
 
 import org.junit.Assert;
+import org.knowhowlab.osgi.testing.utils.BundleLifecycleProfiler;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Version;
 import org.osgi.service.packageadmin.PackageAdmin;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.knowhowlab.osgi.testing.utils.BundleUtils.findBundle;
 import static org.knowhowlab.osgi.testing.utils.BundleUtils.waitForBundleEvent;
+import static org.knowhowlab.osgi.testing.utils.BundleUtils.waitForBundleUnavailable;
+import static org.knowhowlab.osgi.testing.utils.BundleUtils.waitForBundles;
 import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getService;
 import static org.osgi.service.packageadmin.PackageAdmin.BUNDLE_TYPE_FRAGMENT;
 
@@ -380,6 +386,95 @@ public class BundleAssert extends OSGiAssert {
         Assert.assertNull(message, bundle);
     }
 
+    /**
+     * Asserts that Bundle with bundleId is unavailable in OSGi framework within given timeout. If it not as expected
+     * {@link AssertionError} without a message is thrown
+     *
+     * @param bundleId bundle id
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(long bundleId, long timeout, TimeUnit timeUnit) {
+        assertBundleUnavailable(format("Bundle: %s is available within timeout: %s%s", bundleId, timeout, timeUnit),
+                bundleId, timeout, timeUnit);
+    }
+
+    /**
+     * Asserts that Bundle with bundleId is unavailable in OSGi framework within given timeout. If it not as expected
+     * {@link AssertionError} is thrown with the given message
+     *
+     * @param message  message
+     * @param bundleId bundle id
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(String message, long bundleId, long timeout, TimeUnit timeUnit) {
+        assertNotNull("TimeUnit is null", timeUnit);
+        Assert.assertTrue(message, waitForBundleUnavailable(getBundleContext(), bundleId, timeout, timeUnit));
+    }
+
+    /**
+     * Asserts that Bundle with symbolic name is unavailable in OSGi framework within given timeout. If it not as expected
+     * {@link AssertionError} without a message is thrown
+     *
+     * @param symbolicName symbolic name
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(String symbolicName, long timeout, TimeUnit timeUnit) {
+        assertBundleUnavailable(format("Bundle: %s is available within timeout: %s%s", symbolicName, timeout, timeUnit),
+                symbolicName, timeout, timeUnit);
+    }
+
+    /**
+     * Asserts that Bundle with symbolic name is unavailable in OSGi framework within given timeout. If it not as expected
+     * {@link AssertionError} is thrown with the given message
+     *
+     * @param message      message
+     * @param symbolicName symbolic name
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(String message, String symbolicName, long timeout, TimeUnit timeUnit) {
+        assertBundleUnavailable(message, symbolicName, null, timeout, timeUnit);
+    }
+
+    /**
+     * Asserts that Bundle with symbolic name and version is unavailable in OSGi framework within given timeout.
+     * If it not as expected {@link AssertionError} without a message is thrown
+     *
+     * @param symbolicName symbolic name
+     * @param version      version
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(String symbolicName, Version version, long timeout, TimeUnit timeUnit) {
+        assertBundleUnavailable(format("Bundle: %s[%s] is available within timeout: %s%s", symbolicName, version, timeout, timeUnit),
+                symbolicName, version, timeout, timeUnit);
+    }
+
+    /**
+     * Asserts that Bundle with symbolic name and version is unavailable in OSGi framework within given timeout.
+     * If it not as expected {@link AssertionError} is thrown with the given message
+     *
+     * @param message      message
+     * @param symbolicName symbolic name
+     * @param version      version
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     timeout time unit
+     * @since 1.3
+     */
+    public static void assertBundleUnavailable(String message, String symbolicName, Version version, long timeout, TimeUnit timeUnit) {
+        assertNotNull("SymbolicName is null", symbolicName);
+        assertNotNull("TimeUnit is null", timeUnit);
+        Assert.assertTrue(message, waitForBundleUnavailable(getBundleContext(), symbolicName, version, timeout, timeUnit));
+    }
+
     /**
      * Asserts that Bundle with bundleId is fragment bundle. If it not as expected
      * {@link AssertionError} without a message is thrown
@@ -738,4 +833,112 @@ public class BundleAssert extends OSGiAssert {
         BundleEvent event = waitForBundleEvent(getBundleContext(), symbolicName, version, eventTypeMask, timeout, timeUnit);
         assertNotNull(message, event);
     }
+
+    /**
+     * Asserts that bundles with all SymbolicNames are in one of states within given timeoutInMillis.
+     * All bundles are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the laggards and their states is thrown
+     *
+     * @param stateMask       bundle states mask
+     * @param symbolicNames   symbolicNames
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @since 1.3
+     */
+    public static void assertBundlesState(int stateMask, Collection<String> symbolicNames, long timeoutInMillis) {
+        assertBundlesState(stateMask, symbolicNames, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Asserts that bundles with all SymbolicNames are in one of states within given timeoutInMillis.
+     * All bundles are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message         message
+     * @param stateMask       bundle states mask
+     * @param symbolicNames   symbolicNames
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @since 1.3
+     */
+    public static void assertBundlesState(String message, int stateMask, Collection<String> symbolicNames, long timeoutInMillis) {
+        assertBundlesState(message, stateMask, symbolicNames, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Asserts that bundles with all SymbolicNames are in one of states within given timeout.
+     * All bundles are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the laggards and their states is thrown
+     *
+     * @param stateMask     bundle states mask
+     * @param symbolicNames symbolicNames
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertBundlesState(int stateMask, Collection<String> symbolicNames, long timeout, TimeUnit timeUnit) {
+        assertNotNull("SymbolicNames are null", symbolicNames);
+        assertNotNull("TimeUnit is null", timeUnit);
+        Map<String, Integer> laggards = waitForBundles(getBundleContext(), stateMask, symbolicNames, timeout, timeUnit);
+        Assert.assertTrue(format("Bundles are not in state %s: %s (symbolicName=state) within timeout: %s%s",
+                stateMask, laggards, timeout, timeUnit), laggards.isEmpty());
+    }
+
+    /**
+     * Asserts that bundles with all SymbolicNames are in one of states within given timeout.
+     * All bundles are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message       message
+     * @param stateMask     bundle states mask
+     * @param symbolicNames symbolicNames
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertBundlesState(String message, int stateMask, Collection<String> symbolicNames,
+                                          long timeout, TimeUnit timeUnit) {
+        assertNotNull("SymbolicNames are null", symbolicNames);
+        assertNotNull("TimeUnit is null", timeUnit);
+        Assert.assertTrue(message, waitForBundles(getBundleContext(), stateMask, symbolicNames, timeout, timeUnit).isEmpty());
+    }
+
+    /**
+     * Asserts that the maximum activator start time of bundle that was measured by
+     * {@link BundleLifecycleProfiler} is within budget. If it not as expected
+     * {@link AssertionError} is thrown
+     *
+     * @param symbolicName symbolicName
+     * @param budget       maximum start time
+     * @param timeUnit     time unit for the budget
+     * @since 1.3
+     */
+    public static void assertBundleStartTime(String symbolicName, long budget, TimeUnit timeUnit) {
+        assertBundleStartTime(format("Bundle start time exceeds budget: %s - %s%s", symbolicName, budget, timeUnit),
+                symbolicName, budget, timeUnit);
+    }
+
+    /**
+     * Asserts that the maximum activator start time of bundle that was measured by
+     * {@link BundleLifecycleProfiler} is within budget. If it not as expected
+     * {@link AssertionError} is thrown with the given message.
+     * Profiler has to be enabled for default BundleContext before the bundle is started.
+     *
+     * @param message      message
+     * @param symbolicName symbolicName
+     * @param budget       maximum start time
+     * @param timeUnit     time unit for the budget
+     * @since 1.3
+     */
+    public static void assertBundleStartTime(String message, String symbolicName, long budget, TimeUnit timeUnit) {
+        assertNotNull("SymbolicName is null", symbolicName);
+        assertNotNull("TimeUnit is null", timeUnit);
+        BundleLifecycleProfiler profiler = BundleLifecycleProfiler.getProfiler(getBundleContext());
+        assertNotNull("BundleLifecycleProfiler is not enabled", profiler);
+        BundleLifecycleProfiler.BundleStats stats = profiler.getStats(symbolicName);
+        assertNotNull(format("Bundle start was not measured: %s", symbolicName), stats);
+        Assert.assertTrue(format("Bundle start was not measured: %s", symbolicName),
+                stats.getCount(BundleLifecycleProfiler.Phase.START) > 0);
+        long maxStartTime = stats.getMax(BundleLifecycleProfiler.Phase.START, NANOSECONDS);
+        Assert.assertTrue(format("%s, actual: %sus", message, NANOSECONDS.toMicros(maxStartTime)),
+                maxStartTime <= timeUnit.toNanos(budget));
+    }
 }
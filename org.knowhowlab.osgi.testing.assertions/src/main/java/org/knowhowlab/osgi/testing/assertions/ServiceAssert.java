@@ -19,14 +19,19 @@ package org.knowhowlab.osgi.testing.assertions;
 import org.junit.Assert;
 import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.junit.Assert.assertNotNull;
-import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getService;
+import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getServiceReference;
 import static org.knowhowlab.osgi.testing.utils.ServiceUtils.waitForServiceEvent;
+import static org.knowhowlab.osgi.testing.utils.ServiceUtils.waitForServiceUnavailable;
+import static org.knowhowlab.osgi.testing.utils.ServiceUtils.waitForServices;
+import static org.knowhowlab.osgi.testing.utils.ServiceUtils.waitForServicesByClass;
 
 /**
  * A set of OSGi services specific assertion methods useful for writing tests.
@@ -66,9 +71,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceAvailable(String message, Class clazz) {
         assertNotNull("Class is null", clazz);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), clazz);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), clazz);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -122,9 +126,8 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceAvailable(String message, Class clazz, long timeout, TimeUnit timeUnit) {
         assertNotNull("Class is null", clazz);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), clazz, timeout, timeUnit);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), clazz, timeout, timeUnit);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -148,9 +151,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceAvailable(String message, String className) {
         assertNotNull("Class name is null", className);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), className);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), className);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -204,9 +206,8 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceAvailable(String message, String className, long timeout, TimeUnit timeUnit) {
         assertNotNull("Class name is null", className);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), className, timeout, timeUnit);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), className, timeout, timeUnit);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -230,9 +231,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceAvailable(String message, Filter filter) {
         assertNotNull("Filter is null", filter);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), filter);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), filter);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -286,9 +286,8 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceAvailable(String message, Filter filter, long timeout, TimeUnit timeUnit) {
         assertNotNull("Filter is null", filter);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), filter, timeout, timeUnit);
-        assertNotNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), filter, timeout, timeUnit);
+        assertNotNull(message, serviceReference);
     }
 
     /**
@@ -312,9 +311,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceUnavailable(String message, Class clazz) {
         assertNotNull("Class is null", clazz);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), clazz);
-        Assert.assertNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), clazz);
+        Assert.assertNull(message, serviceReference);
     }
 
     /**
@@ -368,9 +366,7 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceUnavailable(String message, Class clazz, long timeout, TimeUnit timeUnit) {
         assertNotNull("Class is null", clazz);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), clazz, timeout, timeUnit);
-        Assert.assertNull(message, service);
+        Assert.assertTrue(message, waitForServiceUnavailable(getBundleContext(), clazz, timeout, timeUnit));
     }
 
     /**
@@ -394,9 +390,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceUnavailable(String message, String className) {
         assertNotNull("Class name is null", className);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), className);
-        Assert.assertNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), className);
+        Assert.assertNull(message, serviceReference);
     }
 
     /**
@@ -450,9 +445,7 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceUnavailable(String message, String className, long timeout, TimeUnit timeUnit) {
         assertNotNull("Class name is null", className);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), className, timeout, timeUnit);
-        Assert.assertNull(message, service);
+        Assert.assertTrue(message, waitForServiceUnavailable(getBundleContext(), className, timeout, timeUnit));
     }
 
     /**
@@ -476,9 +469,8 @@ public class ServiceAssert extends OSGiAssert {
      */
     public static void assertServiceUnavailable(String message, Filter filter) {
         assertNotNull("Filter is null", filter);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), filter);
-        Assert.assertNull(message, service);
+        ServiceReference serviceReference = getServiceReference(getBundleContext(), filter);
+        Assert.assertNull(message, serviceReference);
     }
 
     /**
@@ -532,9 +524,129 @@ public class ServiceAssert extends OSGiAssert {
     public static void assertServiceUnavailable(String message, Filter filter, long timeout, TimeUnit timeUnit) {
         assertNotNull("Filter is null", filter);
         assertNotNull("TimeUnit is null", timeUnit);
-        //noinspection unchecked
-        Object service = getService(getBundleContext(), filter, timeout, timeUnit);
-        Assert.assertNull(message, service);
+        Assert.assertTrue(message, waitForServiceUnavailable(getBundleContext(), filter, timeout, timeUnit));
+    }
+
+    /**
+     * Asserts that services with all classes are available in OSGi registry within given timeoutInMillis.
+     * All classes are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the list of missing classes is thrown
+     *
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @param classes         service classes
+     * @since 1.3
+     */
+    public static void assertServicesAvailableByClass(long timeoutInMillis, Class... classes) {
+        assertServicesAvailableByClass(timeoutInMillis, MILLISECONDS, classes);
+    }
+
+    /**
+     * Asserts that services with all classes are available in OSGi registry within given timeoutInMillis.
+     * All classes are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message         message
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @param classes         service classes
+     * @since 1.3
+     */
+    public static void assertServicesAvailableByClass(String message, long timeoutInMillis, Class... classes) {
+        assertServicesAvailableByClass(message, timeoutInMillis, MILLISECONDS, classes);
+    }
+
+    /**
+     * Asserts that services with all classes are available in OSGi registry within given timeout.
+     * All classes are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the list of missing classes is thrown
+     *
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @param classes  service classes
+     * @since 1.3
+     */
+    public static void assertServicesAvailableByClass(long timeout, TimeUnit timeUnit, Class... classes) {
+        assertNotNull("Classes are null", classes);
+        assertNotNull("TimeUnit is null", timeUnit);
+        List<Class> missing = waitForServicesByClass(getBundleContext(), timeout, timeUnit, classes);
+        Assert.assertTrue(format("Services are unavailable: %s within timeout: %s%s", missing, timeout, timeUnit), missing.isEmpty());
+    }
+
+    /**
+     * Asserts that services with all classes are available in OSGi registry within given timeout.
+     * All classes are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message  message
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @param classes  service classes
+     * @since 1.3
+     */
+    public static void assertServicesAvailableByClass(String message, long timeout, TimeUnit timeUnit, Class... classes) {
+        assertNotNull("Classes are null", classes);
+        assertNotNull("TimeUnit is null", timeUnit);
+        Assert.assertTrue(message, waitForServicesByClass(getBundleContext(), timeout, timeUnit, classes).isEmpty());
+    }
+
+    /**
+     * Asserts that services with all filters are available in OSGi registry within given timeoutInMillis.
+     * All filters are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the list of missing filters is thrown
+     *
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @param filters         service filters
+     * @since 1.3
+     */
+    public static void assertServicesAvailable(long timeoutInMillis, Filter... filters) {
+        assertServicesAvailable(timeoutInMillis, MILLISECONDS, filters);
+    }
+
+    /**
+     * Asserts that services with all filters are available in OSGi registry within given timeoutInMillis.
+     * All filters are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message         message
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @param filters         service filters
+     * @since 1.3
+     */
+    public static void assertServicesAvailable(String message, long timeoutInMillis, Filter... filters) {
+        assertServicesAvailable(message, timeoutInMillis, MILLISECONDS, filters);
+    }
+
+    /**
+     * Asserts that services with all filters are available in OSGi registry within given timeout.
+     * All filters are tracked concurrently. If it not as expected {@link AssertionError} with
+     * the list of missing filters is thrown
+     *
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @param filters  service filters
+     * @since 1.3
+     */
+    public static void assertServicesAvailable(long timeout, TimeUnit timeUnit, Filter... filters) {
+        assertNotNull("Filters are null", filters);
+        assertNotNull("TimeUnit is null", timeUnit);
+        List<Filter> missing = waitForServices(getBundleContext(), timeout, timeUnit, filters);
+        Assert.assertTrue(format("Services are unavailable: %s within timeout: %s%s", missing, timeout, timeUnit), missing.isEmpty());
+    }
+
+    /**
+     * Asserts that services with all filters are available in OSGi registry within given timeout.
+     * All filters are tracked concurrently. If it not as expected {@link AssertionError} is thrown
+     * with the given message
+     *
+     * @param message  message
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit timeout time unit
+     * @param filters  service filters
+     * @since 1.3
+     */
+    public static void assertServicesAvailable(String message, long timeout, TimeUnit timeUnit, Filter... filters) {
+        assertNotNull("Filters are null", filters);
+        assertNotNull("TimeUnit is null", timeUnit);
+        Assert.assertTrue(message, waitForServices(getBundleContext(), timeout, timeUnit, filters).isEmpty());
     }
 
     /**
@@ -17,15 +17,24 @@
 package org.knowhowlab.osgi.testing.assertions.cmpn;
 
 import org.knowhowlab.osgi.testing.assertions.OSGiAssert;
+import org.knowhowlab.osgi.testing.utils.LatencyHistogram;
+import org.knowhowlab.osgi.testing.utils.cmpn.DeliveryLatencyMeter;
+import org.knowhowlab.osgi.testing.utils.cmpn.EventRecorder;
 import org.osgi.framework.Filter;
 import org.osgi.service.event.Event;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static java.lang.String.format;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.knowhowlab.osgi.testing.utils.cmpn.EventAdminUtils.waitForEvent;
 
 /**
@@ -268,4 +277,195 @@ public class EventAdminAssert extends OSGiAssert {
         Event event = waitForEvent(getBundleContext(), topics, filter, timeout, timeUnit);
         assertNotNull(message, event);
     }
+
+    /**
+     * Asserts that EventRecorder records exactly expected number of events with topic within given timeoutInMillis.
+     * If it not as expected {@link AssertionError} is thrown
+     *
+     * @param recorder        event recorder
+     * @param topic           topic. If <code>null</code>, all recorded events are counted.
+     * @param expected        expected number of events
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @since 1.3
+     */
+    public static void assertEventCount(EventRecorder recorder, String topic, long expected, long timeoutInMillis) {
+        assertEventCount(recorder, topic, expected, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Asserts that EventRecorder records exactly expected number of events with topic within given timeoutInMillis.
+     * If it not as expected {@link AssertionError} is thrown with the given message
+     *
+     * @param message         message
+     * @param recorder        event recorder
+     * @param topic           topic. If <code>null</code>, all recorded events are counted.
+     * @param expected        expected number of events
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @since 1.3
+     */
+    public static void assertEventCount(String message, EventRecorder recorder, String topic, long expected, long timeoutInMillis) {
+        assertEventCount(message, recorder, topic, expected, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Asserts that EventRecorder records exactly expected number of events with topic within given timeout.
+     * If it not as expected {@link AssertionError} is thrown
+     *
+     * @param recorder event recorder
+     * @param topic    topic. If <code>null</code>, all recorded events are counted.
+     * @param expected expected number of events
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertEventCount(EventRecorder recorder, String topic, long expected, long timeout, TimeUnit timeUnit) {
+        assertEventCount(format("Unexpected number of events: topic: %s, expected: %s within timeout: %s%s", topic, expected, timeout, timeUnit),
+                recorder, topic, expected, timeout, timeUnit);
+    }
+
+    /**
+     * Asserts that EventRecorder records exactly expected number of events with topic within given timeout.
+     * If it not as expected {@link AssertionError} is thrown with the given message
+     *
+     * @param message  message
+     * @param recorder event recorder
+     * @param topic    topic. If <code>null</code>, all recorded events are counted.
+     * @param expected expected number of events
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertEventCount(String message, EventRecorder recorder, String topic, long expected, long timeout, TimeUnit timeUnit) {
+        assertNotNull("EventRecorder is null", recorder);
+        assertNotNull("TimeUnit is null", timeUnit);
+        recorder.awaitCount(topic, expected, timeout, timeUnit);
+        assertEquals(message, expected, recorder.getCount(topic));
+    }
+
+    /**
+     * Asserts that events with given topics are recorded in given order. Events with other topics
+     * could be recorded between them. If it not as expected {@link AssertionError} is thrown
+     *
+     * @param recorder event recorder
+     * @param topics   expected order of topics
+     * @since 1.3
+     */
+    public static void assertEventSequence(EventRecorder recorder, String... topics) {
+        assertEventSequence(format("Events are not recorded in sequence: %s", Arrays.toString(topics)), recorder, topics);
+    }
+
+    /**
+     * Asserts that events with given topics are recorded in given order. Events with other topics
+     * could be recorded between them. If it not as expected {@link AssertionError} is thrown with the given message.
+     * Only records that are still kept by the recorder are checked. If records were dropped and the sequence
+     * is not found, the message reports the number of dropped records.
+     *
+     * @param message  message
+     * @param recorder event recorder
+     * @param topics   expected order of topics
+     * @since 1.3
+     */
+    public static void assertEventSequence(String message, EventRecorder recorder, String... topics) {
+        assertNotNull("EventRecorder is null", recorder);
+        assertNotNull("Topics are null", topics);
+        List<String> recorded = recorder.getTopics();
+        // dropped count only grows, so zero means that the topics above are the whole history
+        long dropped = recorder.getDroppedCount();
+        int index = 0;
+        for (String topic : recorded) {
+            if (index < topics.length && topics[index].equals(topic)) {
+                index++;
+            }
+        }
+        if (index < topics.length) {
+            fail(dropped > 0
+                    ? format("%s, recorded: %s, dropped records: %s", message, recorded, dropped)
+                    : format("%s, recorded: %s", message, recorded));
+        }
+    }
+
+    /**
+     * Asserts that rate of events that EventRecorder records during given window is within range.
+     * The method waits for the window. If it not as expected {@link AssertionError} is thrown
+     *
+     * @param recorder     event recorder
+     * @param minPerSecond minimal number of events per second
+     * @param maxPerSecond maximal number of events per second
+     * @param window       time interval of measurement
+     * @param timeUnit     time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertEventRate(EventRecorder recorder, double minPerSecond, double maxPerSecond, long window, TimeUnit timeUnit) {
+        assertEventRate(format("Event rate is out of range: [%s, %s] per second within window: %s%s", minPerSecond, maxPerSecond, window, timeUnit),
+                recorder, minPerSecond, maxPerSecond, window, timeUnit);
+    }
+
+    /**
+     * Asserts that rate of events that EventRecorder records during given window is within range.
+     * The method waits for the window. If it not as expected {@link AssertionError} is thrown with the given message
+     *
+     * @param message      message
+     * @param recorder     event recorder
+     * @param minPerSecond minimal number of events per second
+     * @param maxPerSecond maximal number of events per second
+     * @param window       time interval of measurement
+     * @param timeUnit     time unit for the time interval
+     * @since 1.3
+     */
+    public static void assertEventRate(String message, EventRecorder recorder, double minPerSecond, double maxPerSecond, long window, TimeUnit timeUnit) {
+        assertNotNull("EventRecorder is null", recorder);
+        assertNotNull("TimeUnit is null", timeUnit);
+        assertTrue("Window is not positive", window > 0);
+        long startCount = recorder.getCount();
+        long start = System.nanoTime();
+        try {
+            timeUnit.sleep(window);
+        } catch (InterruptedException e) {
+            fail("Rate measurement is interrupted");
+        }
+        long count = recorder.getCount() - startCount;
+        double rate = count * (double) SECONDS.toNanos(1) / (System.nanoTime() - start);
+        assertTrue(format("%s, actual: %.1f per second", message, rate), rate >= minPerSecond && rate <= maxPerSecond);
+    }
+
+    /**
+     * Asserts that percentile of delivery latency of events with topic that DeliveryLatencyMeter measured
+     * does not exceed given maximum. If it not as expected {@link AssertionError} is thrown
+     *
+     * @param meter      delivery latency meter
+     * @param topic      topic. If <code>null</code>, all measured events are used.
+     *                   Other topics require the meter with per-topic recording.
+     * @param percentile percentile from <code>0</code> to <code>100</code>
+     * @param maxLatency maximal latency
+     * @param timeUnit   time unit for the latency
+     * @since 1.3
+     */
+    public static void assertDeliveryLatency(DeliveryLatencyMeter meter, String topic, double percentile, long maxLatency, TimeUnit timeUnit) {
+        assertDeliveryLatency(format("Delivery latency is too high: topic: %s, percentile: %s, expected at most: %s%s", topic, percentile, maxLatency, timeUnit),
+                meter, topic, percentile, maxLatency, timeUnit);
+    }
+
+    /**
+     * Asserts that percentile of delivery latency of events with topic that DeliveryLatencyMeter measured
+     * does not exceed given maximum. If it not as expected {@link AssertionError} is thrown with the given message
+     *
+     * @param message    message
+     * @param meter      delivery latency meter
+     * @param topic      topic. If <code>null</code>, all measured events are used.
+     *                   Other topics require the meter with per-topic recording.
+     * @param percentile percentile from <code>0</code> to <code>100</code>
+     * @param maxLatency maximal latency
+     * @param timeUnit   time unit for the latency
+     * @since 1.3
+     */
+    public static void assertDeliveryLatency(String message, DeliveryLatencyMeter meter, String topic, double percentile, long maxLatency, TimeUnit timeUnit) {
+        assertNotNull("DeliveryLatencyMeter is null", meter);
+        assertNotNull("TimeUnit is null", timeUnit);
+        assertTrue("Percentile is out of range", percentile >= 0 && percentile <= 100);
+        LatencyHistogram latency = meter.getLatency(topic);
+        assertTrue(format("%s, no measured events", message), latency.getCount() > 0);
+        long actual = latency.getPercentile(percentile, NANOSECONDS);
+        assertTrue(format("%s, actual: %s%s", message, timeUnit.convert(actual, NANOSECONDS), timeUnit),
+                actual <= timeUnit.toNanos(maxLatency));
+    }
 }
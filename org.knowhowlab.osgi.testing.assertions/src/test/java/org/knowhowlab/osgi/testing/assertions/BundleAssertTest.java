@@ -0,0 +1,113 @@
+package org.knowhowlab.osgi.testing.assertions;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.BundleLifecycleProfiler;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BundleAssertTest {
+    private final Bundle bundle = proxy(Bundle.class, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("getBundleId")) {
+                return 1L;
+            } else if (name.equals("getSymbolicName")) {
+                return "bundle.slow";
+            } else if (name.equals("getState")) {
+                return Bundle.ACTIVE;
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return 1;
+            }
+            return null;
+        }
+    });
+    private BundleListener listener;
+    private final BundleContext bc = proxy(BundleContext.class, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("addBundleListener")) {
+                listener = (BundleListener) args[0];
+            } else if (name.equals("getBundles")) {
+                return new Bundle[]{bundle};
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return null;
+        }
+    });
+
+    @Before
+    public void setUp() {
+        OSGiAssert.setDefaultBundleContext(bc);
+    }
+
+    @After
+    public void tearDown() {
+        BundleLifecycleProfiler.disable(bc);
+        OSGiAssert.setDefaultBundleContext(null);
+    }
+
+    @Test
+    public void testAssertBundleStartTime() throws Exception {
+        BundleLifecycleProfiler.enable(bc);
+        listener.bundleChanged(new BundleEvent(BundleEvent.STARTING, bundle));
+        Thread.sleep(20);
+        listener.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+
+        BundleAssert.assertBundleStartTime("bundle.slow", 10, SECONDS);
+        assertFails("bundle.slow", 1);
+        assertFails("bundle.unknown", 10000);
+    }
+
+    @Test
+    public void testAssertBundleStartTime_profilerIsNotEnabled() {
+        assertFails("bundle.slow", 10000);
+    }
+
+    @Test
+    public void testAssertBundlesState() {
+        BundleAssert.assertBundlesState(Bundle.ACTIVE, Arrays.asList("bundle.slow"), 10, SECONDS);
+        try {
+            BundleAssert.assertBundlesState(Bundle.ACTIVE, Arrays.asList("bundle.slow", "bundle.missing"),
+                    50, MILLISECONDS);
+        } catch (AssertionError e) {
+            Assert.assertTrue(e.getMessage().contains("bundle.missing=" + Bundle.UNINSTALLED));
+            Assert.assertFalse(e.getMessage().contains("bundle.slow"));
+            return;
+        }
+        Assert.fail("AssertionError is expected");
+    }
+
+    private static void assertFails(String symbolicName, long budgetMillis) {
+        try {
+            BundleAssert.assertBundleStartTime(symbolicName, budgetMillis, MILLISECONDS);
+        } catch (AssertionError e) {
+            return;
+        }
+        Assert.fail("AssertionError is expected");
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(BundleAssertTest.class.getClassLoader(), new Class[]{type}, handler));
+    }
+}
@@ -0,0 +1,75 @@
+package org.knowhowlab.osgi.testing.assertions.cmpn;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.cmpn.EventRecorder;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class EventAdminAssertTest {
+    private EventHandler handler;
+    private final BundleContext bc = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[]{BundleContext.class}, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("registerService")) {
+                        handler = (EventHandler) args[1];
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return null;
+                }
+            });
+    private final EventRecorder recorder = EventRecorder.start(bc, new String[]{"test/*"}, null, 3);
+
+    @After
+    public void tearDown() {
+        recorder.stop();
+    }
+
+    @Test
+    public void testAssertEventSequence() {
+        post("test/a", "test/b", "test/c");
+        EventAdminAssert.assertEventSequence(recorder, "test/a", "test/c");
+        String message = assertSequenceFails("test/c", "test/a");
+        Assert.assertFalse(message, message.contains("dropped"));
+    }
+
+    @Test
+    public void testAssertEventSequence_droppedRecords() {
+        post("test/a", "test/b", "test/c", "test/d", "test/e");
+        // sequence in kept records is still valid
+        EventAdminAssert.assertEventSequence(recorder, "test/c", "test/e");
+        String message = assertSequenceFails("test/a", "test/c");
+        Assert.assertTrue(message, message.contains("dropped records: 2"));
+    }
+
+    private void post(String... topics) {
+        for (String topic : topics) {
+            handler.handleEvent(new Event(topic, (Map<String, Object>) new HashMap<String, Object>()));
+        }
+    }
+
+    private String assertSequenceFails(String... topics) {
+        try {
+            EventAdminAssert.assertEventSequence(recorder, topics);
+        } catch (AssertionError e) {
+            return e.getMessage();
+        }
+        Assert.fail("AssertionError is expected");
+        return null;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.benchmarks;
+
+import org.knowhowlab.osgi.testing.utils.cmpn.LocalEventAdmin;
+import org.openjdk.jmh.annotations.*;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Synchronous dispatch throughput of {@link LocalEventAdmin} against a linear scan of all handlers, by handler count.
+ * <p/>
+ * Handlers listen to topics <code>topic/&lt;group&gt;/&lt;n&gt;</code>, every 10th handler listens to
+ * <code>topic/&lt;group&gt;/*</code>, every other handler has a filter on a numeric property.
+ * The linear scan is a baseline of EventAdmin implementations that match every handler per event.
+ *
+ * @author dmytro.pishchukhin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatchBenchmark {
+    private static final int GROUPS = 50;
+
+    @Param({"10", "100", "1000"})
+    public int handlerCount;
+
+    private LocalEventAdmin eventAdmin;
+    private String[] topics;
+    private Filter[] filters;
+    private Event[] events;
+    private int delivered;
+    private int next;
+
+    @Setup
+    public void setUp() throws InvalidSyntaxException {
+        eventAdmin = new LocalEventAdmin(1);
+        topics = new String[handlerCount];
+        filters = new Filter[handlerCount];
+        EventHandler handler = new EventHandler() {
+            public void handleEvent(Event event) {
+                delivered++;
+            }
+        };
+        for (int i = 0; i < handlerCount; i++) {
+            String group = "topic/" + (i % GROUPS) + "/";
+            topics[i] = i % 10 == 9 ? group + "*" : group + i;
+            String filter = i % 2 == 1 ? "(priority>=" + (i % 10) + ")" : null;
+            filters[i] = filter != null ? FrameworkUtil.createFilter(filter) : null;
+            eventAdmin.registerHandler(handler, new String[]{topics[i]}, filter);
+        }
+        Random random = new Random(42);
+        events = new Event[64];
+        for (int i = 0; i < events.length; i++) {
+            int target = random.nextInt(handlerCount);
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put("priority", random.nextInt(10));
+            events[i] = new Event("topic/" + (target % GROUPS) + "/" + target, properties);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventAdmin.close();
+    }
+
+    private Event nextEvent() {
+        next = (next + 1) & (events.length - 1);
+        return events[next];
+    }
+
+    @Benchmark
+    public int localSend() {
+        eventAdmin.sendEvent(nextEvent());
+        return delivered;
+    }
+
+    @Benchmark
+    public int linearScan() {
+        Event event = nextEvent();
+        String topic = event.getTopic();
+        int count = 0;
+        for (int i = 0; i < topics.length; i++) {
+            String handlerTopic = topics[i];
+            boolean topicMatch = handlerTopic.endsWith("*")
+                    ? topic.startsWith(handlerTopic.substring(0, handlerTopic.length() - 1))
+                    : topic.equals(handlerTopic);
+            if (topicMatch && (filters[i] == null || event.matches(filters[i]))) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
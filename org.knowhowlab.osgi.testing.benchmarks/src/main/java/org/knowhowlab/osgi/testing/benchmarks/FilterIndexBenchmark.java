@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.benchmarks;
+
+import org.knowhowlab.osgi.testing.utils.CompiledFilter;
+import org.knowhowlab.osgi.testing.utils.FilterIndex;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.openjdk.jmh.annotations.*;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.knowhowlab.osgi.testing.utils.FilterExpression.*;
+
+/**
+ * Matching throughput of {@link FilterIndex} against linear matching of every filter, by filter count.
+ * <p/>
+ * Filters are whiteboard-like: most of them select by topic and a numeric property,
+ * every 20th filter is a NOT filter that cannot be indexed.
+ *
+ * @author dmytro.pishchukhin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterIndexBenchmark {
+    private static final int TOPICS = 500;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int filterCount;
+
+    private FilterIndex<Integer> index;
+    private CompiledFilter[] compiledFilters;
+    private Filter[] frameworkFilters;
+    private Map<String, Object>[] events;
+    private Hashtable<String, Object>[] dictionaries;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws InvalidSyntaxException {
+        index = new FilterIndex<Integer>();
+        compiledFilters = new CompiledFilter[filterCount];
+        frameworkFilters = new Filter[filterCount];
+        for (int i = 0; i < filterCount; i++) {
+            Filter filter;
+            if (i % 20 == 19) {
+                filter = FilterUtils.builder().and(eq("event.topics", "topic/" + (i % TOPICS))).not().build();
+            } else {
+                filter = FilterUtils.builder()
+                        .and(eq("event.topics", "topic/" + (i % TOPICS)), ge("priority", i % 10))
+                        .build();
+            }
+            index.add(filter, i);
+            compiledFilters[i] = FilterUtils.compile(filter);
+            frameworkFilters[i] = filter;
+        }
+        Random random = new Random(42);
+        events = new Map[64];
+        dictionaries = new Hashtable[events.length];
+        for (int i = 0; i < events.length; i++) {
+            Map<String, Object> event = new HashMap<String, Object>();
+            event.put("event.topics", "topic/" + random.nextInt(TOPICS));
+            event.put("priority", random.nextInt(10));
+            event.put("timestamp", System.currentTimeMillis());
+            events[i] = event;
+            dictionaries[i] = new Hashtable<String, Object>(event);
+            if (index.match(event).size() != linear(event)) {
+                throw new IllegalStateException("Index is not equivalent to linear match: " + event);
+            }
+        }
+    }
+
+    private Map<String, Object> nextEvent() {
+        next = (next + 1) & (events.length - 1);
+        return events[next];
+    }
+
+    @Benchmark
+    public List<Integer> index() {
+        return index.match(nextEvent());
+    }
+
+    @Benchmark
+    public int linearCompiled() {
+        return linear(nextEvent());
+    }
+
+    @Benchmark
+    public int linearFramework() {
+        next = (next + 1) & (events.length - 1);
+        Hashtable<String, Object> dictionary = dictionaries[next];
+        int count = 0;
+        for (Filter filter : frameworkFilters) {
+            if (filter.match(dictionary)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int linear(Map<String, Object> event) {
+        int count = 0;
+        for (CompiledFilter filter : compiledFilters) {
+            if (filter.matches(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
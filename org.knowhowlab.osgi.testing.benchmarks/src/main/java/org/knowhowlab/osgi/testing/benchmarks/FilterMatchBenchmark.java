@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.benchmarks;
+
+import org.knowhowlab.osgi.testing.utils.CompiledFilter;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.openjdk.jmh.annotations.*;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares framework <code>Filter</code> matching of property maps with {@link CompiledFilter}.
+ * <p/>
+ * <code>frameworkCopy</code> is the usual path for maps: copy to <code>Hashtable</code> and match,
+ * <code>frameworkDictionary</code> matches prepared <code>Hashtable</code>,
+ * <code>compiledMap</code> and <code>compiledMapIgnoreCase</code> match the map directly.
+ *
+ * @author dmytro.pishchukhin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterMatchBenchmark {
+    @Param({
+            "(event.topics=org/knowhowlab/*)",
+            "(&(service.pid=org.knowhowlab.test)(service.ranking>=10))",
+            "(|(size=1)(size=2)(size=42))",
+            "(&(objectClass=org.knowhowlab.Echo)(!(echo.disabled=true))(echo.timeout<=1.5))"
+    })
+    public String filter;
+
+    private Filter frameworkFilter;
+    private CompiledFilter compiledFilter;
+    private Map<String, Object> properties;
+    private Hashtable<String, Object> dictionary;
+
+    @Setup
+    public void setUp() throws InvalidSyntaxException {
+        frameworkFilter = FrameworkUtil.createFilter(filter);
+        compiledFilter = FilterUtils.compile(filter);
+        properties = new HashMap<String, Object>();
+        properties.put("event.topics", "org/knowhowlab/test/STARTED");
+        properties.put("service.pid", "org.knowhowlab.test");
+        properties.put("service.ranking", 20);
+        properties.put("size", 42L);
+        properties.put("objectClass", new String[]{"org.knowhowlab.Echo", "org.knowhowlab.Ping"});
+        properties.put("echo.disabled", Boolean.FALSE);
+        properties.put("echo.timeout", 1.25d);
+        for (int i = 0; i < 10; i++) {
+            properties.put("property." + i, "value." + i);
+        }
+        dictionary = new Hashtable<String, Object>(properties);
+        if (frameworkFilter.match(dictionary) != compiledFilter.matches(properties)) {
+            throw new IllegalStateException("Filters are not equivalent: " + filter);
+        }
+    }
+
+    @Benchmark
+    public boolean frameworkCopy() {
+        return frameworkFilter.match(new Hashtable<String, Object>(properties));
+    }
+
+    @Benchmark
+    public boolean frameworkDictionary() {
+        return frameworkFilter.match(dictionary);
+    }
+
+    @Benchmark
+    public boolean compiledMap() {
+        return compiledFilter.matches(properties);
+    }
+
+    @Benchmark
+    public boolean compiledMapIgnoreCase() {
+        return compiledFilter.matchesIgnoreCase(properties);
+    }
+
+    @Benchmark
+    public boolean compiledDictionary() {
+        return compiledFilter.match(dictionary);
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.getExecutor;
+
+/**
+ * Result of bulk operation with timing and throughput
+ *
+ * @author dmytro.pishchukhin
+ * @see ServiceUtils#registerServices(org.osgi.framework.BundleContext, java.util.Collection, int)
+ * @see ServiceUtils#unregisterAll(java.util.Collection, int)
+ * @since 1.3
+ */
+public class BulkResult<T> {
+    /**
+     * Item states of running operation
+     */
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int ABANDONED = 3;
+
+    private final List<T> results;
+    private final List<Failure> failures;
+    private final int successCount;
+    private final int parallelism;
+    private final long elapsedNanos;
+
+    private BulkResult(List<T> results, List<Failure> failures, int successCount, int parallelism, long elapsedNanos) {
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableList(failures);
+        this.successCount = successCount;
+        this.parallelism = parallelism;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get results of operations by position of input items.
+     * Result of failed or interrupted operation is <code>null</code>.
+     *
+     * @return results, one per input item
+     * @since 1.3
+     */
+    public List<T> getResults() {
+        return results;
+    }
+
+    /**
+     * Get failures of operations in the order of input items
+     *
+     * @return failures
+     * @since 1.3
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get number of successful operations
+     *
+     * @return number of successful operations
+     * @since 1.3
+     */
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * Get number of failed operations
+     *
+     * @return number of failed operations
+     * @since 1.3
+     */
+    public int getFailureCount() {
+        return failures.size();
+    }
+
+    /**
+     * Get number of parallel chunks that were used
+     *
+     * @return parallelism
+     * @since 1.3
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get elapsed time of the whole operation
+     *
+     * @param timeUnit time unit of the result
+     * @return elapsed time
+     * @since 1.3
+     */
+    public long getElapsed(TimeUnit timeUnit) {
+        return timeUnit.convert(elapsedNanos, NANOSECONDS);
+    }
+
+    /**
+     * Get throughput of the whole operation
+     *
+     * @return number of operations (successful and failed) per second
+     * @since 1.3
+     */
+    public double getThroughput() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return results.size() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BulkResult[success=%d, failures=%d, parallelism=%d, elapsed=%dms, throughput=%.1f/s]",
+                getSuccessCount(), getFailureCount(), parallelism, getElapsed(TimeUnit.MILLISECONDS), getThroughput());
+    }
+
+    /**
+     * Run action for all items. Items are split into <code>parallelism</code> contiguous chunks,
+     * the first chunk runs in the calling thread, the others on the shared executor.
+     * If the calling thread is interrupted, the remaining chunks are cancelled and every item
+     * that was not processed yet is reported as failure with {@link InterruptedException} cause.
+     * The interrupt status of the calling thread is kept.
+     *
+     * @param items       items
+     * @param parallelism maximum number of parallel chunks
+     * @param action      action
+     * @return bulk result
+     * @throws IllegalArgumentException If <code>parallelism</code> is not positive
+     */
+    static <S, T> BulkResult<T> run(Collection<? extends S> items, int parallelism, final Action<S, T> action) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism value is not positive");
+        }
+        final List<S> input = new ArrayList<S>(items);
+        final AtomicReferenceArray<T> output = new AtomicReferenceArray<T>(input.size());
+        final AtomicIntegerArray states = new AtomicIntegerArray(input.size());
+        final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+        int chunks = Math.max(1, Math.min(parallelism, input.size()));
+        int chunkSize = (input.size() + chunks - 1) / chunks;
+
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            final int from = chunk * chunkSize;
+            final int to = Math.min(input.size(), from + chunkSize);
+            futures.add(getExecutor().submit(new Callable<Object>() {
+                public Object call() {
+                    runChunk(input, output, states, failures, from, to, action);
+                    return null;
+                }
+            }));
+        }
+        runChunk(input, output, states, failures, 0, Math.min(input.size(), chunkSize), action);
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                failures.add(new Failure(-1, null, e.getCause()));
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            abandon(input, states, failures, futures);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<T> results = new ArrayList<T>(input.size());
+        for (int i = 0; i < input.size(); i++) {
+            results.add(states.get(i) == DONE ? output.get(i) : null);
+        }
+        List<Failure> sortedFailures;
+        synchronized (failures) {
+            sortedFailures = new ArrayList<Failure>(failures);
+        }
+        Collections.sort(sortedFailures, new Comparator<Failure>() {
+            public int compare(Failure failure1, Failure failure2) {
+                return failure1.index < failure2.index ? -1 : (failure1.index == failure2.index ? 0 : 1);
+            }
+        });
+        int itemFailures = 0;
+        for (Failure failure : sortedFailures) {
+            if (failure.index >= 0) {
+                itemFailures++;
+            }
+        }
+        return new BulkResult<T>(results, sortedFailures, input.size() - itemFailures, chunks, elapsed);
+    }
+
+    private static <S, T> void runChunk(List<S> input, AtomicReferenceArray<T> output, AtomicIntegerArray states,
+                                        List<Failure> failures, int from, int to, Action<S, T> action) {
+        for (int i = from; i < to; i++) {
+            if (Thread.currentThread().isInterrupted() || !states.compareAndSet(i, PENDING, RUNNING)) {
+                // operation was interrupted
+                return;
+            }
+            S item = input.get(i);
+            try {
+                output.set(i, action.run(item));
+                states.compareAndSet(i, RUNNING, DONE);
+            } catch (Throwable e) {
+                synchronized (failures) {
+                    if (states.compareAndSet(i, RUNNING, DONE)) {
+                        failures.add(new Failure(i, item, e));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel remaining chunks and report items that are not processed yet as failures
+     */
+    private static <S> void abandon(List<S> input, AtomicIntegerArray states, List<Failure> failures,
+                                    List<Future<?>> futures) {
+        InterruptedException cause = new InterruptedException("Bulk operation was interrupted");
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+        synchronized (failures) {
+            for (int i = 0; i < input.size(); i++) {
+                if (states.compareAndSet(i, PENDING, ABANDONED) || states.compareAndSet(i, RUNNING, ABANDONED)) {
+                    failures.add(new Failure(i, input.get(i), cause));
+                }
+            }
+        }
+    }
+
+    /**
+     * Failure of operation on one item
+     *
+     * @since 1.3
+     */
+    public static class Failure {
+        private final int index;
+        private final Object item;
+        private final Throwable cause;
+
+        private Failure(int index, Object item, Throwable cause) {
+            this.index = index;
+            this.item = item;
+            this.cause = cause;
+        }
+
+        /**
+         * Get position of failed item in input items
+         *
+         * @return position of item or <code>-1</code> if failure is not bound to item
+         * @since 1.3
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get failed item
+         *
+         * @return item or <code>null</code> if failure is not bound to item
+         * @since 1.3
+         */
+        public Object getItem() {
+            return item;
+        }
+
+        /**
+         * Get exception of failed operation
+         *
+         * @return exception
+         * @since 1.3
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Failure[index=%d, item=%s, cause=%s]", index, item, cause);
+        }
+    }
+
+    /**
+     * Bulk operation on one item
+     */
+    interface Action<S, T> {
+        T run(S item) throws Exception;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opt-in index of installed bundles by SymbolicName and Version for one BundleContext.
+ * <p/>
+ * By default {@link BundleUtils#findBundle(org.osgi.framework.BundleContext, String, org.osgi.framework.Version)}
+ * scans all installed bundles. If the index is enabled for a BundleContext, lookups use the index that is
+ * maintained by a synchronous BundleListener. The index is dropped when the bundle of the BundleContext is stopping.
+ * <p/>
+ * Framework could install several bundles with the same SymbolicName and Version
+ * (<code>org.osgi.framework.bsnversion=multiple</code>). All of them are indexed and lookup returns
+ * the one with the lowest bundle ID, as the scan of installed bundles does.
+ *
+ * @author dmytro.pishchukhin
+ * @see BundleUtils
+ * @see org.osgi.framework.SynchronousBundleListener
+ * @since 1.3
+ */
+public class BundleIndex {
+    /**
+     * Enabled indexes
+     */
+    private static final ConcurrentMap<BundleContext, BundleIndex> INDEXES =
+            new ConcurrentHashMap<BundleContext, BundleIndex>();
+
+    private final BundleContext bc;
+    /**
+     * SymbolicName to bundles sorted by Version and bundle ID
+     */
+    private final Map<String, SortedMap<Version, SortedMap<Long, Bundle>>> bundles =
+            new HashMap<String, SortedMap<Version, SortedMap<Long, Bundle>>>();
+    /**
+     * Bundle ID to indexed Bundle. Bundle update could change SymbolicName and Version,
+     * so indexed keys are kept to remove the old entry.
+     */
+    private final Map<Long, IndexedBundle> indexed = new HashMap<Long, IndexedBundle>();
+    private final SynchronousBundleListener listener = new IndexListener();
+
+    private BundleIndex(BundleContext bc) {
+        this.bc = bc;
+    }
+
+    /**
+     * Enable bundle index for BundleContext. If the index is already enabled, the existing one is returned.
+     *
+     * @param bc BundleContext
+     * @return enabled index
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static BundleIndex enable(BundleContext bc) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        BundleIndex index = INDEXES.get(bc);
+        if (index == null) {
+            index = new BundleIndex(bc);
+            BundleIndex existing = INDEXES.putIfAbsent(bc, index);
+            if (existing != null) {
+                return existing;
+            }
+            // listener is added before the initial scan, so no bundle event is lost
+            bc.addBundleListener(index.listener);
+            for (Bundle bundle : bc.getBundles()) {
+                index.add(bundle);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Disable bundle index for BundleContext
+     *
+     * @param bc BundleContext
+     * @since 1.3
+     */
+    public static void disable(BundleContext bc) {
+        BundleIndex index = INDEXES.remove(bc);
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    /**
+     * Disable all enabled bundle indexes
+     *
+     * @since 1.3
+     */
+    public static void disableAll() {
+        for (BundleContext bc : new ArrayList<BundleContext>(INDEXES.keySet())) {
+            disable(bc);
+        }
+    }
+
+    /**
+     * Get enabled bundle index for BundleContext
+     *
+     * @param bc BundleContext
+     * @return index or <code>null</code> if index is not enabled for BundleContext
+     * @since 1.3
+     */
+    public static BundleIndex getIndex(BundleContext bc) {
+        return INDEXES.get(bc);
+    }
+
+    /**
+     * Get bundle with the highest Version by SymbolicName and minimal Version
+     *
+     * @param symbolicName symbolicName
+     * @param version      minimal version or <code>null</code>
+     * @return Bundle instance or <code>null</code>
+     * @throws NullPointerException If <code>symbolicName</code> is <code>null</code>
+     * @since 1.3
+     */
+    public synchronized Bundle getBundle(String symbolicName, Version version) {
+        if (symbolicName == null) {
+            throw new NullPointerException("symbolicName is null");
+        }
+        SortedMap<Version, SortedMap<Long, Bundle>> versions = bundles.get(symbolicName);
+        if (versions == null) {
+            return null;
+        }
+        if (version != null) {
+            versions = versions.tailMap(version);
+            if (versions.isEmpty()) {
+                return null;
+            }
+        }
+        SortedMap<Long, Bundle> ids = versions.get(versions.lastKey());
+        return ids.get(ids.firstKey());
+    }
+
+    /**
+     * Get number of indexed bundles
+     *
+     * @return number of indexed bundles
+     * @since 1.3
+     */
+    public synchronized int size() {
+        return indexed.size();
+    }
+
+    private synchronized void add(Bundle bundle) {
+        remove(bundle);
+        String symbolicName = bundle.getSymbolicName();
+        if (symbolicName == null || bundle.getState() == Bundle.UNINSTALLED) {
+            return;
+        }
+        Version version = bundle.getVersion();
+        SortedMap<Version, SortedMap<Long, Bundle>> versions = bundles.get(symbolicName);
+        if (versions == null) {
+            versions = new TreeMap<Version, SortedMap<Long, Bundle>>();
+            bundles.put(symbolicName, versions);
+        }
+        SortedMap<Long, Bundle> ids = versions.get(version);
+        if (ids == null) {
+            ids = new TreeMap<Long, Bundle>();
+            versions.put(version, ids);
+        }
+        ids.put(bundle.getBundleId(), bundle);
+        indexed.put(bundle.getBundleId(), new IndexedBundle(symbolicName, version));
+    }
+
+    private synchronized void remove(Bundle bundle) {
+        IndexedBundle entry = indexed.remove(bundle.getBundleId());
+        if (entry != null) {
+            SortedMap<Version, SortedMap<Long, Bundle>> versions = bundles.get(entry.symbolicName);
+            SortedMap<Long, Bundle> ids = versions != null ? versions.get(entry.version) : null;
+            if (ids != null) {
+                ids.remove(bundle.getBundleId());
+                if (ids.isEmpty()) {
+                    versions.remove(entry.version);
+                    if (versions.isEmpty()) {
+                        bundles.remove(entry.symbolicName);
+                    }
+                }
+            }
+        }
+    }
+
+    private void close() {
+        try {
+            bc.removeBundleListener(listener);
+        } catch (IllegalStateException e) {
+            // BundleContext is no longer valid
+        }
+        synchronized (this) {
+            bundles.clear();
+            indexed.clear();
+        }
+    }
+
+    /**
+     * Keys of indexed bundle
+     */
+    private static class IndexedBundle {
+        private final String symbolicName;
+        private final Version version;
+
+        private IndexedBundle(String symbolicName, Version version) {
+            this.symbolicName = symbolicName;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Updates the index on bundle changes and drops it when the bundle of the BundleContext is stopping
+     */
+    private class IndexListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            Bundle bundle = event.getBundle();
+            switch (event.getType()) {
+                case BundleEvent.INSTALLED:
+                case BundleEvent.UPDATED:
+                    add(bundle);
+                    break;
+                case BundleEvent.UNINSTALLED:
+                    remove(bundle);
+                    break;
+                case BundleEvent.STOPPING:
+                    if (bundle.equals(bc.getBundle()) && INDEXES.remove(bc, BundleIndex.this)) {
+                        close();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getServiceHandle;
+
+/**
+ * Report of bulk bundle installation with per-bundle timings
+ *
+ * @author dmytro.pishchukhin
+ * @see BundleUtils#installAll(org.osgi.framework.BundleContext, java.util.List, int)
+ * @see BundleUtils#installAll(org.osgi.framework.BundleContext, java.io.File, int)
+ * @since 1.3
+ */
+public class BundleInstallReport {
+    private final List<Entry> entries;
+    private final int waveCount;
+    private final long installNanos;
+    private final long resolveNanos;
+    private final long startNanos;
+
+    private BundleInstallReport(List<Entry> entries, int waveCount, long installNanos, long resolveNanos, long startNanos) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.waveCount = waveCount;
+        this.installNanos = installNanos;
+        this.resolveNanos = resolveNanos;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Get entries in the order of locations
+     *
+     * @return entries
+     * @since 1.3
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Get entries that failed to install or start
+     *
+     * @return failed entries
+     * @since 1.3
+     */
+    public List<Entry> getFailed() {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.getFailure() != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get entries of bundles that are already listed by earlier entries,
+     * e.g. the same location is listed twice. Duplicates are not started.
+     *
+     * @return duplicated entries
+     * @since 1.3
+     */
+    public List<Entry> getDuplicates() {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.getDuplicateOf() != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get number of start waves
+     *
+     * @return number of start waves
+     * @since 1.3
+     */
+    public int getWaveCount() {
+        return waveCount;
+    }
+
+    /**
+     * Get elapsed time of the install phase
+     *
+     * @param timeUnit time unit of the result
+     * @return elapsed time
+     * @since 1.3
+     */
+    public long getInstallTime(TimeUnit timeUnit) {
+        return timeUnit.convert(installNanos, NANOSECONDS);
+    }
+
+    /**
+     * Get elapsed time of the single <code>PackageAdmin.resolveBundles</code> call
+     *
+     * @param timeUnit time unit of the result
+     * @return elapsed time, <code>0</code> if PackageAdmin is not available
+     * @since 1.3
+     */
+    public long getResolveTime(TimeUnit timeUnit) {
+        return timeUnit.convert(resolveNanos, NANOSECONDS);
+    }
+
+    /**
+     * Get elapsed time of all start waves
+     *
+     * @param timeUnit time unit of the result
+     * @return elapsed time
+     * @since 1.3
+     */
+    public long getStartTime(TimeUnit timeUnit) {
+        return timeUnit.convert(startNanos, NANOSECONDS);
+    }
+
+    /**
+     * Get entries sorted by start time, the slowest first
+     *
+     * @return sorted entries
+     * @since 1.3
+     */
+    public List<Entry> getSlowestStarts() {
+        List<Entry> result = new ArrayList<Entry>(entries);
+        Collections.sort(result, new Comparator<Entry>() {
+            public int compare(Entry e1, Entry e2) {
+                return e1.startNanos < e2.startNanos ? 1 : (e1.startNanos == e2.startNanos ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BundleInstallReport[bundles=%d, failed=%d, duplicates=%d, waves=%d, install=%dms, resolve=%dms, start=%dms]",
+                entries.size(), getFailed().size(), getDuplicates().size(), waveCount, getInstallTime(TimeUnit.MILLISECONDS),
+                getResolveTime(TimeUnit.MILLISECONDS), getStartTime(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Install bundles in parallel, resolve them with one PackageAdmin call and start them in waves.
+     * Bundles of one wave have the same start level and do not import packages from each other.
+     * Waves are ordered by start level and by import dependencies; fragments are not started.
+     * An entry of a bundle that is already installed by an earlier entry is reported as duplicate and is not started.
+     *
+     * @param bc          BundleContext
+     * @param locations   bundle locations
+     * @param parallelism maximum number of parallel operations
+     * @return report
+     * @throws IllegalArgumentException If <code>parallelism</code> is not positive
+     */
+    static BundleInstallReport installAll(final BundleContext bc, List<String> locations, int parallelism) {
+        List<Entry> entries = new ArrayList<Entry>(locations.size());
+        for (String location : locations) {
+            entries.add(new Entry(location));
+        }
+
+        long start = System.nanoTime();
+        BulkResult<Entry> installResult = BulkResult.run(entries, parallelism, new BulkResult.Action<Entry, Entry>() {
+            public Entry run(Entry entry) {
+                long entryStart = System.nanoTime();
+                try {
+                    entry.bundle = bc.installBundle(entry.location);
+                } catch (Throwable e) {
+                    entry.failure = e;
+                }
+                entry.installNanos = System.nanoTime() - entryStart;
+                return entry;
+            }
+        });
+        long installNanos = System.nanoTime() - start;
+        addFailures(entries, installResult);
+        if (Thread.currentThread().isInterrupted()) {
+            // installation was interrupted, half-installed bundles are not started
+            return new BundleInstallReport(entries, 0, installNanos, 0, 0);
+        }
+
+        Map<Bundle, Entry> installed = new LinkedHashMap<Bundle, Entry>();
+        for (Entry entry : entries) {
+            if (entry.bundle != null) {
+                Entry first = installed.get(entry.bundle);
+                if (first == null) {
+                    installed.put(entry.bundle, entry);
+                } else {
+                    entry.duplicateOf = first;
+                }
+            }
+        }
+
+        List<List<Entry>> waves;
+        long resolveNanos = 0;
+        ServiceHandle<PackageAdmin> packageAdmin = getServiceHandle(bc, PackageAdmin.class);
+        ServiceHandle<StartLevel> startLevel = getServiceHandle(bc, StartLevel.class);
+        try {
+            if (packageAdmin != null) {
+                start = System.nanoTime();
+                packageAdmin.get().resolveBundles(installed.keySet().toArray(new Bundle[installed.size()]));
+                resolveNanos = System.nanoTime() - start;
+            }
+            waves = createWaves(installed,
+                    packageAdmin != null ? packageAdmin.get() : null,
+                    startLevel != null ? startLevel.get() : null);
+        } finally {
+            if (packageAdmin != null) {
+                packageAdmin.close();
+            }
+            if (startLevel != null) {
+                startLevel.close();
+            }
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < waves.size(); i++) {
+            final int wave = i;
+            BulkResult<Entry> startResult = BulkResult.run(waves.get(i), parallelism, new BulkResult.Action<Entry, Entry>() {
+                public Entry run(Entry entry) {
+                    entry.wave = wave;
+                    long entryStart = System.nanoTime();
+                    try {
+                        entry.bundle.start();
+                    } catch (Throwable e) {
+                        entry.failure = e;
+                    }
+                    entry.startNanos = System.nanoTime() - entryStart;
+                    return entry;
+                }
+            });
+            addFailures(waves.get(i), startResult);
+            if (Thread.currentThread().isInterrupted()) {
+                InterruptedException cause = new InterruptedException("Bundle start was interrupted");
+                for (int j = i + 1; j < waves.size(); j++) {
+                    for (Entry entry : waves.get(j)) {
+                        entry.failure = cause;
+                    }
+                }
+                break;
+            }
+        }
+        long startNanos = System.nanoTime() - start;
+
+        return new BundleInstallReport(entries, waves.size(), installNanos, resolveNanos, startNanos);
+    }
+
+    /**
+     * Set failures of interrupted operations to entries
+     */
+    private static void addFailures(List<Entry> entries, BulkResult<Entry> result) {
+        for (BulkResult.Failure failure : result.getFailures()) {
+            if (failure.getIndex() >= 0 && entries.get(failure.getIndex()).failure == null) {
+                entries.get(failure.getIndex()).failure = failure.getCause();
+            }
+        }
+    }
+
+    /**
+     * Split installed bundles into start waves. Each wave contains bundles of the lowest remaining start level
+     * which do not import packages from other remaining bundles of the same start level.
+     * Bundles with cyclic imports share one wave.
+     */
+    private static List<List<Entry>> createWaves(Map<Bundle, Entry> installed, PackageAdmin packageAdmin,
+                                                 StartLevel startLevel) {
+        final Map<Bundle, Integer> levels = new HashMap<Bundle, Integer>();
+        Map<Bundle, Set<Bundle>> dependencies = new HashMap<Bundle, Set<Bundle>>();
+        List<Bundle> remaining = new ArrayList<Bundle>();
+        for (Bundle bundle : installed.keySet()) {
+            if (packageAdmin != null && (packageAdmin.getBundleType(bundle) & PackageAdmin.BUNDLE_TYPE_FRAGMENT) != 0) {
+                continue;
+            }
+            levels.put(bundle, startLevel != null ? startLevel.getBundleStartLevel(bundle) : 1);
+            dependencies.put(bundle, new HashSet<Bundle>());
+            remaining.add(bundle);
+        }
+        if (packageAdmin != null) {
+            for (Bundle exporter : remaining) {
+                ExportedPackage[] packages = packageAdmin.getExportedPackages(exporter);
+                if (packages == null) {
+                    continue;
+                }
+                for (ExportedPackage exportedPackage : packages) {
+                    Bundle[] importers = exportedPackage.getImportingBundles();
+                    if (importers == null) {
+                        continue;
+                    }
+                    for (Bundle importer : importers) {
+                        Set<Bundle> importerDependencies = dependencies.get(importer);
+                        if (importerDependencies != null && !importer.equals(exporter)
+                                && levels.get(importer).equals(levels.get(exporter))) {
+                            importerDependencies.add(exporter);
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(remaining, new Comparator<Bundle>() {
+            public int compare(Bundle b1, Bundle b2) {
+                return levels.get(b1).compareTo(levels.get(b2));
+            }
+        });
+
+        List<List<Entry>> waves = new ArrayList<List<Entry>>();
+        while (!remaining.isEmpty()) {
+            Integer level = levels.get(remaining.get(0));
+            List<Bundle> wave = new ArrayList<Bundle>();
+            List<Bundle> sameLevel = new ArrayList<Bundle>();
+            for (Bundle bundle : remaining) {
+                if (!level.equals(levels.get(bundle))) {
+                    break;
+                }
+                sameLevel.add(bundle);
+                if (Collections.disjoint(dependencies.get(bundle), remaining)) {
+                    wave.add(bundle);
+                }
+            }
+            if (wave.isEmpty()) {
+                // cyclic imports
+                wave = sameLevel;
+            }
+            remaining.removeAll(wave);
+            List<Entry> waveEntries = new ArrayList<Entry>(wave.size());
+            for (Bundle bundle : wave) {
+                waveEntries.add(installed.get(bundle));
+            }
+            waves.add(waveEntries);
+        }
+        return waves;
+    }
+
+    /**
+     * Timings of one bundle
+     *
+     * @since 1.3
+     */
+    public static class Entry {
+        private final String location;
+        private volatile Bundle bundle;
+        private volatile Throwable failure;
+        private volatile Entry duplicateOf;
+        private volatile int wave = -1;
+        private volatile long installNanos;
+        private volatile long startNanos;
+
+        private Entry(String location) {
+            this.location = location;
+        }
+
+        /**
+         * Get bundle location
+         *
+         * @return location
+         * @since 1.3
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * Get installed bundle
+         *
+         * @return bundle or <code>null</code> if installation failed
+         * @since 1.3
+         */
+        public Bundle getBundle() {
+            return bundle;
+        }
+
+        /**
+         * Get failure of installation or start
+         *
+         * @return failure or <code>null</code>
+         * @since 1.3
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Get earlier entry of the same bundle
+         *
+         * @return entry or <code>null</code> if this entry is not a duplicate
+         * @since 1.3
+         */
+        public Entry getDuplicateOf() {
+            return duplicateOf;
+        }
+
+        /**
+         * Get index of the start wave
+         *
+         * @return wave index or <code>-1</code> if bundle was not started (failed installation, fragment or duplicate)
+         * @since 1.3
+         */
+        public int getWave() {
+            return wave;
+        }
+
+        /**
+         * Get duration of the bundle installation
+         *
+         * @param timeUnit time unit of the result
+         * @return duration
+         * @since 1.3
+         */
+        public long getInstallTime(TimeUnit timeUnit) {
+            return timeUnit.convert(installNanos, NANOSECONDS);
+        }
+
+        /**
+         * Get duration of the bundle start
+         *
+         * @param timeUnit time unit of the result
+         * @return duration
+         * @since 1.3
+         */
+        public long getStartTime(TimeUnit timeUnit) {
+            return timeUnit.convert(startNanos, NANOSECONDS);
+        }
+
+        /**
+         * Check if bundle is resolved
+         *
+         * @return <code>true</code> if bundle is resolved
+         * @since 1.3
+         */
+        public boolean isResolved() {
+            Bundle installedBundle = bundle;
+            return installedBundle != null
+                    && (installedBundle.getState() & (Bundle.INSTALLED | Bundle.UNINSTALLED)) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[wave=%d, install=%dms, start=%dms%s%s]", location, wave,
+                    getInstallTime(TimeUnit.MILLISECONDS), getStartTime(TimeUnit.MILLISECONDS),
+                    duplicateOf != null ? ", duplicate of " + duplicateOf.location : "",
+                    failure != null ? ", failure=" + failure : "");
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Opt-in profiler of bundle lifecycle phases for one BundleContext.
+ * <p/>
+ * A synchronous BundleListener timestamps bundle events with {@link System#nanoTime()} and measures phases:
+ * <ul>
+ * <li>{@link Phase#RESOLVE} - from <code>INSTALLED</code> (or <code>UPDATED</code>) to <code>RESOLVED</code>.
+ * Bundles are resolved lazily, so this is the elapsed time until the bundle got resolved, not the resolve work</li>
+ * <li>{@link Phase#START} - from <code>STARTING</code> to <code>STARTED</code>, i.e. activator start</li>
+ * <li>{@link Phase#STOP} - from <code>STOPPING</code> to <code>STOPPED</code>, i.e. activator stop</li>
+ * </ul>
+ * Statistics are kept per SymbolicName, so repeated runs of the same bundle are accumulated.
+ * The profiler is dropped when the bundle of the BundleContext is stopping.
+ * <p/>
+ * Install time is not visible to a BundleListener, it is measured by
+ * {@link BundleUtils#installAll(BundleContext, java.util.List, int)} in {@link BundleInstallReport}.
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.framework.SynchronousBundleListener
+ * @since 1.3
+ */
+public class BundleLifecycleProfiler {
+    /**
+     * Enabled profilers
+     */
+    private static final ConcurrentMap<BundleContext, BundleLifecycleProfiler> PROFILERS =
+            new ConcurrentHashMap<BundleContext, BundleLifecycleProfiler>();
+
+    /**
+     * Start timestamp of a phase that is not running. {@link System#nanoTime()} may be zero or negative
+     */
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final BundleContext bc;
+    /**
+     * Start timestamps of running phases by bundle ID
+     */
+    private final Map<Long, long[]> running = new HashMap<Long, long[]>();
+    /**
+     * Statistics by SymbolicName
+     */
+    private final Map<String, BundleStats> stats = new HashMap<String, BundleStats>();
+    private final SynchronousBundleListener listener = new ProfilerListener();
+
+    private BundleLifecycleProfiler(BundleContext bc) {
+        this.bc = bc;
+    }
+
+    /**
+     * Enable profiler for BundleContext. If the profiler is already enabled, the existing one is returned.
+     *
+     * @param bc BundleContext
+     * @return enabled profiler
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static BundleLifecycleProfiler enable(BundleContext bc) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        BundleLifecycleProfiler profiler = PROFILERS.get(bc);
+        if (profiler == null) {
+            profiler = new BundleLifecycleProfiler(bc);
+            BundleLifecycleProfiler existing = PROFILERS.putIfAbsent(bc, profiler);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                bc.addBundleListener(profiler.listener);
+            } catch (RuntimeException e) {
+                PROFILERS.remove(bc, profiler);
+                throw e;
+            }
+        }
+        return profiler;
+    }
+
+    /**
+     * Disable profiler for BundleContext
+     *
+     * @param bc BundleContext
+     * @since 1.3
+     */
+    public static void disable(BundleContext bc) {
+        BundleLifecycleProfiler profiler = PROFILERS.remove(bc);
+        if (profiler != null) {
+            profiler.close();
+        }
+    }
+
+    /**
+     * Get enabled profiler for BundleContext
+     *
+     * @param bc BundleContext
+     * @return profiler or <code>null</code> if profiler is not enabled for BundleContext
+     * @since 1.3
+     */
+    public static BundleLifecycleProfiler getProfiler(BundleContext bc) {
+        return PROFILERS.get(bc);
+    }
+
+    /**
+     * Get statistics of bundle
+     *
+     * @param symbolicName symbolicName
+     * @return statistics or <code>null</code> if no phase of the bundle was measured
+     * @since 1.3
+     */
+    public synchronized BundleStats getStats(String symbolicName) {
+        BundleStats bundleStats = stats.get(symbolicName);
+        return bundleStats != null ? bundleStats.copy() : null;
+    }
+
+    /**
+     * Get statistics of all bundles ranked by maximum duration of phase, the slowest first
+     *
+     * @param phase phase
+     * @return ranked statistics
+     * @throws NullPointerException If <code>phase</code> is <code>null</code>
+     * @since 1.3
+     */
+    public List<BundleStats> getRanking(final Phase phase) {
+        if (phase == null) {
+            throw new NullPointerException("phase is null");
+        }
+        List<BundleStats> result = new ArrayList<BundleStats>();
+        synchronized (this) {
+            for (BundleStats bundleStats : stats.values()) {
+                result.add(bundleStats.copy());
+            }
+        }
+        Collections.sort(result, new Comparator<BundleStats>() {
+            public int compare(BundleStats s1, BundleStats s2) {
+                long max1 = s1.getMax(phase, NANOSECONDS);
+                long max2 = s2.getMax(phase, NANOSECONDS);
+                return max1 < max2 ? 1 : (max1 == max2 ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get report of bundles ranked by activator start time
+     *
+     * @param limit maximum number of bundles in the report
+     * @return report
+     * @since 1.3
+     */
+    public String report(int limit) {
+        StringBuilder builder = new StringBuilder("Slowest bundle starts:");
+        List<BundleStats> ranking = getRanking(Phase.START);
+        for (int i = 0; i < ranking.size() && i < limit; i++) {
+            builder.append(String.format("%n%3d. %s", i + 1, ranking.get(i)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Clear all statistics
+     *
+     * @since 1.3
+     */
+    public synchronized void reset() {
+        stats.clear();
+        running.clear();
+    }
+
+    synchronized void record(Bundle bundle, int eventType, long nanos) {
+        Long bundleId = bundle.getBundleId();
+        long[] started = running.get(bundleId);
+        if (started == null) {
+            started = new long[Phase.values().length];
+            Arrays.fill(started, NOT_STARTED);
+            running.put(bundleId, started);
+        }
+        switch (eventType) {
+            case BundleEvent.INSTALLED:
+            case BundleEvent.UPDATED:
+                started[Phase.RESOLVE.ordinal()] = nanos;
+                break;
+            case BundleEvent.RESOLVED:
+                finish(bundle, started, Phase.RESOLVE, nanos);
+                break;
+            case BundleEvent.STARTING:
+                started[Phase.START.ordinal()] = nanos;
+                break;
+            case BundleEvent.STARTED:
+                finish(bundle, started, Phase.START, nanos);
+                break;
+            case BundleEvent.STOPPING:
+                started[Phase.STOP.ordinal()] = nanos;
+                break;
+            case BundleEvent.STOPPED:
+                finish(bundle, started, Phase.STOP, nanos);
+                break;
+            case BundleEvent.UNINSTALLED:
+                running.remove(bundleId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void finish(Bundle bundle, long[] started, Phase phase, long nanos) {
+        long phaseStart = started[phase.ordinal()];
+        String symbolicName = bundle.getSymbolicName();
+        if (phaseStart == NOT_STARTED || symbolicName == null) {
+            // phase was started before the profiler was enabled
+            return;
+        }
+        started[phase.ordinal()] = NOT_STARTED;
+        BundleStats bundleStats = stats.get(symbolicName);
+        if (bundleStats == null) {
+            bundleStats = new BundleStats(symbolicName);
+            stats.put(symbolicName, bundleStats);
+        }
+        bundleStats.add(phase, nanos - phaseStart);
+    }
+
+    private void close() {
+        try {
+            bc.removeBundleListener(listener);
+        } catch (IllegalStateException e) {
+            // BundleContext is no longer valid
+        }
+    }
+
+    /**
+     * Bundle lifecycle phase
+     *
+     * @since 1.3
+     */
+    public enum Phase {
+        /**
+         * From INSTALLED or UPDATED to RESOLVED, including the time the bundle waits to be resolved
+         */
+        RESOLVE,
+        /**
+         * From STARTING to STARTED
+         */
+        START,
+        /**
+         * From STOPPING to STOPPED
+         */
+        STOP
+    }
+
+    /**
+     * Statistics of bundle lifecycle phases
+     *
+     * @since 1.3
+     */
+    public static class BundleStats {
+        private final String symbolicName;
+        private final int[] counts = new int[Phase.values().length];
+        private final long[] totals = new long[Phase.values().length];
+        private final long[] maximums = new long[Phase.values().length];
+        private final long[] lasts = new long[Phase.values().length];
+
+        private BundleStats(String symbolicName) {
+            this.symbolicName = symbolicName;
+        }
+
+        /**
+         * Get bundle SymbolicName
+         *
+         * @return symbolicName
+         * @since 1.3
+         */
+        public String getSymbolicName() {
+            return symbolicName;
+        }
+
+        /**
+         * Get number of measured phases
+         *
+         * @param phase phase
+         * @return number of measurements
+         * @since 1.3
+         */
+        public int getCount(Phase phase) {
+            return counts[phase.ordinal()];
+        }
+
+        /**
+         * Get duration of the last measured phase
+         *
+         * @param phase    phase
+         * @param timeUnit time unit of the result
+         * @return duration or <code>0</code> if the phase was not measured
+         * @since 1.3
+         */
+        public long getLast(Phase phase, TimeUnit timeUnit) {
+            return timeUnit.convert(lasts[phase.ordinal()], NANOSECONDS);
+        }
+
+        /**
+         * Get maximum duration of phase
+         *
+         * @param phase    phase
+         * @param timeUnit time unit of the result
+         * @return duration or <code>0</code> if the phase was not measured
+         * @since 1.3
+         */
+        public long getMax(Phase phase, TimeUnit timeUnit) {
+            return timeUnit.convert(maximums[phase.ordinal()], NANOSECONDS);
+        }
+
+        /**
+         * Get average duration of phase
+         *
+         * @param phase    phase
+         * @param timeUnit time unit of the result
+         * @return duration or <code>0</code> if the phase was not measured
+         * @since 1.3
+         */
+        public long getAverage(Phase phase, TimeUnit timeUnit) {
+            int count = counts[phase.ordinal()];
+            return count == 0 ? 0 : timeUnit.convert(totals[phase.ordinal()] / count, NANOSECONDS);
+        }
+
+        private void add(Phase phase, long nanos) {
+            int index = phase.ordinal();
+            counts[index]++;
+            totals[index] += nanos;
+            maximums[index] = Math.max(maximums[index], nanos);
+            lasts[index] = nanos;
+        }
+
+        private BundleStats copy() {
+            BundleStats result = new BundleStats(symbolicName);
+            System.arraycopy(counts, 0, result.counts, 0, counts.length);
+            System.arraycopy(totals, 0, result.totals, 0, totals.length);
+            System.arraycopy(maximums, 0, result.maximums, 0, maximums.length);
+            System.arraycopy(lasts, 0, result.lasts, 0, lasts.length);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(symbolicName);
+            for (Phase phase : Phase.values()) {
+                builder.append(String.format(" %s[count=%d, last=%dus, avg=%dus, max=%dus]",
+                        phase, getCount(phase), getLast(phase, TimeUnit.MICROSECONDS),
+                        getAverage(phase, TimeUnit.MICROSECONDS), getMax(phase, TimeUnit.MICROSECONDS)));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Records bundle events and drops the profiler when the bundle of the BundleContext is stopping
+     */
+    private class ProfilerListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            long nanos = System.nanoTime();
+            Bundle bundle = event.getBundle();
+            if (event.getType() == BundleEvent.STOPPING && bundle.equals(bc.getBundle())) {
+                if (PROFILERS.remove(bc, BundleLifecycleProfiler.this)) {
+                    close();
+                }
+                return;
+            }
+            record(bundle, event.getType(), nanos);
+        }
+    }
+}
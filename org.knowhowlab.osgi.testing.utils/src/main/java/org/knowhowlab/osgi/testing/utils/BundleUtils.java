@@ -17,15 +17,18 @@
 package org.knowhowlab.osgi.testing.utils;
 
 import org.osgi.framework.*;
-import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.util.tracker.BundleTracker;
 import org.osgi.util.tracker.BundleTrackerCustomizer;
 
+import java.io.File;
+import java.io.FileFilter;
 import java.io.InputStream;
+import java.util.*;
 import java.util.concurrent.*;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getService;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.getExecutor;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.schedule;
 
 /**
  * OSGi Bundles utilities class
@@ -77,24 +80,30 @@ public class BundleUtils {
     }
 
     /**
-     * Find bundle by SymbolicName and Version
+     * Find bundle by SymbolicName and Version. The bundle with the highest Version is returned.
+     * If {@link BundleIndex} is enabled for <code>bc</code> it is used instead of the scan of all bundles.
      *
      * @param bc           BundleContext
      * @param symbolicName symbolicName
-     * @param version      version
+     * @param version      minimal version
      * @return Bundle instance or <code>null</code>
      * @throws NullPointerException If <code>bc</code> or <code>symbolicName</code> are <code>null</code>
      * @since 1.0
      */
     public static Bundle findBundle(BundleContext bc, String symbolicName, Version version) {
-        PackageAdmin packageAdmin = getService(bc, PackageAdmin.class);
-        if (packageAdmin != null) {
-            Bundle[] bundles = packageAdmin.getBundles(symbolicName, version != null ? version.toString() : null);
-            if (bundles != null && bundles.length > 0) {
-                return bundles[0];
+        BundleIndex index = BundleIndex.getIndex(bc);
+        if (index != null) {
+            return index.getBundle(symbolicName, version);
+        }
+        Bundle result = null;
+        for (Bundle bundle : bc.getBundles()) {
+            if (symbolicName.equals(bundle.getSymbolicName())
+                    && (version == null || version.compareTo(bundle.getVersion()) <= 0)
+                    && (result == null || result.getVersion().compareTo(bundle.getVersion()) < 0)) {
+                result = bundle;
             }
         }
-        return null;
+        return result;
     }
 
     /**
@@ -217,14 +226,29 @@ public class BundleUtils {
      * @since 1.0
      */
     public static Bundle findBundle(BundleContext bc, String symbolicName, Version version, int stateMask, long timeout, TimeUnit timeUnit) {
+        return findBundle(bc, symbolicName, version, stateMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Find bundle by SymbolicName and Version and stateMask within deadline
+     *
+     * @param bc           BundleContext
+     * @param symbolicName symbolicName
+     * @param version      version
+     * @param stateMask    The bit mask of the ORing of the bundle states to be tracked.
+     * @param deadline     deadline of the wait
+     * @return Bundle instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Bundle findBundle(BundleContext bc, String symbolicName, Version version, int stateMask, Deadline deadline) {
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         BundleTracker tracker = new BundleTracker(bc, stateMask,
                 new SymbolicNameVersionBundleTrackerCustomizer(bc, latch, symbolicName, version));
         tracker.open();
         try {
-            return waitForBundle(tracker, timeoutInMillis, latch);
+            return waitForBundle(tracker, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -232,6 +256,225 @@ public class BundleUtils {
         }
     }
 
+    /**
+     * Wait until bundle with ID is uninstalled within timeoutInMillis
+     *
+     * @param bc              BundleContext
+     * @param bundleId        bundle id
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, long bundleId, long timeoutInMillis) {
+        return waitForBundleUnavailable(bc, bundleId, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until bundle with ID is uninstalled within timeout
+     *
+     * @param bc       BundleContext
+     * @param bundleId bundle id
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, long bundleId, long timeout, TimeUnit timeUnit) {
+        return waitForBundleUnavailable(bc, bundleId, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait until bundle with ID is uninstalled within deadline
+     *
+     * @param bc       BundleContext
+     * @param bundleId bundle id
+     * @param deadline deadline of the wait
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if deadline is expired
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, long bundleId, Deadline deadline) {
+        return waitForBundleUnavailable(bc, new BundleRemovalCustomizer(bundleId, null, null), deadline);
+    }
+
+    /**
+     * Wait until bundle with SymbolicName is uninstalled within timeoutInMillis
+     *
+     * @param bc              BundleContext
+     * @param symbolicName    symbolicName
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, String symbolicName, long timeoutInMillis) {
+        return waitForBundleUnavailable(bc, symbolicName, null, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until bundle with SymbolicName is uninstalled within timeout
+     *
+     * @param bc           BundleContext
+     * @param symbolicName symbolicName
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     time unit for the time interval
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, String symbolicName, long timeout, TimeUnit timeUnit) {
+        return waitForBundleUnavailable(bc, symbolicName, null, timeout, timeUnit);
+    }
+
+    /**
+     * Wait until bundle with SymbolicName and Version is uninstalled within timeoutInMillis
+     *
+     * @param bc              BundleContext
+     * @param symbolicName    symbolicName
+     * @param version         version
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, String symbolicName, Version version, long timeoutInMillis) {
+        return waitForBundleUnavailable(bc, symbolicName, version, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until bundle with SymbolicName and Version is uninstalled within timeout.
+     * The same as {@link #findBundle(BundleContext, String, Version)} bundles with version
+     * greater than or equal to <code>version</code> are matched.
+     *
+     * @param bc           BundleContext
+     * @param symbolicName symbolicName
+     * @param version      version
+     * @param timeout      time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     time unit for the time interval
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, String symbolicName, Version version, long timeout, TimeUnit timeUnit) {
+        return waitForBundleUnavailable(bc, symbolicName, version, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait until bundle with SymbolicName and Version is uninstalled within deadline.
+     * Bundles with version greater than or equal to <code>version</code> are matched.
+     *
+     * @param bc           BundleContext
+     * @param symbolicName symbolicName
+     * @param version      version
+     * @param deadline     deadline of the wait
+     * @return <code>true</code> if bundle is unavailable, <code>false</code> if deadline is expired
+     * @throws NullPointerException If <code>bc</code>, <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForBundleUnavailable(BundleContext bc, String symbolicName, Version version, Deadline deadline) {
+        if (symbolicName == null) {
+            throw new NullPointerException("symbolicName is null");
+        }
+        return waitForBundleUnavailable(bc, new BundleRemovalCustomizer(-1, symbolicName, version), deadline);
+    }
+
+    /**
+     * Wait until bundles with all SymbolicNames are in one of states within timeoutInMillis.
+     * All bundles are tracked concurrently by one BundleTracker.
+     *
+     * @param bc              BundleContext
+     * @param stateMask       The bit mask of the ORing of the bundle states to be waited for.
+     * @param symbolicNames   symbolicNames
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return SymbolicNames of bundles that are not in expected states mapped to their current states
+     *         ({@link Bundle#UNINSTALLED} if bundle is not installed), empty map if all bundles are in expected states
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>symbolicNames</code> or any of names are <code>null</code>
+     * @since 1.3
+     */
+    public static Map<String, Integer> waitForBundles(BundleContext bc, int stateMask, Collection<String> symbolicNames,
+                                                      long timeoutInMillis) {
+        return waitForBundles(bc, stateMask, symbolicNames, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until bundles with all SymbolicNames are in one of states within timeout.
+     * All bundles are tracked concurrently by one BundleTracker.
+     *
+     * @param bc            BundleContext
+     * @param stateMask     The bit mask of the ORing of the bundle states to be waited for.
+     * @param symbolicNames symbolicNames
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return SymbolicNames of bundles that are not in expected states mapped to their current states
+     *         ({@link Bundle#UNINSTALLED} if bundle is not installed), empty map if all bundles are in expected states
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>symbolicNames</code>, any of names or
+     *                                  <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Map<String, Integer> waitForBundles(BundleContext bc, int stateMask, Collection<String> symbolicNames,
+                                                      long timeout, TimeUnit timeUnit) {
+        return waitForBundles(bc, stateMask, symbolicNames, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait until bundles with all SymbolicNames are in one of states until deadline.
+     * All bundles are tracked concurrently by one BundleTracker.
+     *
+     * @param bc            BundleContext
+     * @param stateMask     The bit mask of the ORing of the bundle states to be waited for.
+     * @param symbolicNames symbolicNames
+     * @param deadline      deadline of the wait
+     * @return SymbolicNames of bundles that are not in expected states mapped to their current states
+     *         ({@link Bundle#UNINSTALLED} if bundle is not installed), empty map if all bundles are in expected states
+     * @throws NullPointerException If <code>bc</code>, <code>symbolicNames</code>, any of names or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Map<String, Integer> waitForBundles(BundleContext bc, int stateMask, Collection<String> symbolicNames,
+                                                      Deadline deadline) {
+        Set<String> names = new LinkedHashSet<String>(symbolicNames);
+        if (names.contains(null)) {
+            throw new NullPointerException("symbolicName is null");
+        }
+        Set<String> missing;
+        BundleSetCustomizer customizer = new BundleSetCustomizer(names);
+        BundleTracker tracker = new BundleTracker(bc, stateMask, customizer);
+        tracker.open();
+        try {
+            synchronized (customizer) {
+                while (customizer.getMissingCount() > 0) {
+                    if (!deadline.awaitNotification(customizer)) {
+                        break;
+                    }
+                }
+                missing = customizer.getMissing();
+            }
+        } catch (InterruptedException e) {
+            synchronized (customizer) {
+                missing = customizer.getMissing();
+            }
+        } finally {
+            tracker.close();
+        }
+
+        Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        for (String symbolicName : missing) {
+            Bundle bundle = findBundle(bc, symbolicName);
+            result.put(symbolicName, bundle != null ? bundle.getState() : Bundle.UNINSTALLED);
+        }
+        return result;
+    }
+
     /**
      * Installs a bundle asynchronously
      *
@@ -322,13 +565,68 @@ public class BundleUtils {
      * @since 1.1
      */
     public static Future<Bundle> installBundleAsync(final BundleContext bc, final String location, final InputStream input, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Bundle>() {
+        return schedule(new Callable<Bundle>() {
             public Bundle call() throws Exception {
                 return bc.installBundle(location, input);
             }
         }, delay, timeUnit);
     }
 
+    /**
+     * Install all bundles from directory. Bundles are <code>*.jar</code> files of the directory
+     * sorted by file name.
+     *
+     * @param bc          BundleContext
+     * @param dir         directory with bundles
+     * @param parallelism maximum number of parallel installations and starts
+     * @return report with per-bundle timings
+     * @throws IllegalArgumentException If <code>dir</code> is not a directory or <code>parallelism</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> or <code>dir</code> are <code>null</code>
+     * @see #installAll(org.osgi.framework.BundleContext, java.util.List, int)
+     * @since 1.3
+     */
+    public static BundleInstallReport installAll(BundleContext bc, File dir, int parallelism) {
+        File[] files = dir.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".jar");
+            }
+        });
+        if (files == null) {
+            throw new IllegalArgumentException("dir is not a directory: " + dir);
+        }
+        Arrays.sort(files);
+        List<String> locations = new ArrayList<String>(files.length);
+        for (File file : files) {
+            locations.add(file.toURI().toString());
+        }
+        return installAll(bc, locations, parallelism);
+    }
+
+    /**
+     * Install bundles in parallel and start them in dependency order.
+     * <p/>
+     * Installed bundles are resolved with one <code>PackageAdmin.resolveBundles</code> call and started in waves.
+     * Waves are ordered by start level and by package imports between installed bundles,
+     * bundles of one wave are started in parallel. Fragments are not started.
+     * Failures of single bundles do not stop the operation, they are available in the report.
+     * If the calling thread is interrupted, bundles that are not installed or started yet are reported as failed
+     * and no further bundles are started.
+     *
+     * @param bc          BundleContext
+     * @param locations   bundle locations
+     * @param parallelism maximum number of parallel installations and starts
+     * @return report with per-bundle timings
+     * @throws IllegalArgumentException If <code>parallelism</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> or <code>locations</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleInstallReport installAll(BundleContext bc, List<String> locations, int parallelism) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        return BundleInstallReport.installAll(bc, locations, parallelism);
+    }
+
     /**
      * Starts a bundle asynchronously
      *
@@ -622,7 +920,7 @@ public class BundleUtils {
      * @since 1.1
      */
     public static Future<?> startBundleAsync(final Bundle bundle, final int options, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 bundle.start(options);
                 return null;
@@ -975,7 +1273,7 @@ public class BundleUtils {
      * @since 1.1
      */
     public static Future<?> stopBundleAsync(final Bundle bundle, final int options, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 bundle.stop(options);
                 return null;
@@ -1145,7 +1443,7 @@ public class BundleUtils {
      * @since 1.1
      */
     public static Future<?> uninstallBundleAsync(final Bundle bundle, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 bundle.uninstall();
                 return null;
@@ -1525,7 +1823,7 @@ public class BundleUtils {
      * @since 1.1
      */
     public static Future<?> updateBundleAsync(final Bundle bundle, final InputStream input, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 bundle.update(input);
                 return null;
@@ -1695,14 +1993,29 @@ public class BundleUtils {
      * @since 1.1
      */
     public static BundleEvent waitForBundleEvent(BundleContext bc, String symbolicName, Version version, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForBundleEvent(bc, symbolicName, version, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle within deadline
+     *
+     * @param bc            BundleContext
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask BundleEvent type mask
+     * @param deadline      deadline of the wait
+     * @return BundleEvent or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(BundleContext bc, String symbolicName, Version version, int eventTypeMask, Deadline deadline) {
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         BundleListenerImpl listener = new BundleListenerImpl(symbolicName, version, eventTypeMask, latch);
         bc.addBundleListener(listener);
 
         try {
-            return waitForBundleEvent(listener, timeoutInMillis, latch);
+            return waitForBundleEvent(listener, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -1710,12 +2023,310 @@ public class BundleUtils {
         }
     }
 
-    private static BundleEvent waitForBundleEvent(BundleListenerImpl listener, long timeoutInMillis, CountDownLatch latch)
-            throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param symbolicName    symbolicName
+     * @param eventTypeMask   BundleEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return BundleEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask, long timeoutInMillis) {
+        return waitForBundleEvent(journal, sinceCursor, symbolicName, null, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param symbolicName    symbolicName
+     * @param version         version
+     * @param eventTypeMask   BundleEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return BundleEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, long timeoutInMillis) {
+        return waitForBundleEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param eventTypeMask BundleEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return BundleEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForBundleEvent(journal, sinceCursor, symbolicName, null, eventTypeMask, timeout, timeUnit);
+    }
+
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask BundleEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return BundleEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForBundleEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Find BundleEvent with event type mask for defined bundle that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param eventTypeMask BundleEvent type mask
+     * @return BundleEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent findBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask) {
+        return findBundleEvent(journal, sinceCursor, symbolicName, null, eventTypeMask);
+    }
+
+    /**
+     * Find BundleEvent with event type mask for defined bundle that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask BundleEvent type mask
+     * @return BundleEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent findBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask) {
+        return waitForBundleEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, Deadline.now());
+    }
+
+    /**
+     * Wait for BundleEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask BundleEvent type mask
+     * @param deadline      deadline of the wait
+     * @return BundleEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code>, <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BundleEvent waitForBundleEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, Deadline deadline) {
+        if (symbolicName == null) {
+            throw new NullPointerException("symbolicName is null");
+        }
+        try {
+            return (BundleEvent) journal.waitForEvent(sinceCursor, new BundleEventMatcher(symbolicName, version, eventTypeMask), deadline);
+        } catch (InterruptedException e) {
+            return null;
         }
-        if (latch.await(timeoutInMillis, MILLISECONDS)) {
+    }
+
+    /**
+     * Install bundle. Future is completed with the installed bundle.
+     *
+     * @param bc       BundleContext
+     * @param location The location identifier of the bundle to install.
+     * @return future of the installed bundle
+     * @throws NullPointerException If <code>bc</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> installBundleCompletion(BundleContext bc, String location) {
+        return installBundleCompletion(bc, location, null);
+    }
+
+    /**
+     * Install bundle from input stream. Future is completed with the installed bundle.
+     *
+     * @param bc       BundleContext
+     * @param location The location identifier of the bundle to install.
+     * @param input    The <code>InputStream</code> object from which this bundle will be read or <code>null</code>
+     * @return future of the installed bundle
+     * @throws NullPointerException If <code>bc</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> installBundleCompletion(final BundleContext bc, final String location, final InputStream input) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        final CompletionFuture<Bundle> future = new CompletionFuture<Bundle>();
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    future.complete(bc.installBundle(location, input));
+                } catch (Throwable e) {
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Start bundle. Future is completed by <code>BundleEvent.STARTED</code> of the bundle
+     * or immediately if bundle is already active.
+     *
+     * @param bc     BundleContext that is used to listen for BundleEvents
+     * @param bundle bundle
+     * @return future of the started bundle
+     * @throws NullPointerException  If <code>bc</code> or <code>bundle</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> startBundleCompletion(BundleContext bc, Bundle bundle) {
+        return startBundleCompletion(bc, bundle, 0);
+    }
+
+    /**
+     * Start bundle with options. Future is completed by <code>BundleEvent.STARTED</code> of the bundle
+     * or immediately if bundle is already active. If <code>Bundle.START_ACTIVATION_POLICY</code> option is used,
+     * <code>BundleEvent.LAZY_ACTIVATION</code> completes the future as well.
+     *
+     * @param bc      BundleContext that is used to listen for BundleEvents
+     * @param bundle  bundle
+     * @param options start options
+     * @return future of the started bundle
+     * @throws NullPointerException  If <code>bc</code> or <code>bundle</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> startBundleCompletion(BundleContext bc, final Bundle bundle, final int options) {
+        int eventTypeMask = BundleEvent.STARTED;
+        int stateMask = Bundle.ACTIVE;
+        if ((options & Bundle.START_ACTIVATION_POLICY) != 0) {
+            eventTypeMask |= BundleEvent.LAZY_ACTIVATION;
+            stateMask |= Bundle.STARTING;
+        }
+        return bundleEventCompletion(bc, bundle, eventTypeMask, stateMask, new Callable<Object>() {
+            public Object call() throws Exception {
+                bundle.start(options);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stop bundle. Future is completed by <code>BundleEvent.STOPPED</code> of the bundle
+     * or immediately if bundle is not active.
+     *
+     * @param bc     BundleContext that is used to listen for BundleEvents
+     * @param bundle bundle
+     * @return future of the stopped bundle
+     * @throws NullPointerException  If <code>bc</code> or <code>bundle</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> stopBundleCompletion(BundleContext bc, Bundle bundle) {
+        return stopBundleCompletion(bc, bundle, 0);
+    }
+
+    /**
+     * Stop bundle with options. Future is completed by <code>BundleEvent.STOPPED</code> of the bundle
+     * or immediately if bundle is not active.
+     *
+     * @param bc      BundleContext that is used to listen for BundleEvents
+     * @param bundle  bundle
+     * @param options stop options
+     * @return future of the stopped bundle
+     * @throws NullPointerException  If <code>bc</code> or <code>bundle</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> stopBundleCompletion(BundleContext bc, final Bundle bundle, final int options) {
+        return bundleEventCompletion(bc, bundle, BundleEvent.STOPPED, Bundle.INSTALLED | Bundle.RESOLVED, new Callable<Object>() {
+            public Object call() throws Exception {
+                bundle.stop(options);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Uninstall bundle. Future is completed by <code>BundleEvent.UNINSTALLED</code> of the bundle
+     * or immediately if bundle is already uninstalled.
+     *
+     * @param bc     BundleContext that is used to listen for BundleEvents
+     * @param bundle bundle
+     * @return future of the uninstalled bundle
+     * @throws NullPointerException  If <code>bc</code> or <code>bundle</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Bundle> uninstallBundleCompletion(BundleContext bc, final Bundle bundle) {
+        return bundleEventCompletion(bc, bundle, BundleEvent.UNINSTALLED, Bundle.UNINSTALLED, new Callable<Object>() {
+            public Object call() throws Exception {
+                bundle.uninstall();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run bundle action on shared executor and complete future by BundleEvent of the bundle
+     *
+     * @param bc            BundleContext that is used to listen for BundleEvents
+     * @param bundle        bundle
+     * @param eventTypeMask BundleEvent type mask that completes the future
+     * @param stateMask     bundle state mask that completes the future without action
+     * @param action        bundle action
+     * @return future of the bundle
+     */
+    private static CompletionFuture<Bundle> bundleEventCompletion(BundleContext bc, Bundle bundle, int eventTypeMask,
+                                                                  int stateMask, final Callable<?> action) {
+        if (bundle == null) {
+            throw new NullPointerException("bundle is null");
+        }
+        final CompletionFuture<Bundle> future = new CompletionFuture<Bundle>();
+        BundleCompletionListener listener = new BundleCompletionListener(bc, bundle.getBundleId(), eventTypeMask, future);
+        bc.addBundleListener(listener);
+        future.whenComplete(listener);
+        if ((bundle.getState() & stateMask) != 0) {
+            future.complete(bundle);
+            return future;
+        }
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    action.call();
+                } catch (Throwable e) {
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static BundleEvent waitForBundleEvent(BundleListenerImpl listener, Deadline deadline, CountDownLatch latch)
+            throws InterruptedException {
+        if (deadline.await(latch)) {
             return listener.getBundleEvent();
         } else {
             return null;
@@ -1725,22 +2336,17 @@ public class BundleUtils {
     /**
      * Wait for at least one Bundle to be tracked by BundleTracker
      *
-     * @param tracker         BundleTracker
-     * @param timeoutInMillis time interval in milliseconds to wait.
-     *                        If zero, the method will wait indefinitely.
-     * @param latch           external latch that is used to handle new service adding to ServiceTracker
+     * @param tracker  BundleTracker
+     * @param deadline deadline of the wait
+     * @param latch    external latch that is used to handle new service adding to ServiceTracker
      * @return Bundle instance or <code>null</code>
-     * @throws IllegalArgumentException If the value of timeout is negative.
-     * @throws InterruptedException     If another thread has interrupted the current thread.
+     * @throws InterruptedException If another thread has interrupted the current thread.
      */
-    private static Bundle waitForBundle(BundleTracker tracker, long timeoutInMillis, CountDownLatch latch)
+    private static Bundle waitForBundle(BundleTracker tracker, Deadline deadline, CountDownLatch latch)
             throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
-        }
         Bundle[] bundles = tracker.getBundles();
         if (bundles == null) {
-            if (latch.await(timeoutInMillis, MILLISECONDS)) {
+            if (deadline.await(latch)) {
                 bundles = tracker.getBundles();
                 return bundles == null ? null : bundles[0];
             } else {
@@ -1753,6 +2359,33 @@ public class BundleUtils {
     }
 
 
+    /**
+     * Wait until BundleTracker has no tracked bundles
+     *
+     * @param bc         BundleContext
+     * @param customizer customizer that selects bundles and notifies about removed bundles
+     * @param deadline   deadline of the wait
+     * @return <code>true</code> if there are no tracked bundles
+     */
+    private static boolean waitForBundleUnavailable(BundleContext bc, BundleRemovalCustomizer customizer, Deadline deadline) {
+        BundleTracker tracker = new BundleTracker(bc, ANY_STATE & ~Bundle.UNINSTALLED, customizer);
+        tracker.open();
+        try {
+            synchronized (customizer) {
+                while (tracker.size() > 0) {
+                    if (!deadline.awaitNotification(customizer) && tracker.size() > 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            tracker.close();
+        }
+    }
+
     /**
      * BundleTrackerCustomizer with latch support.
      *
@@ -1809,6 +2442,149 @@ public class BundleUtils {
         }
     }
 
+    /**
+     * Counts tracked bundles per SymbolicName and notifies about changes
+     */
+    private static class BundleSetCustomizer implements BundleTrackerCustomizer {
+        private final Set<String> symbolicNames;
+        private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+        private BundleSetCustomizer(Set<String> symbolicNames) {
+            this.symbolicNames = symbolicNames;
+        }
+
+        public synchronized Object addingBundle(Bundle bundle, BundleEvent event) {
+            String symbolicName = bundle.getSymbolicName();
+            if (!symbolicNames.contains(symbolicName)) {
+                return null;
+            }
+            update(symbolicName, 1);
+            return symbolicName;
+        }
+
+        public void modifiedBundle(Bundle bundle, BundleEvent event, Object object) {
+        }
+
+        public synchronized void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+            update((String) object, -1);
+        }
+
+        private int getMissingCount() {
+            return symbolicNames.size() - counts.size();
+        }
+
+        private Set<String> getMissing() {
+            Set<String> missing = new LinkedHashSet<String>(symbolicNames);
+            missing.removeAll(counts.keySet());
+            return missing;
+        }
+
+        private void update(String symbolicName, int delta) {
+            Integer count = counts.get(symbolicName);
+            int newCount = (count != null ? count : 0) + delta;
+            if (newCount > 0) {
+                counts.put(symbolicName, newCount);
+            } else {
+                counts.remove(symbolicName);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * BundleTrackerCustomizer that selects bundles by ID or by SymbolicName and minimal Version
+     * and notifies waiters about removed bundles.
+     */
+    private static class BundleRemovalCustomizer implements BundleTrackerCustomizer {
+        private final long bundleId;
+        private final String symbolicName;
+        private final Version version;
+
+        public BundleRemovalCustomizer(long bundleId, String symbolicName, Version version) {
+            this.bundleId = bundleId;
+            this.symbolicName = symbolicName;
+            this.version = version;
+        }
+
+        public Object addingBundle(Bundle bundle, BundleEvent event) {
+            if (symbolicName == null) {
+                return bundle.getBundleId() == bundleId ? bundle : null;
+            }
+            return symbolicName.equals(bundle.getSymbolicName())
+                    && (version == null || bundle.getVersion().compareTo(version) >= 0)
+                    ? bundle : null;
+        }
+
+        public void modifiedBundle(Bundle bundle, BundleEvent event, Object object) {
+        }
+
+        public synchronized void removedBundle(Bundle bundle, BundleEvent event, Object object) {
+            notifyAll();
+        }
+    }
+
+    private static class BundleEventMatcher implements EventJournal.Matcher {
+        private final String symbolicName;
+        private final Version version;
+        private final int eventTypeMask;
+
+        public BundleEventMatcher(String symbolicName, Version version, int eventTypeMask) {
+            this.symbolicName = symbolicName;
+            this.version = version;
+            this.eventTypeMask = eventTypeMask;
+        }
+
+        public boolean matches(EventObject event) {
+            if (!(event instanceof BundleEvent)) {
+                return false;
+            }
+            BundleEvent bundleEvent = (BundleEvent) event;
+            Bundle bundle = bundleEvent.getBundle();
+            return symbolicName.equals(bundle.getSymbolicName())
+                    && (version == null || bundle.getVersion().equals(version))
+                    && (eventTypeMask & bundleEvent.getType()) != 0;
+        }
+    }
+
+    /**
+     * Completes future by BundleEvent of the bundle and removes itself when the future is completed
+     */
+    private static class BundleCompletionListener implements BundleListener, CompletionFuture.Callback<Bundle> {
+        private final BundleContext bc;
+        private final long bundleId;
+        private final int eventTypeMask;
+        private final CompletionFuture<Bundle> future;
+
+        private BundleCompletionListener(BundleContext bc, long bundleId, int eventTypeMask, CompletionFuture<Bundle> future) {
+            this.bc = bc;
+            this.bundleId = bundleId;
+            this.eventTypeMask = eventTypeMask;
+            this.future = future;
+        }
+
+        public void bundleChanged(BundleEvent event) {
+            if (event.getBundle().getBundleId() == bundleId && (eventTypeMask & event.getType()) != 0) {
+                future.complete(event.getBundle());
+            }
+        }
+
+        public void completed(Bundle result) {
+            remove();
+        }
+
+        public void failed(Throwable failure) {
+            remove();
+        }
+
+        private void remove() {
+            try {
+                bc.removeBundleListener(this);
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
+        }
+    }
+
     private static class BundleListenerImpl implements BundleListener {
         private String symbolicName;
         private Version version;
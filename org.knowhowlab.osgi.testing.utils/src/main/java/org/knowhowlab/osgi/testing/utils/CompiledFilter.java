@@ -0,0 +1,953 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * Filter that is parsed once into a tree of typed comparisons and matched directly
+ * against <code>Map</code>s, <code>Dictionary</code>s and service properties.
+ * <p/>
+ * Filter values are converted to <code>long</code>, <code>float</code>, <code>double</code>,
+ * <code>boolean</code> and <code>char</code> at compile time, so matching of String, primitive wrapper,
+ * array and <code>RandomAccess</code> list values neither copies properties nor allocates.
+ * Other <code>Comparable</code> values are converted by their <code>String</code> constructor,
+ * the last converted value is reused while property type stays the same.
+ * <p/>
+ * Matching follows the comparison rules of <code>org.osgi.framework.FrameworkUtil#createFilter(String)</code>
+ * filters with one exception: a filter value that cannot be converted to the property type
+ * does not match instead of throwing <code>NumberFormatException</code>.
+ *
+ * @author dmytro.pishchukhin
+ * @see FilterUtils#compile(String)
+ * @see FilterUtils#compile(org.osgi.framework.Filter)
+ * @since 1.3
+ */
+public final class CompiledFilter implements Filter {
+    private static final int MAP = 0;
+    private static final int MAP_CASE = 1;
+    private static final int DICTIONARY = 2;
+    private static final int DICTIONARY_CASE = 3;
+    private static final int REFERENCE = 4;
+
+    private final Node root;
+    private final String filter;
+
+    CompiledFilter(String filter) throws InvalidSyntaxException {
+        if (filter == null) {
+            throw new NullPointerException("filter is null");
+        }
+        this.root = new Parser(filter).parse();
+        StringBuilder builder = new StringBuilder(filter.length());
+        root.appendTo(builder);
+        this.filter = builder.toString();
+    }
+
+    /**
+     * Match filter against map. Keys are matched case sensitively,
+     * as by <code>Filter.matches(Map)</code> of OSGi R4.3.
+     *
+     * @param properties properties, <code>null</code> is treated as empty map
+     * @return <code>true</code> if properties match filter, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean matches(Map<String, ?> properties) {
+        return root.match(properties, MAP_CASE);
+    }
+
+    /**
+     * Match filter against map. Keys are matched case insensitively,
+     * exact key is looked up first.
+     *
+     * @param properties properties, <code>null</code> is treated as empty map
+     * @return <code>true</code> if properties match filter, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean matchesIgnoreCase(Map<String, ?> properties) {
+        return root.match(properties, MAP);
+    }
+
+    /**
+     * Match filter against service properties. Keys are matched case insensitively.
+     *
+     * @param reference service reference
+     * @return <code>true</code> if service properties match filter, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean match(ServiceReference reference) {
+        return root.match(reference, REFERENCE);
+    }
+
+    /**
+     * Match filter against dictionary. Keys are matched case insensitively,
+     * exact key is looked up first.
+     *
+     * @param dictionary properties, <code>null</code> is treated as empty dictionary
+     * @return <code>true</code> if properties match filter, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean match(Dictionary dictionary) {
+        return root.match(dictionary, DICTIONARY);
+    }
+
+    /**
+     * Match filter against dictionary. Keys are matched case sensitively.
+     *
+     * @param dictionary properties, <code>null</code> is treated as empty dictionary
+     * @return <code>true</code> if properties match filter, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean matchCase(Dictionary dictionary) {
+        return root.match(dictionary, DICTIONARY_CASE);
+    }
+
+    /**
+     * Get normalized filter string
+     *
+     * @return filter string
+     */
+    @Override
+    public String toString() {
+        return filter;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof Filter && filter.equals(o.toString()));
+    }
+
+    @Override
+    public int hashCode() {
+        return filter.hashCode();
+    }
+
+    /**
+     * Get terms one of which has to be satisfied for the filter to match:
+     * <code>{key, value}</code> for equality of String value and <code>{key, null}</code>
+     * if only presence of key is required.
+     *
+     * @return terms or <code>null</code> if filter does not require any of terms (e.g. NOT filter)
+     */
+    List<String[]> getRequiredTerms() {
+        return root.getRequiredTerms();
+    }
+
+    private static Object getProperty(Object properties, int mode, String key) {
+        if (properties == null) {
+            return null;
+        }
+        switch (mode) {
+            case MAP:
+            case MAP_CASE: {
+                Map map = (Map) properties;
+                Object value = map.get(key);
+                if (value != null || mode == MAP_CASE || map.isEmpty()) {
+                    return value;
+                }
+                for (Object o : map.entrySet()) {
+                    Map.Entry entry = (Map.Entry) o;
+                    if (entry.getKey() instanceof String && key.equalsIgnoreCase((String) entry.getKey())) {
+                        return entry.getValue();
+                    }
+                }
+                return null;
+            }
+            case DICTIONARY:
+            case DICTIONARY_CASE: {
+                Dictionary dictionary = (Dictionary) properties;
+                Object value = dictionary.get(key);
+                if (value != null || mode == DICTIONARY_CASE || dictionary.isEmpty()) {
+                    return value;
+                }
+                for (Enumeration keys = dictionary.keys(); keys.hasMoreElements(); ) {
+                    Object k = keys.nextElement();
+                    if (k instanceof String && key.equalsIgnoreCase((String) k)) {
+                        return dictionary.get(k);
+                    }
+                }
+                return null;
+            }
+            default:
+                return ((ServiceReference) properties).getProperty(key);
+        }
+    }
+
+    /**
+     * Remove whitespaces for APPROX comparison
+     */
+    private static String approxString(String value) {
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (builder == null) {
+                    builder = new StringBuilder(value.length());
+                    builder.append(value, 0, i);
+                }
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder != null ? builder.toString() : value;
+    }
+
+    /**
+     * Filter tree node
+     */
+    private abstract static class Node {
+        abstract boolean match(Object properties, int mode);
+
+        abstract void appendTo(StringBuilder builder);
+
+        /**
+         * @return terms one of which is required for match or <code>null</code>
+         */
+        abstract List<String[]> getRequiredTerms();
+    }
+
+    /**
+     * AND/OR node
+     */
+    private static final class Composite extends Node {
+        private final boolean and;
+        private final Node[] nodes;
+
+        private Composite(boolean and, Node[] nodes) {
+            this.and = and;
+            this.nodes = nodes;
+        }
+
+        @Override
+        boolean match(Object properties, int mode) {
+            for (Node node : nodes) {
+                if (node.match(properties, mode) != and) {
+                    return !and;
+                }
+            }
+            return and;
+        }
+
+        @Override
+        List<String[]> getRequiredTerms() {
+            List<String[]> result = null;
+            for (Node node : nodes) {
+                List<String[]> terms = node.getRequiredTerms();
+                if (and) {
+                    if (terms != null && (result == null || isBetter(terms, result))) {
+                        result = terms;
+                    }
+                } else if (terms == null) {
+                    return null;
+                } else if (result == null) {
+                    result = new ArrayList<String[]>(terms);
+                } else {
+                    result.addAll(terms);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Equality terms are more selective than presence terms, fewer terms are better
+         */
+        private static boolean isBetter(List<String[]> terms, List<String[]> other) {
+            boolean equality = isEquality(terms);
+            if (equality != isEquality(other)) {
+                return equality;
+            }
+            return terms.size() < other.size();
+        }
+
+        private static boolean isEquality(List<String[]> terms) {
+            for (String[] term : terms) {
+                if (term[1] == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(and ? '&' : '|');
+            for (Node node : nodes) {
+                node.appendTo(builder);
+            }
+            builder.append(')');
+        }
+    }
+
+    /**
+     * NOT node
+     */
+    private static final class Not extends Node {
+        private final Node node;
+
+        private Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        boolean match(Object properties, int mode) {
+            return !node.match(properties, mode);
+        }
+
+        @Override
+        List<String[]> getRequiredTerms() {
+            return null;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append("(!");
+            node.appendTo(builder);
+            builder.append(')');
+        }
+    }
+
+    /**
+     * PRESENT node
+     */
+    private static final class Present extends Node {
+        private final String key;
+
+        private Present(String key) {
+            this.key = key;
+        }
+
+        @Override
+        boolean match(Object properties, int mode) {
+            return getProperty(properties, mode, key) != null;
+        }
+
+        @Override
+        List<String[]> getRequiredTerms() {
+            return Collections.singletonList(new String[]{key, null});
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(key).append("=*)");
+        }
+    }
+
+    /**
+     * Node that compares property value. Arrays and collections match if any of elements matches.
+     * Element comparisons that are not supported by the node do not match.
+     */
+    private abstract static class Item extends Node {
+        final String key;
+
+        Item(String key) {
+            this.key = key;
+        }
+
+        @Override
+        final boolean match(Object properties, int mode) {
+            return compare(getProperty(properties, mode, key));
+        }
+
+        @Override
+        List<String[]> getRequiredTerms() {
+            return Collections.singletonList(new String[]{key, null});
+        }
+
+        final boolean compare(Object value) {
+            if (value == null) {
+                return false;
+            }
+            if (value instanceof String) {
+                return compareString((String) value);
+            }
+            if (value instanceof Integer) {
+                return compareLong(((Integer) value).intValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+            if (value instanceof Long) {
+                return compareLong(((Long) value).longValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+            if (value instanceof Boolean) {
+                return compareBoolean(((Boolean) value).booleanValue());
+            }
+            if (value instanceof Object[]) {
+                for (Object element : (Object[]) value) {
+                    if (compare(element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (value instanceof List && value instanceof RandomAccess) {
+                List list = (List) value;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    if (compare(list.get(i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (value instanceof Collection) {
+                for (Object element : (Collection) value) {
+                    if (compare(element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (value.getClass().isArray()) {
+                return comparePrimitiveArray(value);
+            }
+            if (value instanceof Byte) {
+                return compareLong(((Byte) value).byteValue(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+            }
+            if (value instanceof Short) {
+                return compareLong(((Short) value).shortValue(), Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+            if (value instanceof Character) {
+                return compareChar(((Character) value).charValue());
+            }
+            if (value instanceof Float) {
+                return compareFloat(((Float) value).floatValue());
+            }
+            if (value instanceof Double) {
+                return compareDouble(((Double) value).doubleValue());
+            }
+            return compareObject(value);
+        }
+
+        private boolean comparePrimitiveArray(Object array) {
+            Class<?> type = array.getClass().getComponentType();
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                boolean result;
+                if (type == Integer.TYPE) {
+                    result = compareLong(((int[]) array)[i], Integer.MIN_VALUE, Integer.MAX_VALUE);
+                } else if (type == Long.TYPE) {
+                    result = compareLong(((long[]) array)[i], Long.MIN_VALUE, Long.MAX_VALUE);
+                } else if (type == Byte.TYPE) {
+                    result = compareLong(((byte[]) array)[i], Byte.MIN_VALUE, Byte.MAX_VALUE);
+                } else if (type == Short.TYPE) {
+                    result = compareLong(((short[]) array)[i], Short.MIN_VALUE, Short.MAX_VALUE);
+                } else if (type == Character.TYPE) {
+                    result = compareChar(((char[]) array)[i]);
+                } else if (type == Float.TYPE) {
+                    result = compareFloat(((float[]) array)[i]);
+                } else if (type == Double.TYPE) {
+                    result = compareDouble(((double[]) array)[i]);
+                } else if (type == Boolean.TYPE) {
+                    result = compareBoolean(((boolean[]) array)[i]);
+                } else {
+                    return false;
+                }
+                if (result) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        abstract boolean compareString(String value);
+
+        /**
+         * @param value integral value
+         * @param min   minimal value of property type
+         * @param max   maximal value of property type
+         */
+        boolean compareLong(long value, long min, long max) {
+            return false;
+        }
+
+        boolean compareChar(char value) {
+            return false;
+        }
+
+        boolean compareFloat(float value) {
+            return false;
+        }
+
+        boolean compareDouble(double value) {
+            return false;
+        }
+
+        boolean compareBoolean(boolean value) {
+            return false;
+        }
+
+        boolean compareObject(Object value) {
+            return false;
+        }
+    }
+
+    /**
+     * EQUAL, APPROX, GREATER and LESS node with pre-converted filter value
+     */
+    private static final class Comparison extends Item {
+        private static final int EQUAL = 0;
+        private static final int APPROX = 1;
+        private static final int GREATER = 2;
+        private static final int LESS = 3;
+        private static final Class[] CONSTRUCTOR_TYPE = new Class[]{String.class};
+
+        private final int operation;
+        private final String value;
+        private final String approxValue;
+        private final String trimmedValue;
+        private final boolean booleanValue;
+        private final boolean hasLong;
+        private final long longValue;
+        private final boolean hasFloat;
+        private final float floatValue;
+        private final boolean hasDouble;
+        private final double doubleValue;
+        private final boolean hasChar;
+        private final char charValue;
+        private volatile Converted converted;
+
+        private Comparison(String key, int operation, String value) {
+            super(key);
+            this.operation = operation;
+            this.value = value;
+            this.approxValue = approxString(value);
+            this.trimmedValue = value.trim();
+            this.booleanValue = Boolean.valueOf(trimmedValue).booleanValue();
+            long l = 0;
+            boolean parsed = false;
+            try {
+                l = Long.parseLong(trimmedValue);
+                parsed = true;
+            } catch (NumberFormatException e) {
+                // not an integral value
+            }
+            this.hasLong = parsed;
+            this.longValue = l;
+            float f = 0;
+            parsed = false;
+            try {
+                f = Float.parseFloat(trimmedValue);
+                parsed = true;
+            } catch (NumberFormatException e) {
+                // not a float value
+            }
+            this.hasFloat = parsed;
+            this.floatValue = f;
+            double d = 0;
+            parsed = false;
+            try {
+                d = Double.parseDouble(trimmedValue);
+                parsed = true;
+            } catch (NumberFormatException e) {
+                // not a double value
+            }
+            this.hasDouble = parsed;
+            this.doubleValue = d;
+            this.hasChar = trimmedValue.length() > 0;
+            this.charValue = hasChar ? trimmedValue.charAt(0) : 0;
+        }
+
+        private boolean result(int comparison) {
+            switch (operation) {
+                case GREATER:
+                    return comparison >= 0;
+                case LESS:
+                    return comparison <= 0;
+                default:
+                    return comparison == 0;
+            }
+        }
+
+        @Override
+        boolean compareString(String string) {
+            if (operation == APPROX) {
+                return approxString(string).equalsIgnoreCase(approxValue);
+            }
+            if (operation == EQUAL) {
+                return string.equals(value);
+            }
+            return result(string.compareTo(value));
+        }
+
+        @Override
+        boolean compareLong(long l, long min, long max) {
+            if (!hasLong || longValue < min || longValue > max) {
+                return false;
+            }
+            return result(l < longValue ? -1 : (l == longValue ? 0 : 1));
+        }
+
+        @Override
+        boolean compareChar(char c) {
+            if (!hasChar) {
+                return false;
+            }
+            if (operation == APPROX) {
+                return c == charValue
+                        || Character.toUpperCase(c) == Character.toUpperCase(charValue)
+                        || Character.toLowerCase(c) == Character.toLowerCase(charValue);
+            }
+            return result(c - charValue);
+        }
+
+        @Override
+        boolean compareFloat(float f) {
+            return hasFloat && result(Float.compare(f, floatValue));
+        }
+
+        @Override
+        boolean compareDouble(double d) {
+            return hasDouble && result(Double.compare(d, doubleValue));
+        }
+
+        @Override
+        boolean compareBoolean(boolean b) {
+            return b == booleanValue;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        boolean compareObject(Object object) {
+            Object other = convert(object.getClass());
+            if (other == null) {
+                return false;
+            }
+            if (object instanceof Comparable) {
+                return result(((Comparable) object).compareTo(other));
+            }
+            return object.equals(other);
+        }
+
+        /**
+         * Convert filter value to property type by String constructor
+         *
+         * @param type property type
+         * @return converted value or <code>null</code> if value is not convertible
+         */
+        private Object convert(Class<?> type) {
+            Converted c = converted;
+            if (c == null || c.type != type) {
+                Object result = null;
+                try {
+                    Constructor<?> constructor = type.getConstructor(CONSTRUCTOR_TYPE);
+                    if (!constructor.isAccessible()) {
+                        constructor.setAccessible(true);
+                    }
+                    result = constructor.newInstance(trimmedValue);
+                } catch (Exception e) {
+                    // no public String constructor or value is not valid
+                }
+                c = new Converted(type, result);
+                converted = c;
+            }
+            return c.value;
+        }
+
+        @Override
+        List<String[]> getRequiredTerms() {
+            if (operation == EQUAL) {
+                return Collections.singletonList(new String[]{key, value});
+            }
+            return super.getRequiredTerms();
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(key);
+            switch (operation) {
+                case APPROX:
+                    builder.append("~=").append(FilterExpression.escape(approxValue));
+                    break;
+                case GREATER:
+                    builder.append(">=").append(FilterExpression.escape(value));
+                    break;
+                case LESS:
+                    builder.append("<=").append(FilterExpression.escape(value));
+                    break;
+                default:
+                    builder.append('=').append(FilterExpression.escape(value));
+            }
+            builder.append(')');
+        }
+    }
+
+    /**
+     * Filter value converted to property type
+     */
+    private static final class Converted {
+        private final Class<?> type;
+        private final Object value;
+
+        private Converted(Class<?> type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /**
+     * SUBSTRING node. <code>null</code> parts are wildcards.
+     */
+    private static final class Substring extends Item {
+        private final String[] parts;
+
+        private Substring(String key, String[] parts) {
+            super(key);
+            this.parts = parts;
+        }
+
+        @Override
+        boolean compareString(String string) {
+            int pos = 0;
+            for (int i = 0, size = parts.length; i < size; i++) {
+                String part = parts[i];
+                if (i + 1 < size) {
+                    if (part == null) {
+                        String next = parts[i + 1];
+                        if (next == null) {
+                            continue;
+                        }
+                        int index = string.indexOf(next, pos);
+                        if (index == -1) {
+                            return false;
+                        }
+                        pos = index + next.length();
+                        if (i + 2 < size) {
+                            i++;
+                        }
+                    } else {
+                        int length = part.length();
+                        if (!string.regionMatches(pos, part, 0, length)) {
+                            return false;
+                        }
+                        pos += length;
+                    }
+                } else {
+                    return part == null || string.endsWith(part);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(key).append('=');
+            for (String part : parts) {
+                if (part == null) {
+                    builder.append('*');
+                } else {
+                    builder.append(FilterExpression.escape(part));
+                }
+            }
+            builder.append(')');
+        }
+    }
+
+    /**
+     * RFC 1960 filter string parser
+     */
+    private static final class Parser {
+        private final String filter;
+        private final char[] chars;
+        private int pos;
+
+        private Parser(String filter) {
+            this.filter = filter;
+            this.chars = filter.toCharArray();
+        }
+
+        private Node parse() throws InvalidSyntaxException {
+            Node node;
+            try {
+                node = parseFilter();
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new InvalidSyntaxException("Filter ended abruptly", filter);
+            }
+            if (pos != chars.length) {
+                throw new InvalidSyntaxException("Extraneous trailing characters: " + filter.substring(pos), filter);
+            }
+            return node;
+        }
+
+        private Node parseFilter() throws InvalidSyntaxException {
+            skipWhiteSpace();
+            expect('(');
+            pos++;
+            Node node = parseComponent();
+            skipWhiteSpace();
+            expect(')');
+            pos++;
+            skipWhiteSpace();
+            return node;
+        }
+
+        private Node parseComponent() throws InvalidSyntaxException {
+            skipWhiteSpace();
+            switch (chars[pos]) {
+                case '&':
+                    pos++;
+                    return new Composite(true, parseList());
+                case '|':
+                    pos++;
+                    return new Composite(false, parseList());
+                case '!':
+                    pos++;
+                    skipWhiteSpace();
+                    expect('(');
+                    return new Not(parseFilter());
+                default:
+                    return parseItem();
+            }
+        }
+
+        private Node[] parseList() throws InvalidSyntaxException {
+            skipWhiteSpace();
+            expect('(');
+            List<Node> nodes = new ArrayList<Node>();
+            while (chars[pos] == '(') {
+                nodes.add(parseFilter());
+            }
+            return nodes.toArray(new Node[nodes.size()]);
+        }
+
+        private Node parseItem() throws InvalidSyntaxException {
+            String key = parseKey();
+            skipWhiteSpace();
+            switch (chars[pos]) {
+                case '~':
+                    if (chars[pos + 1] == '=') {
+                        pos += 2;
+                        return new Comparison(key, Comparison.APPROX, parseValue());
+                    }
+                    break;
+                case '>':
+                    if (chars[pos + 1] == '=') {
+                        pos += 2;
+                        return new Comparison(key, Comparison.GREATER, parseValue());
+                    }
+                    break;
+                case '<':
+                    if (chars[pos + 1] == '=') {
+                        pos += 2;
+                        return new Comparison(key, Comparison.LESS, parseValue());
+                    }
+                    break;
+                case '=':
+                    if (chars[pos + 1] == '*') {
+                        int start = pos;
+                        pos += 2;
+                        skipWhiteSpace();
+                        if (chars[pos] == ')') {
+                            return new Present(key);
+                        }
+                        pos = start;
+                    }
+                    pos++;
+                    String[] parts = parseSubstring();
+                    if (parts.length == 1 && parts[0] != null) {
+                        return new Comparison(key, Comparison.EQUAL, parts[0]);
+                    }
+                    return new Substring(key, parts);
+            }
+            throw new InvalidSyntaxException("Invalid operator: " + filter.substring(pos), filter);
+        }
+
+        private String parseKey() throws InvalidSyntaxException {
+            skipWhiteSpace();
+            int begin = pos;
+            int end = pos;
+            char c = chars[pos];
+            while (c != '~' && c != '<' && c != '>' && c != '=' && c != '(' && c != ')') {
+                pos++;
+                if (!Character.isWhitespace(c)) {
+                    end = pos;
+                }
+                c = chars[pos];
+            }
+            if (end == begin) {
+                throw new InvalidSyntaxException("Missing attr: " + filter.substring(pos), filter);
+            }
+            return new String(chars, begin, end - begin);
+        }
+
+        private String parseValue() throws InvalidSyntaxException {
+            StringBuilder builder = new StringBuilder();
+            while (chars[pos] != ')') {
+                char c = chars[pos];
+                if (c == '(') {
+                    throw new InvalidSyntaxException("Invalid value: " + filter.substring(pos), filter);
+                }
+                if (c == '\\') {
+                    pos++;
+                    c = chars[pos];
+                }
+                builder.append(c);
+                pos++;
+            }
+            if (builder.length() == 0) {
+                throw new InvalidSyntaxException("Missing value: " + filter.substring(pos), filter);
+            }
+            return builder.toString();
+        }
+
+        private String[] parseSubstring() throws InvalidSyntaxException {
+            StringBuilder builder = new StringBuilder();
+            List<String> parts = new ArrayList<String>();
+            while (chars[pos] != ')') {
+                char c = chars[pos];
+                if (c == '(') {
+                    throw new InvalidSyntaxException("Invalid value: " + filter.substring(pos), filter);
+                }
+                if (c == '*') {
+                    if (builder.length() > 0) {
+                        parts.add(builder.toString());
+                    }
+                    builder.setLength(0);
+                    parts.add(null);
+                    pos++;
+                    continue;
+                }
+                if (c == '\\') {
+                    pos++;
+                    c = chars[pos];
+                }
+                builder.append(c);
+                pos++;
+            }
+            if (builder.length() > 0) {
+                parts.add(builder.toString());
+            }
+            if (parts.isEmpty()) {
+                throw new InvalidSyntaxException("Missing value: " + filter.substring(pos), filter);
+            }
+            return parts.toArray(new String[parts.size()]);
+        }
+
+        private void expect(char c) throws InvalidSyntaxException {
+            if (chars[pos] != c) {
+                throw new InvalidSyntaxException(String.format("Missing '%s': %s", c, filter.substring(pos)), filter);
+            }
+        }
+
+        private void skipWhiteSpace() {
+            while (pos < chars.length && Character.isWhitespace(chars[pos])) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.getExecutor;
+
+/**
+ * Future that is completed by framework events and supports callbacks and composition.
+ * <p/>
+ * <code>*Completion</code> methods of utilities return futures that are completed when the expected
+ * framework event is delivered, so a pipeline of operations does not block any thread:
+ * <pre>
+ * BundleUtils.startBundleCompletion(bc, bundle)
+ *     .thenCompose(new CompletionFuture.Step&lt;Bundle, ServiceReference&gt;() {
+ *         public CompletionFuture&lt;ServiceReference&gt; apply(Bundle bundle) {
+ *             return ServiceUtils.serviceReferenceCompletion(bc, Echo.class);
+ *         }
+ *     })
+ *     .get(5, TimeUnit.SECONDS);
+ * </pre>
+ * Callbacks and composition steps are executed by the shared executor ({@link SchedulerUtils#getExecutor()}),
+ * never by the framework thread that delivers the event, so they could block.
+ *
+ * @author dmytro.pishchukhin
+ * @see java.util.concurrent.Future
+ * @since 1.3
+ */
+public class CompletionFuture<T> implements Future<T> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+
+    private boolean completed;
+    private T result;
+    private Throwable failure;
+
+    /**
+     * Create not completed future
+     *
+     * @since 1.3
+     */
+    public CompletionFuture() {
+    }
+
+    /**
+     * Create successfully completed future
+     *
+     * @param result result
+     * @return completed future
+     * @since 1.3
+     */
+    public static <T> CompletionFuture<T> completed(T result) {
+        CompletionFuture<T> future = new CompletionFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create exceptionally completed future
+     *
+     * @param failure failure
+     * @return completed future
+     * @throws NullPointerException If <code>failure</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static <T> CompletionFuture<T> failed(Throwable failure) {
+        CompletionFuture<T> future = new CompletionFuture<T>();
+        future.fail(failure);
+        return future;
+    }
+
+    /**
+     * Create future that is completed when all futures are completed.
+     * It fails with the first failure of any future.
+     *
+     * @param futures futures
+     * @return future with results in the order of <code>futures</code>
+     * @throws NullPointerException If <code>futures</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static <T> CompletionFuture<List<T>> all(Collection<? extends CompletionFuture<? extends T>> futures) {
+        final CompletionFuture<List<T>> result = new CompletionFuture<List<T>>();
+        final List<CompletionFuture<? extends T>> snapshot = new ArrayList<CompletionFuture<? extends T>>(futures);
+        if (snapshot.isEmpty()) {
+            result.complete(new ArrayList<T>());
+            return result;
+        }
+        final AtomicInteger remaining = new AtomicInteger(snapshot.size());
+        for (CompletionFuture<? extends T> future : snapshot) {
+            future.whenComplete(new Callback<Object>() {
+                public void completed(Object value) {
+                    if (remaining.decrementAndGet() == 0) {
+                        List<T> values = new ArrayList<T>(snapshot.size());
+                        for (CompletionFuture<? extends T> completedFuture : snapshot) {
+                            values.add(completedFuture.result);
+                        }
+                        result.complete(values);
+                    }
+                }
+
+                public void failed(Throwable failure) {
+                    result.fail(failure);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Complete future with result. Only the first completion has effect.
+     *
+     * @param result result
+     * @return <code>true</code> if this call completed the future
+     * @since 1.3
+     */
+    public boolean complete(T result) {
+        return finish(result, null);
+    }
+
+    /**
+     * Complete future with failure. Only the first completion has effect.
+     *
+     * @param failure failure
+     * @return <code>true</code> if this call completed the future
+     * @throws NullPointerException If <code>failure</code> is <code>null</code>
+     * @since 1.3
+     */
+    public boolean fail(Throwable failure) {
+        if (failure == null) {
+            throw new NullPointerException("failure is null");
+        }
+        return finish(null, failure);
+    }
+
+    /**
+     * Register callback. If future is already completed, callback is scheduled immediately.
+     *
+     * @param callback callback
+     * @return this future
+     * @throws NullPointerException If <code>callback</code> is <code>null</code>
+     * @since 1.3
+     */
+    public CompletionFuture<T> whenComplete(Callback<? super T> callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback is null");
+        }
+        synchronized (this) {
+            if (!completed) {
+                callbacks.add(callback);
+                return this;
+            }
+        }
+        notify(callback);
+        return this;
+    }
+
+    /**
+     * Compose next step that starts when this future is completed successfully.
+     * Failure of this future or of the step fails the returned future.
+     *
+     * @param step next step
+     * @return future of the next step
+     * @throws NullPointerException If <code>step</code> is <code>null</code>
+     * @since 1.3
+     */
+    public <R> CompletionFuture<R> thenCompose(final Step<? super T, R> step) {
+        if (step == null) {
+            throw new NullPointerException("step is null");
+        }
+        final CompletionFuture<R> next = new CompletionFuture<R>();
+        whenComplete(new Callback<T>() {
+            public void completed(T value) {
+                CompletionFuture<R> stepFuture;
+                try {
+                    stepFuture = step.apply(value);
+                } catch (Throwable e) {
+                    next.fail(e);
+                    return;
+                }
+                if (stepFuture == null) {
+                    next.fail(new NullPointerException("step returned null"));
+                    return;
+                }
+                stepFuture.whenComplete(new Callback<R>() {
+                    public void completed(R stepValue) {
+                        next.complete(stepValue);
+                    }
+
+                    public void failed(Throwable failure) {
+                        next.fail(failure);
+                    }
+                });
+            }
+
+            public void failed(Throwable failure) {
+                next.fail(failure);
+            }
+        });
+        return next;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException());
+    }
+
+    public synchronized boolean isCancelled() {
+        return failure instanceof CancellationException;
+    }
+
+    public synchronized boolean isDone() {
+        return completed;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private synchronized T report() throws ExecutionException {
+        if (failure instanceof CancellationException) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return result;
+    }
+
+    private boolean finish(T result, Throwable failure) {
+        List<Callback<? super T>> toNotify;
+        synchronized (this) {
+            if (completed) {
+                return false;
+            }
+            this.completed = true;
+            this.result = result;
+            this.failure = failure;
+            toNotify = new ArrayList<Callback<? super T>>(callbacks);
+            callbacks.clear();
+        }
+        done.countDown();
+        for (Callback<? super T> callback : toNotify) {
+            notify(callback);
+        }
+        return true;
+    }
+
+    private void notify(final Callback<? super T> callback) {
+        Runnable task = new Runnable() {
+            public void run() {
+                T value;
+                Throwable error;
+                synchronized (CompletionFuture.this) {
+                    value = result;
+                    error = failure;
+                }
+                if (error == null) {
+                    callback.completed(value);
+                } else {
+                    callback.failed(error);
+                }
+            }
+        };
+        try {
+            getExecutor().execute(task);
+        } catch (RuntimeException e) {
+            // executor is shut down, callback is notified in the completing thread
+            task.run();
+        }
+    }
+
+    /**
+     * Completion callback
+     *
+     * @since 1.3
+     */
+    public interface Callback<T> {
+        /**
+         * Future is completed successfully
+         *
+         * @param result result
+         */
+        void completed(T result);
+
+        /**
+         * Future is completed with failure or cancelled
+         *
+         * @param failure failure, {@link CancellationException} if future is cancelled
+         */
+        void failed(Throwable failure);
+    }
+
+    /**
+     * Composition step
+     *
+     * @since 1.3
+     */
+    public interface Step<T, R> {
+        /**
+         * Start next step with result of previous step
+         *
+         * @param result result of previous step
+         * @return future of the next step
+         * @throws Exception If the step could not be started
+         */
+        CompletionFuture<R> apply(T result) throws Exception;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Absolute point in time for wait operations based on {@link System#nanoTime()}.
+ * <p/>
+ * All <code>(timeout, timeUnit)</code> wait methods of utilities create a deadline with
+ * {@link #after(long, java.util.concurrent.TimeUnit)}, so timeouts below one millisecond keep their precision.
+ * A chain of waits could share one deadline:
+ * <pre>
+ * Deadline deadline = Deadline.after(500, TimeUnit.MICROSECONDS);
+ * ServiceReference reference = ServiceUtils.getServiceReference(bc, Echo.class, deadline);
+ * BundleEvent event = BundleUtils.waitForBundleEvent(bc, "symbolic.name", null, BundleEvent.STARTED, deadline);
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see System#nanoTime()
+ * @since 1.3
+ */
+public final class Deadline {
+    /**
+     * Timeouts that are longer than this value are infinite
+     */
+    private static final long MAX_TIMEOUT_NANOS = Long.MAX_VALUE / 2;
+    private static final long NANOS_IN_MILLI = 1000000L;
+
+    private static final Deadline INFINITE = new Deadline(0, true);
+
+    private final long deadlineNanos;
+    private final boolean infinite;
+
+    private Deadline(long deadlineNanos, boolean infinite) {
+        this.deadlineNanos = deadlineNanos;
+        this.infinite = infinite;
+    }
+
+    /**
+     * Create deadline after timeout from now
+     *
+     * @param timeout  time interval. If zero, the deadline is infinite.
+     * @param timeUnit time unit for the time interval
+     * @return deadline
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>timeUnit</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static Deadline after(long timeout, TimeUnit timeUnit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout value is negative");
+        }
+        long timeoutNanos = timeUnit.toNanos(timeout);
+        if (timeout == 0 || timeoutNanos > MAX_TIMEOUT_NANOS) {
+            return INFINITE;
+        }
+        return new Deadline(System.nanoTime() + timeoutNanos, false);
+    }
+
+    /**
+     * Create deadline after timeoutInMillis from now
+     *
+     * @param timeoutInMillis time interval in milliseconds. If zero, the deadline is infinite.
+     * @return deadline
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @since 1.3
+     */
+    public static Deadline after(long timeoutInMillis) {
+        return after(timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Get deadline that is already expired. Waits with this deadline check only the current state.
+     *
+     * @return expired deadline
+     * @since 1.3
+     */
+    public static Deadline now() {
+        return new Deadline(System.nanoTime(), false);
+    }
+
+    /**
+     * Get infinite deadline
+     *
+     * @return deadline that never expires
+     * @since 1.3
+     */
+    public static Deadline infinite() {
+        return INFINITE;
+    }
+
+    /**
+     * Check if deadline is infinite
+     *
+     * @return <code>true</code> if deadline never expires
+     * @since 1.3
+     */
+    public boolean isInfinite() {
+        return infinite;
+    }
+
+    /**
+     * Check if deadline is expired
+     *
+     * @return <code>true</code> if deadline is expired
+     * @since 1.3
+     */
+    public boolean isExpired() {
+        return !infinite && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Get remaining time in nanoseconds
+     *
+     * @return remaining time, <code>0</code> if deadline is expired or
+     *         <code>Long.MAX_VALUE</code> if deadline is infinite
+     * @since 1.3
+     */
+    public long remainingNanos() {
+        if (infinite) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    /**
+     * Get remaining time
+     *
+     * @param timeUnit time unit of the result
+     * @return remaining time truncated to <code>timeUnit</code>
+     * @throws NullPointerException If <code>timeUnit</code> is <code>null</code>
+     * @since 1.3
+     */
+    public long remaining(TimeUnit timeUnit) {
+        return timeUnit.convert(remainingNanos(), NANOSECONDS);
+    }
+
+    /**
+     * Get remaining time for APIs that accept only milliseconds and treat zero as infinite wait
+     * (e.g. {@link org.osgi.util.tracker.ServiceTracker#waitForService(long)}).
+     * Remaining time is rounded up to the next millisecond, so the result is never zero for finite deadline.
+     * Callers have to check {@link #isExpired()} after the wait.
+     *
+     * @return <code>0</code> if deadline is infinite, otherwise positive remaining time in milliseconds
+     * @since 1.3
+     */
+    public long toMillisTimeout() {
+        if (infinite) {
+            return 0;
+        }
+        long nanos = remainingNanos();
+        return Math.max(1, (nanos + NANOS_IN_MILLI - 1) / NANOS_IN_MILLI);
+    }
+
+    /**
+     * Wait for latch until deadline
+     *
+     * @param latch latch
+     * @return <code>true</code> if latch count reached zero, <code>false</code> if deadline is expired
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     * @since 1.3
+     */
+    public boolean await(CountDownLatch latch) throws InterruptedException {
+        if (infinite) {
+            latch.await();
+            return true;
+        }
+        return latch.await(remainingNanos(), NANOSECONDS);
+    }
+
+    /**
+     * Wait for condition signal until deadline. Current thread has to hold the lock of the condition.
+     * Spurious wakeups are possible, the caller has to check its state in a loop.
+     *
+     * @param condition condition
+     * @return <code>false</code> if deadline is expired
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     * @since 1.3
+     */
+    public boolean await(Condition condition) throws InterruptedException {
+        if (infinite) {
+            condition.await();
+            return true;
+        }
+        long nanos = remainingNanos();
+        if (nanos <= 0) {
+            return false;
+        }
+        condition.awaitNanos(nanos);
+        return !isExpired();
+    }
+
+    /**
+     * Wait for monitor notification until deadline. Current thread has to own the monitor.
+     * Spurious wakeups are possible, the caller has to check its state in a loop.
+     *
+     * @param monitor monitor
+     * @return <code>false</code> if deadline is expired
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     * @since 1.3
+     */
+    public boolean awaitNotification(Object monitor) throws InterruptedException {
+        if (infinite) {
+            monitor.wait();
+            return true;
+        }
+        long nanos = remainingNanos();
+        if (nanos <= 0) {
+            return false;
+        }
+        monitor.wait(nanos / NANOS_IN_MILLI, (int) (nanos % NANOS_IN_MILLI));
+        return !isExpired();
+    }
+
+    @Override
+    public String toString() {
+        return infinite ? "Deadline[infinite]" : "Deadline[remaining=" + remainingNanos() + "ns]";
+    }
+}
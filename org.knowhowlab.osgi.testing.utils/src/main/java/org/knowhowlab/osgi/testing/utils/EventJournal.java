@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+
+import java.util.EventObject;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded journal of framework, bundle and service events.
+ * <p/>
+ * The journal records events into preallocated ring buffer from the moment it is started.
+ * Every recorded event gets a sequence number. {@link #cursor()} returns the sequence number of
+ * the next event, so waits "since cursor" match events that were fired between the action
+ * and the wait call:
+ * <pre>
+ * EventJournal journal = EventJournal.start(bc);
+ * long cursor = journal.cursor();
+ * bundle.start();
+ * BundleEvent event = BundleUtils.waitForBundleEvent(journal, cursor, "symbolic.name", BundleEvent.STARTED, 5000);
+ * </pre>
+ * If more than <code>capacity</code> events were recorded since the cursor, the oldest of them are lost.
+ * Already recorded events are checked without wait by <code>find*Event</code> methods, e.g.
+ * {@link ServiceUtils#findServiceEvent(EventJournal, long, String, int)}.
+ * <p/>
+ * Journal is opt-in: it records only after {@link #start(BundleContext)} and has to be stopped by the test,
+ * so tests that do not use it do not pay for a listener that copies every framework event.
+ *
+ * @author dmytro.pishchukhin
+ * @see ServiceUtils#waitForServiceEvent(EventJournal, long, org.osgi.framework.Filter, int, long, java.util.concurrent.TimeUnit)
+ * @see BundleUtils#waitForBundleEvent(EventJournal, long, String, org.osgi.framework.Version, int, long, java.util.concurrent.TimeUnit)
+ * @see FrameworkUtils#waitForFrameworkEvent(EventJournal, long, String, org.osgi.framework.Version, int, long, java.util.concurrent.TimeUnit)
+ * @since 1.3
+ */
+public class EventJournal {
+    /**
+     * Default journal capacity
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final BundleContext bc;
+    private final int capacity;
+    private final EventObject[] events;
+    private final long[] timestamps;
+    /**
+     * Sequence number of the next recorded event
+     */
+    private long sequence;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recorded = lock.newCondition();
+
+    private final Listener listener = new Listener();
+
+    private EventJournal(BundleContext bc, int capacity) {
+        this.bc = bc;
+        this.capacity = capacity;
+        this.events = new EventObject[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * Start journal with default capacity
+     *
+     * @param bc BundleContext
+     * @return started journal
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static EventJournal start(BundleContext bc) {
+        return start(bc, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Start journal
+     *
+     * @param bc       BundleContext
+     * @param capacity maximum number of recorded events
+     * @return started journal
+     * @throws IllegalArgumentException If <code>capacity</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static EventJournal start(BundleContext bc, int capacity) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity value is not positive");
+        }
+        EventJournal journal = new EventJournal(bc, capacity);
+        bc.addFrameworkListener(journal.listener);
+        bc.addBundleListener(journal.listener);
+        bc.addServiceListener(journal.listener);
+        return journal;
+    }
+
+    /**
+     * Stop recording. Already recorded events are still available.
+     *
+     * @since 1.3
+     */
+    public void stop() {
+        try {
+            bc.removeServiceListener(listener);
+            bc.removeBundleListener(listener);
+            bc.removeFrameworkListener(listener);
+        } catch (IllegalStateException e) {
+            // BundleContext is no longer valid
+        }
+    }
+
+    /**
+     * Get journal capacity
+     *
+     * @return maximum number of recorded events
+     * @since 1.3
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get cursor for events that are recorded from now on
+     *
+     * @return sequence number of the next recorded event
+     * @since 1.3
+     */
+    public long cursor() {
+        lock.lock();
+        try {
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get cursor for events that were recorded since timestamp
+     *
+     * @param timestampInMillis time in milliseconds (see {@link System#currentTimeMillis()})
+     * @return sequence number of the first available event that was recorded at or after
+     *         <code>timestampInMillis</code> or sequence number of the next recorded event
+     * @since 1.3
+     */
+    public long cursor(long timestampInMillis) {
+        lock.lock();
+        try {
+            long result = sequence;
+            for (long seq = sequence - 1; seq >= Math.max(0, sequence - capacity); seq--) {
+                if (timestamps[index(seq)] < timestampInMillis) {
+                    break;
+                }
+                result = seq;
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the first event since cursor that matches
+     *
+     * @param sinceCursor cursor
+     * @param matcher     event matcher
+     * @param deadline    deadline of the wait
+     * @return matched event or <code>null</code>
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     */
+    EventObject waitForEvent(long sinceCursor, Matcher matcher, Deadline deadline)
+            throws InterruptedException {
+        lock.lock();
+        try {
+            long next = sinceCursor;
+            while (true) {
+                next = Math.max(next, sequence - capacity);
+                for (; next < sequence; next++) {
+                    EventObject event = events[index(next)];
+                    if (matcher.matches(event)) {
+                        return event;
+                    }
+                }
+                if (deadline.isExpired()) {
+                    return null;
+                }
+                deadline.await(recorded);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(EventObject event) {
+        lock.lock();
+        try {
+            int index = index(sequence);
+            events[index] = event;
+            timestamps[index] = System.currentTimeMillis();
+            sequence++;
+            recorded.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int index(long seq) {
+        return (int) (seq % capacity);
+    }
+
+    /**
+     * Recorded events matcher
+     */
+    interface Matcher {
+        boolean matches(EventObject event);
+    }
+
+    private class Listener implements FrameworkListener, SynchronousBundleListener, AllServiceListener {
+        public void frameworkEvent(FrameworkEvent event) {
+            record(event);
+        }
+
+        public void bundleChanged(BundleEvent event) {
+            record(event);
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            record(event);
+        }
+    }
+}
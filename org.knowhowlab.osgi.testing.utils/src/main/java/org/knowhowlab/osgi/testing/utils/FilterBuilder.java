@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.Collection;
+
+/**
+ * Fluent builder of filters. Builder combines {@link FilterExpression}s and parses
+ * the resulting filter string only once in {@link #build()}.
+ * <pre>
+ * import static org.knowhowlab.osgi.testing.utils.FilterExpression.*;
+ *
+ * Filter filter = FilterUtils.builder()
+ *     .and(eq(Constants.OBJECTCLASS, Echo.class.getName()), present("echo.prefix"))
+ *     .or(eq("echo.default", true))
+ *     .build();
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see FilterExpression
+ * @see FilterUtils#builder()
+ * @since 1.3
+ */
+public class FilterBuilder {
+    private FilterExpression expression;
+
+    FilterBuilder() {
+    }
+
+    /**
+     * Combine current expression and given expressions with AND
+     *
+     * @param expressions expressions
+     * @return this builder
+     * @throws IllegalArgumentException If there is no current expression and <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public FilterBuilder and(FilterExpression... expressions) {
+        expression = FilterExpression.and(withCurrent(expressions));
+        return this;
+    }
+
+    /**
+     * Combine current expression and given expressions with AND
+     *
+     * @param expressions expressions
+     * @return this builder
+     * @throws IllegalArgumentException If there is no current expression and <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public FilterBuilder and(Collection<FilterExpression> expressions) {
+        return and(expressions.toArray(new FilterExpression[expressions.size()]));
+    }
+
+    /**
+     * Combine current expression and given expressions with OR
+     *
+     * @param expressions expressions
+     * @return this builder
+     * @throws IllegalArgumentException If there is no current expression and <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public FilterBuilder or(FilterExpression... expressions) {
+        expression = FilterExpression.or(withCurrent(expressions));
+        return this;
+    }
+
+    /**
+     * Combine current expression and given expressions with OR
+     *
+     * @param expressions expressions
+     * @return this builder
+     * @throws IllegalArgumentException If there is no current expression and <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public FilterBuilder or(Collection<FilterExpression> expressions) {
+        return or(expressions.toArray(new FilterExpression[expressions.size()]));
+    }
+
+    /**
+     * Negate current expression
+     *
+     * @return this builder
+     * @throws IllegalStateException If there is no current expression
+     * @since 1.3
+     */
+    public FilterBuilder not() {
+        expression = FilterExpression.not(getExpression());
+        return this;
+    }
+
+    /**
+     * Get current expression
+     *
+     * @return current expression
+     * @throws IllegalStateException If there is no current expression
+     * @since 1.3
+     */
+    public FilterExpression getExpression() {
+        if (expression == null) {
+            throw new IllegalStateException("Filter expression is empty");
+        }
+        return expression;
+    }
+
+    /**
+     * Create filter from current expression
+     *
+     * @return new filter
+     * @throws InvalidSyntaxException If expression contains invalid filter string
+     * @throws IllegalStateException  If there is no current expression
+     * @since 1.3
+     */
+    public Filter build() throws InvalidSyntaxException {
+        return getExpression().toFilter();
+    }
+
+    @Override
+    public String toString() {
+        return expression != null ? expression.toString() : "";
+    }
+
+    private FilterExpression[] withCurrent(FilterExpression[] expressions) {
+        if (expression == null) {
+            return expressions;
+        }
+        FilterExpression[] result = new FilterExpression[expressions.length + 1];
+        result[0] = expression;
+        System.arraycopy(expressions, 0, result, 1, expressions.length);
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.osgi.framework.FrameworkUtil.createFilter;
+
+/**
+ * Bounded cache of parsed filters by filter string.
+ * <p/>
+ * Filters are immutable, so one parsed instance is shared by all callers.
+ * The least recently used filter is dropped on overflow. Filter strings are parsed
+ * out of the cache lock, concurrent misses of the same string could parse it twice.
+ *
+ * @author dmytro.pishchukhin
+ * @see FilterUtils#getFilterCache()
+ * @see org.osgi.framework.FrameworkUtil#createFilter(String)
+ * @since 1.3
+ */
+public class FilterCache {
+    /**
+     * Default maximum number of cached filters
+     */
+    public static final int DEFAULT_MAX_SIZE = 512;
+
+    private final int maxSize;
+    private final LruMap filters;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Create cache
+     *
+     * @param maxSize maximum number of cached filters
+     * @throws IllegalArgumentException If <code>maxSize</code> is not positive
+     * @since 1.3
+     */
+    public FilterCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize value is not positive");
+        }
+        this.maxSize = maxSize;
+        this.filters = new LruMap(maxSize);
+    }
+
+    /**
+     * Get cached filter or parse and cache new one
+     *
+     * @param filter filter string
+     * @return filter
+     * @throws InvalidSyntaxException If <code>filter</code> contains an invalid filter string that cannot be parsed
+     * @throws NullPointerException   If <code>filter</code> is <code>null</code>
+     * @since 1.3
+     */
+    public Filter getFilter(String filter) throws InvalidSyntaxException {
+        if (filter == null) {
+            throw new NullPointerException("filter is null");
+        }
+        Filter result;
+        synchronized (filters) {
+            result = filters.get(filter);
+        }
+        if (result != null) {
+            hitCount.incrementAndGet();
+            return result;
+        }
+        missCount.incrementAndGet();
+        result = createFilter(filter);
+        synchronized (filters) {
+            filters.put(filter, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get number of lookups that returned cached filter
+     *
+     * @return number of hits
+     * @since 1.3
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get number of lookups that parsed filter string
+     *
+     * @return number of misses
+     * @since 1.3
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get number of cached filters
+     *
+     * @return number of cached filters
+     * @since 1.3
+     */
+    public int size() {
+        synchronized (filters) {
+            return filters.size();
+        }
+    }
+
+    /**
+     * Get maximum number of cached filters
+     *
+     * @return maximum number of cached filters
+     * @since 1.3
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Remove all cached filters and reset counters
+     *
+     * @since 1.3
+     */
+    public void clear() {
+        synchronized (filters) {
+            filters.clear();
+        }
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FilterCache[size=%d, maxSize=%d, hits=%d, misses=%d]",
+                size(), maxSize, getHitCount(), getMissCount());
+    }
+
+    /**
+     * Filters by filter string in access order. The least recently used entry is removed on overflow.
+     */
+    private static class LruMap extends LinkedHashMap<String, Filter> {
+        private static final long serialVersionUID = -3295724316468015212L;
+
+        private final int maxSize;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.osgi.framework.FrameworkUtil.createFilter;
+
+/**
+ * Immutable filter expression tree.
+ * <p/>
+ * Expressions are combined without parsing, values are escaped and nested AND/OR expressions are flattened.
+ * The filter string is built and parsed only once by {@link #toFilter()} or {@link FilterBuilder#build()}:
+ * <pre>
+ * import static org.knowhowlab.osgi.testing.utils.FilterExpression.*;
+ *
+ * Filter filter = FilterUtils.builder().and(eq("service.pid", pid), present("service.ranking")).build();
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see FilterBuilder
+ * @see FilterUtils#builder()
+ * @since 1.3
+ */
+public abstract class FilterExpression {
+    /**
+     * Only nested subclasses are allowed
+     */
+    private FilterExpression() {
+    }
+
+    /**
+     * Create EQUALS expression
+     *
+     * @param key   key
+     * @param value value. value.toString() is escaped and used as filter value.
+     * @return new expression
+     * @throws NullPointerException If <code>key</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression eq(String key, Object value) {
+        return new Item(key, "=", value);
+    }
+
+    /**
+     * Create APPROX expression
+     *
+     * @param key   key
+     * @param value value. value.toString() is escaped and used as filter value.
+     * @return new expression
+     * @throws NullPointerException If <code>key</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression approx(String key, Object value) {
+        return new Item(key, "~=", value);
+    }
+
+    /**
+     * Create GREATER EQUALS expression
+     *
+     * @param key   key
+     * @param value value. value.toString() is escaped and used as filter value.
+     * @return new expression
+     * @throws NullPointerException If <code>key</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression ge(String key, Object value) {
+        return new Item(key, ">=", value);
+    }
+
+    /**
+     * Create LESS EQUALS expression
+     *
+     * @param key   key
+     * @param value value. value.toString() is escaped and used as filter value.
+     * @return new expression
+     * @throws NullPointerException If <code>key</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression le(String key, Object value) {
+        return new Item(key, "<=", value);
+    }
+
+    /**
+     * Create PRESENT expression
+     *
+     * @param key key
+     * @return new expression
+     * @throws NullPointerException If <code>key</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression present(String key) {
+        return new Item(key, "=*", null);
+    }
+
+    /**
+     * Create expression from filter string. The string is not parsed until the filter is built.
+     *
+     * @param filter filter string
+     * @return new expression
+     * @throws NullPointerException If <code>filter</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression of(String filter) {
+        return new Raw(filter);
+    }
+
+    /**
+     * Create expression from filter
+     *
+     * @param filter filter
+     * @return new expression
+     * @throws NullPointerException If <code>filter</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression of(Filter filter) {
+        return new Raw(filter.toString());
+    }
+
+    /**
+     * Create AND expression. Nested AND expressions are flattened,
+     * AND of one expression is the expression itself.
+     *
+     * @param expressions expressions
+     * @return new expression
+     * @throws IllegalArgumentException If <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression and(FilterExpression... expressions) {
+        return Composite.create('&', expressions);
+    }
+
+    /**
+     * Create OR expression. Nested OR expressions are flattened,
+     * OR of one expression is the expression itself.
+     *
+     * @param expressions expressions
+     * @return new expression
+     * @throws IllegalArgumentException If <code>expressions</code> are empty
+     * @throws NullPointerException     If <code>expressions</code> or any of expressions are <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression or(FilterExpression... expressions) {
+        return Composite.create('|', expressions);
+    }
+
+    /**
+     * Create NOT expression. Double negation is removed.
+     *
+     * @param expression expression
+     * @return new expression
+     * @throws NullPointerException If <code>expression</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static FilterExpression not(FilterExpression expression) {
+        if (expression == null) {
+            throw new NullPointerException("expression is null");
+        }
+        if (expression instanceof Not) {
+            return ((Not) expression).expression;
+        }
+        return new Not(expression);
+    }
+
+    /**
+     * Escape filter value: <code>\</code>, <code>*</code>, <code>(</code> and <code>)</code>
+     * are prefixed with <code>\</code>
+     *
+     * @param value value
+     * @return escaped value
+     * @throws NullPointerException If <code>value</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static String escape(String value) {
+        StringBuilder builder = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '*' || c == '(' || c == ')') {
+                if (builder == null) {
+                    builder = new StringBuilder(value.length() + 8);
+                    builder.append(value, 0, i);
+                }
+                builder.append('\\');
+            }
+            if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder != null ? builder.toString() : value;
+    }
+
+    /**
+     * Parse filter string of expression
+     *
+     * @return new filter
+     * @throws InvalidSyntaxException If expression contains invalid filter string
+     * @since 1.3
+     */
+    public Filter toFilter() throws InvalidSyntaxException {
+        return createFilter(toString());
+    }
+
+    /**
+     * Get filter string of expression
+     *
+     * @return filter string
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    abstract void appendTo(StringBuilder builder);
+
+    /**
+     * Simple item expression
+     */
+    private static final class Item extends FilterExpression {
+        private final String key;
+        private final String operator;
+        private final String value;
+
+        private Item(String key, String operator, Object value) {
+            if (key == null) {
+                throw new NullPointerException("key is null");
+            }
+            if (value == null && !"=*".equals(operator)) {
+                throw new NullPointerException("value is null");
+            }
+            this.key = key;
+            this.operator = operator;
+            this.value = value != null ? escape(value.toString()) : null;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(key).append(operator);
+            if (value != null) {
+                builder.append(value);
+            }
+            builder.append(')');
+        }
+    }
+
+    /**
+     * Not parsed filter string
+     */
+    private static final class Raw extends FilterExpression {
+        private final String filter;
+
+        private Raw(String filter) {
+            if (filter == null) {
+                throw new NullPointerException("filter is null");
+            }
+            this.filter = filter;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append(filter);
+        }
+    }
+
+    /**
+     * NOT expression
+     */
+    private static final class Not extends FilterExpression {
+        private final FilterExpression expression;
+
+        private Not(FilterExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append("(!");
+            expression.appendTo(builder);
+            builder.append(')');
+        }
+    }
+
+    /**
+     * AND/OR expression
+     */
+    private static final class Composite extends FilterExpression {
+        private final char operator;
+        private final List<FilterExpression> expressions;
+
+        private Composite(char operator, List<FilterExpression> expressions) {
+            this.operator = operator;
+            this.expressions = Collections.unmodifiableList(expressions);
+        }
+
+        private static FilterExpression create(char operator, FilterExpression... expressions) {
+            if (expressions.length == 0) {
+                throw new IllegalArgumentException("expressions are empty");
+            }
+            List<FilterExpression> flat = new ArrayList<FilterExpression>(expressions.length);
+            for (FilterExpression expression : expressions) {
+                if (expression == null) {
+                    throw new NullPointerException("expression is null");
+                }
+                if (expression instanceof Composite && ((Composite) expression).operator == operator) {
+                    flat.addAll(((Composite) expression).expressions);
+                } else {
+                    flat.add(expression);
+                }
+            }
+            if (flat.size() == 1) {
+                return flat.get(0);
+            }
+            return new Composite(operator, flat);
+        }
+
+        @Override
+        void appendTo(StringBuilder builder) {
+            builder.append('(').append(operator);
+            for (FilterExpression expression : expressions) {
+                expression.appendTo(builder);
+            }
+            builder.append(')');
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of filters that finds all filters matching a property map.
+ * <p/>
+ * Every filter is indexed by terms one of which it requires to match: equality of attribute
+ * to String value or presence of attribute. AND filters are indexed by their most selective term,
+ * OR filters by the terms of all their branches. Only the filters whose terms are satisfied
+ * by the properties are evaluated, filters without required terms (e.g. NOT filters) are evaluated always.
+ * <p/>
+ * Filters are matched by {@link CompiledFilter#matches(java.util.Map)}, so keys are case sensitive.
+ * Index is thread safe.
+ *
+ * @param <T> type of values that are registered with filters
+ * @author dmytro.pishchukhin
+ * @see FilterUtils#compile(org.osgi.framework.Filter)
+ * @since 1.3
+ */
+public class FilterIndex<T> {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Attribute<T>> attributes = new HashMap<String, Attribute<T>>();
+    private final List<Entry<T>> unindexed = new ArrayList<Entry<T>>();
+    private final Map<T, List<Entry<T>>> entries = new HashMap<T, List<Entry<T>>>();
+    private int size;
+
+    /**
+     * Add filter to index
+     *
+     * @param filter filter
+     * @param value  value that is returned by {@link #match(java.util.Map)} if filter matches
+     * @throws InvalidSyntaxException If <code>filter</code> string cannot be parsed
+     * @throws NullPointerException   If <code>filter</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public void add(Filter filter, T value) throws InvalidSyntaxException {
+        add(FilterUtils.compile(filter), value);
+    }
+
+    /**
+     * Add filter to index
+     *
+     * @param filter filter string
+     * @param value  value that is returned by {@link #match(java.util.Map)} if filter matches
+     * @throws InvalidSyntaxException If <code>filter</code> contains an invalid filter string that cannot be parsed
+     * @throws NullPointerException   If <code>filter</code> or <code>value</code> are <code>null</code>
+     * @since 1.3
+     */
+    public void add(String filter, T value) throws InvalidSyntaxException {
+        add(FilterUtils.compile(filter), value);
+    }
+
+    private void add(CompiledFilter filter, T value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        List<String[]> terms = filter.getRequiredTerms();
+        Entry<T> entry = new Entry<T>(filter, value, terms);
+        lock.writeLock().lock();
+        try {
+            if (terms == null) {
+                unindexed.add(entry);
+            } else {
+                for (String[] term : terms) {
+                    Attribute<T> attribute = attributes.get(term[0]);
+                    if (attribute == null) {
+                        attribute = new Attribute<T>();
+                        attributes.put(term[0], attribute);
+                    }
+                    attribute.add(term[1], entry);
+                }
+            }
+            List<Entry<T>> valueEntries = entries.get(value);
+            if (valueEntries == null) {
+                valueEntries = new ArrayList<Entry<T>>(1);
+                entries.put(value, valueEntries);
+            }
+            valueEntries.add(entry);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all filters that are added with value
+     *
+     * @param value value
+     * @return <code>true</code> if any filter was removed, otherwise <code>false</code>
+     * @since 1.3
+     */
+    public boolean remove(T value) {
+        lock.writeLock().lock();
+        try {
+            List<Entry<T>> valueEntries = entries.remove(value);
+            if (valueEntries == null) {
+                return false;
+            }
+            for (Entry<T> entry : valueEntries) {
+                if (entry.terms == null) {
+                    unindexed.remove(entry);
+                } else {
+                    for (String[] term : entry.terms) {
+                        Attribute<T> attribute = attributes.get(term[0]);
+                        if (attribute != null && attribute.remove(term[1], entry)) {
+                            attributes.remove(term[0]);
+                        }
+                    }
+                }
+                size--;
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get values of all filters that match properties
+     *
+     * @param properties properties
+     * @return values of matched filters in no particular order. A value that is added with several
+     *         matched filters is returned for each of them.
+     * @since 1.3
+     */
+    public List<T> match(Map<String, ?> properties) {
+        List<T> result = new ArrayList<T>();
+        Set<Entry<T>> evaluated = null;
+        lock.readLock().lock();
+        try {
+            evaluated = evaluate(unindexed, properties, result, evaluated, false);
+            if (properties == null || properties.isEmpty() || attributes.isEmpty()) {
+                return result;
+            }
+            for (Map.Entry<String, ?> property : properties.entrySet()) {
+                Attribute<T> attribute = attributes.get(property.getKey());
+                Object value = property.getValue();
+                if (attribute == null || value == null) {
+                    continue;
+                }
+                evaluated = evaluate(attribute.present, properties, result, evaluated, false);
+                if (attribute.values.isEmpty()) {
+                    continue;
+                }
+                if (value instanceof String) {
+                    evaluated = evaluate(attribute.values.get(value), properties, result, evaluated, false);
+                } else if (value instanceof String[]) {
+                    for (String element : (String[]) value) {
+                        evaluated = evaluate(attribute.values.get(element), properties, result, evaluated, true);
+                    }
+                } else {
+                    // numbers, booleans, mixed arrays and collections are compared by type, evaluate all candidates
+                    for (List<Entry<T>> candidates : attribute.values.values()) {
+                        evaluated = evaluate(candidates, properties, result, evaluated, true);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get number of filters in index
+     *
+     * @return number of filters
+     * @since 1.3
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get number of filters that are evaluated for every match
+     *
+     * @return number of filters without required terms
+     * @since 1.3
+     */
+    public int getUnindexedCount() {
+        lock.readLock().lock();
+        try {
+            return unindexed.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all filters
+     *
+     * @since 1.3
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            attributes.clear();
+            unindexed.clear();
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FilterIndex[size=%d, unindexed=%d]", size(), getUnindexedCount());
+    }
+
+    /**
+     * Evaluate candidates. Entries that can be reached more than once are evaluated only once.
+     *
+     * @return set of evaluated entries
+     */
+    private Set<Entry<T>> evaluate(List<Entry<T>> candidates, Map<String, ?> properties, List<T> result,
+                                   Set<Entry<T>> evaluated, boolean repeated) {
+        if (candidates == null) {
+            return evaluated;
+        }
+        for (int i = 0, size = candidates.size(); i < size; i++) {
+            Entry<T> entry = candidates.get(i);
+            if (repeated || (entry.terms != null && entry.terms.size() > 1)) {
+                if (evaluated == null) {
+                    evaluated = new HashSet<Entry<T>>();
+                }
+                if (!evaluated.add(entry)) {
+                    continue;
+                }
+            }
+            if (entry.filter.matches(properties)) {
+                result.add(entry.value);
+            }
+        }
+        return evaluated;
+    }
+
+    /**
+     * Filter with value
+     */
+    private static class Entry<T> {
+        private final CompiledFilter filter;
+        private final T value;
+        private final List<String[]> terms;
+
+        private Entry(CompiledFilter filter, T value, List<String[]> terms) {
+            this.filter = filter;
+            this.value = value;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Filters indexed by attribute
+     */
+    private static class Attribute<T> {
+        private final List<Entry<T>> present = new ArrayList<Entry<T>>();
+        private final Map<String, List<Entry<T>>> values = new HashMap<String, List<Entry<T>>>();
+
+        private void add(String value, Entry<T> entry) {
+            if (value == null) {
+                present.add(entry);
+            } else {
+                List<Entry<T>> list = values.get(value);
+                if (list == null) {
+                    list = new ArrayList<Entry<T>>();
+                    values.put(value, list);
+                }
+                list.add(entry);
+            }
+        }
+
+        /**
+         * @return <code>true</code> if attribute has no more entries
+         */
+        private boolean remove(String value, Entry<T> entry) {
+            if (value == null) {
+                present.remove(entry);
+            } else {
+                List<Entry<T>> list = values.get(value);
+                if (list != null) {
+                    list.remove(entry);
+                    if (list.isEmpty()) {
+                        values.remove(value);
+                    }
+                }
+            }
+            return present.isEmpty() && values.isEmpty();
+        }
+    }
+}
@@ -22,10 +22,12 @@ import org.osgi.framework.InvalidSyntaxException;
 
 import static java.lang.String.format;
 import static org.osgi.framework.Constants.OBJECTCLASS;
-import static org.osgi.framework.FrameworkUtil.createFilter;
 
 /**
  * OSGi Filter utilities class
+ * <p/>
+ * Parsed filters are shared through the bounded {@link FilterCache}, so repeated lookups
+ * with the same filter strings do not parse them again.
  *
  * @author dmytro.pishchukhin
  * @see org.osgi.framework.Filter
@@ -67,12 +69,70 @@ public class FilterUtils {
      */
     private static final String OR_TEMPLATE = "(|%s%s)";
 
+    /**
+     * Cache of parsed filters
+     */
+    private static final FilterCache FILTER_CACHE = new FilterCache(FilterCache.DEFAULT_MAX_SIZE);
+
     /**
      * Utility class. Only static methods are available.
      */
     private FilterUtils() {
     }
 
+    /**
+     * Get cache of filters that are created by utility methods
+     *
+     * @return filter cache
+     * @since 1.3
+     */
+    public static FilterCache getFilterCache() {
+        return FILTER_CACHE;
+    }
+
+    /**
+     * Create filter builder. Builder combines expressions without parsing
+     * and creates filter only once.
+     *
+     * @return new filter builder
+     * @see FilterExpression
+     * @since 1.3
+     */
+    public static FilterBuilder builder() {
+        return new FilterBuilder();
+    }
+
+    /**
+     * Compile filter string to filter that matches <code>Map</code>s directly
+     *
+     * @param filter filter string
+     * @return new compiled filter
+     * @throws InvalidSyntaxException If <code>filter</code> contains an invalid filter string that cannot be parsed
+     * @throws NullPointerException   If <code>filter</code> is <code>null</code>
+     * @see CompiledFilter
+     * @since 1.3
+     */
+    public static CompiledFilter compile(String filter) throws InvalidSyntaxException {
+        return new CompiledFilter(filter);
+    }
+
+    /**
+     * Compile filter to filter that matches <code>Map</code>s directly
+     *
+     * @param filter filter
+     * @return compiled filter. If <code>filter</code> is already compiled, it is returned as is.
+     * @throws InvalidSyntaxException If <code>filter</code> string cannot be parsed
+     * @throws NullPointerException   If <code>filter</code> is <code>null</code>
+     * @see CompiledFilter
+     * @since 1.3
+     */
+    public static CompiledFilter compile(Filter filter) throws InvalidSyntaxException {
+        if (filter instanceof CompiledFilter) {
+            return (CompiledFilter) filter;
+        }
+        return new CompiledFilter(filter.toString());
+    }
+
     /**
      * Create AND filter for service class and custom filter
      *
@@ -197,11 +257,10 @@ public class FilterUtils {
         if (filters.length == 0) {
             throw new IllegalArgumentException("Filters are empty");
         }
-        Filter filter = createFilter(filters[0]);
-        for (int i = 1; i < filters.length; i++) {
-            filter = and(filter, filters[i]);
+        if (filters.length == 1) {
+            return createFilter(filters[0]);
         }
-        return filter;
+        return createFilter(join('&', filters));
     }
 
     /**
@@ -249,11 +308,10 @@ public class FilterUtils {
         if (filters.length == 0) {
             throw new IllegalArgumentException("Filters are empty");
         }
-        Filter filter = filters[0];
-        for (int i = 1; i < filters.length; i++) {
-            filter = and(filter, filters[i]);
+        if (filters.length == 1) {
+            return filters[0];
         }
-        return filter;
+        return createFilter(join('&', filters));
     }
 
     /**
@@ -286,11 +344,10 @@ public class FilterUtils {
         if (filters.length == 0) {
             throw new IllegalArgumentException("Filters are empty");
         }
-        Filter filter = createFilter(filters[0]);
-        for (int i = 1; i < filters.length; i++) {
-            filter = or(filter, filters[i]);
+        if (filters.length == 1) {
+            return createFilter(filters[0]);
         }
-        return filter;
+        return createFilter(join('|', filters));
     }
 
     /**
@@ -338,11 +395,10 @@ public class FilterUtils {
         if (filters.length == 0) {
             throw new IllegalArgumentException("Filters are empty");
         }
-        Filter filter = filters[0];
-        for (int i = 1; i < filters.length; i++) {
-            filter = or(filter, filters[i]);
+        if (filters.length == 1) {
+            return filters[0];
         }
-        return filter;
+        return createFilter(join('|', filters));
     }
 
     /**
@@ -446,4 +502,26 @@ public class FilterUtils {
     public static Filter present(String key) throws InvalidSyntaxException {
         return createFilter(format(PRESENT_FILTER_TEMPLATE, key));
     }
+
+    /**
+     * Join filters into one AND/OR filter string
+     *
+     * @param operator <code>&amp;</code> or <code>|</code>
+     * @param filters  filters
+     * @return filter string
+     */
+    private static String join(char operator, Object[] filters) {
+        StringBuilder builder = new StringBuilder("(").append(operator);
+        for (Object filter : filters) {
+            if (filter == null) {
+                throw new NullPointerException("filter is null");
+            }
+            builder.append(filter);
+        }
+        return builder.append(')').toString();
+    }
+
+    private static Filter createFilter(String filter) throws InvalidSyntaxException {
+        return FILTER_CACHE.getFilter(filter);
+    }
 }
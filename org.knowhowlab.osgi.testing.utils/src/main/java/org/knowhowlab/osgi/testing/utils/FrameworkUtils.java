@@ -17,11 +17,15 @@
 package org.knowhowlab.osgi.testing.utils;
 
 import org.osgi.framework.*;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
 
+import java.util.EventObject;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.knowhowlab.osgi.testing.utils.BundleUtils.findBundle;
 
 /**
@@ -136,14 +140,29 @@ public class FrameworkUtils {
      * @since 1.1
      */
     public static FrameworkEvent waitForFrameworkEvent(BundleContext bc, String symbolicName, Version version, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForFrameworkEvent(bc, symbolicName, version, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle within deadline
+     *
+     * @param bc            BundleContext
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask FrameworkEvent type mask
+     * @param deadline      deadline of the wait
+     * @return FrameworkEvent or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(BundleContext bc, String symbolicName, Version version, int eventTypeMask, Deadline deadline) {
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         FrameworkListenerImpl listener = new FrameworkListenerImpl(symbolicName, version, eventTypeMask, latch);
         bc.addFrameworkListener(listener);
 
         try {
-            return waitForFrameworkEvent(listener, timeoutInMillis, latch);
+            return waitForFrameworkEvent(listener, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -151,18 +170,229 @@ public class FrameworkUtils {
         }
     }
 
-    private static FrameworkEvent waitForFrameworkEvent(FrameworkListenerImpl listener, long timeoutInMillis, CountDownLatch latch)
-            throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param symbolicName    symbolicName
+     * @param eventTypeMask   FrameworkEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return FrameworkEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask, long timeoutInMillis) {
+        return waitForFrameworkEvent(journal, sinceCursor, symbolicName, null, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param symbolicName    symbolicName
+     * @param version         version
+     * @param eventTypeMask   FrameworkEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return FrameworkEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, long timeoutInMillis) {
+        return waitForFrameworkEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param eventTypeMask FrameworkEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return FrameworkEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForFrameworkEvent(journal, sinceCursor, symbolicName, null, eventTypeMask, timeout, timeUnit);
+    }
+
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask FrameworkEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return FrameworkEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code>, <code>symbolicName</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForFrameworkEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Find FrameworkEvent with event type mask for defined bundle that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param eventTypeMask FrameworkEvent type mask
+     * @return FrameworkEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent findFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, int eventTypeMask) {
+        return findFrameworkEvent(journal, sinceCursor, symbolicName, null, eventTypeMask);
+    }
+
+    /**
+     * Find FrameworkEvent with event type mask for defined bundle that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask FrameworkEvent type mask
+     * @return FrameworkEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>symbolicName</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent findFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask) {
+        return waitForFrameworkEvent(journal, sinceCursor, symbolicName, version, eventTypeMask, Deadline.now());
+    }
+
+    /**
+     * Wait for FrameworkEvent with event type mask for defined bundle that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param symbolicName  symbolicName
+     * @param version       version
+     * @param eventTypeMask FrameworkEvent type mask
+     * @param deadline      deadline of the wait
+     * @return FrameworkEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code>, <code>symbolicName</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static FrameworkEvent waitForFrameworkEvent(EventJournal journal, long sinceCursor, String symbolicName, Version version, int eventTypeMask, Deadline deadline) {
+        if (symbolicName == null) {
+            throw new NullPointerException("symbolicName is null");
+        }
+        try {
+            return (FrameworkEvent) journal.waitForEvent(sinceCursor, new FrameworkEventMatcher(symbolicName, version, eventTypeMask), deadline);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait until framework has settled: no bundle, service or framework event (and configuration event
+     * if Configuration Admin package is available) was fired for the settle window.
+     *
+     * @param bc                   BundleContext
+     * @param settleWindowInMillis time interval in millis without events
+     * @param maxWaitInMillis      maximum time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return result with number of fired events and elapsed time
+     * @throws IllegalArgumentException If the value of settleWindowInMillis is not positive or maxWaitInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static QuiescenceResult waitForQuiescence(BundleContext bc, long settleWindowInMillis, long maxWaitInMillis) {
+        return waitForQuiescence(bc, settleWindowInMillis, maxWaitInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until framework has settled: no bundle, service or framework event (and configuration event
+     * if Configuration Admin package is available) was fired for the settle window.
+     * <p/>
+     * The method returns as soon as the settle window has passed after the last event,
+     * so it could replace fixed delays after bundle updates or configuration changes.
+     *
+     * @param bc           BundleContext
+     * @param settleWindow time interval without events
+     * @param maxWait      maximum time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit     time unit for the time intervals
+     * @return result with number of fired events and elapsed time
+     * @throws IllegalArgumentException If the value of settleWindow is not positive or maxWait is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static QuiescenceResult waitForQuiescence(BundleContext bc, long settleWindow, long maxWait, TimeUnit timeUnit) {
+        if (settleWindow <= 0) {
+            throw new IllegalArgumentException("settleWindow value is not positive");
+        }
+        Deadline deadline = Deadline.after(maxWait, timeUnit);
+        long settleNanos = timeUnit.toNanos(settleWindow);
+
+        QuiescenceListener listener = new QuiescenceListener();
+        // own ConfigurationListener is registered before the ServiceListener is added, so its events are not counted
+        ServiceRegistration configurationListener = null;
+        try {
+            configurationListener = ConfigurationEventCounter.register(bc, listener);
+        } catch (NoClassDefFoundError e) {
+            // Configuration Admin package is not available
+        }
+        try {
+            bc.addBundleListener(listener);
+            bc.addServiceListener(listener);
+            bc.addFrameworkListener(listener);
+            return listener.waitForQuiescence(settleNanos, deadline);
+        } catch (InterruptedException e) {
+            return listener.getResult(false);
+        } finally {
+            bc.removeFrameworkListener(listener);
+            bc.removeServiceListener(listener);
+            bc.removeBundleListener(listener);
+            if (configurationListener != null) {
+                configurationListener.unregister();
+            }
         }
-        if (latch.await(timeoutInMillis, MILLISECONDS)) {
+    }
+
+    private static FrameworkEvent waitForFrameworkEvent(FrameworkListenerImpl listener, Deadline deadline, CountDownLatch latch)
+            throws InterruptedException {
+        if (deadline.await(latch)) {
             return listener.getFrameworkEvent();
         } else {
             return null;
         }
     }
 
+    private static class FrameworkEventMatcher implements EventJournal.Matcher {
+        private final String symbolicName;
+        private final Version version;
+        private final int eventTypeMask;
+
+        public FrameworkEventMatcher(String symbolicName, Version version, int eventTypeMask) {
+            this.symbolicName = symbolicName;
+            this.version = version;
+            this.eventTypeMask = eventTypeMask;
+        }
+
+        public boolean matches(EventObject event) {
+            if (!(event instanceof FrameworkEvent)) {
+                return false;
+            }
+            FrameworkEvent frameworkEvent = (FrameworkEvent) event;
+            Bundle bundle = frameworkEvent.getBundle();
+            return bundle != null && symbolicName.equals(bundle.getSymbolicName())
+                    && (version == null || bundle.getVersion().equals(version))
+                    && (eventTypeMask & frameworkEvent.getType()) != 0;
+        }
+    }
+
     private static class FrameworkListenerImpl implements FrameworkListener {
         private String symbolicName;
         private Version version;
@@ -196,4 +426,79 @@ public class FrameworkUtils {
             return event;
         }
     }
+
+    /**
+     * Counts events and remembers the time of the last one
+     */
+    private static class QuiescenceListener implements BundleListener, ServiceListener, FrameworkListener {
+        private static final int BUNDLE = 0;
+        private static final int SERVICE = 1;
+        private static final int FRAMEWORK = 2;
+        private static final int CONFIGURATION = 3;
+
+        private final long startNanos = System.nanoTime();
+        private final int[] counts = new int[4];
+        private long lastEventNanos = startNanos;
+
+        public void bundleChanged(BundleEvent event) {
+            record(BUNDLE);
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            record(SERVICE);
+        }
+
+        public void frameworkEvent(FrameworkEvent event) {
+            record(FRAMEWORK);
+        }
+
+        private synchronized void record(int type) {
+            counts[type]++;
+            lastEventNanos = System.nanoTime();
+        }
+
+        /**
+         * Sleep until the end of settle window after the last event. Events do not wake up the waiter,
+         * the window is checked again when it ends.
+         */
+        private synchronized QuiescenceResult waitForQuiescence(long settleNanos, Deadline deadline)
+                throws InterruptedException {
+            while (true) {
+                long quietNanos = lastEventNanos + settleNanos - System.nanoTime();
+                if (quietNanos <= 0) {
+                    return getResult(true);
+                }
+                long remainingNanos = deadline.remainingNanos();
+                if (remainingNanos <= 0) {
+                    return getResult(false);
+                }
+                NANOSECONDS.timedWait(this, Math.min(quietNanos, remainingNanos));
+            }
+        }
+
+        private synchronized QuiescenceResult getResult(boolean quiescent) {
+            return new QuiescenceResult(quiescent, counts[BUNDLE], counts[SERVICE], counts[FRAMEWORK],
+                    counts[CONFIGURATION], System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * ConfigurationListener for quiescence wait. The class is loaded only if
+     * Configuration Admin package is available.
+     */
+    private static class ConfigurationEventCounter implements ConfigurationListener {
+        private final QuiescenceListener listener;
+
+        private ConfigurationEventCounter(QuiescenceListener listener) {
+            this.listener = listener;
+        }
+
+        private static ServiceRegistration register(BundleContext bc, QuiescenceListener listener) {
+            return bc.registerService(ConfigurationListener.class.getName(), new ConfigurationEventCounter(listener), null);
+        }
+
+        public void configurationEvent(ConfigurationEvent event) {
+            listener.record(QuiescenceListener.CONFIGURATION);
+        }
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ * <p/>
+ * Values are counted in log-linear buckets: every power of two range is split into 32 buckets,
+ * so percentiles are reported with relative error below 3.2%. Values below 64ns are exact.
+ * Recording is a few atomic operations without allocation, so one histogram could be shared by
+ * many recording threads.
+ *
+ * @author dmytro.pishchukhin
+ * @since 1.3
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record latency
+     *
+     * @param nanos latency in nanoseconds. Negative values are recorded as zero.
+     * @since 1.3
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Record latency
+     *
+     * @param latency  latency
+     * @param timeUnit time unit of latency
+     * @since 1.3
+     */
+    public void record(long latency, TimeUnit timeUnit) {
+        record(timeUnit.toNanos(latency));
+    }
+
+    /**
+     * Get number of recorded values
+     *
+     * @return number of values
+     * @since 1.3
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get minimal recorded value
+     *
+     * @param timeUnit time unit of the result
+     * @return minimal value or <code>0</code> if histogram is empty
+     * @since 1.3
+     */
+    public long getMin(TimeUnit timeUnit) {
+        long value = min.get();
+        return timeUnit.convert(value == Long.MAX_VALUE ? 0 : value, NANOSECONDS);
+    }
+
+    /**
+     * Get maximal recorded value
+     *
+     * @param timeUnit time unit of the result
+     * @return maximal value or <code>0</code> if histogram is empty
+     * @since 1.3
+     */
+    public long getMax(TimeUnit timeUnit) {
+        return timeUnit.convert(max.get(), NANOSECONDS);
+    }
+
+    /**
+     * Get mean of recorded values
+     *
+     * @param timeUnit time unit of the result
+     * @return mean value or <code>0</code> if histogram is empty
+     * @since 1.3
+     */
+    public long getMean(TimeUnit timeUnit) {
+        long n = count.get();
+        return n == 0 ? 0 : timeUnit.convert(sum.get() / n, NANOSECONDS);
+    }
+
+    /**
+     * Get value at percentile
+     *
+     * @param percentile percentile from <code>0</code> to <code>100</code>
+     * @param timeUnit   time unit of the result
+     * @return the highest value of the bucket that contains percentile, limited by maximal recorded value.
+     *         <code>0</code> if histogram is empty.
+     * @throws IllegalArgumentException If <code>percentile</code> is out of range
+     * @since 1.3
+     */
+    public long getPercentile(double percentile, TimeUnit timeUnit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile is out of range: " + percentile);
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return timeUnit.convert(Math.min(highestValueOf(i), max.get()), NANOSECONDS);
+            }
+        }
+        return timeUnit.convert(max.get(), NANOSECONDS);
+    }
+
+    /**
+     * Add all values of other histogram to this one
+     *
+     * @param other other histogram
+     * @since 1.3
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n > 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long current;
+        long value = other.min.get();
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        value = other.max.get();
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Remove all recorded values
+     *
+     * @since 1.3
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram[count=%d, min=%dus, mean=%dus, p50=%dus, p99=%dus, p99.9=%dus, max=%dus]",
+                getCount(), getMin(TimeUnit.MICROSECONDS), getMean(TimeUnit.MICROSECONDS),
+                getPercentile(50, TimeUnit.MICROSECONDS), getPercentile(99, TimeUnit.MICROSECONDS),
+                getPercentile(99.9, TimeUnit.MICROSECONDS), getMax(TimeUnit.MICROSECONDS));
+    }
+
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
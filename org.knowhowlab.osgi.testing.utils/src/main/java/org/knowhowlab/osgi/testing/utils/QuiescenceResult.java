@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Result of framework quiescence wait
+ *
+ * @author dmytro.pishchukhin
+ * @see FrameworkUtils#waitForQuiescence(org.osgi.framework.BundleContext, long, long, java.util.concurrent.TimeUnit)
+ * @since 1.3
+ */
+public class QuiescenceResult {
+    private final boolean quiescent;
+    private final int bundleEventCount;
+    private final int serviceEventCount;
+    private final int frameworkEventCount;
+    private final int configurationEventCount;
+    private final long elapsedNanos;
+
+    QuiescenceResult(boolean quiescent, int bundleEventCount, int serviceEventCount, int frameworkEventCount,
+                     int configurationEventCount, long elapsedNanos) {
+        this.quiescent = quiescent;
+        this.bundleEventCount = bundleEventCount;
+        this.serviceEventCount = serviceEventCount;
+        this.frameworkEventCount = frameworkEventCount;
+        this.configurationEventCount = configurationEventCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Check if framework has settled
+     *
+     * @return <code>true</code> if no event was fired during settle window,
+     *         <code>false</code> if maximum wait time is elapsed
+     * @since 1.3
+     */
+    public boolean isQuiescent() {
+        return quiescent;
+    }
+
+    /**
+     * Get number of all events fired during the wait
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public int getEventCount() {
+        return bundleEventCount + serviceEventCount + frameworkEventCount + configurationEventCount;
+    }
+
+    /**
+     * Get number of BundleEvents fired during the wait
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public int getBundleEventCount() {
+        return bundleEventCount;
+    }
+
+    /**
+     * Get number of ServiceEvents fired during the wait
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public int getServiceEventCount() {
+        return serviceEventCount;
+    }
+
+    /**
+     * Get number of FrameworkEvents fired during the wait
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public int getFrameworkEventCount() {
+        return frameworkEventCount;
+    }
+
+    /**
+     * Get number of ConfigurationEvents fired during the wait
+     *
+     * @return number of events, <code>0</code> if Configuration Admin package is not available
+     * @since 1.3
+     */
+    public int getConfigurationEventCount() {
+        return configurationEventCount;
+    }
+
+    /**
+     * Get elapsed time of the wait including settle window
+     *
+     * @param timeUnit time unit of the result
+     * @return elapsed time
+     * @since 1.3
+     */
+    public long getElapsed(TimeUnit timeUnit) {
+        return timeUnit.convert(elapsedNanos, NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QuiescenceResult[quiescent=%s, events=%d (bundle=%d, service=%d, framework=%d, configuration=%d), elapsed=%dms]",
+                quiescent, getEventCount(), bundleEventCount, serviceEventCount, frameworkEventCount,
+                configurationEventCount, getElapsed(TimeUnit.MILLISECONDS));
+    }
+}
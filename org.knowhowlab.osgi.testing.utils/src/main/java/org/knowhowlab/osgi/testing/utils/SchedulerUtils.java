@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared scheduler utilities class.
+ * <p/>
+ * Asynchronous helpers (<code>*Async</code> methods, delayed event posting, configuration supply etc.)
+ * and {@link CompletionFuture} callbacks are executed by one shared executor of daemon threads
+ * instead of a new thread per call. The default executor has a fixed number of threads
+ * ({@link #EXECUTOR_THREADS_PROPERTY} system property) and queues other tasks.
+ * A task that is submitted by a pool thread while all pool threads are busy is executed in the submitting thread,
+ * so callbacks and nested tasks never wait in the queue behind the task that waits for them.
+ * Delays are timed by a separate scheduler that only hands tasks over to the executor.
+ * <p/>
+ * The default scheduler and executor are created on first use and are shut down when the utils bundle stops.
+ * Tasks could be executed by a custom executor that is set with {@link #setExecutor(ExecutorService)}.
+ * Custom scheduler that is set with {@link #setScheduler(ScheduledExecutorService)} times delays
+ * and also executes tasks if there is no custom executor.
+ *
+ * @author dmytro.pishchukhin
+ * @see java.util.concurrent.ScheduledExecutorService
+ * @see java.util.concurrent.ExecutorService
+ */
+public class SchedulerUtils {
+    /**
+     * System property with number of threads of the default executor
+     *
+     * @since 1.3
+     */
+    public static final String EXECUTOR_THREADS_PROPERTY = "org.knowhowlab.osgi.testing.utils.executor.threads";
+    /**
+     * Scheduler thread name prefix
+     */
+    private static final String SCHEDULER_THREAD_NAME_PREFIX = "osgi-testing-scheduler-";
+    /**
+     * Executor thread name prefix
+     */
+    private static final String EXECUTOR_THREAD_NAME_PREFIX = "osgi-testing-executor-";
+    private static final Object LOCK = new Object();
+
+    /**
+     * Current scheduler
+     */
+    private static ScheduledExecutorService scheduler;
+    /**
+     * <code>true</code> if the current scheduler was created by this class and has to be shut down by it
+     */
+    private static boolean defaultScheduler;
+    /**
+     * Default executor
+     */
+    private static SharedExecutor executor;
+    /**
+     * Custom executor
+     */
+    private static ExecutorService customExecutor;
+    /**
+     * <code>true</code> after {@link #shutdown()}
+     */
+    private static boolean shutdown;
+
+    /**
+     * Utility class. Only static methods are available.
+     */
+    private SchedulerUtils() {
+    }
+
+    /**
+     * Get shared scheduler. Default scheduler is created on demand.
+     * <p/>
+     * Scheduler only times delays, its tasks must not block. Blocking tasks have to be executed by
+     * {@link #getExecutor()} or scheduled with {@link #schedule(Callable, long, TimeUnit)}.
+     *
+     * @return shared scheduler
+     * @throws IllegalStateException If scheduler is shut down
+     * @since 1.3
+     */
+    public static ScheduledExecutorService getScheduler() {
+        synchronized (LOCK) {
+            checkNotShutdown();
+            if (scheduler == null) {
+                scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(SCHEDULER_THREAD_NAME_PREFIX));
+                defaultScheduler = true;
+            }
+            return scheduler;
+        }
+    }
+
+    /**
+     * Get shared executor of blocking tasks: custom executor, custom scheduler or the default executor
+     * that is created on demand.
+     *
+     * @return shared executor
+     * @throws IllegalStateException If executor is shut down
+     * @since 1.3
+     */
+    public static ExecutorService getExecutor() {
+        synchronized (LOCK) {
+            checkNotShutdown();
+            if (customExecutor != null) {
+                return customExecutor;
+            }
+            if (scheduler != null && !defaultScheduler) {
+                return scheduler;
+            }
+            if (executor == null) {
+                int threads = Integer.getInteger(EXECUTOR_THREADS_PROPERTY,
+                        Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+                executor = new SharedExecutor(Math.max(1, threads));
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Replace shared executor. If the default executor was created it is shut down,
+     * already submitted tasks are completed. Custom executors are never shut down by this class.
+     *
+     * @param newExecutor custom executor or <code>null</code> to return to the default one
+     * @return previous custom executor or <code>null</code> if the default one was used
+     * @throws IllegalStateException If executor is shut down
+     * @since 1.3
+     */
+    public static ExecutorService setExecutor(ExecutorService newExecutor) {
+        synchronized (LOCK) {
+            checkNotShutdown();
+            ExecutorService previous = customExecutor;
+            customExecutor = newExecutor;
+            if (newExecutor != null && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Replace shared scheduler. If the current scheduler is the default one it is shut down,
+     * already scheduled tasks are completed. Custom schedulers are never shut down by this class.
+     * Custom scheduler also executes tasks if there is no custom executor.
+     *
+     * @param newScheduler custom scheduler or <code>null</code> to return to the default one
+     * @return previous custom scheduler or <code>null</code> if the default one was used
+     * @throws IllegalStateException If scheduler is shut down
+     * @since 1.3
+     */
+    public static ScheduledExecutorService setScheduler(ScheduledExecutorService newScheduler) {
+        synchronized (LOCK) {
+            checkNotShutdown();
+            ScheduledExecutorService previous = scheduler;
+            boolean previousIsDefault = defaultScheduler;
+            scheduler = newScheduler;
+            defaultScheduler = false;
+            if (newScheduler != null && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+            if (previous != null && previousIsDefault) {
+                previous.shutdown();
+                return null;
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Shut down the default scheduler and the default executor. Running and queued tasks are completed,
+     * delayed tasks fail with {@link RejectedExecutionException} when their delay expires.
+     * Custom scheduler and executor are only released and have to be shut down by their owners.
+     * After shutdown {@link #getScheduler()} and {@link #getExecutor()} throw {@link IllegalStateException}
+     * until {@link #start()}.
+     *
+     * @since 1.3
+     */
+    public static void shutdown() {
+        synchronized (LOCK) {
+            shutdown = true;
+            if (scheduler != null && defaultScheduler) {
+                scheduler.shutdown();
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            scheduler = null;
+            executor = null;
+            customExecutor = null;
+            defaultScheduler = false;
+        }
+    }
+
+    /**
+     * Allow creation of the default scheduler and executor after {@link #shutdown()}.
+     * It is called when the utils bundle starts.
+     *
+     * @since 1.3
+     */
+    public static void start() {
+        synchronized (LOCK) {
+            shutdown = false;
+        }
+    }
+
+    /**
+     * Schedule a task with the shared scheduler. The task is executed by the shared executor,
+     * so it could block.
+     *
+     * @param task     task
+     * @param delay    time interval to wait before execution. If zero, the task is executed immediately.
+     * @param timeUnit time unit for the time interval
+     * @return A <code>Future</code> of the task
+     * @throws NullPointerException  If <code>task</code> or <code>timeUnit</code> are <code>null</code>
+     * @throws IllegalStateException If scheduler is shut down
+     * @since 1.3
+     */
+    public static <T> Future<T> schedule(Callable<T> task, long delay, TimeUnit timeUnit) {
+        if (timeUnit == null) {
+            throw new NullPointerException("TimeUnit is null");
+        }
+        final ScheduledTask<T> future = new ScheduledTask<T>(task, getExecutor());
+        if (delay <= 0) {
+            future.submit();
+        } else {
+            getScheduler().schedule(new Runnable() {
+                public void run() {
+                    future.submit();
+                }
+            }, delay, timeUnit);
+        }
+        return future;
+    }
+
+    /**
+     * Get number of tasks that are waiting for a thread of the shared executor
+     *
+     * @return queue depth or <code>-1</code> if custom executor does not provide this value
+     * @throws IllegalStateException If executor is shut down
+     * @since 1.3
+     */
+    public static int getQueueSize() {
+        ExecutorService current = getExecutor();
+        if (current instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) current).getQueue().size();
+        }
+        return -1;
+    }
+
+    /**
+     * Get approximate number of tasks that are executed by the shared executor right now
+     *
+     * @return active tasks count or <code>-1</code> if custom executor does not provide this value
+     * @throws IllegalStateException If executor is shut down
+     * @since 1.3
+     */
+    public static int getActiveCount() {
+        ExecutorService current = getExecutor();
+        if (current instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) current).getActiveCount();
+        }
+        return -1;
+    }
+
+    private static void checkNotShutdown() {
+        if (shutdown) {
+            throw new IllegalStateException("Scheduler is shut down");
+        }
+    }
+
+    /**
+     * Task that is handed over to executor when its delay is expired
+     */
+    private static class ScheduledTask<T> extends FutureTask<T> {
+        private final Executor executor;
+
+        private ScheduledTask(Callable<T> task, Executor executor) {
+            super(task);
+            this.executor = executor;
+        }
+
+        private void submit() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                setException(e);
+            }
+        }
+    }
+
+    /**
+     * Default executor with fixed number of threads. Task that is submitted by a pool thread
+     * while all pool threads are busy is executed in the submitting thread instead of the queue.
+     */
+    private static class SharedExecutor extends ThreadPoolExecutor {
+        private SharedExecutor(int poolSize) {
+            super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+            setThreadFactory(new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    return new PoolThread(SharedExecutor.this, runnable,
+                            EXECUTOR_THREAD_NAME_PREFIX + counter.incrementAndGet());
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Thread current = Thread.currentThread();
+            if (current instanceof PoolThread && ((PoolThread) current).owner == this && !isShutdown()
+                    && getActiveCount() >= getMaximumPoolSize()) {
+                command.run();
+            } else {
+                super.execute(command);
+            }
+        }
+    }
+
+    private static class PoolThread extends Thread {
+        private final SharedExecutor owner;
+
+        private PoolThread(SharedExecutor owner, Runnable runnable, String name) {
+            super(runnable, name);
+            this.owner = owner;
+            setDaemon(true);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
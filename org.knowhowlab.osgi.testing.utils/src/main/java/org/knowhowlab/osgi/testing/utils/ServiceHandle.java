@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.ServiceReference;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scoped service usage. Service object is taken on creation and released by {@link #close()}.
+ * <pre>
+ * ServiceHandle&lt;LogService&gt; handle = ServiceUtils.getServiceHandle(bc, LogService.class);
+ * try {
+ *     handle.get().log(LogService.LOG_INFO, "test");
+ * } finally {
+ *     handle.close();
+ * }
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see ServiceUsageLedger
+ * @see ServiceUtils#getServiceHandle(org.osgi.framework.BundleContext, Class)
+ * @since 1.3
+ */
+public class ServiceHandle<T> implements Closeable {
+    private final ServiceUsageLedger ledger;
+    private final ServiceReference reference;
+    private final T service;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    ServiceHandle(ServiceUsageLedger ledger, ServiceReference reference, T service) {
+        this.ledger = ledger;
+        this.reference = reference;
+        this.service = service;
+    }
+
+    /**
+     * Get service object
+     *
+     * @return service object
+     * @throws IllegalStateException If handle is closed
+     * @since 1.3
+     */
+    public T get() {
+        if (closed.get()) {
+            throw new IllegalStateException("ServiceHandle is closed");
+        }
+        return service;
+    }
+
+    /**
+     * Get ServiceReference of service
+     *
+     * @return ServiceReference
+     * @since 1.3
+     */
+    public ServiceReference getReference() {
+        return reference;
+    }
+
+    /**
+     * Check if service usage is already released
+     *
+     * @return <code>true</code> if handle is closed
+     * @since 1.3
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Release service usage. Subsequent calls have no effect.
+     *
+     * @since 1.3
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            ledger.ungetService(reference);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+
+/**
+ * Specification of service registration for bulk operations
+ *
+ * @author dmytro.pishchukhin
+ * @see ServiceUtils#registerServices(org.osgi.framework.BundleContext, java.util.Collection, int)
+ * @since 1.3
+ */
+public class ServiceSpec {
+    private final String[] classNames;
+    private final Object service;
+    private final Dictionary properties;
+
+    /**
+     * Create service specification
+     *
+     * @param clazz      The class under which the service can be located.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service (could be null).
+     * @throws NullPointerException If <code>clazz</code> or <code>service</code> are <code>null</code>
+     * @since 1.3
+     */
+    public <T> ServiceSpec(Class<T> clazz, T service, Dictionary properties) {
+        this(new String[]{clazz.getName()}, service, properties);
+    }
+
+    /**
+     * Create service specification
+     *
+     * @param className  The class name under which the service can be located.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service (could be null).
+     * @throws NullPointerException If <code>className</code> or <code>service</code> are <code>null</code>
+     * @since 1.3
+     */
+    public ServiceSpec(String className, Object service, Dictionary properties) {
+        this(new String[]{className}, service, properties);
+    }
+
+    /**
+     * Create service specification
+     *
+     * @param classNames The class names under which the service can be located.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service (could be null).
+     * @throws NullPointerException If <code>classNames</code>, any of class names or
+     *                              <code>service</code> are <code>null</code>
+     * @since 1.3
+     */
+    public ServiceSpec(String[] classNames, Object service, Dictionary properties) {
+        for (String className : classNames) {
+            if (className == null) {
+                throw new NullPointerException("className is null");
+            }
+        }
+        if (service == null) {
+            throw new NullPointerException("service is null");
+        }
+        this.classNames = classNames.clone();
+        this.service = service;
+        this.properties = properties;
+    }
+
+    /**
+     * Get class names
+     *
+     * @return class names
+     * @since 1.3
+     */
+    public String[] getClassNames() {
+        return classNames.clone();
+    }
+
+    /**
+     * Get service object
+     *
+     * @return service object or <code>ServiceFactory</code>
+     * @since 1.3
+     */
+    public Object getService() {
+        return service;
+    }
+
+    /**
+     * Get service properties
+     *
+     * @return service properties or <code>null</code>
+     * @since 1.3
+     */
+    public Dictionary getProperties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceSpec" + Arrays.asList(classNames);
+    }
+}
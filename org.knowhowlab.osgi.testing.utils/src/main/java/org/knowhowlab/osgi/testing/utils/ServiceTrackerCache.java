@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+import org.osgi.util.tracker.ServiceTracker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opt-in cache of open ServiceTrackers for one BundleContext.
+ * <p/>
+ * By default every {@link ServiceUtils} lookup opens and closes its own ServiceTracker.
+ * If the cache is enabled for a BundleContext, lookups by class name or filter reuse
+ * open trackers. The cache has a bounded size, the least recently used tracker is removed
+ * on overflow. All trackers are removed when the bundle of the BundleContext is stopping.
+ * <p/>
+ * Trackers are leased: every {@link #acquire(String)} has to be paired with {@link #release(ServiceTracker)}.
+ * A removed tracker is closed when its last lease is released, so lookups of other threads
+ * are never served by a closed tracker.
+ * <p/>
+ * Cached trackers track ServiceReferences only: tracked objects are ServiceReferences and
+ * service objects are got on demand by service lookups.
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.util.tracker.ServiceTracker
+ * @see ServiceUtils
+ * @since 1.3
+ */
+public class ServiceTrackerCache {
+    /**
+     * Default maximum number of open trackers per BundleContext
+     */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final String CLASS_KEY_PREFIX = "c:";
+    private static final String FILTER_KEY_PREFIX = "f:";
+
+    /**
+     * Enabled caches
+     */
+    private static final ConcurrentMap<BundleContext, ServiceTrackerCache> CACHES =
+            new ConcurrentHashMap<BundleContext, ServiceTrackerCache>();
+
+    private final BundleContext bc;
+    private final TrackerMap trackers;
+    private final SynchronousBundleListener stopListener;
+    private boolean closed;
+
+    private ServiceTrackerCache(BundleContext bc, int maxSize) {
+        this.bc = bc;
+        this.trackers = new TrackerMap(maxSize);
+        this.stopListener = new BundleStoppingListener();
+    }
+
+    /**
+     * Enable tracker cache for BundleContext with default maximum size
+     *
+     * @param bc BundleContext
+     * @return enabled cache
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static ServiceTrackerCache enable(BundleContext bc) {
+        return enable(bc, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Enable tracker cache for BundleContext. If the cache is already enabled, the existing one is returned.
+     *
+     * @param bc      BundleContext
+     * @param maxSize maximum number of open trackers
+     * @return enabled cache
+     * @throws IllegalArgumentException If <code>maxSize</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static ServiceTrackerCache enable(BundleContext bc, int maxSize) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize value is not positive");
+        }
+        ServiceTrackerCache cache = CACHES.get(bc);
+        if (cache == null) {
+            cache = new ServiceTrackerCache(bc, maxSize);
+            ServiceTrackerCache existing = CACHES.putIfAbsent(bc, cache);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                bc.addBundleListener(cache.stopListener);
+            } catch (RuntimeException e) {
+                if (CACHES.remove(bc, cache)) {
+                    cache.close();
+                }
+                throw e;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Disable tracker cache for BundleContext and close all cached trackers
+     *
+     * @param bc BundleContext
+     * @since 1.3
+     */
+    public static void disable(BundleContext bc) {
+        ServiceTrackerCache cache = CACHES.remove(bc);
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    /**
+     * Disable all enabled tracker caches
+     *
+     * @since 1.3
+     */
+    public static void disableAll() {
+        for (BundleContext bc : new ArrayList<BundleContext>(CACHES.keySet())) {
+            disable(bc);
+        }
+    }
+
+    /**
+     * Get enabled tracker cache for BundleContext
+     *
+     * @param bc BundleContext
+     * @return cache or <code>null</code> if cache is not enabled for BundleContext
+     * @since 1.3
+     */
+    public static ServiceTrackerCache getCache(BundleContext bc) {
+        return CACHES.get(bc);
+    }
+
+    /**
+     * Lease open tracker by class name. Tracker has to be released by {@link #release(ServiceTracker)}.
+     *
+     * @param className class name
+     * @return open ServiceTracker
+     * @throws NullPointerException  If <code>className</code> is <code>null</code>
+     * @throws IllegalStateException If cache is closed
+     * @since 1.3
+     */
+    public ServiceTracker acquire(String className) {
+        if (className == null) {
+            throw new NullPointerException("className is null");
+        }
+        String key = CLASS_KEY_PREFIX + className;
+        ServiceTracker tracker = lease(key);
+        if (tracker == null) {
+            tracker = put(key, new CachedTracker(bc, className));
+        }
+        return tracker;
+    }
+
+    /**
+     * Lease open tracker by filter. Tracker has to be released by {@link #release(ServiceTracker)}.
+     *
+     * @param filter filter
+     * @return open ServiceTracker
+     * @throws NullPointerException  If <code>filter</code> is <code>null</code>
+     * @throws IllegalStateException If cache is closed
+     * @since 1.3
+     */
+    public ServiceTracker acquire(Filter filter) {
+        String key = FILTER_KEY_PREFIX + filter.toString();
+        ServiceTracker tracker = lease(key);
+        if (tracker == null) {
+            tracker = put(key, new CachedTracker(bc, filter));
+        }
+        return tracker;
+    }
+
+    /**
+     * Release leased tracker. Tracker that was removed from cache is closed with the last release.
+     *
+     * @param tracker tracker that was leased by {@link #acquire(String)} or {@link #acquire(Filter)}
+     * @throws IllegalArgumentException If <code>tracker</code> was not leased from this cache
+     * @throws IllegalStateException    If <code>tracker</code> has no leases
+     * @since 1.3
+     */
+    public void release(ServiceTracker tracker) {
+        if (!(tracker instanceof CachedTracker) || ((CachedTracker) tracker).cache != this) {
+            throw new IllegalArgumentException("Tracker is not leased from cache");
+        }
+        CachedTracker cached = (CachedTracker) tracker;
+        synchronized (trackers) {
+            if (cached.leases == 0) {
+                throw new IllegalStateException("Tracker is not leased");
+            }
+            cached.leases--;
+            cached = closeable(cached);
+        }
+        close(cached);
+    }
+
+    /**
+     * Get number of open cached trackers
+     *
+     * @return number of open cached trackers
+     * @since 1.3
+     */
+    public int size() {
+        synchronized (trackers) {
+            return trackers.size();
+        }
+    }
+
+    /**
+     * Get maximum number of open cached trackers
+     *
+     * @return maximum number of open cached trackers
+     * @since 1.3
+     */
+    public int getMaxSize() {
+        return trackers.maxSize;
+    }
+
+    private CachedTracker lease(String key) {
+        synchronized (trackers) {
+            if (closed) {
+                throw new IllegalStateException("Cache is closed");
+            }
+            CachedTracker tracker = trackers.get(key);
+            if (tracker != null) {
+                tracker.leases++;
+            }
+            return tracker;
+        }
+    }
+
+    /**
+     * Open new tracker out of lock (tracker opening calls service factories) and put it into cache.
+     * If the same tracker was put by concurrent thread, new tracker is closed and the cached one is leased.
+     */
+    private CachedTracker put(String key, CachedTracker tracker) {
+        tracker.open();
+        CachedTracker cached;
+        CachedTracker evicted = null;
+        synchronized (trackers) {
+            if (closed) {
+                cached = null;
+            } else {
+                cached = trackers.get(key);
+                if (cached == null) {
+                    trackers.put(key, tracker);
+                    cached = tracker;
+                    evicted = trackers.evicted;
+                    trackers.evicted = null;
+                    if (evicted != null) {
+                        evicted.removed = true;
+                        evicted = closeable(evicted);
+                    }
+                }
+                cached.leases++;
+            }
+        }
+        close(evicted);
+        if (cached != tracker) {
+            close(tracker);
+        }
+        if (cached == null) {
+            throw new IllegalStateException("Cache is closed");
+        }
+        return cached;
+    }
+
+    /**
+     * Get tracker if it has to be closed. Has to be called with lock.
+     */
+    private static CachedTracker closeable(CachedTracker tracker) {
+        return tracker.removed && tracker.leases == 0 ? tracker : null;
+    }
+
+    private static void close(ServiceTracker tracker) {
+        if (tracker != null) {
+            try {
+                tracker.close();
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
+        }
+    }
+
+    private void close() {
+        List<CachedTracker> toClose = new ArrayList<CachedTracker>();
+        synchronized (trackers) {
+            closed = true;
+            for (CachedTracker tracker : trackers.values()) {
+                tracker.removed = true;
+                if (closeable(tracker) != null) {
+                    toClose.add(tracker);
+                }
+            }
+            trackers.clear();
+        }
+        try {
+            bc.removeBundleListener(stopListener);
+        } catch (IllegalStateException e) {
+            // BundleContext is no longer valid
+        }
+        for (CachedTracker tracker : toClose) {
+            close(tracker);
+        }
+    }
+
+    /**
+     * Tracker with leases. Leases and removal flag are guarded by lock of cache.
+     */
+    private class CachedTracker extends ServiceTracker {
+        private final ServiceTrackerCache cache = ServiceTrackerCache.this;
+        private int leases;
+        private boolean removed;
+
+        private CachedTracker(BundleContext bc, String className) {
+            super(bc, className, new ServiceUtils.ServiceReferenceCustomizer());
+        }
+
+        private CachedTracker(BundleContext bc, Filter filter) {
+            super(bc, filter, new ServiceUtils.ServiceReferenceCustomizer());
+        }
+    }
+
+    /**
+     * LRU map of cached trackers. Evicted tracker is kept until it is handled by cache.
+     */
+    private static class TrackerMap extends LinkedHashMap<String, CachedTracker> {
+        private static final long serialVersionUID = 6107342385745127349L;
+
+        private final int maxSize;
+        private transient CachedTracker evicted;
+
+        private TrackerMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTracker> eldest) {
+            if (size() > maxSize) {
+                evicted = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Removes cached trackers when the bundle of the BundleContext is stopping
+     */
+    private class BundleStoppingListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.STOPPING && event.getBundle().equals(bc.getBundle())) {
+                if (CACHES.remove(bc, ServiceTrackerCache.this)) {
+                    close();
+                }
+            }
+        }
+    }
+}
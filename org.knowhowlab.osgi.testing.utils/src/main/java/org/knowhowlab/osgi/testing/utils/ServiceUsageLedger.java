@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Ledger of service usages that were taken by utilities for one BundleContext.
+ * <p/>
+ * Every <code>BundleContext.getService</code> call made on behalf of the test is counted per ServiceReference
+ * until the matching <code>ungetService</code>. Outstanding usages could be inspected and released in bulk
+ * at test teardown. Usages of a service are released and dropped from the ledger when the service is unregistering,
+ * so the ledger does not grow with services that are registered and unregistered by a test.
+ * The ledger is dropped when the bundle of the BundleContext is stopping,
+ * the framework releases remaining usages itself.
+ *
+ * @author dmytro.pishchukhin
+ * @see ServiceHandle
+ * @see org.osgi.framework.BundleContext#getService(org.osgi.framework.ServiceReference)
+ * @see org.osgi.framework.BundleContext#ungetService(org.osgi.framework.ServiceReference)
+ * @since 1.3
+ */
+public class ServiceUsageLedger {
+    /**
+     * Ledgers per BundleContext
+     */
+    private static final ConcurrentMap<BundleContext, ServiceUsageLedger> LEDGERS =
+            new ConcurrentHashMap<BundleContext, ServiceUsageLedger>();
+
+    private final BundleContext bc;
+    private final Map<ServiceReference, Integer> usages = new HashMap<ServiceReference, Integer>();
+    private final SynchronousBundleListener stopListener = new BundleStoppingListener();
+    private final ServiceListener unregisteringListener = new ServiceUnregisteringListener();
+
+    private ServiceUsageLedger(BundleContext bc) {
+        this.bc = bc;
+    }
+
+    /**
+     * Get ledger for BundleContext. Ledger is created on demand.
+     *
+     * @param bc BundleContext
+     * @return ledger
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static ServiceUsageLedger getLedger(BundleContext bc) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        ServiceUsageLedger ledger = LEDGERS.get(bc);
+        if (ledger == null) {
+            ledger = new ServiceUsageLedger(bc);
+            ServiceUsageLedger existing = LEDGERS.putIfAbsent(bc, ledger);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                bc.addBundleListener(ledger.stopListener);
+                bc.addServiceListener(ledger.unregisteringListener);
+            } catch (RuntimeException e) {
+                ledger.close();
+                throw e;
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Release all outstanding service usages of BundleContext
+     *
+     * @param bc BundleContext
+     * @return number of released usages
+     * @since 1.3
+     */
+    public static int releaseAll(BundleContext bc) {
+        ServiceUsageLedger ledger = LEDGERS.get(bc);
+        if (ledger != null) {
+            return ledger.releaseAll();
+        }
+        return 0;
+    }
+
+    /**
+     * Get service object and record the usage
+     *
+     * @param reference ServiceReference
+     * @return service object or <code>null</code> if service is already unregistered
+     * @throws NullPointerException If <code>reference</code> is <code>null</code>
+     * @since 1.3
+     */
+    public Object getService(ServiceReference reference) {
+        if (reference == null) {
+            throw new NullPointerException("ServiceReference is null");
+        }
+        Object service = bc.getService(reference);
+        if (service != null) {
+            synchronized (usages) {
+                Integer count = usages.get(reference);
+                usages.put(reference, count == null ? 1 : count + 1);
+            }
+            if (reference.getBundle() == null) {
+                // service was unregistered after the usage was taken
+                release(reference);
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Release one recorded usage of service
+     *
+     * @param reference ServiceReference
+     * @return <code>false</code> if there was no recorded usage of service
+     * @since 1.3
+     */
+    public boolean ungetService(ServiceReference reference) {
+        synchronized (usages) {
+            Integer count = usages.get(reference);
+            if (count == null) {
+                return false;
+            }
+            if (count > 1) {
+                usages.put(reference, count - 1);
+            } else {
+                usages.remove(reference);
+            }
+        }
+        unget(reference);
+        return true;
+    }
+
+    /**
+     * Get outstanding usages per ServiceReference
+     *
+     * @return snapshot of outstanding usages
+     * @since 1.3
+     */
+    public Map<ServiceReference, Integer> getOutstanding() {
+        synchronized (usages) {
+            return new HashMap<ServiceReference, Integer>(usages);
+        }
+    }
+
+    /**
+     * Get total number of outstanding usages
+     *
+     * @return number of outstanding usages
+     * @since 1.3
+     */
+    public int getOutstandingCount() {
+        int result = 0;
+        synchronized (usages) {
+            for (Integer count : usages.values()) {
+                result += count;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Release all outstanding usages
+     *
+     * @return number of released usages
+     * @since 1.3
+     */
+    public int releaseAll() {
+        Map<ServiceReference, Integer> snapshot;
+        synchronized (usages) {
+            snapshot = new HashMap<ServiceReference, Integer>(usages);
+            usages.clear();
+        }
+        int result = 0;
+        for (Map.Entry<ServiceReference, Integer> entry : snapshot.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                unget(entry.getKey());
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void release(ServiceReference reference) {
+        Integer count;
+        synchronized (usages) {
+            count = usages.remove(reference);
+        }
+        if (count != null) {
+            for (int i = 0; i < count; i++) {
+                unget(reference);
+            }
+        }
+    }
+
+    private void close() {
+        if (LEDGERS.remove(bc, this)) {
+            synchronized (usages) {
+                usages.clear();
+            }
+            try {
+                bc.removeServiceListener(unregisteringListener);
+                bc.removeBundleListener(stopListener);
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
+        }
+    }
+
+    private void unget(ServiceReference reference) {
+        try {
+            bc.ungetService(reference);
+        } catch (IllegalStateException e) {
+            // BundleContext is no longer valid, usages are released by framework
+        }
+    }
+
+    /**
+     * Drops the ledger when the bundle of the BundleContext is stopping
+     */
+    private class BundleStoppingListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.STOPPING && event.getBundle().equals(bc.getBundle())) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Releases usages of unregistering services
+     */
+    private class ServiceUnregisteringListener implements ServiceListener {
+        public void serviceChanged(ServiceEvent event) {
+            if (event.getType() == ServiceEvent.UNREGISTERING) {
+                release(event.getServiceReference());
+            }
+        }
+    }
+}
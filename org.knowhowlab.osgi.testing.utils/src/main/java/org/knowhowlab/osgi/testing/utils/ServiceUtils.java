@@ -16,15 +16,22 @@
 
 package org.knowhowlab.osgi.testing.utils;
 
+import org.knowhowlab.osgi.testing.utils.internal.ServiceEventDispatcher;
 import org.osgi.framework.*;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Dictionary;
+import java.util.EventObject;
+import java.util.List;
 import java.util.concurrent.*;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.knowhowlab.osgi.testing.utils.FilterUtils.create;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.schedule;
 import static org.osgi.framework.FrameworkUtil.createFilter;
 
 /**
@@ -55,7 +62,11 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static ServiceReference getServiceReference(BundleContext bc, Filter filter) {
-        ServiceTracker tracker = new ServiceTracker(bc, filter, null);
+        ServiceTrackerCache cache = ServiceTrackerCache.getCache(bc);
+        if (cache != null) {
+            return getLeasedServiceReference(cache, cache.acquire(filter));
+        }
+        ServiceTracker tracker = new ServiceTracker(bc, filter, new ServiceReferenceCustomizer());
         tracker.open();
         try {
             return tracker.getServiceReference();
@@ -93,13 +104,35 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static ServiceReference getServiceReference(BundleContext bc, Filter filter, long timeout, TimeUnit timeUnit) {
-        CountDownLatch latch = new CountDownLatch(1);
+        return getServiceReference(bc, filter, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get ServiceReference by filter with deadline.
+     *
+     * @param bc       BundleContext
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return ServiceReference instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>filter</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceReference getServiceReference(BundleContext bc, Filter filter, Deadline deadline) {
+        ServiceTrackerCache cache = ServiceTrackerCache.getCache(bc);
+        if (cache != null) {
+            try {
+                return waitForLeasedServiceReference(cache, cache.acquire(filter), deadline);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
-        ServiceTracker tracker = new ServiceTracker(bc, filter, new ServiceTrackerCustomizerWithLock(bc, latch));
+        CountDownLatch latch = new CountDownLatch(1);
+        ServiceTracker tracker = new ServiceTracker(bc, filter, new ServiceTrackerCustomizerWithLock(latch));
         tracker.open();
         try {
-            return waitForServiceReference(tracker, timeoutInMillis, latch);
+            return waitForServiceReference(tracker, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -117,7 +150,11 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static ServiceReference getServiceReference(BundleContext bc, String className) {
-        ServiceTracker tracker = new ServiceTracker(bc, className, null);
+        ServiceTrackerCache cache = ServiceTrackerCache.getCache(bc);
+        if (cache != null) {
+            return getLeasedServiceReference(cache, cache.acquire(className));
+        }
+        ServiceTracker tracker = new ServiceTracker(bc, className, new ServiceReferenceCustomizer());
         tracker.open();
         try {
             return tracker.getServiceReference();
@@ -155,13 +192,35 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static ServiceReference getServiceReference(BundleContext bc, String className, long timeout, TimeUnit timeUnit) {
-        CountDownLatch latch = new CountDownLatch(1);
+        return getServiceReference(bc, className, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get ServiceReference by class name with deadline.
+     *
+     * @param bc        BundleContext
+     * @param className className
+     * @param deadline  deadline of the wait
+     * @return ServiceReference instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>className</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceReference getServiceReference(BundleContext bc, String className, Deadline deadline) {
+        ServiceTrackerCache cache = ServiceTrackerCache.getCache(bc);
+        if (cache != null) {
+            try {
+                return waitForLeasedServiceReference(cache, cache.acquire(className), deadline);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
-        ServiceTracker tracker = new ServiceTracker(bc, className, new ServiceTrackerCustomizerWithLock(bc, latch));
+        CountDownLatch latch = new CountDownLatch(1);
+        ServiceTracker tracker = new ServiceTracker(bc, className, new ServiceTrackerCustomizerWithLock(latch));
         tracker.open();
         try {
-            return waitForServiceReference(tracker, timeoutInMillis, latch);
+            return waitForServiceReference(tracker, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -179,7 +238,11 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static ServiceReference getServiceReference(BundleContext bc, Class clazz) {
-        ServiceTracker tracker = new ServiceTracker(bc, clazz.getName(), null);
+        ServiceTrackerCache cache = ServiceTrackerCache.getCache(bc);
+        if (cache != null) {
+            return getLeasedServiceReference(cache, cache.acquire(clazz.getName()));
+        }
+        ServiceTracker tracker = new ServiceTracker(bc, clazz.getName(), new ServiceReferenceCustomizer());
         tracker.open();
         try {
             return tracker.getServiceReference();
@@ -220,6 +283,21 @@ public class ServiceUtils {
         return getServiceReference(bc, clazz.getName(), timeout, timeUnit);
     }
 
+    /**
+     * Get ServiceReference by class with deadline.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param deadline deadline of the wait
+     * @return ServiceReference instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>clazz</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceReference getServiceReference(BundleContext bc, Class clazz, Deadline deadline) {
+        return getServiceReference(bc, clazz.getName(), deadline);
+    }
+
     /**
      * Get service instance by filter
      *
@@ -230,13 +308,7 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static Object getService(BundleContext bc, Filter filter) {
-        ServiceTracker tracker = new ServiceTracker(bc, filter, null);
-        tracker.open();
-        try {
-            return tracker.getService();
-        } finally {
-            tracker.close();
-        }
+        return getService(bc, getServiceReference(bc, filter));
     }
 
     /**
@@ -268,15 +340,22 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static Object getService(BundleContext bc, Filter filter, long timeout, TimeUnit timeUnit) {
-        ServiceTracker tracker = new ServiceTracker(bc, filter, null);
-        tracker.open();
-        try {
-            return tracker.waitForService(timeUnit.toMillis(timeout));
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            tracker.close();
-        }
+        return getService(bc, filter, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get service instance by filter with deadline.
+     *
+     * @param bc       BundleContext
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return service instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>filter</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Object getService(BundleContext bc, Filter filter, Deadline deadline) {
+        return getService(bc, getServiceReference(bc, filter, deadline));
     }
 
     /**
@@ -289,13 +368,7 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static Object getService(BundleContext bc, String className) {
-        ServiceTracker tracker = new ServiceTracker(bc, className, null);
-        tracker.open();
-        try {
-            return tracker.getService();
-        } finally {
-            tracker.close();
-        }
+        return getService(bc, getServiceReference(bc, className));
     }
 
     /**
@@ -327,15 +400,22 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static Object getService(BundleContext bc, String className, long timeout, TimeUnit timeUnit) {
-        ServiceTracker tracker = new ServiceTracker(bc, className, null);
-        tracker.open();
-        try {
-            return tracker.waitForService(timeUnit.toMillis(timeout));
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            tracker.close();
-        }
+        return getService(bc, className, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get service instance by class name with deadline.
+     *
+     * @param bc        BundleContext
+     * @param className className
+     * @param deadline  deadline of the wait
+     * @return service instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>className</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Object getService(BundleContext bc, String className, Deadline deadline) {
+        return getService(bc, getServiceReference(bc, className, deadline));
     }
 
     /**
@@ -348,19 +428,11 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static <T> T getService(BundleContext bc, Class<T> clazz) {
-        ServiceReference serviceReference = null;
-
-        ServiceTracker tracker = new ServiceTracker(bc, clazz.getName(), null);
-        tracker.open();
-        try {
-            serviceReference = tracker.getServiceReference();
-        } finally {
-            tracker.close();
-        }
+        ServiceReference serviceReference = getServiceReference(bc, clazz);
 
         if (serviceReference != null) {
             //noinspection unchecked
-            return (T) bc.getService(serviceReference);
+            return (T) ServiceUsageLedger.getLedger(bc).getService(serviceReference);
         } else {
             return null;
         }
@@ -395,26 +467,86 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static <T> T getService(BundleContext bc, Class<T> clazz, long timeout, TimeUnit timeUnit) {
-        ServiceReference serviceReference = null;
+        return getService(bc, clazz, Deadline.after(timeout, timeUnit));
+    }
 
-        ServiceTracker tracker = new ServiceTracker(bc, clazz.getName(), null);
-        tracker.open();
-        try {
-            //noinspection unchecked
-            tracker.waitForService(timeUnit.toMillis(timeout));
-            serviceReference = tracker.getServiceReference();
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            tracker.close();
-        }
+    /**
+     * Get service instance by class with deadline.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param deadline deadline of the wait
+     * @return service instance or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>clazz</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> T getService(BundleContext bc, Class<T> clazz, Deadline deadline) {
+        //noinspection unchecked
+        return (T) getService(bc, getServiceReference(bc, clazz, deadline));
+    }
 
-        if (serviceReference != null) {
-            //noinspection unchecked
-            return (T) bc.getService(serviceReference);
-        } else {
-            return null;
-        }
+    /**
+     * Get scoped service usage by class. Service usage has to be released by {@link ServiceHandle#close()}.
+     *
+     * @param bc    BundleContext
+     * @param clazz Class
+     * @return service handle or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>clazz</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> ServiceHandle<T> getServiceHandle(BundleContext bc, Class<T> clazz) {
+        return createServiceHandle(bc, getServiceReference(bc, clazz));
+    }
+
+    /**
+     * Get scoped service usage by class with timeoutInMillis.
+     * Service usage has to be released by {@link ServiceHandle#close()}.
+     *
+     * @param bc              BundleContext
+     * @param clazz           Class
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @return service handle or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>clazz</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> ServiceHandle<T> getServiceHandle(BundleContext bc, Class<T> clazz, long timeoutInMillis) {
+        return getServiceHandle(bc, clazz, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Get scoped service usage by class with timeout.
+     * Service usage has to be released by {@link ServiceHandle#close()}.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return service handle or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>clazz</code> or
+     *                                  <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> ServiceHandle<T> getServiceHandle(BundleContext bc, Class<T> clazz, long timeout, TimeUnit timeUnit) {
+        return getServiceHandle(bc, clazz, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get scoped service usage by class with deadline.
+     * Service usage has to be released by {@link ServiceHandle#close()}.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param deadline deadline of the wait
+     * @return service handle or <code>null</code>
+     * @throws NullPointerException If <code>bc</code>, <code>clazz</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> ServiceHandle<T> getServiceHandle(BundleContext bc, Class<T> clazz, Deadline deadline) {
+        return createServiceHandle(bc, getServiceReference(bc, clazz, deadline));
     }
 
     /**
@@ -483,19 +615,14 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static <T> T getService(BundleContext bc, Class<T> clazz, Filter filter) {
-        ServiceTracker tracker;
+        Filter classFilter;
         try {
-            tracker = new ServiceTracker(bc, create(clazz, filter), null);
+            classFilter = create(clazz, filter);
         } catch (InvalidSyntaxException e) {
             throw new IllegalArgumentException("Unable to create filter", e);
         }
-        tracker.open();
-        try {
-            //noinspection unchecked
-            return (T) tracker.getService();
-        } finally {
-            tracker.close();
-        }
+        //noinspection unchecked
+        return (T) getService(bc, getServiceReference(bc, classFilter));
     }
 
     /**
@@ -529,114 +656,391 @@ public class ServiceUtils {
      * @since 1.0
      */
     public static <T> T getService(BundleContext bc, Class<T> clazz, Filter filter, long timeout, TimeUnit timeUnit) {
-        ServiceTracker tracker;
+        return getService(bc, clazz, filter, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Get service instance by class with deadline.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return service instance or <code>null</code>
+     * @throws IllegalArgumentException If <code>filter</code> is invalid
+     * @throws NullPointerException     If <code>bc</code>, <code>clazz</code> or
+     *                                  <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static <T> T getService(BundleContext bc, Class<T> clazz, Filter filter, Deadline deadline) {
+        Filter classFilter;
         try {
-            tracker = new ServiceTracker(bc, create(clazz, filter), null);
+            classFilter = create(clazz, filter);
         } catch (InvalidSyntaxException e) {
             throw new IllegalArgumentException("Unable to create filter", e);
         }
-        tracker.open();
-        try {
-            //noinspection unchecked
-            return (T) tracker.waitForService(timeUnit.toMillis(timeout));
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            tracker.close();
-        }
+        //noinspection unchecked
+        return (T) getService(bc, getServiceReference(bc, classFilter, deadline));
     }
 
     /**
-     * Registers service asynchronously
+     * Wait until there is no service that matches filter with timeoutInMillis.
      *
-     * @param bc         BundleContext
-     * @param clazz      The class under which the service can be located.
-     * @param service    The service object or a <code>ServiceFactory</code> object.
-     * @param properties The properties for this service.
-     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
-     *         registering the service to update the service's properties or to
-     *         unregister the service.
-     * @since 1.1
+     * @param bc              BundleContext
+     * @param filter          filter
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>filter</code> are <code>null</code>
+     * @since 1.3
      */
-    public static <T> Future<ServiceRegistration> registerServiceAsync(BundleContext bc, Class<T> clazz, T service, Dictionary properties) {
-        return registerServiceAsync(bc, clazz, service, properties, 0L);
+    public static boolean waitForServiceUnavailable(BundleContext bc, Filter filter, long timeoutInMillis) {
+        return waitForServiceUnavailable(bc, filter, timeoutInMillis, MILLISECONDS);
     }
 
     /**
-     * Registers service asynchronously
+     * Wait until there is no service that matches filter with timeout.
      *
-     * @param bc         BundleContext
-     * @param clazz      The class name under which the service can be located.
-     * @param service    The service object or a <code>ServiceFactory</code> object.
-     * @param properties The properties for this service.
-     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
-     *         registering the service to update the service's properties or to
-     *         unregister the service.
-     * @since 1.1
+     * @param bc       BundleContext
+     * @param filter   filter
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>filter</code> or
+     *                                  <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
      */
-    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String clazz, Object service, Dictionary properties) {
-        return registerServiceAsync(bc, clazz, service, properties, 0L);
+    public static boolean waitForServiceUnavailable(BundleContext bc, Filter filter, long timeout, TimeUnit timeUnit) {
+        return waitForServiceUnavailable(bc, filter, Deadline.after(timeout, timeUnit));
     }
 
     /**
-     * Registers service asynchronously
+     * Wait until there is no service that matches filter with deadline.
      *
-     * @param bc         BundleContext
-     * @param clazzes    The class names under which the service can be located.
-     *                   The class names in this array will be stored in the service's
-     *                   properties under the key {@link Constants#OBJECTCLASS}.
-     * @param service    The service object or a <code>ServiceFactory</code> object.
-     * @param properties The properties for this service.
-     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
-     *         registering the service to update the service's properties or to
-     *         unregister the service.
-     * @since 1.1
+     * @param bc       BundleContext
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return <code>true</code> if there is no matching service, <code>false</code> if deadline is expired
+     * @throws NullPointerException If <code>bc</code>, <code>filter</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
      */
-    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String[] clazzes, Object service, Dictionary properties) {
-        return registerServiceAsync(bc, clazzes, service, properties, 0L);
+    public static boolean waitForServiceUnavailable(BundleContext bc, Filter filter, Deadline deadline) {
+        ServiceRemovalCustomizer customizer = new ServiceRemovalCustomizer();
+        ServiceTracker tracker = new ServiceTracker(bc, filter, customizer);
+        return waitForServiceUnavailable(tracker, customizer, deadline);
     }
 
     /**
-     * Registers service asynchronously with delayInMillis
+     * Wait until there is no service with class name with timeoutInMillis.
      *
-     * @param bc            BundleContext
-     * @param clazz         The class under which the service can be located.
-     * @param service       The service object or a <code>ServiceFactory</code> object.
-     * @param properties    The properties for this service.
-     * @param delayInMillis time interval in millis to wait before registration. If zero, the method will not wait.
-     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
-     *         registering the service to update the service's properties or to
-     *         unregister the service.
-     * @since 1.1
+     * @param bc              BundleContext
+     * @param className       className
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>className</code> are <code>null</code>
+     * @since 1.3
      */
-    public static <T> Future<ServiceRegistration> registerServiceAsync(BundleContext bc, Class<T> clazz, T service, Dictionary properties, long delayInMillis) {
-        return registerServiceAsync(bc, clazz, service, properties, delayInMillis, MILLISECONDS);
+    public static boolean waitForServiceUnavailable(BundleContext bc, String className, long timeoutInMillis) {
+        return waitForServiceUnavailable(bc, className, timeoutInMillis, MILLISECONDS);
     }
 
     /**
-     * Registers service asynchronously with delayInMillis
+     * Wait until there is no service with class name with timeout.
      *
-     * @param bc            BundleContext
-     * @param clazz         The class name under which the service can be located.
-     * @param service       The service object or a <code>ServiceFactory</code> object.
-     * @param properties    The properties for this service.
-     * @param delayInMillis time interval in millis to wait before registration. If zero, the method will not wait.
-     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
-     *         registering the service to update the service's properties or to
-     *         unregister the service.
-     * @since 1.1
+     * @param bc        BundleContext
+     * @param className className
+     * @param timeout   time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit  time unit for the time interval
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>className</code> or
+     *                                  <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
      */
-    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String clazz, Object service, Dictionary properties, long delayInMillis) {
-        return registerServiceAsync(bc, clazz, service, properties, delayInMillis, MILLISECONDS);
+    public static boolean waitForServiceUnavailable(BundleContext bc, String className, long timeout, TimeUnit timeUnit) {
+        return waitForServiceUnavailable(bc, className, Deadline.after(timeout, timeUnit));
     }
 
     /**
-     * Registers service asynchronously with delayInMillis
+     * Wait until there is no service with class name with deadline.
      *
-     * @param bc            BundleContext
-     * @param clazzes       The class names under which the service can be located.
-     *                      The class names in this array will be stored in the service's
-     *                      properties under the key {@link Constants#OBJECTCLASS}.
+     * @param bc        BundleContext
+     * @param className className
+     * @param deadline  deadline of the wait
+     * @return <code>true</code> if there is no matching service, <code>false</code> if deadline is expired
+     * @throws NullPointerException If <code>bc</code>, <code>className</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForServiceUnavailable(BundleContext bc, String className, Deadline deadline) {
+        ServiceRemovalCustomizer customizer = new ServiceRemovalCustomizer();
+        ServiceTracker tracker = new ServiceTracker(bc, className, customizer);
+        return waitForServiceUnavailable(tracker, customizer, deadline);
+    }
+
+    /**
+     * Wait until there is no service with class with timeoutInMillis.
+     *
+     * @param bc              BundleContext
+     * @param clazz           Class
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>clazz</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForServiceUnavailable(BundleContext bc, Class clazz, long timeoutInMillis) {
+        return waitForServiceUnavailable(bc, clazz, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait until there is no service with class with timeout.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return <code>true</code> if there is no matching service, <code>false</code> if timeout is elapsed
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>clazz</code> or
+     *                                  <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForServiceUnavailable(BundleContext bc, Class clazz, long timeout, TimeUnit timeUnit) {
+        return waitForServiceUnavailable(bc, clazz.getName(), timeout, timeUnit);
+    }
+
+    /**
+     * Wait until there is no service with class with deadline.
+     *
+     * @param bc       BundleContext
+     * @param clazz    Class
+     * @param deadline deadline of the wait
+     * @return <code>true</code> if there is no matching service, <code>false</code> if deadline is expired
+     * @throws NullPointerException If <code>bc</code>, <code>clazz</code> or
+     *                              <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static boolean waitForServiceUnavailable(BundleContext bc, Class clazz, Deadline deadline) {
+        return waitForServiceUnavailable(bc, clazz.getName(), deadline);
+    }
+
+    /**
+     * Wait until services for all filters are available within timeoutInMillis.
+     * All filters are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc              BundleContext
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @param filters         filters
+     * @return filters without matching service, empty list if all services are available
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>filters</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Filter> waitForServices(BundleContext bc, long timeoutInMillis, Filter... filters) {
+        return waitForServices(bc, timeoutInMillis, MILLISECONDS, filters);
+    }
+
+    /**
+     * Wait until services for all filters are available within timeout.
+     * All filters are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc       BundleContext
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @param filters  filters
+     * @return filters without matching service, empty list if all services are available
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>timeUnit</code> or
+     *                                  <code>filters</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Filter> waitForServices(BundleContext bc, long timeout, TimeUnit timeUnit, Filter... filters) {
+        return waitForServices(bc, Deadline.after(timeout, timeUnit), filters);
+    }
+
+    /**
+     * Wait until services for all filters are available within deadline.
+     * All filters are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc       BundleContext
+     * @param deadline deadline of the wait
+     * @param filters  filters
+     * @return filters without matching service, empty list if all services are available
+     * @throws NullPointerException If <code>bc</code>, <code>deadline</code> or
+     *                              <code>filters</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Filter> waitForServices(BundleContext bc, Deadline deadline, Filter... filters) {
+        boolean[] missing = waitForServices(bc, filters, deadline);
+        List<Filter> result = new ArrayList<Filter>();
+        for (int i = 0; i < filters.length; i++) {
+            if (missing[i]) {
+                result.add(filters[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wait until services with all classes are available within timeoutInMillis.
+     * All classes are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc              BundleContext
+     * @param timeoutInMillis time interval in milliseconds to wait. If zero, the method will wait indefinitely.
+     * @param classes         classes
+     * @return classes without service, empty list if all services are available
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>bc</code> or <code>classes</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Class> waitForServicesByClass(BundleContext bc, long timeoutInMillis, Class... classes) {
+        return waitForServicesByClass(bc, timeoutInMillis, MILLISECONDS, classes);
+    }
+
+    /**
+     * Wait until services with all classes are available within timeout.
+     * All classes are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc       BundleContext
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @param classes  classes
+     * @return classes without service, empty list if all services are available
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>bc</code>, <code>timeUnit</code> or
+     *                                  <code>classes</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Class> waitForServicesByClass(BundleContext bc, long timeout, TimeUnit timeUnit, Class... classes) {
+        return waitForServicesByClass(bc, Deadline.after(timeout, timeUnit), classes);
+    }
+
+    /**
+     * Wait until services with all classes are available within deadline.
+     * All classes are tracked concurrently by one ServiceTracker.
+     *
+     * @param bc       BundleContext
+     * @param deadline deadline of the wait
+     * @param classes  classes
+     * @return classes without service, empty list if all services are available
+     * @throws NullPointerException If <code>bc</code>, <code>deadline</code> or
+     *                              <code>classes</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static List<Class> waitForServicesByClass(BundleContext bc, Deadline deadline, Class... classes) {
+        Filter[] filters = new Filter[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            try {
+                filters[i] = create(classes[i]);
+            } catch (InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Unable to create filter", e);
+            }
+        }
+        boolean[] missing = waitForServices(bc, filters, deadline);
+        List<Class> result = new ArrayList<Class>();
+        for (int i = 0; i < classes.length; i++) {
+            if (missing[i]) {
+                result.add(classes[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers service asynchronously
+     *
+     * @param bc         BundleContext
+     * @param clazz      The class under which the service can be located.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service.
+     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
+     *         registering the service to update the service's properties or to
+     *         unregister the service.
+     * @since 1.1
+     */
+    public static <T> Future<ServiceRegistration> registerServiceAsync(BundleContext bc, Class<T> clazz, T service, Dictionary properties) {
+        return registerServiceAsync(bc, clazz, service, properties, 0L);
+    }
+
+    /**
+     * Registers service asynchronously
+     *
+     * @param bc         BundleContext
+     * @param clazz      The class name under which the service can be located.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service.
+     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
+     *         registering the service to update the service's properties or to
+     *         unregister the service.
+     * @since 1.1
+     */
+    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String clazz, Object service, Dictionary properties) {
+        return registerServiceAsync(bc, clazz, service, properties, 0L);
+    }
+
+    /**
+     * Registers service asynchronously
+     *
+     * @param bc         BundleContext
+     * @param clazzes    The class names under which the service can be located.
+     *                   The class names in this array will be stored in the service's
+     *                   properties under the key {@link Constants#OBJECTCLASS}.
+     * @param service    The service object or a <code>ServiceFactory</code> object.
+     * @param properties The properties for this service.
+     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
+     *         registering the service to update the service's properties or to
+     *         unregister the service.
+     * @since 1.1
+     */
+    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String[] clazzes, Object service, Dictionary properties) {
+        return registerServiceAsync(bc, clazzes, service, properties, 0L);
+    }
+
+    /**
+     * Registers service asynchronously with delayInMillis
+     *
+     * @param bc            BundleContext
+     * @param clazz         The class under which the service can be located.
+     * @param service       The service object or a <code>ServiceFactory</code> object.
+     * @param properties    The properties for this service.
+     * @param delayInMillis time interval in millis to wait before registration. If zero, the method will not wait.
+     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
+     *         registering the service to update the service's properties or to
+     *         unregister the service.
+     * @since 1.1
+     */
+    public static <T> Future<ServiceRegistration> registerServiceAsync(BundleContext bc, Class<T> clazz, T service, Dictionary properties, long delayInMillis) {
+        return registerServiceAsync(bc, clazz, service, properties, delayInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Registers service asynchronously with delayInMillis
+     *
+     * @param bc            BundleContext
+     * @param clazz         The class name under which the service can be located.
+     * @param service       The service object or a <code>ServiceFactory</code> object.
+     * @param properties    The properties for this service.
+     * @param delayInMillis time interval in millis to wait before registration. If zero, the method will not wait.
+     * @return A <code>Future&lt;ServiceRegistration&gt;</code> object for use by the bundle
+     *         registering the service to update the service's properties or to
+     *         unregister the service.
+     * @since 1.1
+     */
+    public static Future<ServiceRegistration> registerServiceAsync(BundleContext bc, String clazz, Object service, Dictionary properties, long delayInMillis) {
+        return registerServiceAsync(bc, clazz, service, properties, delayInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Registers service asynchronously with delayInMillis
+     *
+     * @param bc            BundleContext
+     * @param clazzes       The class names under which the service can be located.
+     *                      The class names in this array will be stored in the service's
+     *                      properties under the key {@link Constants#OBJECTCLASS}.
      * @param service       The service object or a <code>ServiceFactory</code> object.
      * @param properties    The properties for this service.
      * @param delayInMillis time interval in millis to wait before registration. If zero, the method will not wait.
@@ -664,7 +1068,7 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static <T> Future<ServiceRegistration> registerServiceAsync(final BundleContext bc, final Class<T> clazz, final T service, final Dictionary properties, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<ServiceRegistration>() {
+        return schedule(new Callable<ServiceRegistration>() {
             public ServiceRegistration call() throws Exception {
                 return bc.registerService(clazz.getName(), service, properties);
             }
@@ -686,7 +1090,7 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static Future<ServiceRegistration> registerServiceAsync(final BundleContext bc, final String clazz, final Object service, final Dictionary properties, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<ServiceRegistration>() {
+        return schedule(new Callable<ServiceRegistration>() {
             public ServiceRegistration call() throws Exception {
                 return bc.registerService(clazz, service, properties);
             }
@@ -710,7 +1114,7 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static Future<ServiceRegistration> registerServiceAsync(final BundleContext bc, final String[] clazzes, final Object service, final Dictionary properties, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<ServiceRegistration>() {
+        return schedule(new Callable<ServiceRegistration>() {
             public ServiceRegistration call() throws Exception {
                 return bc.registerService(clazzes, service, properties);
             }
@@ -762,7 +1166,7 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static Future<?> updateServiceAsync(final ServiceRegistration registration, final Dictionary properties, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 registration.setProperties(properties);
                 return null;
@@ -803,7 +1207,7 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static Future<?> unregisterServiceAsync(final ServiceRegistration registration, long delay, TimeUnit timeUnit) {
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 registration.unregister();
                 return null;
@@ -811,6 +1215,76 @@ public class ServiceUtils {
         }, delay, timeUnit);
     }
 
+    /**
+     * Register services in the calling thread
+     *
+     * @param bc    BundleContext
+     * @param specs service specifications
+     * @return registrations of the registered services with timing and throughput
+     * @throws NullPointerException If <code>bc</code> or <code>specs</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BulkResult<ServiceRegistration> registerServices(BundleContext bc, Collection<ServiceSpec> specs) {
+        return registerServices(bc, specs, 1);
+    }
+
+    /**
+     * Register services in parallel. Specifications are split into <code>parallelism</code> chunks,
+     * the first chunk is registered by the calling thread, the others by the shared executor.
+     * The method returns when all chunks are done.
+     *
+     * @param bc          BundleContext
+     * @param specs       service specifications
+     * @param parallelism maximum number of parallel chunks
+     * @return registrations of the registered services with timing and throughput
+     * @throws IllegalArgumentException If <code>parallelism</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> or <code>specs</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static BulkResult<ServiceRegistration> registerServices(final BundleContext bc, Collection<ServiceSpec> specs, int parallelism) {
+        if (bc == null) {
+            throw new NullPointerException("BundleContext is null");
+        }
+        return BulkResult.run(specs, parallelism, new BulkResult.Action<ServiceSpec, ServiceRegistration>() {
+            public ServiceRegistration run(ServiceSpec spec) {
+                return bc.registerService(spec.getClassNames(), spec.getService(), spec.getProperties());
+            }
+        });
+    }
+
+    /**
+     * Unregister services in the calling thread. Already unregistered services are reported as failures.
+     *
+     * @param registrations service registrations
+     * @return unregistered registrations with timing and throughput
+     * @throws NullPointerException If <code>registrations</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static BulkResult<ServiceRegistration> unregisterAll(Collection<ServiceRegistration> registrations) {
+        return unregisterAll(registrations, 1);
+    }
+
+    /**
+     * Unregister services in parallel. Registrations are split into <code>parallelism</code> chunks,
+     * the first chunk is unregistered by the calling thread, the others by the shared executor.
+     * Already unregistered services are reported as failures.
+     *
+     * @param registrations service registrations
+     * @param parallelism   maximum number of parallel chunks
+     * @return unregistered registrations with timing and throughput
+     * @throws IllegalArgumentException If <code>parallelism</code> is not positive
+     * @throws NullPointerException     If <code>registrations</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static BulkResult<ServiceRegistration> unregisterAll(Collection<ServiceRegistration> registrations, int parallelism) {
+        return BulkResult.run(registrations, parallelism, new BulkResult.Action<ServiceRegistration, ServiceRegistration>() {
+            public ServiceRegistration run(ServiceRegistration registration) {
+                registration.unregister();
+                return registration;
+            }
+        });
+    }
+
     /**
      * Wait for ServiceEvent with event type mask for defined filter
      *
@@ -967,15 +1441,23 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static ServiceEvent waitForServiceEvent(BundleContext bc, String className, int eventTypeMask, boolean all, long timeout, TimeUnit timeUnit) {
-        Filter filter = null;
-        if (className != null) {
-            try {
-                filter = create(className);
-            } catch (InvalidSyntaxException e) {
-                throw new IllegalArgumentException("Unable to create filter", e);
-            }
-        }
-        return waitForServiceEvent(bc, filter, eventTypeMask, all, timeout, timeUnit);
+        return waitForServiceEvent(bc, className, eventTypeMask, all, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class name with deadline
+     *
+     * @param bc            BundleContext
+     * @param className     class name (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param all           use AllServiceListener
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(BundleContext bc, String className, int eventTypeMask, boolean all, Deadline deadline) {
+        return waitForServiceEvent(bc, className, null, eventTypeMask, all, deadline);
     }
 
     /**
@@ -993,15 +1475,23 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static ServiceEvent waitForServiceEvent(BundleContext bc, Class clazz, int eventTypeMask, boolean all, long timeout, TimeUnit timeUnit) {
-        Filter filter = null;
-        if (clazz != null) {
-            try {
-                filter = create(clazz);
-            } catch (InvalidSyntaxException e) {
-                throw new IllegalArgumentException("Unable to create filter", e);
-            }
-        }
-        return waitForServiceEvent(bc, filter, eventTypeMask, all, timeout, timeUnit);
+        return waitForServiceEvent(bc, clazz, eventTypeMask, all, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class with deadline
+     *
+     * @param bc            BundleContext
+     * @param clazz         class (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param all           use AllServiceListener
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(BundleContext bc, Class clazz, int eventTypeMask, boolean all, Deadline deadline) {
+        return waitForServiceEvent(bc, clazz != null ? clazz.getName() : null, null, eventTypeMask, all, deadline);
     }
 
     /**
@@ -1019,9 +1509,29 @@ public class ServiceUtils {
      * @since 1.1
      */
     public static ServiceEvent waitForServiceEvent(BundleContext bc, Filter filter, int eventTypeMask, boolean all, long timeout, TimeUnit timeUnit) {
+        return waitForServiceEvent(bc, filter, eventTypeMask, all, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined filter with deadline
+     *
+     * @param bc            BundleContext
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param all           use AllServiceListener
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If <code>filter</code> is invalid
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(BundleContext bc, Filter filter, int eventTypeMask, boolean all, Deadline deadline) {
+        if (ServiceEventDispatcher.isSupported(filter, eventTypeMask)) {
+            return waitForServiceEvent(bc, null, filter, eventTypeMask, all, deadline);
+        }
+
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         ServiceListenerImpl listener;
         if (all) {
             listener = new AllServiceListenerImpl(eventTypeMask, latch);
@@ -1035,7 +1545,7 @@ public class ServiceUtils {
         }
 
         try {
-            return waitForServiceEvent(listener, timeoutInMillis, latch);
+            return waitForServiceEvent(listener, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -1043,37 +1553,347 @@ public class ServiceUtils {
         }
     }
 
-    private static ServiceEvent waitForServiceEvent(ServiceListenerImpl listener, long timeoutInMillis, CountDownLatch latch)
-            throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
-        }
-        if (latch.await(timeoutInMillis, MILLISECONDS)) {
-            return listener.getServiceEvent();
-        } else {
-            return null;
-        }
-    }
-
+    /**
+     * Wait for ServiceEvent with event type mask for defined filter that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param filter          filter (could be null)
+     * @param eventTypeMask   ServiceEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, Filter filter, int eventTypeMask, long timeoutInMillis) {
+        return waitForServiceEvent(journal, sinceCursor, filter, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class name that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param className       class name (could be null)
+     * @param eventTypeMask   ServiceEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, String className, int eventTypeMask, long timeoutInMillis) {
+        return waitForServiceEvent(journal, sinceCursor, className, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class that was recorded by journal since cursor
+     *
+     * @param journal         event journal
+     * @param sinceCursor     journal cursor
+     * @param clazz           class (could be null)
+     * @param eventTypeMask   ServiceEvent type mask
+     * @param timeoutInMillis time interval in millis to wait. If zero, the method will wait indefinitely.
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeoutInMillis is negative
+     * @throws NullPointerException     If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, Class clazz, int eventTypeMask, long timeoutInMillis) {
+        return waitForServiceEvent(journal, sinceCursor, clazz, eventTypeMask, timeoutInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param clazz         class (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, Class clazz, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForServiceEvent(journal, sinceCursor, clazz != null ? clazz.getName() : null, eventTypeMask, timeout, timeUnit);
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class name that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param className     class name (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, String className, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForServiceEvent(journal, sinceCursor, className, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined class name that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param className     class name (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, String className, int eventTypeMask, Deadline deadline) {
+        return waitForServiceEvent(journal, sinceCursor, new ServiceEventMatcher(className, null, eventTypeMask), deadline);
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined filter that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param timeout       time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit      time unit for the time interval
+     * @return ServiceEvent or <code>null</code>
+     * @throws IllegalArgumentException If the value of timeout is negative
+     * @throws NullPointerException     If <code>journal</code> or <code>timeUnit</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, Filter filter, int eventTypeMask, long timeout, TimeUnit timeUnit) {
+        return waitForServiceEvent(journal, sinceCursor, filter, eventTypeMask, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ServiceEvent with event type mask for defined filter that was recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, Filter filter, int eventTypeMask, Deadline deadline) {
+        return waitForServiceEvent(journal, sinceCursor, new ServiceEventMatcher(null, filter, eventTypeMask), deadline);
+    }
+
+    /**
+     * Find ServiceEvent with event type mask for defined filter that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent findServiceEvent(EventJournal journal, long sinceCursor, Filter filter, int eventTypeMask) {
+        return waitForServiceEvent(journal, sinceCursor, filter, eventTypeMask, Deadline.now());
+    }
+
+    /**
+     * Find ServiceEvent with event type mask for defined class name that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param className     class name (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent findServiceEvent(EventJournal journal, long sinceCursor, String className, int eventTypeMask) {
+        return waitForServiceEvent(journal, sinceCursor, className, eventTypeMask, Deadline.now());
+    }
+
+    /**
+     * Find ServiceEvent with event type mask for defined class that was already recorded by journal since cursor
+     *
+     * @param journal       event journal
+     * @param sinceCursor   journal cursor
+     * @param clazz         class (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @return ServiceEvent or <code>null</code>
+     * @throws NullPointerException If <code>journal</code> is <code>null</code>
+     * @since 1.3
+     */
+    public static ServiceEvent findServiceEvent(EventJournal journal, long sinceCursor, Class clazz, int eventTypeMask) {
+        return findServiceEvent(journal, sinceCursor, clazz != null ? clazz.getName() : null, eventTypeMask);
+    }
+
+    private static ServiceEvent waitForServiceEvent(EventJournal journal, long sinceCursor, ServiceEventMatcher matcher, Deadline deadline) {
+        try {
+            return (ServiceEvent) journal.waitForEvent(sinceCursor, matcher, deadline);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get ServiceReference by filter as soon as it is registered.
+     * Future is completed immediately if matching service is already registered.
+     *
+     * @param bc     BundleContext
+     * @param filter filter
+     * @return future of ServiceReference
+     * @throws NullPointerException  If <code>bc</code> or <code>filter</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<ServiceReference> serviceReferenceCompletion(BundleContext bc, Filter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter is null");
+        }
+        final CompletionFuture<ServiceEvent> registered = serviceEventCompletion(bc, filter, ServiceEvent.REGISTERED);
+        final CompletionFuture<ServiceReference> future = new CompletionFuture<ServiceReference>();
+        registered.whenComplete(new CompletionFuture.Callback<ServiceEvent>() {
+            public void completed(ServiceEvent event) {
+                future.complete(event.getServiceReference());
+            }
+
+            public void failed(Throwable failure) {
+                future.fail(failure);
+            }
+        });
+        future.whenComplete(new CompletionFuture.Callback<ServiceReference>() {
+            public void completed(ServiceReference reference) {
+                registered.cancel(false);
+            }
+
+            public void failed(Throwable failure) {
+                registered.cancel(false);
+            }
+        });
+        ServiceReference[] references;
+        try {
+            references = bc.getServiceReferences(null, filter.toString());
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Unable to use filter", e);
+        }
+        if (references != null && references.length > 0) {
+            future.complete(references[0]);
+        }
+        return future;
+    }
+
+    /**
+     * Get ServiceReference by class name as soon as it is registered.
+     * Future is completed immediately if service is already registered.
+     *
+     * @param bc        BundleContext
+     * @param className className
+     * @return future of ServiceReference
+     * @throws IllegalArgumentException If <code>className</code> is invalid
+     * @throws NullPointerException     If <code>bc</code> or <code>className</code> are <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<ServiceReference> serviceReferenceCompletion(BundleContext bc, String className) {
+        try {
+            return serviceReferenceCompletion(bc, create(className));
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Unable to create filter", e);
+        }
+    }
+
+    /**
+     * Get ServiceReference by class as soon as it is registered.
+     * Future is completed immediately if service is already registered.
+     *
+     * @param bc    BundleContext
+     * @param clazz Class
+     * @return future of ServiceReference
+     * @throws NullPointerException  If <code>bc</code> or <code>clazz</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<ServiceReference> serviceReferenceCompletion(BundleContext bc, Class clazz) {
+        return serviceReferenceCompletion(bc, clazz.getName());
+    }
+
+    /**
+     * Get the next ServiceEvent with event type mask for defined filter
+     *
+     * @param bc            BundleContext
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @return future of ServiceEvent
+     * @throws IllegalArgumentException If <code>filter</code> is invalid
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<ServiceEvent> serviceEventCompletion(BundleContext bc, Filter filter, int eventTypeMask) {
+        CompletionFuture<ServiceEvent> future = new CompletionFuture<ServiceEvent>();
+        ServiceCompletionListener listener = new ServiceCompletionListener(bc, eventTypeMask, future);
+        try {
+            bc.addServiceListener(listener, filter != null ? filter.toString() : null);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException("Unable to use filter", e);
+        }
+        future.whenComplete(listener);
+        return future;
+    }
+
+    /**
+     * Wait for ServiceEvent with shared ServiceListener of BundleContext
+     *
+     * @param bc            BundleContext
+     * @param className     class name (could be null)
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param all           use AllServiceListener
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @see ServiceEventDispatcher
+     */
+    private static ServiceEvent waitForServiceEvent(BundleContext bc, String className, Filter filter, int eventTypeMask,
+                                                    boolean all, Deadline deadline) {
+        try {
+            return ServiceEventDispatcher.getDispatcher(bc, all)
+                    .waitForServiceEvent(className, filter, eventTypeMask, deadline);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    private static ServiceEvent waitForServiceEvent(ServiceListenerImpl listener, Deadline deadline, CountDownLatch latch)
+            throws InterruptedException {
+        if (deadline.await(latch)) {
+            return listener.getServiceEvent();
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Wait for at least one ServiceReference to be tracked by ServiceTracker
      *
-     * @param tracker         ServiceTracker
-     * @param timeoutInMillis time interval in milliseconds to wait.
-     *                        If zero, the method will wait indefinitely.
-     * @param latch           external latch that is used to handle new service adding to ServiceTracker
+     * @param tracker  ServiceTracker
+     * @param deadline deadline of the wait
+     * @param latch    external latch that is used to handle new service adding to ServiceTracker
      * @return ServiceReference instance or <code>null</code>
-     * @throws IllegalArgumentException If the value of timeout is negative.
-     * @throws InterruptedException     If another thread has interrupted the current thread.
+     * @throws InterruptedException If another thread has interrupted the current thread.
      */
-    private static ServiceReference waitForServiceReference(ServiceTracker tracker, long timeoutInMillis, CountDownLatch latch)
+    private static ServiceReference waitForServiceReference(ServiceTracker tracker, Deadline deadline, CountDownLatch latch)
             throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
-        }
         ServiceReference reference = tracker.getServiceReference();
         if (reference == null) {
-            if (latch.await(timeoutInMillis, MILLISECONDS)) {
+            if (deadline.await(latch)) {
                 return tracker.getServiceReference();
             } else {
                 return null;
@@ -1084,32 +1904,358 @@ public class ServiceUtils {
     }
 
     /**
-     * ServiceTrackerCustomizer with lock support.
+     * Get service instance by ServiceReference. Service usage is recorded in {@link ServiceUsageLedger}.
+     *
+     * @param bc               BundleContext
+     * @param serviceReference ServiceReference or <code>null</code>
+     * @return service instance or <code>null</code>
+     */
+    private static Object getService(BundleContext bc, ServiceReference serviceReference) {
+        if (serviceReference == null) {
+            return null;
+        }
+        return ServiceUsageLedger.getLedger(bc).getService(serviceReference);
+    }
+
+    private static <T> ServiceHandle<T> createServiceHandle(BundleContext bc, ServiceReference serviceReference) {
+        if (serviceReference == null) {
+            return null;
+        }
+        ServiceUsageLedger ledger = ServiceUsageLedger.getLedger(bc);
+        //noinspection unchecked
+        T service = (T) ledger.getService(serviceReference);
+        if (service == null) {
+            return null;
+        }
+        return new ServiceHandle<T>(ledger, serviceReference, service);
+    }
+
+    /**
+     * Get ServiceReference by tracker that is leased from cache. The lease is released after lookup.
+     *
+     * @param cache   tracker cache
+     * @param tracker leased ServiceTracker
+     * @return ServiceReference instance or <code>null</code>
+     */
+    private static ServiceReference getLeasedServiceReference(ServiceTrackerCache cache, ServiceTracker tracker) {
+        try {
+            return tracker.getServiceReference();
+        } finally {
+            cache.release(tracker);
+        }
+    }
+
+    /**
+     * Wait for at least one ServiceReference to be tracked by tracker that is leased from cache.
+     * The lease is released after the wait.
+     *
+     * @param cache    tracker cache
+     * @param tracker  leased ServiceTracker
+     * @param deadline deadline of the wait
+     * @return ServiceReference instance or <code>null</code>
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     */
+    private static ServiceReference waitForLeasedServiceReference(ServiceTrackerCache cache, ServiceTracker tracker, Deadline deadline)
+            throws InterruptedException {
+        try {
+            return waitForServiceReference(tracker, deadline);
+        } finally {
+            cache.release(tracker);
+        }
+    }
+
+    /**
+     * Wait for at least one ServiceReference to be tracked by already open ServiceTracker
+     *
+     * @param tracker  open ServiceTracker
+     * @param deadline deadline of the wait
+     * @return ServiceReference instance or <code>null</code>
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     */
+    private static ServiceReference waitForServiceReference(ServiceTracker tracker, Deadline deadline)
+            throws InterruptedException {
+        waitForService(tracker, deadline);
+        return tracker.getServiceReference();
+    }
+
+    /**
+     * Wait for at least one service to be tracked by already open ServiceTracker.
+     * ServiceTracker accepts only milliseconds, the wait is repeated until deadline is expired.
+     *
+     * @param tracker  open ServiceTracker
+     * @param deadline deadline of the wait
+     * @return service instance or <code>null</code>
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     */
+    private static Object waitForService(ServiceTracker tracker, Deadline deadline)
+            throws InterruptedException {
+        Object service = tracker.getService();
+        // closed tracker has tracking count -1 and returns no services without wait
+        while (service == null && !deadline.isExpired() && tracker.getTrackingCount() >= 0) {
+            service = tracker.waitForService(deadline.toMillisTimeout());
+        }
+        return service;
+    }
+
+    /**
+     * Wait until ServiceTracker has no tracked services
+     *
+     * @param tracker    not opened ServiceTracker
+     * @param customizer customizer of the tracker that notifies about removed services
+     * @param deadline   deadline of the wait
+     * @return <code>true</code> if there are no tracked services
+     */
+    private static boolean waitForServiceUnavailable(ServiceTracker tracker, ServiceRemovalCustomizer customizer, Deadline deadline) {
+        tracker.open();
+        try {
+            synchronized (customizer) {
+                while (tracker.size() > 0) {
+                    if (!deadline.awaitNotification(customizer) && tracker.size() > 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            tracker.close();
+        }
+    }
+
+    /**
+     * Wait until every filter matches at least one service. One ServiceTracker with OR filter is used.
+     *
+     * @param bc       BundleContext
+     * @param filters  filters
+     * @param deadline deadline of the wait
+     * @return flags of filters without matching service
+     * @throws IllegalArgumentException If it is unable to create OR filter
+     */
+    private static boolean[] waitForServices(BundleContext bc, Filter[] filters, Deadline deadline) {
+        if (filters.length == 0) {
+            return new boolean[0];
+        }
+        Filter filter = filters[0];
+        if (filters.length > 1) {
+            StringBuilder builder = new StringBuilder("(|");
+            for (Filter f : filters) {
+                builder.append(f);
+            }
+            builder.append(')');
+            try {
+                filter = createFilter(builder.toString());
+            } catch (InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Unable to create filter", e);
+            }
+        }
+        ServiceSetCustomizer customizer = new ServiceSetCustomizer(filters);
+        ServiceTracker tracker = new ServiceTracker(bc, filter, customizer);
+        tracker.open();
+        try {
+            synchronized (customizer) {
+                while (customizer.getMissingCount() > 0) {
+                    if (!deadline.awaitNotification(customizer)) {
+                        break;
+                    }
+                }
+                return customizer.getMissing();
+            }
+        } catch (InterruptedException e) {
+            synchronized (customizer) {
+                return customizer.getMissing();
+            }
+        } finally {
+            tracker.close();
+        }
+    }
+
+    /**
+     * ServiceTrackerCustomizer that tracks ServiceReferences only.
+     * Service objects are not got, so ServiceFactories and components are not activated by tracking.
      *
-     * @see java.util.concurrent.locks.ReentrantLock
      * @see org.osgi.util.tracker.ServiceTrackerCustomizer
      */
-    private static class ServiceTrackerCustomizerWithLock implements ServiceTrackerCustomizer {
-        private final BundleContext bc;
+    static class ServiceReferenceCustomizer implements ServiceTrackerCustomizer {
+        public Object addingService(ServiceReference serviceReference) {
+            return serviceReference;
+        }
+
+        public void modifiedService(ServiceReference serviceReference, Object o) {
+        }
+
+        public void removedService(ServiceReference serviceReference, Object o) {
+        }
+    }
+
+    /**
+     * ServiceTrackerCustomizer with lock support. Tracks ServiceReferences only.
+     *
+     * @see java.util.concurrent.CountDownLatch
+     * @see org.osgi.util.tracker.ServiceTrackerCustomizer
+     */
+    private static class ServiceTrackerCustomizerWithLock extends ServiceReferenceCustomizer {
         private final CountDownLatch latch;
 
-        public ServiceTrackerCustomizerWithLock(BundleContext bc, CountDownLatch latch) {
-            this.bc = bc;
+        public ServiceTrackerCustomizerWithLock(CountDownLatch latch) {
             this.latch = latch;
         }
 
+        @Override
         public Object addingService(ServiceReference serviceReference) {
-            try {
-                return bc.getService(serviceReference);
-            } finally {
-                latch.countDown();
+            latch.countDown();
+            return serviceReference;
+        }
+    }
+
+    private static class ServiceEventMatcher implements EventJournal.Matcher {
+        private final String className;
+        private final Filter filter;
+        private final int eventTypeMask;
+
+        public ServiceEventMatcher(String className, Filter filter, int eventTypeMask) {
+            this.className = className;
+            this.filter = filter;
+            this.eventTypeMask = eventTypeMask;
+        }
+
+        public boolean matches(EventObject event) {
+            if (!(event instanceof ServiceEvent)) {
+                return false;
             }
+            ServiceEvent serviceEvent = (ServiceEvent) event;
+            if ((eventTypeMask & serviceEvent.getType()) == 0) {
+                return false;
+            }
+            ServiceReference reference = serviceEvent.getServiceReference();
+            if (className != null) {
+                String[] classNames = (String[]) reference.getProperty(Constants.OBJECTCLASS);
+                if (classNames == null || !Arrays.asList(classNames).contains(className)) {
+                    return false;
+                }
+            }
+            return filter == null || filter.match(reference);
+        }
+    }
+
+    /**
+     * ServiceTrackerCustomizer that does not get service objects and notifies waiters about removed services.
+     */
+    private static class ServiceRemovalCustomizer implements ServiceTrackerCustomizer {
+        public Object addingService(ServiceReference serviceReference) {
+            return serviceReference;
         }
 
         public void modifiedService(ServiceReference serviceReference, Object o) {
         }
 
-        public void removedService(ServiceReference serviceReference, Object o) {
+        public synchronized void removedService(ServiceReference serviceReference, Object o) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Counts tracked services per filter and notifies about changes.
+     * Tracked object of every service is the array of filters it matches.
+     */
+    private static class ServiceSetCustomizer implements ServiceTrackerCustomizer {
+        private final Filter[] filters;
+        private final int[] counts;
+        private int missingCount;
+
+        private ServiceSetCustomizer(Filter[] filters) {
+            this.filters = filters;
+            this.counts = new int[filters.length];
+            this.missingCount = filters.length;
+        }
+
+        public synchronized Object addingService(ServiceReference serviceReference) {
+            boolean[] matches = match(serviceReference);
+            update(matches, 1);
+            return matches;
+        }
+
+        public synchronized void modifiedService(ServiceReference serviceReference, Object o) {
+            boolean[] matches = (boolean[]) o;
+            update(matches, -1);
+            System.arraycopy(match(serviceReference), 0, matches, 0, matches.length);
+            update(matches, 1);
+        }
+
+        public synchronized void removedService(ServiceReference serviceReference, Object o) {
+            update((boolean[]) o, -1);
+        }
+
+        private int getMissingCount() {
+            return missingCount;
+        }
+
+        private boolean[] getMissing() {
+            boolean[] missing = new boolean[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                missing[i] = counts[i] == 0;
+            }
+            return missing;
+        }
+
+        private boolean[] match(ServiceReference serviceReference) {
+            boolean[] matches = new boolean[filters.length];
+            for (int i = 0; i < filters.length; i++) {
+                matches[i] = filters[i].match(serviceReference);
+            }
+            return matches;
+        }
+
+        private void update(boolean[] matches, int delta) {
+            for (int i = 0; i < matches.length; i++) {
+                if (matches[i]) {
+                    if (counts[i] == 0) {
+                        missingCount--;
+                    }
+                    counts[i] += delta;
+                    if (counts[i] == 0) {
+                        missingCount++;
+                    }
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Completes future by ServiceEvent and removes itself when the future is completed
+     */
+    private static class ServiceCompletionListener implements ServiceListener, CompletionFuture.Callback<ServiceEvent> {
+        private final BundleContext bc;
+        private final int eventTypeMask;
+        private final CompletionFuture<ServiceEvent> future;
+
+        private ServiceCompletionListener(BundleContext bc, int eventTypeMask, CompletionFuture<ServiceEvent> future) {
+            this.bc = bc;
+            this.eventTypeMask = eventTypeMask;
+            this.future = future;
+        }
+
+        public void serviceChanged(ServiceEvent event) {
+            if ((eventTypeMask & event.getType()) != 0) {
+                future.complete(event);
+            }
+        }
+
+        public void completed(ServiceEvent result) {
+            remove();
+        }
+
+        public void failed(Throwable failure) {
+            remove();
+        }
+
+        private void remove() {
+            try {
+                bc.removeServiceListener(this);
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
         }
     }
 
@@ -16,6 +16,9 @@
 
 package org.knowhowlab.osgi.testing.utils.cmpn;
 
+import org.knowhowlab.osgi.testing.utils.CompletionFuture;
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.knowhowlab.osgi.testing.utils.FilterExpression;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -27,8 +30,10 @@ import java.util.*;
 import java.util.concurrent.*;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static org.knowhowlab.osgi.testing.utils.FilterUtils.and;
-import static org.knowhowlab.osgi.testing.utils.FilterUtils.eq;
+import static org.knowhowlab.osgi.testing.utils.FilterExpression.eq;
+import static org.knowhowlab.osgi.testing.utils.FilterUtils.builder;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.getExecutor;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.schedule;
 import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getService;
 import static org.osgi.framework.Constants.SERVICE_PID;
 import static org.osgi.service.cm.ConfigurationAdmin.SERVICE_BUNDLELOCATION;
@@ -69,18 +74,18 @@ public class ConfigurationAdminUtils {
         if (pid == null && factoryPid == null && location == null) {
             throw new NullPointerException("All filter properties are null");
         }
-        List<Filter> filters = new ArrayList<Filter>(3);
+        List<FilterExpression> expressions = new ArrayList<FilterExpression>(3);
+        if (pid != null) {
+            expressions.add(eq(SERVICE_PID, pid));
+        }
+        if (factoryPid != null) {
+            expressions.add(eq(SERVICE_FACTORYPID, factoryPid));
+        }
+        if (location != null) {
+            expressions.add(eq(SERVICE_BUNDLELOCATION, location));
+        }
         try {
-            if (pid != null) {
-                filters.add(eq(SERVICE_PID, pid));
-            }
-            if (factoryPid != null) {
-                filters.add(eq(SERVICE_FACTORYPID, factoryPid));
-            }
-            if (location != null) {
-                filters.add(eq(SERVICE_BUNDLELOCATION, location));
-            }
-            return and(filters.toArray(new Filter[filters.size()]));
+            return builder().and(expressions).build();
         } catch (InvalidSyntaxException e) {
             throw new IllegalArgumentException("Unable to create filter", e);
         }
@@ -226,7 +231,7 @@ public class ConfigurationAdminUtils {
         if (configurationAdmin == null) {
             throw new NullPointerException("ConfigurationAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Configuration>() {
+        return schedule(new Callable<Configuration>() {
             public Configuration call() throws Exception {
                 Configuration configuration = configurationAdmin.getConfiguration(pid);
                 configuration.update(properties);
@@ -268,7 +273,7 @@ public class ConfigurationAdminUtils {
         if (configurationAdmin == null) {
             throw new NullPointerException("ConfigurationAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Configuration>() {
+        return schedule(new Callable<Configuration>() {
             public Configuration call() throws Exception {
                 Configuration configuration = configurationAdmin.getConfiguration(pid, location);
                 configuration.update(properties);
@@ -500,7 +505,7 @@ public class ConfigurationAdminUtils {
         if (configurationAdmin == null) {
             throw new NullPointerException("ConfigurationAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Configuration>() {
+        return schedule(new Callable<Configuration>() {
             public Configuration call() throws Exception {
                 Configuration configuration = configurationAdmin.createFactoryConfiguration(factoryPid);
                 configuration.update(properties);
@@ -542,7 +547,7 @@ public class ConfigurationAdminUtils {
         if (configurationAdmin == null) {
             throw new NullPointerException("ConfigurationAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Configuration>() {
+        return schedule(new Callable<Configuration>() {
             public Configuration call() throws Exception {
                 Configuration configuration = configurationAdmin.createFactoryConfiguration(factoryPid, location);
                 configuration.update(properties);
@@ -803,14 +808,30 @@ public class ConfigurationAdminUtils {
      * @since 1.0
      */
     public static ConfigurationEvent waitForConfigurationEvent(BundleContext bc, int eventTypeMask, String pid, String factoryPid, String location, long timeout, TimeUnit timeUnit) {
+        return waitForConfigurationEvent(bc, eventTypeMask, pid, factoryPid, location, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for ConfigurationEvent within deadline
+     *
+     * @param bc            BundleContext
+     * @param eventTypeMask ConfigurationEvent type mask
+     * @param pid           PID
+     * @param factoryPid    FactoryPID
+     * @param location      bundle location
+     * @param deadline      deadline of the wait
+     * @return ConfigurationEvent or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static ConfigurationEvent waitForConfigurationEvent(BundleContext bc, int eventTypeMask, String pid, String factoryPid, String location, Deadline deadline) {
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         ConfigurationListenerImpl listener = new ConfigurationListenerImpl(eventTypeMask, pid, factoryPid, location, latch);
         ServiceRegistration registration = bc.registerService(ConfigurationListener.class.getName(), listener, null);
 
         try {
-            return waitForConfigurationEvent(listener, timeoutInMillis, latch);
+            return waitForConfigurationEvent(listener, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
@@ -818,12 +839,74 @@ public class ConfigurationAdminUtils {
         }
     }
 
-    private static ConfigurationEvent waitForConfigurationEvent(ConfigurationListenerImpl listener, long timeoutInMillis, CountDownLatch latch)
-            throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
+    /**
+     * Get the next ConfigurationEvent
+     *
+     * @param bc            BundleContext
+     * @param eventTypeMask ConfigurationEvent type mask
+     * @param pid           PID (could be null)
+     * @param factoryPid    FactoryPID (could be null)
+     * @param location      bundle location (could be null)
+     * @return future of ConfigurationEvent
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<ConfigurationEvent> configurationEventCompletion(BundleContext bc, int eventTypeMask, String pid, String factoryPid, String location) {
+        CompletionFuture<ConfigurationEvent> future = new CompletionFuture<ConfigurationEvent>();
+        ConfigurationCompletionListener listener = new ConfigurationCompletionListener(eventTypeMask, pid, factoryPid, location, future);
+        listener.registration = bc.registerService(ConfigurationListener.class.getName(), listener, null);
+        future.whenComplete(listener);
+        return future;
+    }
+
+    /**
+     * Supply Configuration. Future is completed by <code>ConfigurationEvent.CM_UPDATED</code> of the configuration.
+     *
+     * @param bc         BundleContext
+     * @param pid        PID
+     * @param properties configuration properties
+     * @return future of updated configuration
+     * @throws NullPointerException  If <code>bc</code> or <code>pid</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Configuration> supplyConfigurationCompletion(final BundleContext bc, final String pid, final Dictionary properties) {
+        if (pid == null) {
+            throw new NullPointerException("pid is null");
         }
-        if (latch.await(timeoutInMillis, MILLISECONDS)) {
+        final CompletionFuture<ConfigurationEvent> updated = configurationEventCompletion(bc, ConfigurationEvent.CM_UPDATED, pid, null, null);
+        final CompletionFuture<Configuration> future = new CompletionFuture<Configuration>();
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    ConfigurationAdmin configurationAdmin = getService(bc, ConfigurationAdmin.class);
+                    if (configurationAdmin == null) {
+                        throw new IllegalStateException("ConfigurationAdmin is unavailable");
+                    }
+                    final Configuration configuration = configurationAdmin.getConfiguration(pid);
+                    updated.whenComplete(new CompletionFuture.Callback<ConfigurationEvent>() {
+                        public void completed(ConfigurationEvent event) {
+                            future.complete(configuration);
+                        }
+
+                        public void failed(Throwable failure) {
+                            future.fail(failure);
+                        }
+                    });
+                    configuration.update(properties);
+                } catch (Throwable e) {
+                    updated.cancel(false);
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static ConfigurationEvent waitForConfigurationEvent(ConfigurationListenerImpl listener, Deadline deadline, CountDownLatch latch)
+            throws InterruptedException {
+        if (deadline.await(latch)) {
             return listener.getConfigurationEvent();
         } else {
             return null;
@@ -936,7 +1019,7 @@ public class ConfigurationAdminUtils {
         if (pid == null) {
             throw new NullPointerException("service.pid is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<String>() {
+        return schedule(new Callable<String>() {
             public String call() throws Exception {
                 Configuration configuration = getConfiguration(configurationAdmin, pid);
                 if (configuration != null) {
@@ -966,7 +1049,7 @@ public class ConfigurationAdminUtils {
         if (pid == null) {
             throw new NullPointerException("service.pid is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<String>() {
+        return schedule(new Callable<String>() {
             public String call() throws Exception {
                 Configuration configuration = getConfiguration(configurationAdmin, pid, location);
                 if (configuration != null) {
@@ -992,7 +1075,7 @@ public class ConfigurationAdminUtils {
         if (configurationAdmin == null) {
             throw new NullPointerException("ConfigurationAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<String[]>() {
+        return schedule(new Callable<String[]>() {
             public String[] call() throws Exception {
                 Configuration[] configurations = listConfigurations(configurationAdmin, filter);
                 String[] result = null;
@@ -1100,6 +1183,44 @@ public class ConfigurationAdminUtils {
         return new Hashtable<Object, Object>(properties);
     }
 
+    /**
+     * Completes future by ConfigurationEvent and unregisters itself when the future is completed
+     */
+    private static class ConfigurationCompletionListener extends ConfigurationListenerImpl implements CompletionFuture.Callback<ConfigurationEvent> {
+        private final CompletionFuture<ConfigurationEvent> future;
+        private volatile ServiceRegistration registration;
+
+        private ConfigurationCompletionListener(int eventTypeMask, String pid, String factoryPid, String location, CompletionFuture<ConfigurationEvent> future) {
+            super(eventTypeMask, pid, factoryPid, location, new CountDownLatch(1));
+            this.future = future;
+        }
+
+        @Override
+        public void configurationEvent(ConfigurationEvent event) {
+            super.configurationEvent(event);
+            ConfigurationEvent matched = getConfigurationEvent();
+            if (matched != null) {
+                future.complete(matched);
+            }
+        }
+
+        public void completed(ConfigurationEvent result) {
+            unregister();
+        }
+
+        public void failed(Throwable failure) {
+            unregister();
+        }
+
+        private void unregister() {
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                // already unregistered
+            }
+        }
+    }
+
     private static class ConfigurationListenerImpl implements ConfigurationListener {
         private int eventTypeMask;
         private String pid;
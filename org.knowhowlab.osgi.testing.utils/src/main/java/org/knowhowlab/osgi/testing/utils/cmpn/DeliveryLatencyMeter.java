@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import org.knowhowlab.osgi.testing.utils.LatencyHistogram;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.knowhowlab.osgi.testing.utils.internal.TopicRouter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.knowhowlab.osgi.testing.utils.cmpn.EventAdminUtils.EVENT_TIMESTAMP;
+
+/**
+ * EventHandler that measures delivery latency of stamped events by topic.
+ * <p/>
+ * Latency is the time from {@link EventAdminUtils#EVENT_TIMESTAMP} of event to its handling.
+ * Timestamps are {@link System#nanoTime()} values, so events must be stamped in the same JVM.
+ * Latencies are kept in {@link LatencyHistogram} of fixed size for all topics.
+ * Latencies by topic are recorded only if the meter is created with per-topic recording,
+ * because every distinct topic adds a histogram.
+ * <pre>
+ * DeliveryLatencyMeter meter = DeliveryLatencyMeter.start(bc, new String[]{"org/knowhowlab/*"}, null, true);
+ * eventAdmin.postEvent(EventAdminUtils.stampEvent("org/knowhowlab/PING", null));
+ * // ...
+ * meter.stop();
+ * long p99 = meter.getLatency("org/knowhowlab/PING").getPercentile(99, TimeUnit.MICROSECONDS);
+ * </pre>
+ * Meter could also be registered as EventHandler service without {@link #start(BundleContext, String[], Filter, boolean)}.
+ *
+ * @author dmytro.pishchukhin
+ * @see EventAdminUtils#stampEvent(String, java.util.Map)
+ * @since 1.3
+ */
+public class DeliveryLatencyMeter implements EventHandler {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> topicLatencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong unstampedCount = new AtomicLong();
+    private final boolean perTopic;
+    private volatile TopicRouter.Subscription subscription;
+
+    /**
+     * Create meter that records latency of all topics only
+     *
+     * @since 1.3
+     */
+    public DeliveryLatencyMeter() {
+        this(false);
+    }
+
+    /**
+     * Create meter
+     *
+     * @param perTopic <code>true</code> if latency is also recorded by topic
+     * @since 1.3
+     */
+    public DeliveryLatencyMeter(boolean perTopic) {
+        this.perTopic = perTopic;
+    }
+
+    /**
+     * Start measuring of Events with topic and filter. Latency is recorded for all topics only.
+     *
+     * @param bc     BundleContext
+     * @param topic  topic, <code>*</code> and <code>prefix/*</code> wildcards are supported
+     * @param filter filter (could be null)
+     * @return started meter
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static DeliveryLatencyMeter start(BundleContext bc, String topic, Filter filter) {
+        return start(bc, topic != null ? new String[]{topic} : null, filter);
+    }
+
+    /**
+     * Start measuring of Events with topics and filter. Latency is recorded for all topics only.
+     *
+     * @param bc     BundleContext
+     * @param topics topics, <code>*</code> and <code>prefix/*</code> wildcards are supported.
+     *               If <code>null</code>, events of all topics are measured.
+     * @param filter filter (could be null)
+     * @return started meter
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static DeliveryLatencyMeter start(BundleContext bc, String[] topics, Filter filter) {
+        return start(bc, topics, filter, false);
+    }
+
+    /**
+     * Start measuring of Events with topics and filter
+     *
+     * @param bc       BundleContext
+     * @param topics   topics, <code>*</code> and <code>prefix/*</code> wildcards are supported.
+     *                 If <code>null</code>, events of all topics are measured.
+     * @param filter   filter (could be null)
+     * @param perTopic <code>true</code> if latency is also recorded by topic
+     * @return started meter
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static DeliveryLatencyMeter start(BundleContext bc, String[] topics, Filter filter, boolean perTopic) {
+        DeliveryLatencyMeter meter = new DeliveryLatencyMeter(perTopic);
+        meter.subscription = EventDispatcher.getDispatcher(bc).subscribe(topics, filter, meter);
+        return meter;
+    }
+
+    /**
+     * Stop measuring of started meter. Measured latencies are kept.
+     *
+     * @since 1.3
+     */
+    public void stop() {
+        if (subscription != null) {
+            subscription.close();
+        }
+    }
+
+    public void handleEvent(Event event) {
+        long handled = System.nanoTime();
+        Object timestamp = event.getProperty(EVENT_TIMESTAMP);
+        if (!(timestamp instanceof Long)) {
+            unstampedCount.incrementAndGet();
+            return;
+        }
+        long value = handled - (Long) timestamp;
+        latency.record(value);
+        if (!perTopic) {
+            return;
+        }
+        String topic = event.getTopic();
+        LatencyHistogram topicLatency = topicLatencies.get(topic);
+        if (topicLatency == null) {
+            topicLatency = new LatencyHistogram();
+            LatencyHistogram existing = topicLatencies.putIfAbsent(topic, topicLatency);
+            if (existing != null) {
+                topicLatency = existing;
+            }
+        }
+        topicLatency.record(value);
+    }
+
+    /**
+     * Get delivery latency of events with topic
+     *
+     * @param topic topic. If <code>null</code>, latency of all measured events is returned.
+     * @return latency histogram. Histogram is empty if there are no measured events with topic.
+     * @throws IllegalStateException If <code>topic</code> is not <code>null</code> and latency is not recorded by topic
+     * @since 1.3
+     */
+    public LatencyHistogram getLatency(String topic) {
+        if (topic == null) {
+            return latency;
+        }
+        if (!perTopic) {
+            throw new IllegalStateException("Latency is not recorded by topic");
+        }
+        LatencyHistogram topicLatency = topicLatencies.get(topic);
+        return topicLatency != null ? topicLatency : new LatencyHistogram();
+    }
+
+    /**
+     * Get topics of measured events
+     *
+     * @return topics. Set is empty if latency is not recorded by topic.
+     * @since 1.3
+     */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(new HashSet<String>(topicLatencies.keySet()));
+    }
+
+    /**
+     * Get number of handled events without timestamp
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public long getUnstampedCount() {
+        return unstampedCount.get();
+    }
+
+    /**
+     * Remove all measured latencies
+     *
+     * @since 1.3
+     */
+    public void reset() {
+        latency.reset();
+        topicLatencies.clear();
+        unstampedCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeliveryLatencyMeter[topics=%d, unstamped=%d, latency=%s]",
+                topicLatencies.size(), unstampedCount.get(), latency);
+    }
+}
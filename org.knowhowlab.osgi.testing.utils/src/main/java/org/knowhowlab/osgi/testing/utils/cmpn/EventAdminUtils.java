@@ -16,25 +16,37 @@
 
 package org.knowhowlab.osgi.testing.utils.cmpn;
 
+import org.knowhowlab.osgi.testing.utils.CompletionFuture;
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.knowhowlab.osgi.testing.utils.LatencyHistogram;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.knowhowlab.osgi.testing.utils.internal.TopicRouter;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
-import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventAdmin;
 import org.osgi.service.event.EventHandler;
 
 import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.getExecutor;
+import static org.knowhowlab.osgi.testing.utils.SchedulerUtils.schedule;
 import static org.knowhowlab.osgi.testing.utils.ServiceUtils.getService;
-import static org.osgi.service.event.EventConstants.EVENT_FILTER;
-import static org.osgi.service.event.EventConstants.EVENT_TOPIC;
 
 /**
  * OSGi EventAdmin utilities class
+ * <p/>
+ * Event waiters do not register own EventHandler services, they share one wildcard
+ * EventHandler per BundleContext that routes events by topic and filter.
  *
  * @author dpishchukhin
  * @see org.osgi.framework.Bundle
@@ -44,6 +56,30 @@ import static org.osgi.service.event.EventConstants.EVENT_TOPIC;
  * @see org.osgi.service.event.EventHandler
  */
 public class EventAdminUtils {
+    /**
+     * Event property with {@link System#nanoTime()} of stamped event
+     *
+     * @since 1.3
+     */
+    public static final String EVENT_TIMESTAMP = "org.knowhowlab.osgi.testing.event.timestamp";
+    /**
+     * Event property with sequence number of stamped event
+     *
+     * @since 1.3
+     */
+    public static final String EVENT_SEQUENCE = "org.knowhowlab.osgi.testing.event.sequence";
+    /**
+     * Event property with identifier of load generator run
+     *
+     * @since 1.3
+     */
+    public static final String LOAD_RUN = "org.knowhowlab.osgi.testing.load.run";
+
+    private static final AtomicLong EVENT_SEQUENCES = new AtomicLong();
+    private static final AtomicLong LOAD_RUNS = new AtomicLong();
+    private static final long LOAD_START_DELAY = MILLISECONDS.toNanos(10);
+    private static final long LOAD_SPIN_NANOS = MILLISECONDS.toNanos(1);
+
     /**
      * Utility class. Only static methods are available.
      */
@@ -274,7 +310,7 @@ public class EventAdminUtils {
         if (eventAdmin == null) {
             throw new NullPointerException("EventAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 eventAdmin.postEvent(event);
                 return null;
@@ -506,7 +542,7 @@ public class EventAdminUtils {
         if (eventAdmin == null) {
             throw new NullPointerException("EventAdmin is null");
         }
-        return Executors.newSingleThreadScheduledExecutor().schedule(new Callable<Object>() {
+        return schedule(new Callable<Object>() {
             public Object call() throws Exception {
                 eventAdmin.sendEvent(event);
                 return null;
@@ -600,26 +636,22 @@ public class EventAdminUtils {
      * @since 1.0
      */
     public static Event waitForEvent(BundleContext bc, String topic, Filter filter, long timeout, TimeUnit timeUnit) {
-        CountDownLatch latch = new CountDownLatch(1);
-
-        long timeoutInMillis = timeUnit.toMillis(timeout);
-        EventHandlerImpl handler = new EventHandlerImpl(latch);
-        Dictionary<String, Object> props = new Hashtable<String, Object>();
-        if (topic != null) {
-            props.put(EVENT_TOPIC, topic);
-        }
-        if (filter != null) {
-            props.put(EVENT_FILTER, filter.toString());
-        }
-        ServiceRegistration registration = bc.registerService(EventHandler.class.getName(), handler, props);
+        return waitForEvent(bc, topic, filter, Deadline.after(timeout, timeUnit));
+    }
 
-        try {
-            return waitForEvent(handler, timeoutInMillis, latch);
-        } catch (InterruptedException e) {
-            return null;
-        } finally {
-            registration.unregister();
-        }
+    /**
+     * Wait for Event with topic and filter within deadline
+     *
+     * @param bc       BundleContext
+     * @param topic    topic
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return Event or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Event waitForEvent(BundleContext bc, String topic, Filter filter, Deadline deadline) {
+        return waitForEvent(bc, topic != null ? new String[]{topic} : null, filter, deadline);
     }
 
     /**
@@ -650,40 +682,325 @@ public class EventAdminUtils {
      * @since 1.0
      */
     public static Event waitForEvent(BundleContext bc, String[] topics, Filter filter, long timeout, TimeUnit timeUnit) {
+        return waitForEvent(bc, topics, filter, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait for Event with topics and filter within deadline
+     *
+     * @param bc       BundleContext
+     * @param topics   topics
+     * @param filter   filter
+     * @param deadline deadline of the wait
+     * @return Event or <code>null</code>
+     * @throws NullPointerException If <code>bc</code> or <code>deadline</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static Event waitForEvent(BundleContext bc, String[] topics, Filter filter, Deadline deadline) {
         CountDownLatch latch = new CountDownLatch(1);
 
-        long timeoutInMillis = timeUnit.toMillis(timeout);
         EventHandlerImpl handler = new EventHandlerImpl(latch);
-        Dictionary<String, Object> props = new Hashtable<String, Object>();
-        if (topics != null) {
-            props.put(EVENT_TOPIC, topics);
-        }
-        if (filter != null) {
-            props.put(EVENT_FILTER, filter.toString());
-        }
-        ServiceRegistration registration = bc.registerService(EventHandler.class.getName(), handler, props);
+        TopicRouter.Subscription subscription = EventDispatcher.getDispatcher(bc).subscribe(topics, filter, handler);
 
         try {
-            return waitForEvent(handler, timeoutInMillis, latch);
+            return waitForEvent(handler, deadline, latch);
         } catch (InterruptedException e) {
             return null;
         } finally {
-            registration.unregister();
+            subscription.close();
         }
     }
 
-    private static Event waitForEvent(EventHandlerImpl handler, long timeoutInMillis, CountDownLatch latch)
-            throws InterruptedException {
-        if (timeoutInMillis < 0) {
-            throw new IllegalArgumentException("timeout value is negative");
+    /**
+     * Get the next Event with topic and filter
+     *
+     * @param bc     BundleContext
+     * @param topic  topic
+     * @param filter filter (could be null)
+     * @return future of Event
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Event> eventCompletion(BundleContext bc, String topic, Filter filter) {
+        return eventCompletion(bc, topic != null ? new String[]{topic} : null, filter, null);
+    }
+
+    /**
+     * Get the next Event with topics and filter
+     *
+     * @param bc     BundleContext
+     * @param topics topics
+     * @param filter filter (could be null)
+     * @return future of Event
+     * @throws NullPointerException  If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Event> eventCompletion(BundleContext bc, String[] topics, Filter filter) {
+        return eventCompletion(bc, topics, filter, null);
+    }
+
+    /**
+     * Post an Event asynchronously. Future is completed when the event is delivered to the handlers of its topic.
+     *
+     * @param bc    BundleContext
+     * @param event event
+     * @return future of delivered Event
+     * @throws NullPointerException  If <code>bc</code> or <code>event</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Event> postEventCompletion(BundleContext bc, Event event) {
+        return deliverEventCompletion(bc, event, true);
+    }
+
+    /**
+     * Send an Event synchronously on shared executor. Future is completed when the event is delivered
+     * to the handlers of its topic.
+     *
+     * @param bc    BundleContext
+     * @param event event
+     * @return future of delivered Event
+     * @throws NullPointerException  If <code>bc</code> or <code>event</code> are <code>null</code>
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static CompletionFuture<Event> sendEventCompletion(BundleContext bc, Event event) {
+        return deliverEventCompletion(bc, event, false);
+    }
+
+    /**
+     * Create an Event stamped with {@link #EVENT_TIMESTAMP} and {@link #EVENT_SEQUENCE} properties
+     *
+     * @param topic      topic
+     * @param properties event properties (could be null)
+     * @return stamped Event
+     * @see DeliveryLatencyMeter
+     * @since 1.3
+     */
+    public static Event stampEvent(String topic, Map<String, ?> properties) {
+        return new Event(topic, stamp(properties, System.nanoTime(), EVENT_SEQUENCES.incrementAndGet()));
+    }
+
+    /**
+     * Create a copy of Event stamped with {@link #EVENT_TIMESTAMP} and {@link #EVENT_SEQUENCE} properties
+     *
+     * @param event event
+     * @return stamped Event
+     * @throws NullPointerException If <code>event</code> is <code>null</code>
+     * @see DeliveryLatencyMeter
+     * @since 1.3
+     */
+    public static Event stampEvent(Event event) {
+        if (event == null) {
+            throw new NullPointerException("event is null");
+        }
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (String name : event.getPropertyNames()) {
+            properties.put(name, event.getProperty(name));
         }
-        if (latch.await(timeoutInMillis, MILLISECONDS)) {
+        return stampEvent(event.getTopic(), properties);
+    }
+
+    private static Map<String, Object> stamp(Map<String, ?> properties, long timestamp, long sequence) {
+        Map<String, Object> stamped = properties != null
+                ? new HashMap<String, Object>(properties) : new HashMap<String, Object>();
+        stamped.put(EVENT_TIMESTAMP, timestamp);
+        stamped.put(EVENT_SEQUENCE, sequence);
+        return stamped;
+    }
+
+    /**
+     * Generate sustained load on EventAdmin.
+     * <p/>
+     * Events are scheduled at fixed intervals of the target rate and distributed between generator threads.
+     * Generation is open-loop: a slow post or send does not delay schedule of the next events,
+     * and latency is measured from the scheduled time, so it includes the time that events waited for a busy thread.
+     * The method blocks for the duration of the load.
+     *
+     * @param eventAdmin       EventAdmin
+     * @param topicTemplate    topic or {@link String#format(String, Object...)} pattern with event sequence number argument,
+     *                         e.g. <code>org/knowhowlab/load/%d</code>
+     * @param propertySupplier supplier of event properties (could be null)
+     * @param ratePerSecond    target number of events per second
+     * @param duration         duration of the load
+     * @param timeUnit         time unit for the duration
+     * @param threads          number of generator threads
+     * @param mode             post or send events
+     * @return load report. Delivery latency is not measured.
+     * @throws IllegalArgumentException If <code>ratePerSecond</code>, <code>duration</code> or <code>threads</code>
+     *                                  are not positive
+     * @throws NullPointerException     If <code>eventAdmin</code>, <code>topicTemplate</code>, <code>timeUnit</code>
+     *                                  or <code>mode</code> are <code>null</code>
+     * @since 1.3
+     */
+    public static LoadReport generateLoad(EventAdmin eventAdmin, String topicTemplate, PropertySupplier propertySupplier,
+                                          double ratePerSecond, long duration, TimeUnit timeUnit,
+                                          int threads, DeliveryMode mode) {
+        return generateLoad(eventAdmin, null, topicTemplate, propertySupplier, ratePerSecond, duration, timeUnit,
+                threads, mode);
+    }
+
+    /**
+     * Generate sustained load on EventAdmin of BundleContext and measure delivery latency.
+     * <p/>
+     * Generated events are stamped with the scheduled time and have {@link #LOAD_RUN} property.
+     * The paired {@link DeliveryLatencyMeter} records time from the scheduled time of event to its handling
+     * in one histogram for all generated topics.
+     * After the load the method waits for delivery of posted events no longer than the load duration.
+     *
+     * @param bc               BundleContext
+     * @param topicTemplate    topic or {@link String#format(String, Object...)} pattern with event sequence number argument,
+     *                         e.g. <code>org/knowhowlab/load/%d</code>
+     * @param propertySupplier supplier of event properties (could be null)
+     * @param ratePerSecond    target number of events per second
+     * @param duration         duration of the load
+     * @param timeUnit         time unit for the duration
+     * @param threads          number of generator threads
+     * @param mode             post or send events
+     * @return load report with delivery latency
+     * @throws IllegalArgumentException If <code>ratePerSecond</code>, <code>duration</code> or <code>threads</code>
+     *                                  are not positive
+     * @throws NullPointerException     If <code>bc</code>, <code>topicTemplate</code>, <code>timeUnit</code>
+     *                                  or <code>mode</code> are <code>null</code>, or EventAdmin is unavailable
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @see #generateLoad(EventAdmin, String, PropertySupplier, double, long, TimeUnit, int, DeliveryMode)
+     * @since 1.3
+     */
+    public static LoadReport generateLoad(BundleContext bc, String topicTemplate, PropertySupplier propertySupplier,
+                                          double ratePerSecond, long duration, TimeUnit timeUnit,
+                                          int threads, DeliveryMode mode) {
+        return generateLoad(getService(bc, EventAdmin.class), bc, topicTemplate, propertySupplier, ratePerSecond,
+                duration, timeUnit, threads, mode);
+    }
+
+    private static LoadReport generateLoad(EventAdmin eventAdmin, BundleContext bc, String topicTemplate,
+                                           PropertySupplier propertySupplier, double ratePerSecond,
+                                           long duration, TimeUnit timeUnit, int threads, DeliveryMode mode) {
+        if (eventAdmin == null) {
+            throw new NullPointerException("EventAdmin is null");
+        }
+        if (topicTemplate == null) {
+            throw new NullPointerException("topicTemplate is null");
+        }
+        if (mode == null) {
+            throw new NullPointerException("mode is null");
+        }
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond value is not positive");
+        }
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration value is not positive");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads value is not positive");
+        }
+        long durationNanos = timeUnit.toNanos(duration);
+        LoadGenerator generator = new LoadGenerator(eventAdmin, topicTemplate, propertySupplier, mode,
+                1e9 / ratePerSecond, Math.max(1, (long) (ratePerSecond * durationNanos / 1e9)),
+                threads, bc != null ? LOAD_RUNS.incrementAndGet() : null);
+        DeliveryLatencyMeter meter = null;
+        if (bc != null) {
+            try {
+                // topic template could generate a topic per event, so only aggregate latency is recorded
+                meter = DeliveryLatencyMeter.start(bc, null, FilterUtils.eq(LOAD_RUN, generator.run), false);
+            } catch (InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Unable to create filter", e);
+            }
+        }
+        try {
+            long elapsed = generator.generate();
+            if (meter != null) {
+                Deadline deadline = Deadline.after(durationNanos, NANOSECONDS);
+                try {
+                    while (meter.getLatency(null).getCount() < generator.sent.get() && !deadline.isExpired()) {
+                        MILLISECONDS.sleep(1);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new LoadReport(mode, ratePerSecond, threads, elapsed, generator.sent.get(), generator.failed.get(),
+                    generator.failure.get(), generator.latency, generator.serviceTime,
+                    meter != null ? meter.getLatency(null) : null);
+        } finally {
+            if (meter != null) {
+                meter.stop();
+            }
+        }
+    }
+
+    private static CompletionFuture<Event> deliverEventCompletion(final BundleContext bc, final Event event, final boolean post) {
+        if (event == null) {
+            throw new NullPointerException("event is null");
+        }
+        final CompletionFuture<Event> future = eventCompletion(bc, new String[]{event.getTopic()}, null, event);
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                try {
+                    EventAdmin eventAdmin = getService(bc, EventAdmin.class);
+                    if (eventAdmin == null) {
+                        throw new IllegalStateException("EventAdmin is unavailable");
+                    }
+                    if (post) {
+                        eventAdmin.postEvent(event);
+                    } else {
+                        eventAdmin.sendEvent(event);
+                    }
+                } catch (Throwable e) {
+                    future.fail(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    private static CompletionFuture<Event> eventCompletion(BundleContext bc, String[] topics, Filter filter, Event expected) {
+        CompletionFuture<Event> future = new CompletionFuture<Event>();
+        EventCompletionHandler handler = new EventCompletionHandler(expected, future);
+        handler.subscription = EventDispatcher.getDispatcher(bc).subscribe(topics, filter, handler);
+        future.whenComplete(handler);
+        return future;
+    }
+
+    private static Event waitForEvent(EventHandlerImpl handler, Deadline deadline, CountDownLatch latch)
+            throws InterruptedException {
+        if (deadline.await(latch)) {
             return handler.getEvent();
         } else {
             return null;
         }
     }
 
+    /**
+     * Completes future by Event and unsubscribes itself when the future is completed
+     */
+    private static class EventCompletionHandler implements EventHandler, CompletionFuture.Callback<Event> {
+        private final Event expected;
+        private final CompletionFuture<Event> future;
+        private volatile TopicRouter.Subscription subscription;
+
+        private EventCompletionHandler(Event expected, CompletionFuture<Event> future) {
+            this.expected = expected;
+            this.future = future;
+        }
+
+        public void handleEvent(Event event) {
+            if (expected == null || expected.equals(event)) {
+                future.complete(event);
+            }
+        }
+
+        public void completed(Event result) {
+            subscription.close();
+        }
+
+        public void failed(Throwable failure) {
+            subscription.close();
+        }
+    }
+
     private static class EventHandlerImpl implements EventHandler {
         private CountDownLatch latch;
 
@@ -702,4 +1019,151 @@ public class EventAdminUtils {
             return event;
         }
     }
+
+    /**
+     * Delivery mode of generated events
+     *
+     * @since 1.3
+     */
+    public static enum DeliveryMode {
+        /**
+         * Asynchronous delivery with {@link EventAdmin#postEvent(Event)}
+         */
+        POST,
+        /**
+         * Synchronous delivery with {@link EventAdmin#sendEvent(Event)}
+         */
+        SEND
+    }
+
+    /**
+     * Supplier of generated event properties
+     *
+     * @since 1.3
+     */
+    public static interface PropertySupplier {
+        /**
+         * Get properties of event
+         *
+         * @param sequence sequence number of event starting from zero
+         * @return properties (could be null)
+         */
+        Map<String, ?> getProperties(long sequence);
+    }
+
+    /**
+     * Generator threads that post or send events by schedule
+     */
+    private static class LoadGenerator {
+        private final EventAdmin eventAdmin;
+        private final String topicTemplate;
+        private final boolean formatTopic;
+        private final PropertySupplier propertySupplier;
+        private final DeliveryMode mode;
+        private final double intervalNanos;
+        private final long total;
+        private final int threads;
+        private final Long run;
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private long start;
+
+        private LoadGenerator(EventAdmin eventAdmin, String topicTemplate, PropertySupplier propertySupplier,
+                              DeliveryMode mode, double intervalNanos, long total, int threads, Long run) {
+            this.eventAdmin = eventAdmin;
+            this.topicTemplate = topicTemplate;
+            this.formatTopic = topicTemplate.indexOf('%') >= 0;
+            this.propertySupplier = propertySupplier;
+            this.mode = mode;
+            this.intervalNanos = intervalNanos;
+            this.total = total;
+            this.threads = threads;
+            this.run = run;
+        }
+
+        /**
+         * Run generator threads and wait for them
+         *
+         * @return time from the scheduled start to completion of the last event in nanos
+         */
+        private long generate() {
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final int first = i;
+                workers[i] = new Thread(new Runnable() {
+                    public void run() {
+                        generate(first);
+                    }
+                }, "EventAdmin load generator " + (i + 1));
+                workers[i].setDaemon(true);
+            }
+            start = System.nanoTime() + LOAD_START_DELAY;
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            try {
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+            } catch (InterruptedException e) {
+                for (Thread worker : workers) {
+                    worker.interrupt();
+                }
+                Thread.currentThread().interrupt();
+            }
+            return System.nanoTime() - start;
+        }
+
+        private void generate(int first) {
+            try {
+                for (long sequence = first; sequence < total; sequence += threads) {
+                    long scheduled = start + (long) (sequence * intervalNanos);
+                    pauseUntil(scheduled);
+                    Event event = createEvent(sequence, scheduled);
+                    long begin = System.nanoTime();
+                    try {
+                        if (mode == DeliveryMode.POST) {
+                            eventAdmin.postEvent(event);
+                        } else {
+                            eventAdmin.sendEvent(event);
+                        }
+                        sent.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        failure.compareAndSet(null, e);
+                    }
+                    long end = System.nanoTime();
+                    latency.record(end - scheduled);
+                    serviceTime.record(end - begin);
+                }
+            } catch (InterruptedException e) {
+                // generation is stopped
+            }
+        }
+
+        private Event createEvent(long sequence, long scheduled) {
+            String topic = formatTopic ? String.format(topicTemplate, sequence) : topicTemplate;
+            Map<String, ?> properties = propertySupplier != null ? propertySupplier.getProperties(sequence) : null;
+            if (run == null) {
+                return new Event(topic, properties);
+            }
+            Map<String, Object> stamped = stamp(properties, scheduled, sequence);
+            stamped.put(LOAD_RUN, run);
+            return new Event(topic, stamped);
+        }
+
+        private static void pauseUntil(long time) throws InterruptedException {
+            long remaining;
+            while ((remaining = time - System.nanoTime()) > 0) {
+                if (remaining > LOAD_SPIN_NANOS) {
+                    NANOSECONDS.sleep(remaining - LOAD_SPIN_NANOS);
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.knowhowlab.osgi.testing.utils.internal.TopicRouter;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recorder of Events into a pre-sized ring buffer.
+ * <p/>
+ * For every event the recorder keeps topic, {@link System#nanoTime()} timestamp and values of projected properties,
+ * the Event itself is not kept. When the buffer is full, the oldest records are overwritten,
+ * counters of recorded events are exact regardless of the buffer capacity.
+ * <pre>
+ * EventRecorder recorder = EventRecorder.start(bc, new String[]{"org/knowhowlab/*"}, null, 10000, "size");
+ * // produce events
+ * recorder.awaitCount("org/knowhowlab/DONE", 1, 5, TimeUnit.SECONDS);
+ * recorder.stop();
+ * Map&lt;Object, Integer&gt; sizes = recorder.getDistribution("size");
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.service.event.EventHandler
+ * @since 1.3
+ */
+public class EventRecorder {
+    private final int capacity;
+    private final String[] projection;
+    private final String[] topics;
+    private final long[] timestamps;
+    private final Object[] values;
+    private final Map<String, long[]> topicCounts = new HashMap<String, long[]>();
+    private long count;
+    private long offset;
+    private int waiters;
+    private volatile TopicRouter.Subscription subscription;
+
+    private EventRecorder(int capacity, String[] projection) {
+        this.capacity = capacity;
+        this.projection = projection.clone();
+        this.topics = new String[capacity];
+        this.timestamps = new long[capacity];
+        this.values = new Object[capacity * projection.length];
+    }
+
+    /**
+     * Start recording of Events with topic and filter
+     *
+     * @param bc         BundleContext
+     * @param topic      topic, <code>*</code> and <code>prefix/*</code> wildcards are supported
+     * @param filter     filter (could be null)
+     * @param capacity   maximum number of kept records
+     * @param properties names of event properties that are kept in records
+     * @return started recorder
+     * @throws IllegalArgumentException If <code>capacity</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static EventRecorder start(BundleContext bc, String topic, Filter filter, int capacity, String... properties) {
+        return start(bc, topic != null ? new String[]{topic} : null, filter, capacity, properties);
+    }
+
+    /**
+     * Start recording of Events with topics and filter
+     *
+     * @param bc         BundleContext
+     * @param topics     topics, <code>*</code> and <code>prefix/*</code> wildcards are supported.
+     *                   If <code>null</code>, events of all topics are recorded.
+     * @param filter     filter (could be null)
+     * @param capacity   maximum number of kept records
+     * @param properties names of event properties that are kept in records
+     * @return started recorder
+     * @throws IllegalArgumentException If <code>capacity</code> is not positive
+     * @throws NullPointerException     If <code>bc</code> is <code>null</code>
+     * @throws IllegalStateException    If <code>bc</code> is no longer valid
+     * @since 1.3
+     */
+    public static EventRecorder start(BundleContext bc, String[] topics, Filter filter, int capacity, String... properties) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity value is not positive");
+        }
+        final EventRecorder recorder = new EventRecorder(capacity, properties);
+        recorder.subscription = EventDispatcher.getDispatcher(bc).subscribe(topics, filter, new EventHandler() {
+            public void handleEvent(Event event) {
+                recorder.record(event);
+            }
+        });
+        return recorder;
+    }
+
+    /**
+     * Stop recording. Recorded events are kept.
+     *
+     * @since 1.3
+     */
+    public void stop() {
+        subscription.close();
+    }
+
+    /**
+     * Remove all records and reset counters
+     *
+     * @since 1.3
+     */
+    public synchronized void clear() {
+        Arrays.fill(topics, null);
+        Arrays.fill(values, null);
+        topicCounts.clear();
+        offset = count;
+    }
+
+    private void record(Event event) {
+        long timestamp = System.nanoTime();
+        String topic = event.getTopic();
+        synchronized (this) {
+            int slot = (int) ((count - offset) % capacity);
+            topics[slot] = topic;
+            timestamps[slot] = timestamp;
+            for (int i = 0, base = slot * projection.length; i < projection.length; i++) {
+                values[base + i] = event.getProperty(projection[i]);
+            }
+            count++;
+            long[] topicCount = topicCounts.get(topic);
+            if (topicCount == null) {
+                topicCount = new long[1];
+                topicCounts.put(topic, topicCount);
+            }
+            topicCount[0]++;
+            if (waiters > 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Get maximum number of kept records
+     *
+     * @return capacity
+     * @since 1.3
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get number of recorded events
+     *
+     * @return number of events including overwritten records
+     * @since 1.3
+     */
+    public synchronized long getCount() {
+        return count - offset;
+    }
+
+    /**
+     * Get number of recorded events with topic
+     *
+     * @param topic topic. If <code>null</code>, all events are counted.
+     * @return number of events including overwritten records
+     * @since 1.3
+     */
+    public synchronized long getCount(String topic) {
+        if (topic == null) {
+            return count - offset;
+        }
+        long[] topicCount = topicCounts.get(topic);
+        return topicCount != null ? topicCount[0] : 0;
+    }
+
+    /**
+     * Get number of overwritten records
+     *
+     * @return number of records that are no longer kept
+     * @since 1.3
+     */
+    public synchronized long getDroppedCount() {
+        return Math.max(0, count - offset - capacity);
+    }
+
+    /**
+     * Get kept records in order of recording
+     *
+     * @return records
+     * @since 1.3
+     */
+    public synchronized List<RecordedEvent> getEvents() {
+        long recorded = count - offset;
+        int size = (int) Math.min(recorded, capacity);
+        List<RecordedEvent> result = new ArrayList<RecordedEvent>(size);
+        for (long sequence = recorded - size; sequence < recorded; sequence++) {
+            int slot = (int) (sequence % capacity);
+            Object[] recordValues = new Object[projection.length];
+            System.arraycopy(values, slot * projection.length, recordValues, 0, projection.length);
+            result.add(new RecordedEvent(sequence, topics[slot], timestamps[slot], projection, recordValues));
+        }
+        return result;
+    }
+
+    /**
+     * Get topics of kept records in order of recording
+     *
+     * @return topics
+     * @since 1.3
+     */
+    public List<String> getTopics() {
+        List<RecordedEvent> events = getEvents();
+        List<String> result = new ArrayList<String>(events.size());
+        for (RecordedEvent event : events) {
+            result.add(event.getTopic());
+        }
+        return result;
+    }
+
+    /**
+     * Get distribution of projected property values in kept records
+     *
+     * @param property projected property name
+     * @return number of records by value, <code>null</code> value counts records without property
+     * @throws IllegalArgumentException If <code>property</code> is not projected
+     * @since 1.3
+     */
+    public Map<Object, Integer> getDistribution(String property) {
+        int index = indexOf(projection, property);
+        if (index < 0) {
+            throw new IllegalArgumentException("Property is not recorded: " + property);
+        }
+        Map<Object, Integer> result = new HashMap<Object, Integer>();
+        for (RecordedEvent event : getEvents()) {
+            Object value = event.values[index];
+            Integer valueCount = result.get(value);
+            result.put(value, valueCount == null ? 1 : valueCount + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Wait until number of recorded events with topic reaches expected count
+     *
+     * @param topic    topic. If <code>null</code>, all events are counted.
+     * @param expected expected number of events
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return <code>true</code> if expected count is reached
+     * @throws NullPointerException If <code>timeUnit</code> is <code>null</code>
+     * @since 1.3
+     */
+    public boolean awaitCount(String topic, long expected, long timeout, TimeUnit timeUnit) {
+        return awaitCount(topic, expected, Deadline.after(timeout, timeUnit));
+    }
+
+    /**
+     * Wait until number of recorded events with topic reaches expected count
+     *
+     * @param topic    topic. If <code>null</code>, all events are counted.
+     * @param expected expected number of events
+     * @param deadline deadline of the wait
+     * @return <code>true</code> if expected count is reached
+     * @throws NullPointerException If <code>deadline</code> is <code>null</code>
+     * @since 1.3
+     */
+    public synchronized boolean awaitCount(String topic, long expected, Deadline deadline) {
+        waiters++;
+        try {
+            while (getCount(topic) < expected) {
+                if (!deadline.awaitNotification(this) && getCount(topic) < expected) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            waiters--;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("EventRecorder[count=%d, dropped=%d, capacity=%d, properties=%s]",
+                count - offset, getDroppedCount(), capacity, Arrays.toString(projection));
+    }
+
+    private static int indexOf(String[] array, String value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Record of Event
+     */
+    public static class RecordedEvent {
+        private final long sequence;
+        private final String topic;
+        private final long timestamp;
+        private final String[] projection;
+        private final Object[] values;
+
+        private RecordedEvent(long sequence, String topic, long timestamp, String[] projection, Object[] values) {
+            this.sequence = sequence;
+            this.topic = topic;
+            this.timestamp = timestamp;
+            this.projection = projection;
+            this.values = values;
+        }
+
+        /**
+         * Get sequence number of record
+         *
+         * @return number of events that were recorded before this one
+         * @since 1.3
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get topic of event
+         *
+         * @return topic
+         * @since 1.3
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Get time of recording
+         *
+         * @return {@link System#nanoTime()} value
+         * @since 1.3
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get value of projected property
+         *
+         * @param name property name
+         * @return property value or <code>null</code> if event had no property or it is not projected
+         * @since 1.3
+         */
+        public Object getProperty(String name) {
+            int index = indexOf(projection, name);
+            return index >= 0 ? values[index] : null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("RecordedEvent[").append(sequence).append(", ").append(topic);
+            for (int i = 0; i < projection.length; i++) {
+                builder.append(", ").append(projection[i]).append('=').append(values[i]);
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
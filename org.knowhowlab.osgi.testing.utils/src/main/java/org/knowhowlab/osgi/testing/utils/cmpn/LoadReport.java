@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import org.knowhowlab.osgi.testing.utils.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Result of EventAdmin load generation
+ *
+ * @author dmytro.pishchukhin
+ * @see EventAdminUtils#generateLoad(org.osgi.service.event.EventAdmin, String, EventAdminUtils.PropertySupplier, double, long, TimeUnit, int, EventAdminUtils.DeliveryMode)
+ * @since 1.3
+ */
+public class LoadReport {
+    private final EventAdminUtils.DeliveryMode mode;
+    private final double targetRate;
+    private final int threads;
+    private final long elapsedNanos;
+    private final long sentCount;
+    private final long failedCount;
+    private final Throwable failure;
+    private final LatencyHistogram latency;
+    private final LatencyHistogram serviceTime;
+    private final LatencyHistogram deliveryLatency;
+
+    LoadReport(EventAdminUtils.DeliveryMode mode, double targetRate, int threads, long elapsedNanos,
+               long sentCount, long failedCount, Throwable failure,
+               LatencyHistogram latency, LatencyHistogram serviceTime, LatencyHistogram deliveryLatency) {
+        this.mode = mode;
+        this.targetRate = targetRate;
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+        this.sentCount = sentCount;
+        this.failedCount = failedCount;
+        this.failure = failure;
+        this.latency = latency;
+        this.serviceTime = serviceTime;
+        this.deliveryLatency = deliveryLatency;
+    }
+
+    /**
+     * Get delivery mode
+     *
+     * @return mode
+     * @since 1.3
+     */
+    public EventAdminUtils.DeliveryMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Get target rate
+     *
+     * @return events per second
+     * @since 1.3
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * Get number of generator threads
+     *
+     * @return threads
+     * @since 1.3
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Get number of events that were posted or sent without exception
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * Get number of events that were failed by EventAdmin
+     *
+     * @return number of events
+     * @since 1.3
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Get the first failure of EventAdmin
+     *
+     * @return failure or <code>null</code> if there are no failed events
+     * @since 1.3
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get time from the scheduled start of the first event to completion of the last one
+     *
+     * @param timeUnit time unit of the result
+     * @return duration
+     * @since 1.3
+     */
+    public long getDuration(TimeUnit timeUnit) {
+        return timeUnit.convert(elapsedNanos, NANOSECONDS);
+    }
+
+    /**
+     * Get achieved throughput
+     *
+     * @return sent events per second
+     * @since 1.3
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? sentCount * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Get latency of post or send calls measured from the scheduled time of event.
+     * Time that event waited for a late generator thread is included, so the latency is not
+     * understated when EventAdmin blocks the generator (coordinated omission).
+     *
+     * @return latency histogram
+     * @since 1.3
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Get duration of post or send calls measured from the actual call
+     *
+     * @return service time histogram
+     * @since 1.3
+     */
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * Get latency from the scheduled time of event to its handling
+     *
+     * @return latency histogram or <code>null</code> if delivery was not measured
+     * @since 1.3
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(
+                "LoadReport[mode=%s, threads=%d, target=%.1f/s, achieved=%.1f/s, sent=%d, failed=%d, duration=%dms, latency=%s",
+                mode, threads, targetRate, getThroughput(), sentCount, failedCount,
+                getDuration(TimeUnit.MILLISECONDS), latency));
+        if (deliveryLatency != null) {
+            builder.append(", delivery=").append(deliveryLatency);
+        }
+        return builder.append(']').toString();
+    }
+}
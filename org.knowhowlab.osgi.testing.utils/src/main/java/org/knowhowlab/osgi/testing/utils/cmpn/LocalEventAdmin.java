@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.knowhowlab.osgi.testing.utils.internal.TopicRouter;
+import org.osgi.framework.*;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventHandler;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.osgi.service.event.EventConstants.EVENT_FILTER;
+import static org.osgi.service.event.EventConstants.EVENT_TOPIC;
+
+/**
+ * In-process EventAdmin for unit tests without OSGi framework.
+ * <p/>
+ * Handlers are registered with the same properties as EventHandler services
+ * ({@link org.osgi.service.event.EventConstants#EVENT_TOPIC} and
+ * {@link org.osgi.service.event.EventConstants#EVENT_FILTER}) and routed by topic trie and compiled filters.
+ * Sent events are delivered in the calling thread, posted events are delivered by post executor.
+ * Exceptions of handlers are collected and do not stop delivery to other handlers.
+ * <p/>
+ * To plug it into a mock BundleContext, answer <code>registerService</code> calls for EventHandler
+ * with {@link #registerHandler(EventHandler, Dictionary)} and service lookups for EventAdmin with the instance:
+ * <pre>
+ * LocalEventAdmin eventAdmin = new LocalEventAdmin();
+ * eventAdmin.registerHandler(handler, properties);
+ * eventAdmin.postEvent(new Event("org/knowhowlab/PING", (Map) null));
+ * eventAdmin.awaitDelivery(1, TimeUnit.SECONDS);
+ * eventAdmin.close();
+ * </pre>
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.service.event.EventAdmin
+ * @since 1.3
+ */
+public class LocalEventAdmin implements EventAdmin {
+    private static final String THREAD_NAME_PREFIX = "local-event-admin-";
+
+    private final TopicRouter router = new TopicRouter();
+    private final Executor postExecutor;
+    private final boolean ownExecutor;
+    private final Set<HandlerRegistration> registrations = new CopyOnWriteArraySet<HandlerRegistration>();
+    private final Queue<Throwable> handlerFailures = new ConcurrentLinkedQueue<Throwable>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong serviceIds = new AtomicLong();
+    private final Object pendingLock = new Object();
+
+    /**
+     * Create EventAdmin with one post thread. Posted events are delivered in order of posting.
+     *
+     * @since 1.3
+     */
+    public LocalEventAdmin() {
+        this(1);
+    }
+
+    /**
+     * Create EventAdmin with pool of post threads. With more than one thread
+     * posted events could be delivered out of order of posting.
+     *
+     * @param postThreads number of post threads
+     * @throws IllegalArgumentException If <code>postThreads</code> is not positive
+     * @since 1.3
+     */
+    public LocalEventAdmin(int postThreads) {
+        if (postThreads <= 0) {
+            throw new IllegalArgumentException("postThreads value is not positive");
+        }
+        this.postExecutor = Executors.newFixedThreadPool(postThreads, new DaemonThreadFactory());
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Create EventAdmin that posts events with given executor. Executor is not shut down by {@link #close()}.
+     * An executor that runs tasks in the calling thread makes post delivery deterministic.
+     *
+     * @param postExecutor executor of posted events
+     * @throws NullPointerException If <code>postExecutor</code> is <code>null</code>
+     * @since 1.3
+     */
+    public LocalEventAdmin(Executor postExecutor) {
+        if (postExecutor == null) {
+            throw new NullPointerException("postExecutor is null");
+        }
+        this.postExecutor = postExecutor;
+        this.ownExecutor = false;
+    }
+
+    /**
+     * Register EventHandler
+     *
+     * @param handler    handler
+     * @param properties handler properties with {@link org.osgi.service.event.EventConstants#EVENT_TOPIC}
+     *                   (String, String[] or Collection of Strings) and optional
+     *                   {@link org.osgi.service.event.EventConstants#EVENT_FILTER}.
+     *                   Handler without topics receives no events.
+     * @return registration of handler. {@link ServiceRegistration#getReference()} returns reference
+     *         with handler properties that is not bound to any bundle.
+     * @throws NullPointerException     If <code>handler</code> is <code>null</code>
+     * @throws IllegalArgumentException If filter is invalid
+     * @since 1.3
+     */
+    public ServiceRegistration registerHandler(EventHandler handler, Dictionary properties) {
+        if (handler == null) {
+            throw new NullPointerException("handler is null");
+        }
+        HandlerRegistration registration = new HandlerRegistration(handler);
+        registration.setProperties(properties);
+        registrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * Register EventHandler
+     *
+     * @param handler handler
+     * @param topics  topics, <code>*</code> and <code>prefix/*</code> wildcards are supported
+     * @param filter  filter (could be null)
+     * @return registration of handler. {@link ServiceRegistration#getReference()} returns reference
+     *         with handler properties that is not bound to any bundle.
+     * @throws NullPointerException     If <code>handler</code> is <code>null</code>
+     * @throws IllegalArgumentException If filter is invalid
+     * @since 1.3
+     */
+    public ServiceRegistration registerHandler(EventHandler handler, String[] topics, String filter) {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        if (topics != null) {
+            properties.put(EVENT_TOPIC, topics);
+        }
+        if (filter != null) {
+            properties.put(EVENT_FILTER, filter);
+        }
+        return registerHandler(handler, properties);
+    }
+
+    /**
+     * Get number of registered handlers
+     *
+     * @return number of handlers
+     * @since 1.3
+     */
+    public int getHandlerCount() {
+        return registrations.size();
+    }
+
+    public void postEvent(final Event event) {
+        if (event == null) {
+            throw new NullPointerException("event is null");
+        }
+        pending.incrementAndGet();
+        try {
+            postExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        router.handleEvent(event);
+                    } finally {
+                        delivered();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            delivered();
+            throw e;
+        }
+    }
+
+    public void sendEvent(Event event) {
+        if (event == null) {
+            throw new NullPointerException("event is null");
+        }
+        router.handleEvent(event);
+    }
+
+    private void delivered() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pendingLock) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until all posted events are delivered
+     *
+     * @param timeout  time interval to wait. If zero, the method will wait indefinitely.
+     * @param timeUnit time unit for the time interval
+     * @return <code>true</code> if there are no undelivered events
+     * @throws NullPointerException If <code>timeUnit</code> is <code>null</code>
+     * @since 1.3
+     */
+    public boolean awaitDelivery(long timeout, TimeUnit timeUnit) {
+        Deadline deadline = Deadline.after(timeout, timeUnit);
+        synchronized (pendingLock) {
+            try {
+                while (pending.get() > 0) {
+                    if (!deadline.awaitNotification(pendingLock) && pending.get() > 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Get exceptions that were thrown by handlers
+     *
+     * @return exceptions in order of delivery
+     * @since 1.3
+     */
+    public List<Throwable> getHandlerFailures() {
+        return new ArrayList<Throwable>(handlerFailures);
+    }
+
+    /**
+     * Unregister all handlers and shut down own post threads. Already posted events are delivered.
+     *
+     * @since 1.3
+     */
+    public void close() {
+        for (HandlerRegistration registration : registrations) {
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                // already unregistered
+            }
+        }
+        if (ownExecutor) {
+            ((ExecutorService) postExecutor).shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LocalEventAdmin[handlers=%d, pending=%d, failures=%d]",
+                registrations.size(), pending.get(), handlerFailures.size());
+    }
+
+    private static String[] toTopics(Object value) {
+        if (value instanceof String) {
+            return new String[]{(String) value};
+        } else if (value instanceof String[]) {
+            return (String[]) value;
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            return collection.toArray(new String[collection.size()]);
+        }
+        return null;
+    }
+
+    /**
+     * Registration of handler that isolates exceptions of the handler
+     */
+    private class HandlerRegistration implements ServiceRegistration, EventHandler {
+        private final EventHandler handler;
+        private final HandlerReference reference = new HandlerReference(serviceIds.incrementAndGet());
+        private TopicRouter.Subscription subscription;
+        private boolean unregistered;
+
+        private HandlerRegistration(EventHandler handler) {
+            this.handler = handler;
+        }
+
+        public void handleEvent(Event event) {
+            try {
+                handler.handleEvent(event);
+            } catch (Throwable e) {
+                handlerFailures.offer(e);
+            }
+        }
+
+        public synchronized ServiceReference getReference() {
+            if (unregistered) {
+                throw new IllegalStateException("Handler is already unregistered");
+            }
+            return reference;
+        }
+
+        public synchronized void setProperties(Dictionary properties) {
+            if (unregistered) {
+                throw new IllegalStateException("Handler is already unregistered");
+            }
+            String[] topics = properties != null ? toTopics(properties.get(EVENT_TOPIC)) : null;
+            Object filterValue = properties != null ? properties.get(EVENT_FILTER) : null;
+            Filter filter = null;
+            if (filterValue != null) {
+                try {
+                    filter = FilterUtils.compile(filterValue.toString());
+                } catch (InvalidSyntaxException e) {
+                    throw new IllegalArgumentException("Unable to create filter", e);
+                }
+            }
+            if (subscription != null) {
+                subscription.close();
+                subscription = null;
+            }
+            if (topics != null && topics.length > 0) {
+                subscription = router.subscribe(topics, filter, this);
+            }
+            reference.setProperties(properties);
+        }
+
+        public synchronized void unregister() {
+            if (unregistered) {
+                throw new IllegalStateException("Handler is already unregistered");
+            }
+            unregistered = true;
+            if (subscription != null) {
+                subscription.close();
+            }
+            registrations.remove(this);
+        }
+    }
+
+    /**
+     * Reference of local handler. Properties are handler properties with
+     * {@link Constants#OBJECTCLASS} and {@link Constants#SERVICE_ID}. Handler is not bound to any bundle.
+     */
+    private static class HandlerReference implements ServiceReference {
+        private static final String[] OBJECT_CLASS = new String[]{EventHandler.class.getName()};
+
+        private final Long serviceId;
+        private volatile Map<String, Object> properties = Collections.emptyMap();
+
+        private HandlerReference(long serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        private void setProperties(Dictionary properties) {
+            Map<String, Object> values = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+            if (properties != null) {
+                for (Enumeration keys = properties.keys(); keys.hasMoreElements(); ) {
+                    Object key = keys.nextElement();
+                    values.put(key.toString(), properties.get(key));
+                }
+            }
+            values.put(Constants.OBJECTCLASS, OBJECT_CLASS.clone());
+            values.put(Constants.SERVICE_ID, serviceId);
+            this.properties = values;
+        }
+
+        public Object getProperty(String key) {
+            return properties.get(key);
+        }
+
+        public String[] getPropertyKeys() {
+            Set<String> keys = properties.keySet();
+            return keys.toArray(new String[keys.size()]);
+        }
+
+        public Bundle getBundle() {
+            return null;
+        }
+
+        public Bundle[] getUsingBundles() {
+            return null;
+        }
+
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        public int compareTo(Object reference) {
+            HandlerReference other = (HandlerReference) reference;
+            int ranking = ranking();
+            int otherRanking = other.ranking();
+            if (ranking != otherRanking) {
+                return ranking < otherRanking ? -1 : 1;
+            }
+            // lower service id is ranked higher
+            return other.serviceId.compareTo(serviceId);
+        }
+
+        private int ranking() {
+            Object ranking = properties.get(Constants.SERVICE_RANKING);
+            return ranking instanceof Integer ? (Integer) ranking : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("HandlerReference[%s]", properties);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
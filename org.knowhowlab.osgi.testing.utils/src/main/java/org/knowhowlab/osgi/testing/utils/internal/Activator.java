@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import org.knowhowlab.osgi.testing.utils.SchedulerUtils;
+import org.knowhowlab.osgi.testing.utils.ServiceTrackerCache;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Utils bundle activator. Releases shared resources when the bundle stops.
+ *
+ * @author dmytro.pishchukhin
+ */
+public class Activator implements BundleActivator {
+    public void start(BundleContext bundleContext) throws Exception {
+        SchedulerUtils.start();
+    }
+
+    public void stop(BundleContext bundleContext) throws Exception {
+        ServiceTrackerCache.disableAll();
+        ServiceEventDispatcher.closeAll();
+        try {
+            EventDispatcher.closeAll();
+        } catch (NoClassDefFoundError e) {
+            // EventAdmin package is not available
+        }
+        SchedulerUtils.shutdown();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import org.osgi.framework.*;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.osgi.service.event.EventConstants.EVENT_TOPIC;
+
+/**
+ * One wildcard EventHandler per BundleContext that is shared by all event subscribers.
+ * <p/>
+ * The handler service is registered once, so adding and removing a subscriber does not change
+ * EventAdmin handlers. Events are routed to subscribers by {@link TopicRouter}.
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.service.event.EventHandler
+ * @see org.osgi.service.event.EventConstants#EVENT_TOPIC
+ */
+public class EventDispatcher implements EventHandler {
+    private static final ConcurrentMap<BundleContext, EventDispatcher> DISPATCHERS =
+            new ConcurrentHashMap<BundleContext, EventDispatcher>();
+
+    private final BundleContext bc;
+    private final TopicRouter router = new TopicRouter();
+    private final SynchronousBundleListener stopListener = new BundleStoppingListener();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private volatile boolean failed;
+    private volatile ServiceRegistration registration;
+
+    private EventDispatcher(BundleContext bc) {
+        this.bc = bc;
+    }
+
+    /**
+     * Get shared dispatcher of BundleContext. Dispatcher is registered on demand,
+     * concurrent callers wait until the registration is finished.
+     * Dispatcher that failed to register is not kept.
+     *
+     * @param bc BundleContext
+     * @return dispatcher
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     */
+    public static EventDispatcher getDispatcher(BundleContext bc) {
+        while (true) {
+            EventDispatcher dispatcher = DISPATCHERS.get(bc);
+            if (dispatcher == null) {
+                EventDispatcher created = new EventDispatcher(bc);
+                dispatcher = DISPATCHERS.putIfAbsent(bc, created);
+                if (dispatcher == null) {
+                    created.register();
+                    return created;
+                }
+            }
+            if (dispatcher.awaitRegistration()) {
+                return dispatcher;
+            }
+        }
+    }
+
+    /**
+     * Remove all shared dispatchers
+     */
+    public static void closeAll() {
+        for (EventDispatcher dispatcher : new ArrayList<EventDispatcher>(DISPATCHERS.values())) {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Subscribe handler to events
+     *
+     * @param topics  topics, <code>*</code> and <code>prefix/*</code> wildcards are supported.
+     *                If <code>null</code>, handler is subscribed to all topics.
+     * @param filter  filter (could be null)
+     * @param handler handler
+     * @return subscription
+     * @throws IllegalArgumentException If <code>filter</code> string cannot be compiled
+     */
+    public TopicRouter.Subscription subscribe(String[] topics, Filter filter, EventHandler handler) {
+        return router.subscribe(topics, filter, handler);
+    }
+
+    public void handleEvent(Event event) {
+        router.handleEvent(event);
+    }
+
+    private void register() {
+        try {
+            bc.addBundleListener(stopListener);
+            Dictionary<String, Object> props = new Hashtable<String, Object>();
+            props.put(EVENT_TOPIC, "*");
+            registration = bc.registerService(EventHandler.class.getName(), this, props);
+        } catch (RuntimeException e) {
+            failed = true;
+            close();
+            throw e;
+        } finally {
+            registered.countDown();
+        }
+    }
+
+    /**
+     * Wait until the dispatcher is registered by the thread that created it
+     *
+     * @return <code>false</code> if registration failed
+     */
+    private boolean awaitRegistration() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                registered.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return !failed;
+    }
+
+    private void close() {
+        if (DISPATCHERS.remove(bc, this)) {
+            try {
+                if (registration != null) {
+                    registration.unregister();
+                }
+            } catch (IllegalStateException e) {
+                // already unregistered
+            }
+            try {
+                bc.removeBundleListener(stopListener);
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
+        }
+    }
+
+    /**
+     * Removes dispatcher when the bundle of the BundleContext is stopping
+     */
+    private class BundleStoppingListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.STOPPING && event.getBundle().equals(bc.getBundle())) {
+                close();
+            }
+        }
+    }
+}
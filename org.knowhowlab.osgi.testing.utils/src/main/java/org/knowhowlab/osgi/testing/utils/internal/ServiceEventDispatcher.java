@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.osgi.framework.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One ServiceListener per BundleContext that is shared by all concurrent ServiceEvent waiters.
+ * <p/>
+ * The listener is registered without filter, so the framework does not evaluate per-waiter filters.
+ * Waiters are indexed by <code>objectClass</code> and by event type, adding and removing a waiter
+ * are lock-free queue operations. The bucket of a class name is removed with its last waiter.
+ * Waiters with custom filters are matched against the ServiceReference.
+ * <p/>
+ * The framework never sends <code>MODIFIED_ENDMATCH</code> events to a listener without filter,
+ * waiters for this event type with custom filter have to use their own listener.
+ *
+ * @author dmytro.pishchukhin
+ * @see org.osgi.framework.ServiceListener
+ * @see org.osgi.framework.AllServiceListener
+ */
+public class ServiceEventDispatcher implements ServiceListener {
+    private static final ConcurrentMap<BundleContext, ServiceEventDispatcher> DISPATCHERS =
+            new ConcurrentHashMap<BundleContext, ServiceEventDispatcher>();
+    private static final ConcurrentMap<BundleContext, ServiceEventDispatcher> ALL_DISPATCHERS =
+            new ConcurrentHashMap<BundleContext, ServiceEventDispatcher>();
+
+    /**
+     * Supported event types. Index in this array is the index of waiters queue in bucket
+     */
+    private static final int[] EVENT_TYPES = {
+            ServiceEvent.REGISTERED, ServiceEvent.MODIFIED, ServiceEvent.UNREGISTERING, ServiceEvent.MODIFIED_ENDMATCH
+    };
+
+    private final BundleContext bc;
+    private final ConcurrentMap<BundleContext, ServiceEventDispatcher> registry;
+    private final ConcurrentMap<String, Bucket> byClassName = new ConcurrentHashMap<String, Bucket>();
+    private final Bucket generic = new Bucket();
+    private final AtomicInteger waitersCount = new AtomicInteger();
+    private final SynchronousBundleListener stopListener = new BundleStoppingListener();
+    private final CountDownLatch registered = new CountDownLatch(1);
+    private volatile boolean failed;
+
+    ServiceEventDispatcher(BundleContext bc, ConcurrentMap<BundleContext, ServiceEventDispatcher> registry) {
+        this.bc = bc;
+        this.registry = registry;
+    }
+
+    /**
+     * Get shared dispatcher of BundleContext. Dispatcher is registered on demand,
+     * concurrent callers wait until its listeners are added, so they do not miss events.
+     * Dispatcher that failed to register is not kept.
+     *
+     * @param bc  BundleContext
+     * @param all use AllServiceListener
+     * @return dispatcher
+     * @throws IllegalStateException If <code>bc</code> is no longer valid
+     */
+    public static ServiceEventDispatcher getDispatcher(BundleContext bc, boolean all) {
+        ConcurrentMap<BundleContext, ServiceEventDispatcher> registry = all ? ALL_DISPATCHERS : DISPATCHERS;
+        while (true) {
+            ServiceEventDispatcher dispatcher = registry.get(bc);
+            if (dispatcher == null) {
+                ServiceEventDispatcher created = all
+                        ? new AllServiceEventDispatcher(bc, registry) : new ServiceEventDispatcher(bc, registry);
+                dispatcher = registry.putIfAbsent(bc, created);
+                if (dispatcher == null) {
+                    created.register();
+                    return created;
+                }
+            }
+            if (dispatcher.awaitRegistration()) {
+                return dispatcher;
+            }
+        }
+    }
+
+    /**
+     * Remove all shared dispatchers
+     */
+    public static void closeAll() {
+        for (ServiceEventDispatcher dispatcher : new ArrayList<ServiceEventDispatcher>(DISPATCHERS.values())) {
+            dispatcher.close();
+        }
+        for (ServiceEventDispatcher dispatcher : new ArrayList<ServiceEventDispatcher>(ALL_DISPATCHERS.values())) {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Check if event type mask and filter could be served by shared dispatcher
+     *
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @return <code>true</code> if supported
+     */
+    public static boolean isSupported(Filter filter, int eventTypeMask) {
+        return filter == null || (eventTypeMask & ServiceEvent.MODIFIED_ENDMATCH) == 0;
+    }
+
+    /**
+     * Wait for ServiceEvent
+     *
+     * @param className     class name (could be null)
+     * @param filter        filter (could be null)
+     * @param eventTypeMask ServiceEvent type mask
+     * @param deadline      deadline of the wait
+     * @return ServiceEvent or <code>null</code>
+     * @throws InterruptedException If another thread has interrupted the current thread.
+     */
+    public ServiceEvent waitForServiceEvent(String className, Filter filter, int eventTypeMask,
+                                            Deadline deadline) throws InterruptedException {
+        Waiter waiter = new Waiter(filter, eventTypeMask);
+        Bucket bucket = className != null ? retainBucket(className) : generic;
+        waitersCount.incrementAndGet();
+        bucket.add(waiter);
+        try {
+            return waiter.await(deadline);
+        } finally {
+            bucket.remove(waiter);
+            waitersCount.decrementAndGet();
+            if (bucket != generic && bucket.release()) {
+                byClassName.remove(className, bucket);
+            }
+        }
+    }
+
+    /**
+     * Get number of class names with waiters
+     *
+     * @return number of class name buckets
+     */
+    int getBucketCount() {
+        return byClassName.size();
+    }
+
+    /**
+     * Get bucket of class name and retain it for a waiter. Bucket that is retired
+     * by concurrent release of its last waiter is replaced by new one.
+     */
+    private Bucket retainBucket(String className) {
+        while (true) {
+            Bucket bucket = byClassName.get(className);
+            if (bucket == null) {
+                bucket = new Bucket();
+                Bucket existing = byClassName.putIfAbsent(className, bucket);
+                if (existing != null) {
+                    bucket = existing;
+                }
+            }
+            if (bucket.retain()) {
+                return bucket;
+            }
+            byClassName.remove(className, bucket);
+        }
+    }
+
+    public void serviceChanged(ServiceEvent event) {
+        if (waitersCount.get() == 0) {
+            return;
+        }
+        int index = indexOf(event.getType());
+        if (index < 0) {
+            return;
+        }
+        String[] classNames = (String[]) event.getServiceReference().getProperty(Constants.OBJECTCLASS);
+        if (classNames != null) {
+            for (String className : classNames) {
+                Bucket bucket = byClassName.get(className);
+                if (bucket != null) {
+                    bucket.dispatch(index, event);
+                }
+            }
+        }
+        generic.dispatch(index, event);
+    }
+
+    private void register() {
+        try {
+            bc.addBundleListener(stopListener);
+            bc.addServiceListener(this);
+        } catch (RuntimeException e) {
+            failed = true;
+            close();
+            throw e;
+        } finally {
+            registered.countDown();
+        }
+    }
+
+    /**
+     * Wait until the dispatcher is registered by the thread that created it
+     *
+     * @return <code>false</code> if registration failed
+     */
+    private boolean awaitRegistration() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                registered.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return !failed;
+    }
+
+    private void close() {
+        if (registry.remove(bc, this)) {
+            try {
+                bc.removeServiceListener(this);
+                bc.removeBundleListener(stopListener);
+            } catch (IllegalStateException e) {
+                // BundleContext is no longer valid
+            }
+        }
+    }
+
+    private static int indexOf(int eventType) {
+        for (int i = 0; i < EVENT_TYPES.length; i++) {
+            if (EVENT_TYPES[i] == eventType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Waiters per event type. Number of waiters that retain the bucket is <code>-1</code> if bucket is retired.
+     */
+    private static class Bucket {
+        private final ConcurrentLinkedQueue<Waiter>[] queues;
+        private final AtomicInteger retainCount = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private Bucket() {
+            queues = new ConcurrentLinkedQueue[EVENT_TYPES.length];
+            for (int i = 0; i < queues.length; i++) {
+                queues[i] = new ConcurrentLinkedQueue<Waiter>();
+            }
+        }
+
+        private boolean retain() {
+            while (true) {
+                int count = retainCount.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (retainCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Release bucket by waiter
+         *
+         * @return <code>true</code> if bucket was retired by the last waiter
+         */
+        private boolean release() {
+            return retainCount.decrementAndGet() == 0 && retainCount.compareAndSet(0, -1);
+        }
+
+        private void add(Waiter waiter) {
+            for (int i = 0; i < EVENT_TYPES.length; i++) {
+                if ((waiter.eventTypeMask & EVENT_TYPES[i]) != 0) {
+                    queues[i].offer(waiter);
+                }
+            }
+        }
+
+        private void remove(Waiter waiter) {
+            for (int i = 0; i < EVENT_TYPES.length; i++) {
+                if ((waiter.eventTypeMask & EVENT_TYPES[i]) != 0) {
+                    queues[i].remove(waiter);
+                }
+            }
+        }
+
+        private void dispatch(int index, ServiceEvent event) {
+            for (Waiter waiter : queues[index]) {
+                waiter.offer(event);
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final Filter filter;
+        private final int eventTypeMask;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicReference<ServiceEvent> event = new AtomicReference<ServiceEvent>();
+
+        private Waiter(Filter filter, int eventTypeMask) {
+            this.filter = filter;
+            this.eventTypeMask = eventTypeMask;
+        }
+
+        private void offer(ServiceEvent serviceEvent) {
+            if (event.get() == null && (filter == null || filter.match(serviceEvent.getServiceReference()))) {
+                if (event.compareAndSet(null, serviceEvent)) {
+                    latch.countDown();
+                }
+            }
+        }
+
+        private ServiceEvent await(Deadline deadline) throws InterruptedException {
+            if (deadline.await(latch)) {
+                return event.get();
+            }
+            return null;
+        }
+    }
+
+    private static class AllServiceEventDispatcher extends ServiceEventDispatcher implements AllServiceListener {
+        private AllServiceEventDispatcher(BundleContext bc, ConcurrentMap<BundleContext, ServiceEventDispatcher> registry) {
+            super(bc, registry);
+        }
+    }
+
+    /**
+     * Removes dispatcher when the bundle of the BundleContext is stopping
+     */
+    private class BundleStoppingListener implements SynchronousBundleListener {
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.STOPPING && event.getBundle().equals(bc.getBundle())) {
+                close();
+            }
+        }
+    }
+}
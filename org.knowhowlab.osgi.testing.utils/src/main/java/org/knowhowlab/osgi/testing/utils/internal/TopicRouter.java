@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2010-2013 Dmytro Pishchukhin (http://knowhowlab.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import org.knowhowlab.osgi.testing.utils.CompiledFilter;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Routes events to subscribed handlers by topic and filter.
+ * <p/>
+ * Subscribers are indexed by topic in a trie of topic segments:
+ * exact topics are kept on the node of the last segment, <code>prefix/*</code> topics on the node of the prefix.
+ * Subscriber filters are compiled and matched against event properties without copying them.
+ * Events have to be passed to {@link #handleEvent(Event)} by the owner of the router.
+ *
+ * @author dmytro.pishchukhin
+ * @see EventDispatcher
+ */
+public class TopicRouter implements EventHandler {
+    private final TopicNode root = new TopicNode();
+    private final AtomicInteger subscriptionsCount = new AtomicInteger();
+
+    /**
+     * Subscribe handler to events
+     *
+     * @param topics  topics, <code>*</code> and <code>prefix/*</code> wildcards are supported.
+     *                If <code>null</code>, handler is subscribed to all topics.
+     * @param filter  filter (could be null)
+     * @param handler handler
+     * @return subscription
+     * @throws IllegalArgumentException If <code>filter</code> string cannot be compiled
+     */
+    public Subscription subscribe(String[] topics, Filter filter, EventHandler handler) {
+        CompiledFilter compiledFilter = null;
+        if (filter != null) {
+            try {
+                compiledFilter = FilterUtils.compile(filter);
+            } catch (InvalidSyntaxException e) {
+                throw new IllegalArgumentException("Unable to create filter", e);
+            }
+        }
+        Subscription subscription = new Subscription(handler, compiledFilter);
+        for (String topic : normalize(topics)) {
+            TopicNode node = root;
+            boolean wildcard = topic.equals("*") || topic.endsWith("/*");
+            String path = wildcard ? topic.substring(0, Math.max(0, topic.length() - 2)) : topic;
+            if (path.length() > 0) {
+                for (String segment : path.split("/")) {
+                    node = node.child(segment);
+                }
+            }
+            ConcurrentLinkedQueue<Subscription> queue = wildcard ? node.prefixSubscriptions : node.subscriptions;
+            subscription.queues.add(queue);
+        }
+        subscriptionsCount.incrementAndGet();
+        for (ConcurrentLinkedQueue<Subscription> queue : subscription.queues) {
+            queue.offer(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Get number of open subscriptions
+     *
+     * @return number of subscriptions
+     */
+    public int getSubscriptionCount() {
+        return subscriptionsCount.get();
+    }
+
+    public void handleEvent(Event event) {
+        if (subscriptionsCount.get() == 0) {
+            return;
+        }
+        String topic = event.getTopic();
+        TopicNode node = root;
+        int start = 0;
+        while (node != null) {
+            if (start > topic.length()) {
+                dispatch(node.subscriptions, event);
+                break;
+            }
+            dispatch(node.prefixSubscriptions, event);
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                end = topic.length();
+            }
+            node = node.children.isEmpty() ? null : node.children.get(topic.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    private void dispatch(ConcurrentLinkedQueue<Subscription> subscriptions, Event event) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Remove duplicated topics and topics that are covered by wildcard topics,
+     * so every event matches at most one topic of subscription
+     */
+    private static Collection<String> normalize(String[] topics) {
+        if (topics == null) {
+            return Collections.singleton("*");
+        }
+        Set<String> result = new LinkedHashSet<String>();
+        for (String topic : topics) {
+            if (!isCovered(topic, topics)) {
+                result.add(topic);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isCovered(String topic, String[] topics) {
+        for (String other : topics) {
+            if (!other.equals(topic) && other.endsWith("*")) {
+                String prefix = other.substring(0, other.length() - 1);
+                if (topic.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Subscription of handler. Subscription is removed from router on close.
+     */
+    public class Subscription {
+        private final EventHandler handler;
+        private final CompiledFilter filter;
+        private final List<ConcurrentLinkedQueue<Subscription>> queues = new ArrayList<ConcurrentLinkedQueue<Subscription>>(1);
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Subscription(EventHandler handler, CompiledFilter filter) {
+            this.handler = handler;
+            this.filter = filter;
+        }
+
+        private void offer(Event event) {
+            if (!closed.get() && (filter == null || event.matches(filter))) {
+                handler.handleEvent(event);
+            }
+        }
+
+        /**
+         * Stop delivery of events to handler
+         */
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                for (ConcurrentLinkedQueue<Subscription> queue : queues) {
+                    queue.remove(this);
+                }
+                subscriptionsCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Topic segment node
+     */
+    private static class TopicNode {
+        private final ConcurrentMap<String, TopicNode> children = new ConcurrentHashMap<String, TopicNode>();
+        private final ConcurrentLinkedQueue<Subscription> subscriptions = new ConcurrentLinkedQueue<Subscription>();
+        private final ConcurrentLinkedQueue<Subscription> prefixSubscriptions = new ConcurrentLinkedQueue<Subscription>();
+
+        private TopicNode child(String segment) {
+            TopicNode node = children.get(segment);
+            if (node == null) {
+                node = new TopicNode();
+                TopicNode existing = children.putIfAbsent(segment, node);
+                if (existing != null) {
+                    node = existing;
+                }
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BulkResultTest {
+    @Test
+    public void testRun_positionalResults() {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++) {
+            items.add(i);
+        }
+        BulkResult<String> result = BulkResult.run(items, 3, new BulkResult.Action<Integer, String>() {
+            public String run(Integer item) {
+                if (item == 3 || item == 8) {
+                    throw new IllegalStateException("failed " + item);
+                }
+                return item == 5 ? null : "result " + item;
+            }
+        });
+
+        Assert.assertEquals(3, result.getParallelism());
+        Assert.assertEquals(10, result.getResults().size());
+        Assert.assertEquals("result 0", result.getResults().get(0));
+        Assert.assertNull(result.getResults().get(3));
+        Assert.assertNull(result.getResults().get(5));
+        Assert.assertEquals("result 9", result.getResults().get(9));
+        Assert.assertEquals(8, result.getSuccessCount());
+
+        Assert.assertEquals(2, result.getFailureCount());
+        BulkResult.Failure failure = result.getFailures().get(0);
+        Assert.assertEquals(3, failure.getIndex());
+        Assert.assertEquals(3, failure.getItem());
+        Assert.assertEquals("failed 3", failure.getCause().getMessage());
+        Assert.assertEquals(8, result.getFailures().get(1).getIndex());
+    }
+
+    @Test
+    public void testRun_empty() {
+        BulkResult<String> result = BulkResult.run(Arrays.<String>asList(), 4, new BulkResult.Action<String, String>() {
+            public String run(String item) {
+                return item;
+            }
+        });
+        Assert.assertEquals(1, result.getParallelism());
+        Assert.assertTrue(result.getResults().isEmpty());
+        Assert.assertEquals(0, result.getSuccessCount());
+        Assert.assertEquals(0, result.getFailureCount());
+    }
+
+    @Test
+    public void testRun_interrupted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        BulkResult<String> result = BulkResult.run(Arrays.asList(0, 1, 2, 3, 4, 5), 2,
+                new BulkResult.Action<Integer, String>() {
+                    public String run(Integer item) throws Exception {
+                        if (item == 1) {
+                            Thread.currentThread().interrupt();
+                        } else if (item >= 3) {
+                            release.await(10, TimeUnit.SECONDS);
+                        }
+                        return "result " + item;
+                    }
+                });
+        Assert.assertTrue(Thread.interrupted());
+        release.countDown();
+
+        Assert.assertEquals(Arrays.asList("result 0", "result 1", null, null, null, null), result.getResults());
+        Assert.assertEquals(2, result.getSuccessCount());
+        Assert.assertEquals(4, result.getFailureCount());
+        for (int i = 0; i < 4; i++) {
+            BulkResult.Failure failure = result.getFailures().get(i);
+            Assert.assertEquals(i + 2, failure.getIndex());
+            Assert.assertTrue(failure.getCause() instanceof InterruptedException);
+        }
+    }
+}
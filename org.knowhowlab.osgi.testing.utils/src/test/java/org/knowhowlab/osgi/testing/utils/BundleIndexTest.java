@@ -0,0 +1,65 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BundleIndexTest {
+    private static final Version V1 = new Version(1, 0, 0);
+    private static final Version V2 = new Version(2, 0, 0);
+
+    private final MockBundleContext bc = new MockBundleContext();
+
+    @After
+    public void tearDown() {
+        BundleIndex.disable(bc);
+    }
+
+    @Test
+    public void testGetBundle() {
+        Bundle first = MockBundleContext.mockBundle(1, "test.bundle", V1);
+        bc.installBundle(first);
+        BundleIndex index = BundleIndex.enable(bc);
+        Assert.assertEquals(2, index.size());
+        Assert.assertSame(first, index.getBundle("test.bundle", null));
+
+        Bundle second = MockBundleContext.mockBundle(2, "test.bundle", V2);
+        bc.installBundle(second);
+        Assert.assertSame(second, index.getBundle("test.bundle", null));
+        Assert.assertSame(second, index.getBundle("test.bundle", V1));
+        Assert.assertNull(index.getBundle("test.bundle", new Version(3, 0, 0)));
+        Assert.assertNull(index.getBundle("other.bundle", null));
+
+        bc.uninstallBundle(second);
+        Assert.assertSame(first, index.getBundle("test.bundle", null));
+        bc.uninstallBundle(first);
+        Assert.assertNull(index.getBundle("test.bundle", null));
+        Assert.assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testGetBundle_sameSymbolicNameAndVersion() {
+        Bundle first = MockBundleContext.mockBundle(1, "test.bundle", V1);
+        Bundle second = MockBundleContext.mockBundle(2, "test.bundle", V1);
+        bc.installBundle(first);
+        bc.installBundle(second);
+        Assert.assertSame(first, BundleUtils.findBundle(bc, "test.bundle", V1));
+
+        BundleIndex index = BundleIndex.enable(bc);
+        Assert.assertEquals(3, index.size());
+        // index returns the same bundle as the scan
+        Assert.assertSame(first, BundleUtils.findBundle(bc, "test.bundle", V1));
+
+        bc.uninstallBundle(first);
+        Assert.assertSame(second, index.getBundle("test.bundle", V1));
+        bc.installBundle(first);
+        Assert.assertSame(first, index.getBundle("test.bundle", V1));
+        bc.uninstallBundle(second);
+        Assert.assertSame(first, index.getBundle("test.bundle", V1));
+    }
+}
@@ -0,0 +1,191 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BundleInstallReportTest {
+    private final Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+    private final Map<Bundle, Integer> startLevels = new HashMap<Bundle, Integer>();
+    private final Map<Bundle, List<Bundle>> importers = new HashMap<Bundle, List<Bundle>>();
+    private final Set<Bundle> fragments = new HashSet<Bundle>();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String interruptAt;
+
+    private final MockBundleContext bc = new MockBundleContext() {
+        @Override
+        public Bundle installBundle(String location) throws BundleException {
+            if (location.equals(interruptAt)) {
+                Thread.currentThread().interrupt();
+            }
+            Bundle bundle = bundles.get(location);
+            if (bundle == null) {
+                throw new BundleException("Unknown location: " + location);
+            }
+            return bundle;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        ServiceUsageLedger.releaseAll(bc);
+    }
+
+    @Test
+    public void testInstallAll_waves() {
+        Bundle a = bundle(1, "a", 1);
+        Bundle b = bundle(2, "b", 1);
+        Bundle c = bundle(3, "c", 2);
+        Bundle d = bundle(4, "d", 2);
+        Bundle e = bundle(5, "e", 2);
+        Bundle f = bundle(6, "f", 1);
+        fragments.add(f);
+        // b imports from a, d and e import from each other
+        importers.put(a, Arrays.asList(b));
+        importers.put(d, Arrays.asList(e));
+        importers.put(e, Arrays.asList(d));
+        registerFrameworkServices();
+
+        BundleInstallReport report = BundleUtils.installAll(bc, Arrays.asList("e", "d", "c", "b", "f", "a"), 1);
+
+        Assert.assertTrue(report.getFailed().isEmpty());
+        Assert.assertEquals(4, report.getWaveCount());
+        Assert.assertEquals(0, wave(report, "a"));
+        Assert.assertEquals(1, wave(report, "b"));
+        Assert.assertEquals(2, wave(report, "c"));
+        Assert.assertEquals(3, wave(report, "d"));
+        Assert.assertEquals(3, wave(report, "e"));
+        Assert.assertEquals(-1, wave(report, "f"));
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), started.subList(0, 3));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("d", "e")), new HashSet<String>(started.subList(3, 5)));
+        Assert.assertEquals(5, started.size());
+    }
+
+    @Test
+    public void testInstallAll_duplicatesAndFailures() {
+        bundle(1, "a", 1);
+        bundle(2, "b", 1);
+        registerFrameworkServices();
+
+        BundleInstallReport report = BundleUtils.installAll(bc, Arrays.asList("a", "b", "missing", "a"), 2);
+
+        List<BundleInstallReport.Entry> entries = report.getEntries();
+        Assert.assertEquals(4, entries.size());
+        Assert.assertEquals(Collections.singletonList(entries.get(3)), report.getDuplicates());
+        Assert.assertSame(entries.get(0), entries.get(3).getDuplicateOf());
+        Assert.assertEquals(0, entries.get(0).getWave());
+        Assert.assertEquals(-1, entries.get(3).getWave());
+        Assert.assertEquals(Collections.singletonList(entries.get(2)), report.getFailed());
+        Assert.assertTrue(report.getFailed().get(0).getFailure() instanceof BundleException);
+        Assert.assertEquals(2, started.size());
+    }
+
+    @Test
+    public void testInstallAll_withoutFrameworkServices() {
+        bundle(1, "a", 2);
+        bundle(2, "b", 1);
+        BundleInstallReport report = BundleUtils.installAll(bc, Arrays.asList("a", "b"), 1);
+        // without StartLevel and PackageAdmin all bundles are started in one wave
+        Assert.assertEquals(1, report.getWaveCount());
+        Assert.assertEquals(Arrays.asList("a", "b"), started);
+    }
+
+    @Test
+    public void testInstallAll_interrupted() {
+        bundle(1, "a", 1);
+        bundle(2, "b", 1);
+        bundle(3, "c", 1);
+        registerFrameworkServices();
+        interruptAt = "b";
+
+        BundleInstallReport report = BundleUtils.installAll(bc, Arrays.asList("a", "b", "c"), 1);
+        Assert.assertTrue(Thread.interrupted());
+
+        List<BundleInstallReport.Entry> entries = report.getEntries();
+        Assert.assertNotNull(entries.get(1).getBundle());
+        Assert.assertNull(entries.get(2).getBundle());
+        Assert.assertEquals(Collections.singletonList(entries.get(2)), report.getFailed());
+        Assert.assertTrue(entries.get(2).getFailure() instanceof InterruptedException);
+        // half-installed set is not started
+        Assert.assertEquals(0, report.getWaveCount());
+        Assert.assertTrue(started.isEmpty());
+    }
+
+    private static int wave(BundleInstallReport report, String location) {
+        for (BundleInstallReport.Entry entry : report.getEntries()) {
+            if (entry.getLocation().equals(location)) {
+                return entry.getWave();
+            }
+        }
+        throw new IllegalArgumentException(location);
+    }
+
+    private Bundle bundle(final long id, final String name, int startLevel) {
+        final Bundle delegate = MockBundleContext.mockBundle(id, name, Version.emptyVersion);
+        Bundle bundle = (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Bundle.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("start")) {
+                            started.add(name);
+                            return null;
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return method.invoke(delegate, args);
+                    }
+                });
+        bundles.put(name, bundle);
+        startLevels.put(bundle, startLevel);
+        return bundle;
+    }
+
+    private void registerFrameworkServices() {
+        bc.registerService(PackageAdmin.class.getName(), proxy(PackageAdmin.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getBundleType")) {
+                    return fragments.contains(args[0]) ? PackageAdmin.BUNDLE_TYPE_FRAGMENT : 0;
+                } else if (method.getName().equals("resolveBundles")) {
+                    return true;
+                } else if (method.getName().equals("getExportedPackages") && args[0] instanceof Bundle) {
+                    final List<Bundle> bundleImporters = importers.get(args[0]);
+                    if (bundleImporters == null) {
+                        return null;
+                    }
+                    return new ExportedPackage[]{proxy(ExportedPackage.class, new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            return method.getName().equals("getImportingBundles")
+                                    ? bundleImporters.toArray(new Bundle[bundleImporters.size()]) : null;
+                        }
+                    })};
+                }
+                return null;
+            }
+        }), null);
+        bc.registerService(StartLevel.class.getName(), proxy(StartLevel.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getBundleStartLevel")) {
+                    return startLevels.get(args[0]);
+                }
+                return null;
+            }
+        }), null);
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(BundleInstallReportTest.class.getClassLoader(), new Class[]{type}, handler));
+    }
+}
@@ -0,0 +1,122 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.BundleLifecycleProfiler.Phase;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Version;
+
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BundleLifecycleProfilerTest {
+    private final MockBundleContext bc = new MockBundleContext();
+    private final Bundle fast = MockBundleContext.mockBundle(1, "bundle.fast", Version.emptyVersion);
+    private final Bundle slow = MockBundleContext.mockBundle(2, "bundle.slow", Version.emptyVersion);
+
+    @After
+    public void tearDown() {
+        BundleLifecycleProfiler.disable(bc);
+    }
+
+    @Test
+    public void testPhases() throws Exception {
+        BundleLifecycleProfiler profiler = BundleLifecycleProfiler.enable(bc);
+        Assert.assertSame(profiler, BundleLifecycleProfiler.enable(bc));
+        Assert.assertSame(profiler, BundleLifecycleProfiler.getProfiler(bc));
+        Assert.assertEquals(1, bc.getBundleListenerCount());
+
+        bc.installBundle(slow);
+        fire(BundleEvent.RESOLVED, slow);
+        fire(BundleEvent.STARTING, slow);
+        Thread.sleep(20);
+        fire(BundleEvent.STARTED, slow);
+        fire(BundleEvent.STARTING, fast);
+        fire(BundleEvent.STARTED, fast);
+        fire(BundleEvent.STOPPING, fast);
+        fire(BundleEvent.STOPPED, fast);
+
+        BundleLifecycleProfiler.BundleStats stats = profiler.getStats("bundle.slow");
+        Assert.assertEquals(1, stats.getCount(Phase.RESOLVE));
+        Assert.assertEquals(1, stats.getCount(Phase.START));
+        Assert.assertEquals(0, stats.getCount(Phase.STOP));
+        Assert.assertTrue(stats.getMax(Phase.START, MILLISECONDS) >= 20);
+        Assert.assertEquals(stats.getMax(Phase.START, NANOSECONDS), stats.getLast(Phase.START, NANOSECONDS));
+        Assert.assertEquals(1, profiler.getStats("bundle.fast").getCount(Phase.STOP));
+
+        List<BundleLifecycleProfiler.BundleStats> ranking = profiler.getRanking(Phase.START);
+        Assert.assertEquals(2, ranking.size());
+        Assert.assertEquals("bundle.slow", ranking.get(0).getSymbolicName());
+        Assert.assertEquals("bundle.fast", ranking.get(1).getSymbolicName());
+        Assert.assertTrue(profiler.report(1).contains("bundle.slow"));
+        Assert.assertFalse(profiler.report(1).contains("bundle.fast"));
+
+        profiler.reset();
+        Assert.assertNull(profiler.getStats("bundle.slow"));
+    }
+
+    @Test
+    public void testPhases_zeroAndNegativeTimestamps() {
+        BundleLifecycleProfiler profiler = BundleLifecycleProfiler.enable(bc);
+        profiler.record(slow, BundleEvent.INSTALLED, 0);
+        profiler.record(slow, BundleEvent.RESOLVED, 100);
+        profiler.record(slow, BundleEvent.STARTING, -50);
+        profiler.record(slow, BundleEvent.STARTED, 25);
+
+        BundleLifecycleProfiler.BundleStats stats = profiler.getStats("bundle.slow");
+        Assert.assertEquals(100, stats.getLast(Phase.RESOLVE, NANOSECONDS));
+        Assert.assertEquals(75, stats.getLast(Phase.START, NANOSECONDS));
+    }
+
+    @Test
+    public void testPhases_startedBeforeEnable() {
+        BundleLifecycleProfiler profiler = BundleLifecycleProfiler.enable(bc);
+        fire(BundleEvent.STARTED, slow);
+        fire(BundleEvent.RESOLVED, fast);
+        Assert.assertNull(profiler.getStats("bundle.slow"));
+        Assert.assertNull(profiler.getStats("bundle.fast"));
+
+        // finished phase is not measured twice
+        fire(BundleEvent.STARTING, slow);
+        fire(BundleEvent.STARTED, slow);
+        fire(BundleEvent.STARTED, slow);
+        Assert.assertEquals(1, profiler.getStats("bundle.slow").getCount(Phase.START));
+    }
+
+    @Test
+    public void testStoppingOwnBundle_dropsProfiler() {
+        BundleLifecycleProfiler.enable(bc);
+        fire(BundleEvent.STOPPING, bc.getBundle());
+        Assert.assertNull(BundleLifecycleProfiler.getProfiler(bc));
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+    }
+
+    @Test
+    public void testEnable_listenerRegistrationFails() {
+        MockBundleContext failing = new MockBundleContext() {
+            @Override
+            public void addBundleListener(BundleListener listener) {
+                throw new IllegalStateException("BundleContext is no longer valid");
+            }
+        };
+        try {
+            BundleLifecycleProfiler.enable(failing);
+            Assert.fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertNull(BundleLifecycleProfiler.getProfiler(failing));
+    }
+
+    private void fire(int type, Bundle bundle) {
+        bc.fireBundleEvent(new BundleEvent(type, bundle));
+    }
+}
@@ -0,0 +1,126 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Version;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class BundleUtilsTest {
+    private final MockBundleContext bc = new MockBundleContext();
+    private final Map<Bundle, AtomicInteger> states = new HashMap<Bundle, AtomicInteger>();
+
+    @Test
+    public void testWaitForBundles_laggards() {
+        bc.installBundle(bundle(1, "bundle.a", Bundle.ACTIVE));
+        bc.installBundle(bundle(2, "bundle.b", Bundle.RESOLVED));
+        bc.installBundle(bundle(3, "bundle.c", Bundle.STARTING));
+
+        Map<String, Integer> laggards = BundleUtils.waitForBundles(bc, Bundle.ACTIVE,
+                Arrays.asList("bundle.a", "bundle.b", "bundle.c", "bundle.missing"), 50, MILLISECONDS);
+
+        Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+        expected.put("bundle.b", Bundle.RESOLVED);
+        expected.put("bundle.c", Bundle.STARTING);
+        expected.put("bundle.missing", Bundle.UNINSTALLED);
+        Assert.assertEquals(new ArrayList<Map.Entry<String, Integer>>(expected.entrySet()),
+                new ArrayList<Map.Entry<String, Integer>>(laggards.entrySet()));
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+    }
+
+    @Test
+    public void testWaitForBundles_returnsWhenAllBundlesArrive() {
+        final Bundle a = bundle(1, "bundle.a", Bundle.RESOLVED);
+        final Bundle b = bundle(2, "bundle.b", Bundle.ACTIVE);
+        bc.installBundle(a);
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                setState(a, Bundle.ACTIVE, BundleEvent.STARTED);
+                bc.installBundle(b);
+                return null;
+            }
+        }, 100, MILLISECONDS);
+
+        long start = System.nanoTime();
+        Map<String, Integer> laggards = BundleUtils.waitForBundles(bc, Bundle.ACTIVE,
+                Arrays.asList("bundle.a", "bundle.b"), 30, SECONDS);
+
+        Assert.assertTrue(laggards.isEmpty());
+        Assert.assertTrue(System.nanoTime() - start < SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testWaitForBundles_bundleLeavesState() {
+        final Bundle a = bundle(1, "bundle.a", Bundle.ACTIVE);
+        bc.installBundle(a);
+        bc.installBundle(bundle(2, "bundle.b", Bundle.INSTALLED));
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                setState(a, Bundle.RESOLVED, BundleEvent.STOPPED);
+                return null;
+            }
+        }, 20, MILLISECONDS);
+
+        Map<String, Integer> laggards = BundleUtils.waitForBundles(bc, Bundle.ACTIVE,
+                Arrays.asList("bundle.a", "bundle.b"), 300, MILLISECONDS);
+
+        Assert.assertEquals(2, laggards.size());
+        Assert.assertEquals(Integer.valueOf(Bundle.RESOLVED), laggards.get("bundle.a"));
+        Assert.assertEquals(Integer.valueOf(Bundle.INSTALLED), laggards.get("bundle.b"));
+    }
+
+    @Test
+    public void testWaitForBundleUnavailable_returnsWhenUninstalled() {
+        final Bundle a = bundle(1, "bundle.a", Bundle.ACTIVE);
+        bc.installBundle(a);
+        Assert.assertFalse(BundleUtils.waitForBundleUnavailable(bc, "bundle.a", 10, MILLISECONDS));
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                states.get(a).set(Bundle.UNINSTALLED);
+                bc.uninstallBundle(a);
+                return null;
+            }
+        }, 50, MILLISECONDS);
+
+        long start = System.nanoTime();
+        Assert.assertTrue(BundleUtils.waitForBundleUnavailable(bc, "bundle.a", 30, SECONDS));
+        Assert.assertTrue(System.nanoTime() - start < SECONDS.toNanos(10));
+        Assert.assertTrue(BundleUtils.waitForBundleUnavailable(bc, 1, 0, SECONDS));
+    }
+
+    private Bundle bundle(long id, String symbolicName, int state) {
+        final Bundle delegate = MockBundleContext.mockBundle(id, symbolicName, Version.emptyVersion);
+        final AtomicInteger bundleState = new AtomicInteger(state);
+        Bundle bundle = (Bundle) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Bundle.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getState")) {
+                            return bundleState.get();
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return method.invoke(delegate, args);
+                    }
+                });
+        states.put(bundle, bundleState);
+        return bundle;
+    }
+
+    private void setState(Bundle bundle, int state, int eventType) {
+        states.get(bundle).set(state);
+        bc.fireBundleEvent(new BundleEvent(eventType, bundle));
+    }
+}
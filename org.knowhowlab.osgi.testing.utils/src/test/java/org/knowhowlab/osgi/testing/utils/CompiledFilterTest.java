@@ -0,0 +1,93 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.Version;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class CompiledFilterTest {
+    private static final String[] FILTERS = {
+            "(s=abc)", "(s=ABC)", "(s~=A B c)", "(s>=abb)", "(s<=abb)", "(s=a*)", "(s=*c)", "(s=*b*)", "(s=a*d)",
+            "(s=*)", "(missing=*)", "(S=abc)", "( s = abc )",
+            "(i=42)", "(i= 42 )", "(i>=41)", "(i<=41)", "(i~=42)", "(i=4*)",
+            "(l=5000000000)", "(l>=4999999999)", "(b=7)", "(sh<=-3)",
+            "(f=1.5)", "(f>=1.25)", "(d=2.5)", "(d<=2.4)",
+            "(bool=true)", "(bool=TRUE)", "(bool<=false)",
+            "(c=x)", "(c~=X)", "(c>=y)",
+            "(v>=1.2)", "(v=1.2.3)", "(bd=10.50)", "(bd<=10.5)",
+            "(arr=two)", "(arr=th*)", "(ints=3)", "(ints>=10)", "(list=b)", "(set=z)",
+            "(&(s=abc)(i>=40)(bool=true))", "(|(s=xyz)(i=1)(d=2.5))", "(!(s=abc))", "(!(missing=1))",
+            "(&(|(i=1)(i=42))(!(c=y)))", "(s=a\\*c)", "(esc=a\\(b\\)*)"
+    };
+
+    @Test
+    public void testMatch_equivalentToFrameworkFilter() throws Exception {
+        Map<String, Object> properties = properties();
+        Hashtable<String, Object> dictionary = new Hashtable<String, Object>(properties);
+        for (String filter : FILTERS) {
+            Filter expected = FrameworkUtil.createFilter(filter);
+            CompiledFilter compiled = FilterUtils.compile(filter);
+            Assert.assertEquals(filter, expected.match(dictionary), compiled.matchesIgnoreCase(properties));
+            Assert.assertEquals(filter, expected.match(dictionary), compiled.match(dictionary));
+            Assert.assertEquals(filter, expected.matchCase(dictionary), compiled.matches(properties));
+            Assert.assertEquals(filter, expected.matchCase(dictionary), compiled.matchCase(dictionary));
+            Assert.assertEquals(filter, expected.toString(), compiled.toString());
+            Assert.assertEquals(expected, compiled);
+        }
+    }
+
+    @Test
+    public void testMatch_nullProperties() throws Exception {
+        Assert.assertFalse(FilterUtils.compile("(a=*)").matches(null));
+        Assert.assertTrue(FilterUtils.compile("(!(a=1))").matches(null));
+    }
+
+    @Test
+    public void testMatch_notConvertibleValue() throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("i", 1);
+        Assert.assertFalse(FilterUtils.compile("(i=one)").matches(properties));
+        Assert.assertFalse(FilterUtils.compile("(i=5000000000)").matches(properties));
+    }
+
+    @Test
+    public void testCompile_invalidSyntax() throws Exception {
+        String[] filters = {"", "(a=1", "a=1", "(a)", "(=1)", "(a=1))", "(&)", "(a=(1))"};
+        for (String filter : filters) {
+            try {
+                FilterUtils.compile(filter);
+                Assert.fail(filter);
+            } catch (org.osgi.framework.InvalidSyntaxException e) {
+                // expected
+            }
+        }
+    }
+
+    private static Map<String, Object> properties() {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("s", "abc");
+        properties.put("i", 42);
+        properties.put("l", 5000000000L);
+        properties.put("b", (byte) 7);
+        properties.put("sh", (short) -5);
+        properties.put("f", 1.5f);
+        properties.put("d", 2.5d);
+        properties.put("bool", Boolean.TRUE);
+        properties.put("c", 'x');
+        properties.put("v", new Version(1, 2, 3));
+        properties.put("bd", new BigDecimal("10.5"));
+        properties.put("arr", new String[]{"one", "two", "three"});
+        properties.put("ints", new int[]{1, 2, 3});
+        properties.put("list", Arrays.asList("a", "b"));
+        properties.put("set", new HashSet<String>(Arrays.asList("x", "y")));
+        properties.put("esc", "a(b)c");
+        return properties;
+    }
+}
@@ -0,0 +1,77 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class CompletionFutureTest {
+    @Test
+    public void testComplete_firstCompletionWins() throws Exception {
+        CompletionFuture<String> future = new CompletionFuture<String>();
+        Assert.assertTrue(future.complete("first"));
+        Assert.assertFalse(future.complete("second"));
+        Assert.assertFalse(future.fail(new IllegalStateException()));
+        Assert.assertEquals("first", future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGet_notCompleted() throws Exception {
+        new CompletionFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() throws Exception {
+        CompletionFuture<String> future = new CompletionFuture<String>();
+        Assert.assertTrue(future.cancel(false));
+        Assert.assertTrue(future.isCancelled());
+        future.get();
+    }
+
+    @Test
+    public void testThenCompose() throws Exception {
+        CompletionFuture<Integer> future = CompletionFuture.completed(2)
+                .thenCompose(new CompletionFuture.Step<Integer, Integer>() {
+                    public CompletionFuture<Integer> apply(Integer result) {
+                        return CompletionFuture.completed(result * 21);
+                    }
+                });
+        Assert.assertEquals(Integer.valueOf(42), future.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testThenCompose_failure() throws Exception {
+        final IllegalStateException failure = new IllegalStateException();
+        CompletionFuture<Integer> future = CompletionFuture.<Integer>failed(failure)
+                .thenCompose(new CompletionFuture.Step<Integer, Integer>() {
+                    public CompletionFuture<Integer> apply(Integer result) {
+                        throw new AssertionError("step must not be called");
+                    }
+                });
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException is expected");
+        } catch (ExecutionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testAll() throws Exception {
+        CompletionFuture<String> first = new CompletionFuture<String>();
+        CompletionFuture<String> second = new CompletionFuture<String>();
+        CompletionFuture<List<String>> all = CompletionFuture.all(Arrays.asList(first, second));
+        second.complete("b");
+        Assert.assertFalse(all.isDone());
+        first.complete("a");
+        Assert.assertEquals(Arrays.asList("a", "b"), all.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,174 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Version;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class DeadlineTest {
+    @Test
+    public void testAfter_zeroIsInfinite() {
+        Assert.assertTrue(Deadline.after(0).isInfinite());
+        Assert.assertTrue(Deadline.after(0, NANOSECONDS).isInfinite());
+        Deadline deadline = Deadline.after(0, DAYS);
+        Assert.assertFalse(deadline.isExpired());
+        Assert.assertEquals(Long.MAX_VALUE, deadline.remainingNanos());
+        Assert.assertEquals(0, deadline.toMillisTimeout());
+    }
+
+    @Test
+    public void testAfter_overflowIsInfinite() {
+        Assert.assertTrue(Deadline.after(Long.MAX_VALUE, DAYS).isInfinite());
+        Assert.assertTrue(Deadline.after(Long.MAX_VALUE, NANOSECONDS).isInfinite());
+        Assert.assertTrue(Deadline.after(Long.MAX_VALUE / 2 + 1, NANOSECONDS).isInfinite());
+        Deadline deadline = Deadline.after(Long.MAX_VALUE / 2, NANOSECONDS);
+        Assert.assertFalse(deadline.isInfinite());
+        Assert.assertFalse(deadline.isExpired());
+        Assert.assertTrue(deadline.remaining(DAYS) > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAfter_negative() {
+        Deadline.after(-1, NANOSECONDS);
+    }
+
+    @Test
+    public void testNow_isExpired() {
+        Deadline deadline = Deadline.now();
+        Assert.assertFalse(deadline.isInfinite());
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(0, deadline.remainingNanos());
+    }
+
+    @Test
+    public void testToMillisTimeout_roundsUp() {
+        // expired and sub-millisecond deadlines must not turn into infinite millisecond waits
+        Assert.assertEquals(1, Deadline.now().toMillisTimeout());
+        Assert.assertEquals(1, Deadline.after(1, NANOSECONDS).toMillisTimeout());
+
+        Deadline deadline = Deadline.after(2500, MICROSECONDS);
+        long millis = deadline.toMillisTimeout();
+        long remaining = deadline.remainingNanos();
+        Assert.assertTrue(millis >= 1 && millis <= 3);
+        Assert.assertTrue(MILLISECONDS.toNanos(millis) >= remaining);
+    }
+
+    @Test
+    public void testAwait_zeroTimeoutWaitsForLatch() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        countDownLater(latch, 100);
+        long start = System.nanoTime();
+        Assert.assertTrue(Deadline.after(0).await(latch));
+        Assert.assertTrue(System.nanoTime() - start >= MILLISECONDS.toNanos(90));
+
+        Assert.assertFalse(Deadline.after(20, MILLISECONDS).await(new CountDownLatch(1)));
+        Assert.assertFalse(Deadline.now().await(new CountDownLatch(1)));
+    }
+
+    @Test
+    public void testWaitForBundleEvent_zeroTimeoutWaitsForEvent() {
+        final MockBundleContext bc = new MockBundleContext();
+        final Bundle bundle = MockBundleContext.mockBundle(1, "bundle.a", Version.emptyVersion);
+        bc.installBundle(bundle);
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                bc.fireBundleEvent(new BundleEvent(BundleEvent.STARTED, bundle));
+                return null;
+            }
+        }, 100, MILLISECONDS);
+
+        BundleEvent event = BundleUtils.waitForBundleEvent(bc, "bundle.a", null, BundleEvent.STARTED, 0, SECONDS);
+        Assert.assertNotNull(event);
+        Assert.assertSame(bundle, event.getBundle());
+    }
+
+    @Test
+    public void testAwaitNotification_rearmsUntilDeadline() throws Exception {
+        final Object monitor = new Object();
+        Future<?> notifier = notifyRepeatedly(monitor);
+        try {
+            Deadline deadline = Deadline.after(200, MILLISECONDS);
+            long start = System.nanoTime();
+            int wakeups = 0;
+            synchronized (monitor) {
+                while (deadline.awaitNotification(monitor)) {
+                    wakeups++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            // notifications do not restart the wait, deadline is kept
+            Assert.assertTrue(wakeups > 1);
+            Assert.assertTrue(elapsed >= MILLISECONDS.toNanos(190));
+            Assert.assertTrue(elapsed < SECONDS.toNanos(5));
+            Assert.assertTrue(deadline.isExpired());
+        } finally {
+            notifier.cancel(true);
+        }
+    }
+
+    @Test
+    public void testAwaitNotification_conditionIsMet() throws Exception {
+        final Object monitor = new Object();
+        final boolean[] ready = new boolean[1];
+        Future<?> notifier = notifyRepeatedly(monitor);
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                synchronized (monitor) {
+                    ready[0] = true;
+                    monitor.notifyAll();
+                }
+                return null;
+            }
+        }, 100, MILLISECONDS);
+        try {
+            Deadline deadline = Deadline.infinite();
+            synchronized (monitor) {
+                while (!ready[0]) {
+                    Assert.assertTrue(deadline.awaitNotification(monitor));
+                }
+            }
+            synchronized (monitor) {
+                Assert.assertFalse(Deadline.now().awaitNotification(monitor));
+            }
+        } finally {
+            notifier.cancel(true);
+        }
+    }
+
+    private static void countDownLater(final CountDownLatch latch, long delayInMillis) {
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                latch.countDown();
+                return null;
+            }
+        }, delayInMillis, MILLISECONDS);
+    }
+
+    /**
+     * Notify monitor every 10ms without changing any state
+     */
+    private static Future<?> notifyRepeatedly(final Object monitor) {
+        return SchedulerUtils.getExecutor().submit(new Callable<Object>() {
+            public Object call() throws InterruptedException {
+                while (!Thread.currentThread().isInterrupted()) {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                    synchronized (monitor) {
+                        monitor.notifyAll();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,53 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+
+import java.util.Hashtable;
+
+import static org.knowhowlab.osgi.testing.utils.FilterExpression.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class FilterBuilderTest {
+    @Test
+    public void testAnd_flattened() throws Exception {
+        Filter filter = FilterUtils.builder()
+                .and(eq("a", 1), and(eq("b", 2), present("c")))
+                .and(le("d", 4))
+                .build();
+        Assert.assertEquals("(&(a=1)(b=2)(c=*)(d<=4))", filter.toString());
+    }
+
+    @Test
+    public void testOr_single() throws Exception {
+        Filter filter = FilterUtils.builder().or(eq("a", 1)).build();
+        Assert.assertEquals("(a=1)", filter.toString());
+    }
+
+    @Test
+    public void testNot_double() throws Exception {
+        Assert.assertEquals("(a=1)", not(not(eq("a", 1))).toString());
+    }
+
+    @Test
+    public void testEq_escaped() throws Exception {
+        Filter filter = FilterUtils.builder().and(eq("name", "a(b)*c\\d")).build();
+        Hashtable<String, String> properties = new Hashtable<String, String>();
+        properties.put("name", "a(b)*c\\d");
+        Assert.assertTrue(filter.match(properties));
+    }
+
+    @Test
+    public void testAnd_varargs() throws Exception {
+        Filter filter = FilterUtils.and("(a=1)", "(b=2)", "(c=3)");
+        Assert.assertEquals("(&(a=1)(b=2)(c=3))", filter.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuild_empty() throws Exception {
+        FilterUtils.builder().build();
+    }
+}
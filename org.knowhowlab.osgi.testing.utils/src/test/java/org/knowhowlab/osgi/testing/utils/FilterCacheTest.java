@@ -0,0 +1,38 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class FilterCacheTest {
+    @Test
+    public void testGetFilter_hit() throws Exception {
+        FilterCache cache = new FilterCache(2);
+        Filter filter = cache.getFilter("(a=1)");
+        Assert.assertSame(filter, cache.getFilter("(a=1)"));
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testGetFilter_leastRecentlyUsedIsDropped() throws Exception {
+        FilterCache cache = new FilterCache(2);
+        Filter a = cache.getFilter("(a=1)");
+        cache.getFilter("(b=1)");
+        cache.getFilter("(a=1)");
+        cache.getFilter("(c=1)");
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(a, cache.getFilter("(a=1)"));
+        cache.getFilter("(b=1)");
+        Assert.assertEquals(4, cache.getMissCount());
+    }
+
+    @Test(expected = InvalidSyntaxException.class)
+    public void testGetFilter_invalid() throws Exception {
+        new FilterCache(2).getFilter("(a=1");
+    }
+}
@@ -0,0 +1,69 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.knowhowlab.osgi.testing.utils.FilterExpression.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class FilterIndexTest {
+    private static final String[] FILTERS = {
+            "(topic=a)", "(topic=b)", "(topic=*)", "(topic=a*)", "(&(topic=a)(size>=10))", "(&(size>=10)(kind=x))",
+            "(|(topic=a)(kind=y))", "(|(topic=c)(size=*))", "(!(topic=a))", "(size=42)", "(size<=5)",
+            "(objectClass=Echo)", "(|(objectClass=Echo)(objectClass=Ping))", "(&(!(kind=x))(topic=b))"
+    };
+
+    @Test
+    public void testMatch_sameAsLinearMatch() throws Exception {
+        FilterIndex<String> index = new FilterIndex<String>();
+        for (String filter : FILTERS) {
+            index.add(filter, filter);
+        }
+        Assert.assertEquals(FILTERS.length, index.size());
+        Assert.assertEquals(1, index.getUnindexedCount());
+
+        List<Map<String, Object>> propertiesList = new ArrayList<Map<String, Object>>();
+        propertiesList.add(properties("topic", "a", "size", 42, "kind", "x"));
+        propertiesList.add(properties("topic", "b", "size", 3L, "kind", "y"));
+        propertiesList.add(properties("size", "42"));
+        propertiesList.add(properties("objectClass", new String[]{"Echo", "Ping", "Echo"}));
+        propertiesList.add(properties("objectClass", Arrays.asList("Ping"), "topic", "abc"));
+        propertiesList.add(properties());
+        for (Map<String, Object> properties : propertiesList) {
+            List<String> expected = new ArrayList<String>();
+            for (String filter : FILTERS) {
+                if (FilterUtils.compile(filter).matches(properties)) {
+                    expected.add(filter);
+                }
+            }
+            List<String> actual = index.match(properties);
+            Collections.sort(expected);
+            Collections.sort(actual);
+            Assert.assertEquals(properties.toString(), expected, actual);
+        }
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        FilterIndex<Integer> index = new FilterIndex<Integer>();
+        index.add(FilterUtils.builder().or(eq("topic", "a"), eq("topic", "b")).build(), 1);
+        index.add("(topic=a)", 2);
+        Assert.assertTrue(index.remove(1));
+        Assert.assertFalse(index.remove(1));
+        Assert.assertEquals(Arrays.asList(2), index.match(properties("topic", "a")));
+        Assert.assertTrue(index.match(properties("topic", "b")).isEmpty());
+        Assert.assertEquals(1, index.size());
+    }
+
+    private static Map<String, Object> properties(Object... keyValues) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return properties;
+    }
+}
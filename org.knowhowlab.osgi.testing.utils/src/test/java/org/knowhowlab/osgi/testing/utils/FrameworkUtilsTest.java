@@ -0,0 +1,21 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class FrameworkUtilsTest {
+    private final MockBundleContext bc = new MockBundleContext();
+
+    @Test
+    public void testWaitForQuiescence_ownListenerIsNotCounted() {
+        QuiescenceResult result = FrameworkUtils.waitForQuiescence(bc, 20, 5000);
+        Assert.assertTrue(result.isQuiescent());
+        Assert.assertEquals(0, result.getServiceEventCount());
+        Assert.assertEquals(0, result.getEventCount());
+        Assert.assertEquals(0, bc.getServiceListenerCount());
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+    }
+}
@@ -0,0 +1,52 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        for (long value : new long[]{0, 1, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(String.valueOf(value), LatencyHistogram.highestValueOf(index) >= value);
+            if (index > 0) {
+                Assert.assertTrue(String.valueOf(value), LatencyHistogram.highestValueOf(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(99, TimeUnit.NANOSECONDS));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MICROSECONDS);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1, histogram.getMin(TimeUnit.MICROSECONDS));
+        Assert.assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        Assert.assertEquals(500, histogram.getMean(TimeUnit.MICROSECONDS));
+        assertNear(500, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertNear(990, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        Assert.assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(5, TimeUnit.SECONDS);
+        histogram.add(other);
+        Assert.assertEquals(1001, histogram.getCount());
+        Assert.assertEquals(5, histogram.getMax(TimeUnit.SECONDS));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMin(TimeUnit.NANOSECONDS));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(expected + " != " + actual, Math.abs(expected - actual) <= expected * 0.032);
+    }
+}
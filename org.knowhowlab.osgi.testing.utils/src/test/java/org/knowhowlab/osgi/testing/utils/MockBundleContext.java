@@ -0,0 +1,331 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import org.osgi.framework.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory BundleContext with service registry for unit tests without OSGi framework.
+ * Service and bundle events are delivered synchronously in the calling thread.
+ *
+ * @author dmytro.pishchukhin
+ */
+public class MockBundleContext implements BundleContext {
+    private final AtomicLong serviceIds = new AtomicLong();
+    private final Bundle bundle = mockBundle(0, "mock.bundle", new Version(1, 0, 0));
+    private final List<Bundle> bundles = new CopyOnWriteArrayList<Bundle>(Collections.singletonList(bundle));
+    private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    private final List<ListenerEntry> serviceListeners = new CopyOnWriteArrayList<ListenerEntry>();
+    private final List<BundleListener> bundleListeners = new CopyOnWriteArrayList<BundleListener>();
+
+    /**
+     * Create Bundle with id, symbolic name and version. Other Bundle methods return default values.
+     */
+    public static Bundle mockBundle(final long id, final String symbolicName, final Version version) {
+        return (Bundle) Proxy.newProxyInstance(MockBundleContext.class.getClassLoader(), new Class[]{Bundle.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getBundleId")) {
+                            return id;
+                        } else if (name.equals("getSymbolicName")) {
+                            return symbolicName;
+                        } else if (name.equals("getVersion")) {
+                            return version;
+                        } else if (name.equals("getState")) {
+                            return Bundle.ACTIVE;
+                        } else if (name.equals("getHeaders")) {
+                            return new Hashtable<String, String>();
+                        } else if (name.equals("equals")) {
+                            return proxy == args[0];
+                        } else if (name.equals("hashCode")) {
+                            return (int) id;
+                        } else if (name.equals("toString")) {
+                            return symbolicName + "_" + version + "[" + id + "]";
+                        } else if (method.getReturnType() == boolean.class) {
+                            return false;
+                        } else if (method.getReturnType() == int.class) {
+                            return 0;
+                        } else if (method.getReturnType() == long.class) {
+                            return 0L;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Install bundle and fire INSTALLED event
+     */
+    public void installBundle(Bundle bundle) {
+        bundles.add(bundle);
+        fireBundleEvent(new BundleEvent(BundleEvent.INSTALLED, bundle));
+    }
+
+    /**
+     * Uninstall bundle and fire UNINSTALLED event
+     */
+    public void uninstallBundle(Bundle bundle) {
+        bundles.remove(bundle);
+        fireBundleEvent(new BundleEvent(BundleEvent.UNINSTALLED, bundle));
+    }
+
+    public void fireBundleEvent(BundleEvent event) {
+        for (BundleListener listener : bundleListeners) {
+            listener.bundleChanged(event);
+        }
+    }
+
+    public int getServiceListenerCount() {
+        return serviceListeners.size();
+    }
+
+    public int getBundleListenerCount() {
+        return bundleListeners.size();
+    }
+
+    public String getProperty(String key) {
+        return System.getProperty(key);
+    }
+
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    public Bundle installBundle(String location, InputStream input) throws BundleException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Bundle installBundle(String location) throws BundleException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Bundle getBundle(long id) {
+        for (Bundle b : bundles) {
+            if (b.getBundleId() == id) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    public Bundle[] getBundles() {
+        return bundles.toArray(new Bundle[bundles.size()]);
+    }
+
+    public void addServiceListener(ServiceListener listener, String filter) throws InvalidSyntaxException {
+        removeServiceListener(listener);
+        serviceListeners.add(new ListenerEntry(listener, filter != null ? createFilter(filter) : null));
+    }
+
+    public void addServiceListener(ServiceListener listener) {
+        removeServiceListener(listener);
+        serviceListeners.add(new ListenerEntry(listener, null));
+    }
+
+    public void removeServiceListener(ServiceListener listener) {
+        for (ListenerEntry entry : serviceListeners) {
+            if (entry.listener == listener) {
+                serviceListeners.remove(entry);
+            }
+        }
+    }
+
+    public void addBundleListener(BundleListener listener) {
+        if (!bundleListeners.contains(listener)) {
+            bundleListeners.add(listener);
+        }
+    }
+
+    public void removeBundleListener(BundleListener listener) {
+        bundleListeners.remove(listener);
+    }
+
+    public void addFrameworkListener(FrameworkListener listener) {
+    }
+
+    public void removeFrameworkListener(FrameworkListener listener) {
+    }
+
+    public ServiceRegistration registerService(String[] clazzes, Object service, Dictionary properties) {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        copy(properties, props);
+        props.put(Constants.OBJECTCLASS, clazzes.clone());
+        props.put(Constants.SERVICE_ID, serviceIds.incrementAndGet());
+        Registration registration = new Registration(service, props);
+        registrations.add(registration);
+        fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, registration.reference));
+        return registration;
+    }
+
+    public ServiceRegistration registerService(String clazz, Object service, Dictionary properties) {
+        return registerService(new String[]{clazz}, service, properties);
+    }
+
+    public ServiceReference[] getServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
+        Filter compiled = filter != null ? createFilter(filter) : null;
+        List<ServiceReference> result = new ArrayList<ServiceReference>();
+        for (Registration registration : registrations) {
+            ServiceReference reference = registration.reference;
+            if ((clazz == null || Arrays.asList((String[]) reference.getProperty(Constants.OBJECTCLASS)).contains(clazz))
+                    && (compiled == null || compiled.match(reference))) {
+                result.add(reference);
+            }
+        }
+        return result.isEmpty() ? null : result.toArray(new ServiceReference[result.size()]);
+    }
+
+    public ServiceReference[] getAllServiceReferences(String clazz, String filter) throws InvalidSyntaxException {
+        return getServiceReferences(clazz, filter);
+    }
+
+    public ServiceReference getServiceReference(String clazz) {
+        try {
+            ServiceReference[] references = getServiceReferences(clazz, null);
+            return references != null ? references[0] : null;
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public Object getService(ServiceReference reference) {
+        Registration registration = ((Reference) reference).registration;
+        if (!registrations.contains(registration)) {
+            return null;
+        }
+        registration.usages++;
+        return registration.service;
+    }
+
+    public boolean ungetService(ServiceReference reference) {
+        Registration registration = ((Reference) reference).registration;
+        if (registration.usages == 0) {
+            return false;
+        }
+        registration.usages--;
+        return true;
+    }
+
+    public File getDataFile(String filename) {
+        return null;
+    }
+
+    public Filter createFilter(String filter) throws InvalidSyntaxException {
+        return FrameworkUtil.createFilter(filter);
+    }
+
+    /**
+     * Get number of not released service usages of registration
+     */
+    public int getUsageCount(ServiceRegistration registration) {
+        return ((Registration) registration).usages;
+    }
+
+    private void fireServiceEvent(ServiceEvent event) {
+        for (ListenerEntry entry : serviceListeners) {
+            if (entry.filter == null || entry.filter.match(event.getServiceReference())) {
+                entry.listener.serviceChanged(event);
+            }
+        }
+    }
+
+    private static void copy(Dictionary from, Hashtable<String, Object> to) {
+        if (from != null) {
+            for (Enumeration keys = from.keys(); keys.hasMoreElements(); ) {
+                Object key = keys.nextElement();
+                to.put(key.toString(), from.get(key));
+            }
+        }
+    }
+
+    private static class ListenerEntry {
+        private final ServiceListener listener;
+        private final Filter filter;
+
+        private ListenerEntry(ServiceListener listener, Filter filter) {
+            this.listener = listener;
+            this.filter = filter;
+        }
+    }
+
+    private class Registration implements ServiceRegistration {
+        private final Object service;
+        private final Reference reference;
+        private volatile Hashtable<String, Object> properties;
+        private volatile int usages;
+
+        private Registration(Object service, Hashtable<String, Object> properties) {
+            this.service = service;
+            this.properties = properties;
+            this.reference = new Reference(this);
+        }
+
+        public ServiceReference getReference() {
+            return reference;
+        }
+
+        public void setProperties(Dictionary dictionary) {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            copy(dictionary, props);
+            props.put(Constants.OBJECTCLASS, properties.get(Constants.OBJECTCLASS));
+            props.put(Constants.SERVICE_ID, properties.get(Constants.SERVICE_ID));
+            properties = props;
+            fireServiceEvent(new ServiceEvent(ServiceEvent.MODIFIED, reference));
+        }
+
+        public void unregister() {
+            if (!registrations.contains(this)) {
+                throw new IllegalStateException("Service is already unregistered");
+            }
+            fireServiceEvent(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+            registrations.remove(this);
+        }
+    }
+
+    private class Reference implements ServiceReference {
+        private final Registration registration;
+
+        private Reference(Registration registration) {
+            this.registration = registration;
+        }
+
+        public Object getProperty(String key) {
+            return registration.properties.get(key);
+        }
+
+        public String[] getPropertyKeys() {
+            Set<String> keys = registration.properties.keySet();
+            return keys.toArray(new String[keys.size()]);
+        }
+
+        public Bundle getBundle() {
+            return registrations.contains(registration) ? bundle : null;
+        }
+
+        public Bundle[] getUsingBundles() {
+            return registration.usages > 0 ? new Bundle[]{bundle} : null;
+        }
+
+        public boolean isAssignableTo(Bundle bundle, String className) {
+            return true;
+        }
+
+        public int compareTo(Object reference) {
+            Long id = (Long) getProperty(Constants.SERVICE_ID);
+            Long otherId = (Long) ((ServiceReference) reference).getProperty(Constants.SERVICE_ID);
+            return otherId.compareTo(id);
+        }
+
+        @Override
+        public String toString() {
+            return "ServiceReference" + registration.properties;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class SchedulerUtilsTest {
+    @Test
+    public void testExecutor_bounded() throws Exception {
+        int poolSize = ((ThreadPoolExecutor) SchedulerUtils.getExecutor()).getMaximumPoolSize();
+        final CountDownLatch release = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < poolSize * 3; i++) {
+            futures.add(SchedulerUtils.schedule(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return release.await(5, TimeUnit.SECONDS);
+                }
+            }, 0, TimeUnit.MILLISECONDS));
+        }
+        try {
+            Deadline deadline = Deadline.after(5, TimeUnit.SECONDS);
+            while (SchedulerUtils.getActiveCount() < poolSize && !deadline.isExpired()) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(poolSize, SchedulerUtils.getActiveCount());
+            Assert.assertEquals(poolSize * 2, SchedulerUtils.getQueueSize());
+        } finally {
+            release.countDown();
+        }
+        for (Future<Boolean> future : futures) {
+            Assert.assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testExecutor_nestedTasksOfBusyPool() throws Exception {
+        int poolSize = ((ThreadPoolExecutor) SchedulerUtils.getExecutor()).getMaximumPoolSize();
+        final CountDownLatch started = new CountDownLatch(poolSize);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < poolSize; i++) {
+            futures.add(SchedulerUtils.schedule(new Callable<String>() {
+                public String call() throws Exception {
+                    started.countDown();
+                    started.await(5, TimeUnit.SECONDS);
+                    // all pool threads are busy, nested task does not wait in the queue
+                    return SchedulerUtils.schedule(new Callable<String>() {
+                        public String call() {
+                            return Thread.currentThread().getName();
+                        }
+                    }, 0, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+                }
+            }, 0, TimeUnit.MILLISECONDS));
+        }
+        for (Future<String> future : futures) {
+            Assert.assertTrue(future.get(5, TimeUnit.SECONDS).startsWith("osgi-testing-executor-"));
+        }
+    }
+
+    @Test
+    public void testSetExecutor() throws Exception {
+        ExecutorService custom = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "custom-executor");
+                    }
+                });
+        try {
+            Assert.assertNull(SchedulerUtils.setExecutor(custom));
+            Assert.assertSame(custom, SchedulerUtils.getExecutor());
+            Assert.assertEquals("custom-executor", SchedulerUtils.schedule(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }, 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, SchedulerUtils.getQueueSize());
+            Assert.assertSame(custom, SchedulerUtils.setExecutor(null));
+        } finally {
+            SchedulerUtils.setExecutor(null);
+            custom.shutdown();
+        }
+        Assert.assertNotSame(custom, SchedulerUtils.getExecutor());
+    }
+
+    @Test
+    public void testSetScheduler_executesTasks() throws Exception {
+        ScheduledExecutorService custom = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "custom-scheduler");
+            }
+        });
+        try {
+            SchedulerUtils.setScheduler(custom);
+            Assert.assertEquals("custom-scheduler", SchedulerUtils.schedule(new Callable<String>() {
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }, 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS));
+        } finally {
+            SchedulerUtils.setScheduler(null);
+            custom.shutdown();
+        }
+    }
+
+    @Test
+    public void testSchedule_delay() throws Exception {
+        long start = System.nanoTime();
+        Future<String> future = SchedulerUtils.schedule(new Callable<String>() {
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(future.get(5, TimeUnit.SECONDS).startsWith("osgi-testing-executor-"));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        Future<Object> delayed = SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                return null;
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        SchedulerUtils.shutdown();
+        try {
+            try {
+                SchedulerUtils.getScheduler();
+                Assert.fail("Scheduler is shut down");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                SchedulerUtils.getExecutor();
+                Assert.fail("Executor is shut down");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            try {
+                delayed.get(5, TimeUnit.SECONDS);
+                Assert.fail("Delayed task is rejected");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            SchedulerUtils.start();
+        }
+        Assert.assertNotNull(SchedulerUtils.getExecutor());
+    }
+}
@@ -0,0 +1,123 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.BundleListener;
+import org.osgi.util.tracker.ServiceTracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class ServiceTrackerCacheTest {
+    private static final int KEYS = ServiceTrackerCache.DEFAULT_MAX_SIZE + 16;
+
+    private final MockBundleContext bc = new MockBundleContext();
+
+    @After
+    public void tearDown() {
+        ServiceTrackerCache.disable(bc);
+    }
+
+    @Test
+    public void testEviction() {
+        ServiceTrackerCache cache = ServiceTrackerCache.enable(bc);
+        bc.registerService("service.0", new Object(), null);
+        for (int i = 0; i < KEYS; i++) {
+            Assert.assertEquals(i == 0, ServiceUtils.getServiceReference(bc, "service." + i) != null);
+        }
+        Assert.assertEquals(ServiceTrackerCache.DEFAULT_MAX_SIZE, cache.size());
+        // one service listener per open tracker
+        Assert.assertEquals(ServiceTrackerCache.DEFAULT_MAX_SIZE, bc.getServiceListenerCount());
+
+        ServiceTrackerCache.disable(bc);
+        Assert.assertEquals(0, bc.getServiceListenerCount());
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+    }
+
+    @Test
+    public void testEviction_leasedTrackerIsNotClosed() {
+        ServiceTrackerCache cache = ServiceTrackerCache.enable(bc, 1);
+        ServiceTracker tracker = cache.acquire("service.a");
+        Assert.assertNull(ServiceUtils.getServiceReference(bc, "service.b"));
+        Assert.assertEquals(1, cache.size());
+        // evicted tracker is still open and tracks services
+        Assert.assertTrue(tracker.getTrackingCount() >= 0);
+        bc.registerService("service.a", new Object(), null);
+        Assert.assertNotNull(tracker.getServiceReference());
+
+        cache.release(tracker);
+        Assert.assertEquals(-1, tracker.getTrackingCount());
+        Assert.assertEquals(1, bc.getServiceListenerCount());
+    }
+
+    @Test
+    public void testDisable_leasedTrackerIsNotClosed() {
+        ServiceTrackerCache cache = ServiceTrackerCache.enable(bc);
+        ServiceTracker tracker = cache.acquire("service.a");
+        ServiceTrackerCache.disable(bc);
+        Assert.assertTrue(tracker.getTrackingCount() >= 0);
+        cache.release(tracker);
+        Assert.assertEquals(-1, tracker.getTrackingCount());
+        Assert.assertEquals(0, bc.getServiceListenerCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRelease_notLeasedTracker() {
+        ServiceTrackerCache.enable(bc).release(new ServiceTracker(bc, "service.a", null));
+    }
+
+    @Test
+    public void testEnable_listenerRegistrationFails() {
+        MockBundleContext failing = new MockBundleContext() {
+            @Override
+            public void addBundleListener(BundleListener listener) {
+                throw new IllegalStateException("BundleContext is no longer valid");
+            }
+        };
+        try {
+            ServiceTrackerCache.enable(failing);
+            Assert.fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertNull(ServiceTrackerCache.getCache(failing));
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        for (int i = 0; i < KEYS; i++) {
+            bc.registerService("service." + i, new Object(), null);
+        }
+        ServiceTrackerCache.enable(bc);
+        final AtomicInteger misses = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 4; t++) {
+                final int offset = t * 7;
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < 2000; i++) {
+                            if (ServiceUtils.getServiceReference(bc, "service." + ((i + offset) % KEYS)) == null) {
+                                misses.incrementAndGet();
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(0, misses.get());
+        Assert.assertEquals(ServiceTrackerCache.DEFAULT_MAX_SIZE, bc.getServiceListenerCount());
+    }
+}
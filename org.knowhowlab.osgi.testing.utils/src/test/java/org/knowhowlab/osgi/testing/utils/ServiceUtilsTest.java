@@ -0,0 +1,144 @@
+package org.knowhowlab.osgi.testing.utils;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceRegistration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class ServiceUtilsTest {
+    private final MockBundleContext bc = new MockBundleContext();
+
+    @After
+    public void tearDown() {
+        ServiceUsageLedger.releaseAll(bc);
+        ServiceTrackerCache.disable(bc);
+    }
+
+    @Test
+    public void testGetService_usageIsRecorded() throws Exception {
+        Runnable service = new Runnable() {
+            public void run() {
+            }
+        };
+        ServiceRegistration registration = bc.registerService(Runnable.class.getName(), service, null);
+
+        Assert.assertSame(service, ServiceUtils.getService(bc, Runnable.class.getName()));
+        Assert.assertSame(service, ServiceUtils.getService(bc, FilterUtils.create(Runnable.class)));
+        Assert.assertSame(service, ServiceUtils.getService(bc, Runnable.class.getName(), 10, TimeUnit.MILLISECONDS));
+        Assert.assertSame(service, ServiceUtils.getService(bc, Runnable.class, FilterUtils.eq("service.id", "1")));
+        Assert.assertSame(service, ServiceUtils.getService(bc, Runnable.class, 10, TimeUnit.MILLISECONDS));
+        // every returned service is still got and recorded by ledger
+        Assert.assertEquals(5, bc.getUsageCount(registration));
+        Assert.assertEquals(5, ServiceUsageLedger.getLedger(bc).getOutstandingCount());
+
+        Assert.assertEquals(5, ServiceUsageLedger.releaseAll(bc));
+        Assert.assertEquals(0, bc.getUsageCount(registration));
+    }
+
+    @Test
+    public void testGetService_unregisteredUsagesAreReleased() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            ServiceRegistration registration = bc.registerService(Runnable.class.getName(), new Thread(), null);
+            Assert.assertNotNull(ServiceUtils.getService(bc, Runnable.class.getName()));
+            Assert.assertEquals(1, ServiceUsageLedger.getLedger(bc).getOutstandingCount());
+            registration.unregister();
+            Assert.assertEquals(0, bc.getUsageCount(registration));
+            Assert.assertTrue(ServiceUsageLedger.getLedger(bc).getOutstanding().isEmpty());
+        }
+        Assert.assertEquals(0, ServiceUsageLedger.releaseAll(bc));
+    }
+
+    @Test
+    public void testGetService_cached() throws Exception {
+        ServiceTrackerCache.enable(bc);
+        ServiceRegistration registration = bc.registerService(Runnable.class.getName(), new Thread(), null);
+        Assert.assertNotNull(ServiceUtils.getService(bc, Runnable.class.getName()));
+        Assert.assertNotNull(ServiceUtils.getService(bc, Runnable.class, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, bc.getUsageCount(registration));
+        Assert.assertNull(ServiceUtils.getService(bc, Thread.class.getName(), 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testJournal() throws Exception {
+        EventJournal journal = EventJournal.start(bc);
+        try {
+            long cursor = journal.cursor();
+            bc.registerService(Runnable.class.getName(), new Thread(), null);
+            Assert.assertNotNull(ServiceUtils.findServiceEvent(journal, cursor, Runnable.class, ServiceEvent.REGISTERED));
+            Assert.assertNull(ServiceUtils.findServiceEvent(journal, cursor, Runnable.class, ServiceEvent.UNREGISTERING));
+            Assert.assertNull(ServiceUtils.findServiceEvent(journal, journal.cursor(), Runnable.class, ServiceEvent.REGISTERED));
+
+            // zero timeout waits indefinitely
+            cursor = journal.cursor();
+            SchedulerUtils.schedule(new Callable<ServiceRegistration>() {
+                public ServiceRegistration call() {
+                    return bc.registerService(Thread.class.getName(), new Thread(), null);
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(ServiceUtils.waitForServiceEvent(journal, cursor, Thread.class, ServiceEvent.REGISTERED, 0));
+        } finally {
+            journal.stop();
+        }
+    }
+
+    @Test
+    public void testWaitForServices() throws Exception {
+        Assert.assertTrue(ServiceUtils.waitForServices(bc, 10).isEmpty());
+        Assert.assertTrue(ServiceUtils.waitForServicesByClass(bc, 10).isEmpty());
+
+        bc.registerService(Runnable.class.getName(), new Thread(), null);
+        SchedulerUtils.schedule(new Callable<ServiceRegistration>() {
+            public ServiceRegistration call() {
+                return bc.registerService(Thread.class.getName(), new Thread(), null);
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(ServiceUtils.waitForServicesByClass(bc, 5, TimeUnit.SECONDS, Runnable.class, Thread.class).isEmpty());
+
+        Filter runnable = FilterUtils.create(Runnable.class);
+        Filter missing = FilterUtils.eq("key", "missing");
+        Assert.assertEquals(Collections.singletonList(missing), ServiceUtils.waitForServices(bc, 10, runnable, missing));
+        Assert.assertEquals(Arrays.<Class>asList(Integer.class, Long.class),
+                ServiceUtils.waitForServicesByClass(bc, 10, Integer.class, Thread.class, Long.class));
+    }
+
+    @Test
+    public void testWaitForServiceUnavailable_returnsWhenUnregistered() throws Exception {
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("key", "value");
+        final ServiceRegistration byFilter = bc.registerService(Thread.class.getName(), new Thread(), properties);
+        final ServiceRegistration byName = bc.registerService(Runnable.class.getName(), new Thread(), null);
+        final ServiceRegistration byClass = bc.registerService(Object.class.getName(), new Object(), null);
+        Filter filter = FilterUtils.eq("key", "value");
+        Assert.assertFalse(ServiceUtils.waitForServiceUnavailable(bc, filter, 10, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        unregisterLater(byFilter);
+        Assert.assertTrue(ServiceUtils.waitForServiceUnavailable(bc, filter, 30, TimeUnit.SECONDS));
+        unregisterLater(byName);
+        Assert.assertTrue(ServiceUtils.waitForServiceUnavailable(bc, Runnable.class.getName(), 30, TimeUnit.SECONDS));
+        unregisterLater(byClass);
+        Assert.assertTrue(ServiceUtils.waitForServiceUnavailable(bc, Object.class, 30, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0, bc.getServiceListenerCount());
+    }
+
+    private static void unregisterLater(final ServiceRegistration registration) {
+        SchedulerUtils.schedule(new Callable<Object>() {
+            public Object call() {
+                registration.unregister();
+                return null;
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+    }
+}
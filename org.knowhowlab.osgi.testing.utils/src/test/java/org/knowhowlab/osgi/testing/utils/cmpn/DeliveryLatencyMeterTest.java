@@ -0,0 +1,50 @@
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class DeliveryLatencyMeterTest {
+    @Test
+    public void testHandleEvent_aggregateOnly() {
+        DeliveryLatencyMeter meter = new DeliveryLatencyMeter();
+        for (int i = 0; i < 100; i++) {
+            meter.handleEvent(EventAdminUtils.stampEvent("topic/" + i, null));
+        }
+        meter.handleEvent(new Event("topic/unstamped", new HashMap<String, Object>()));
+
+        Assert.assertEquals(100, meter.getLatency(null).getCount());
+        Assert.assertEquals(1, meter.getUnstampedCount());
+        Assert.assertTrue(meter.getTopics().isEmpty());
+        try {
+            meter.getLatency("topic/0");
+            Assert.fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testHandleEvent_perTopic() {
+        DeliveryLatencyMeter meter = new DeliveryLatencyMeter(true);
+        meter.handleEvent(EventAdminUtils.stampEvent("topic/a", Collections.singletonMap("key", "value")));
+        meter.handleEvent(EventAdminUtils.stampEvent("topic/a", null));
+        meter.handleEvent(EventAdminUtils.stampEvent("topic/b", null));
+
+        Assert.assertEquals(3, meter.getLatency(null).getCount());
+        Assert.assertEquals(2, meter.getLatency("topic/a").getCount());
+        Assert.assertEquals(1, meter.getLatency("topic/b").getCount());
+        Assert.assertEquals(0, meter.getLatency("topic/c").getCount());
+        Assert.assertEquals(2, meter.getTopics().size());
+
+        meter.reset();
+        Assert.assertEquals(0, meter.getLatency(null).getCount());
+        Assert.assertTrue(meter.getTopics().isEmpty());
+    }
+}
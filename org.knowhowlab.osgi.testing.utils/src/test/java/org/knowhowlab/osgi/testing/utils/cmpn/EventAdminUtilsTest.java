@@ -0,0 +1,50 @@
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.MockBundleContext;
+import org.knowhowlab.osgi.testing.utils.ServiceUsageLedger;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.EventAdmin;
+import org.osgi.service.event.EventHandler;
+
+import java.util.Dictionary;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class EventAdminUtilsTest {
+    private final LocalEventAdmin eventAdmin = new LocalEventAdmin();
+    private final MockBundleContext bc = new MockBundleContext() {
+        @Override
+        public ServiceRegistration registerService(String clazz, Object service, Dictionary properties) {
+            if (EventHandler.class.getName().equals(clazz)) {
+                return eventAdmin.registerHandler((EventHandler) service, properties);
+            }
+            return super.registerService(clazz, service, properties);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        EventDispatcher.closeAll();
+        ServiceUsageLedger.releaseAll(bc);
+        eventAdmin.close();
+    }
+
+    @Test
+    public void testGenerateLoad_deliveryLatency() {
+        bc.registerService(EventAdmin.class.getName(), eventAdmin, null);
+        LoadReport report = EventAdminUtils.generateLoad(bc, "org/knowhowlab/load/%d", null, 1000, 100,
+                TimeUnit.MILLISECONDS, 2, EventAdminUtils.DeliveryMode.POST);
+
+        Assert.assertEquals(0, report.getFailedCount());
+        Assert.assertTrue(report.getSentCount() > 0);
+        // every generated topic is distinct, all of them are recorded in one histogram
+        Assert.assertEquals(report.getSentCount(), report.getDeliveryLatency().getCount());
+        Assert.assertEquals(report.getSentCount(), report.getLatency().getCount());
+    }
+}
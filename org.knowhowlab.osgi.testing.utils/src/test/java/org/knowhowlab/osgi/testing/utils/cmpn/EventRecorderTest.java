@@ -0,0 +1,84 @@
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.MockBundleContext;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class EventRecorderTest {
+    private final LocalEventAdmin eventAdmin = new LocalEventAdmin(new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+    private final MockBundleContext bc = new MockBundleContext() {
+        @Override
+        public ServiceRegistration registerService(String clazz, Object service, Dictionary properties) {
+            if (EventHandler.class.getName().equals(clazz)) {
+                return eventAdmin.registerHandler((EventHandler) service, properties);
+            }
+            return super.registerService(clazz, service, properties);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        EventDispatcher.closeAll();
+        eventAdmin.close();
+    }
+
+    @Test
+    public void testRecord_wraparound() {
+        EventRecorder recorder = EventRecorder.start(bc, "a/*", null, 4, "size");
+        for (int i = 0; i < 10; i++) {
+            eventAdmin.sendEvent(event(i % 2 == 0 ? "a/even" : "a/odd", i % 3));
+        }
+        eventAdmin.sendEvent(event("b", 0));
+
+        Assert.assertEquals(10, recorder.getCount());
+        Assert.assertEquals(5, recorder.getCount("a/even"));
+        Assert.assertEquals(0, recorder.getCount("b"));
+        Assert.assertEquals(6, recorder.getDroppedCount());
+
+        List<EventRecorder.RecordedEvent> events = recorder.getEvents();
+        Assert.assertEquals(4, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            Assert.assertEquals(6 + i, events.get(i).getSequence());
+            Assert.assertEquals((6 + i) % 3, events.get(i).getProperty("size"));
+        }
+        Assert.assertEquals(Arrays.asList("a/even", "a/odd", "a/even", "a/odd"), recorder.getTopics());
+        Map<Object, Integer> distribution = recorder.getDistribution("size");
+        Assert.assertEquals(Integer.valueOf(2), distribution.get(0));
+        Assert.assertEquals(Integer.valueOf(1), distribution.get(1));
+        Assert.assertEquals(Integer.valueOf(1), distribution.get(2));
+
+        recorder.clear();
+        Assert.assertEquals(0, recorder.getCount());
+        Assert.assertTrue(recorder.getEvents().isEmpty());
+        eventAdmin.sendEvent(event("a/even", 7));
+        Assert.assertEquals(0, recorder.getEvents().get(0).getSequence());
+        Assert.assertTrue(recorder.awaitCount("a/even", 1, 10, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(recorder.awaitCount("a/odd", 1, 10, TimeUnit.MILLISECONDS));
+
+        recorder.stop();
+        eventAdmin.sendEvent(event("a/even", 8));
+        Assert.assertEquals(1, recorder.getCount());
+    }
+
+    private static Event event(String topic, int size) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("size", size);
+        return new Event(topic, properties);
+    }
+}
@@ -0,0 +1,175 @@
+package org.knowhowlab.osgi.testing.utils.cmpn;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.CompletionFuture;
+import org.knowhowlab.osgi.testing.utils.internal.EventDispatcher;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class LocalEventAdminTest {
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void testSendEvent_routing() throws Exception {
+        LocalEventAdmin eventAdmin = new LocalEventAdmin(DIRECT);
+        TopicsHandler exact = new TopicsHandler();
+        TopicsHandler prefix = new TopicsHandler();
+        TopicsHandler all = new TopicsHandler();
+        TopicsHandler filtered = new TopicsHandler();
+        eventAdmin.registerHandler(exact, new String[]{"a/b"}, null);
+        eventAdmin.registerHandler(prefix, new String[]{"a/*"}, null);
+        eventAdmin.registerHandler(all, new String[]{"*"}, null);
+        eventAdmin.registerHandler(filtered, new String[]{"a/*"}, "(size>=10)");
+        eventAdmin.registerHandler(new TopicsHandler(), new Hashtable<String, Object>());
+
+        eventAdmin.sendEvent(event("a", 1));
+        eventAdmin.sendEvent(event("a/b", 10));
+        eventAdmin.sendEvent(event("a/b/c", 5));
+        eventAdmin.sendEvent(event("b", 20));
+
+        Assert.assertEquals(Arrays.asList("a/b"), exact.topics);
+        Assert.assertEquals(Arrays.asList("a/b", "a/b/c"), prefix.topics);
+        Assert.assertEquals(Arrays.asList("a", "a/b", "a/b/c", "b"), all.topics);
+        Assert.assertEquals(Arrays.asList("a/b"), filtered.topics);
+        Assert.assertEquals(5, eventAdmin.getHandlerCount());
+        eventAdmin.close();
+        Assert.assertEquals(0, eventAdmin.getHandlerCount());
+    }
+
+    @Test
+    public void testPostEvent_order() throws Exception {
+        LocalEventAdmin eventAdmin = new LocalEventAdmin();
+        TopicsHandler handler = new TopicsHandler();
+        eventAdmin.registerHandler(handler, new String[]{"t/*"}, null);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add("t/" + i);
+            eventAdmin.postEvent(event("t/" + i, i));
+        }
+        Assert.assertTrue(eventAdmin.awaitDelivery(5, TimeUnit.SECONDS));
+        Assert.assertEquals(expected, handler.topics);
+        eventAdmin.close();
+    }
+
+    @Test
+    public void testHandlerFailure_isolated() throws Exception {
+        LocalEventAdmin eventAdmin = new LocalEventAdmin(DIRECT);
+        eventAdmin.registerHandler(new EventHandler() {
+            public void handleEvent(Event event) {
+                throw new IllegalStateException("test");
+            }
+        }, new String[]{"*"}, null);
+        TopicsHandler handler = new TopicsHandler();
+        eventAdmin.registerHandler(handler, new String[]{"*"}, null);
+        eventAdmin.sendEvent(event("a", 1));
+        Assert.assertEquals(Arrays.asList("a"), handler.topics);
+        Assert.assertEquals(1, eventAdmin.getHandlerFailures().size());
+    }
+
+    @Test
+    public void testRegistration_setPropertiesAndUnregister() throws Exception {
+        LocalEventAdmin eventAdmin = new LocalEventAdmin(DIRECT);
+        TopicsHandler handler = new TopicsHandler();
+        ServiceRegistration registration = eventAdmin.registerHandler(handler, new String[]{"a"}, null);
+        eventAdmin.sendEvent(event("a", 1));
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(EventConstants.EVENT_TOPIC, "b");
+        registration.setProperties(properties);
+        eventAdmin.sendEvent(event("a", 2));
+        eventAdmin.sendEvent(event("b", 3));
+        registration.unregister();
+        eventAdmin.sendEvent(event("b", 4));
+        Assert.assertEquals(Arrays.asList("a", "b"), handler.topics);
+        Assert.assertEquals(0, eventAdmin.getHandlerCount());
+    }
+
+    @Test
+    public void testRegistration_reference() throws Exception {
+        LocalEventAdmin eventAdmin = new LocalEventAdmin(DIRECT);
+        ServiceRegistration first = eventAdmin.registerHandler(new TopicsHandler(), new String[]{"a"}, null);
+        ServiceRegistration second = eventAdmin.registerHandler(new TopicsHandler(), new String[]{"b"}, "(size=1)");
+        ServiceReference reference = first.getReference();
+        Assert.assertEquals(EventHandler.class.getName(), ((String[]) reference.getProperty(Constants.OBJECTCLASS))[0]);
+        Assert.assertTrue(Arrays.equals(new String[]{"a"}, (String[]) reference.getProperty(EventConstants.EVENT_TOPIC)));
+        Assert.assertEquals("(size=1)", second.getReference().getProperty("event.FILTER"));
+        Assert.assertNull(reference.getBundle());
+        // lower service id is ranked higher
+        Assert.assertTrue(reference.compareTo(second.getReference()) > 0);
+
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put(EventConstants.EVENT_TOPIC, "c");
+        properties.put(Constants.SERVICE_ID, -1L);
+        first.setProperties(properties);
+        Assert.assertEquals("c", reference.getProperty(EventConstants.EVENT_TOPIC));
+        Assert.assertEquals(first.getReference().getProperty(Constants.SERVICE_ID), reference.getProperty(Constants.SERVICE_ID));
+        Assert.assertFalse(Long.valueOf(-1).equals(reference.getProperty(Constants.SERVICE_ID)));
+
+        first.unregister();
+        try {
+            first.getReference();
+            Assert.fail("IllegalStateException is expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        eventAdmin.close();
+    }
+
+    @Test
+    public void testMockBundleContext_eventCompletion() throws Exception {
+        final LocalEventAdmin eventAdmin = new LocalEventAdmin(DIRECT);
+        BundleContext bc = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{BundleContext.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("registerService")) {
+                            return eventAdmin.registerHandler((EventHandler) args[1], (Dictionary) args[2]);
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+        CompletionFuture<Event> future = EventAdminUtils.eventCompletion(bc, "a/*", null);
+        eventAdmin.sendEvent(event("b", 1));
+        Assert.assertFalse(future.isDone());
+        eventAdmin.sendEvent(event("a/b", 2));
+        Assert.assertEquals("a/b", future.get(1, TimeUnit.SECONDS).getTopic());
+        EventDispatcher.closeAll();
+        eventAdmin.close();
+    }
+
+    private static Event event(String topic, int size) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("size", size);
+        return new Event(topic, properties);
+    }
+
+    private static class TopicsHandler implements EventHandler {
+        private final List<String> topics = Collections.synchronizedList(new ArrayList<String>());
+
+        public void handleEvent(Event event) {
+            topics.add(event.getTopic());
+        }
+    }
+}
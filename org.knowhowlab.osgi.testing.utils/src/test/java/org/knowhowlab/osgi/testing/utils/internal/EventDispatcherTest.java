@@ -0,0 +1,60 @@
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.MockBundleContext;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.event.EventHandler;
+
+import java.util.Dictionary;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class EventDispatcherTest {
+    @After
+    public void tearDown() {
+        EventDispatcher.closeAll();
+    }
+
+    @Test
+    public void testGetDispatcher_registered() {
+        MockBundleContext bc = new MockBundleContext();
+        EventDispatcher dispatcher = EventDispatcher.getDispatcher(bc);
+        Assert.assertSame(dispatcher, EventDispatcher.getDispatcher(bc));
+        Assert.assertNotNull(bc.getServiceReference(EventHandler.class.getName()));
+        Assert.assertEquals(1, bc.getBundleListenerCount());
+
+        EventDispatcher.closeAll();
+        Assert.assertNull(bc.getServiceReference(EventHandler.class.getName()));
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+    }
+
+    @Test
+    public void testGetDispatcher_registrationFails() {
+        final boolean[] fail = {true};
+        MockBundleContext bc = new MockBundleContext() {
+            @Override
+            public ServiceRegistration registerService(String clazz, Object service, Dictionary properties) {
+                if (fail[0]) {
+                    throw new IllegalStateException("BundleContext is no longer valid");
+                }
+                return super.registerService(clazz, service, properties);
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                EventDispatcher.getDispatcher(bc);
+                Assert.fail("IllegalStateException is expected");
+            } catch (IllegalStateException e) {
+                // expected, failed dispatcher is not kept
+            }
+        }
+        Assert.assertEquals(0, bc.getBundleListenerCount());
+
+        fail[0] = false;
+        EventDispatcher.getDispatcher(bc);
+        Assert.assertNotNull(bc.getServiceReference(EventHandler.class.getName()));
+    }
+}
@@ -0,0 +1,143 @@
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Test;
+import org.knowhowlab.osgi.testing.utils.Deadline;
+import org.knowhowlab.osgi.testing.utils.FilterUtils;
+import org.knowhowlab.osgi.testing.utils.MockBundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+
+import java.util.Hashtable;
+import java.util.concurrent.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class ServiceEventDispatcherTest {
+    private final MockBundleContext bc = new MockBundleContext();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        ServiceEventDispatcher.closeAll();
+    }
+
+    @Test
+    public void testRouting() throws Exception {
+        ServiceEventDispatcher dispatcher = ServiceEventDispatcher.getDispatcher(bc, false);
+        Future<ServiceEvent> byClass = waitFor(dispatcher, "service.a", null, ServiceEvent.REGISTERED);
+        Future<ServiceEvent> byFilter = waitFor(dispatcher, null, FilterUtils.eq("key", "b"), ServiceEvent.REGISTERED);
+        Future<ServiceEvent> unregistering = waitFor(dispatcher, "service.a", null, ServiceEvent.UNREGISTERING);
+        awaitWaiters(dispatcher, 1);
+
+        bc.registerService("service.b", new Object(), null);
+        Assert.assertFalse(byClass.isDone());
+        Hashtable<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("key", "b");
+        bc.registerService("service.c", new Object(), properties);
+        bc.registerService("service.a", new Object(), null).unregister();
+
+        Assert.assertEquals("service.a", objectClass(byClass.get(5, TimeUnit.SECONDS)));
+        Assert.assertEquals("service.c", objectClass(byFilter.get(5, TimeUnit.SECONDS)));
+        Assert.assertEquals(ServiceEvent.UNREGISTERING, unregistering.get(5, TimeUnit.SECONDS).getType());
+    }
+
+    @Test
+    public void testBucketIsRemovedWithLastWaiter() throws Exception {
+        ServiceEventDispatcher dispatcher = ServiceEventDispatcher.getDispatcher(bc, false);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(dispatcher.waitForServiceEvent("service." + i, null, ServiceEvent.REGISTERED,
+                    Deadline.after(1, TimeUnit.MILLISECONDS)));
+        }
+        Assert.assertEquals(0, dispatcher.getBucketCount());
+
+        Future<ServiceEvent> first = waitFor(dispatcher, "service.a", null, ServiceEvent.REGISTERED);
+        Future<ServiceEvent> second = waitFor(dispatcher, "service.a", null, ServiceEvent.REGISTERED);
+        awaitWaiters(dispatcher, 1);
+        bc.registerService("service.a", new Object(), null);
+        Assert.assertNotNull(first.get(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, dispatcher.getBucketCount());
+    }
+
+    @Test
+    public void testGetDispatcher_listenerRegistrationFails() {
+        MockBundleContext failing = new MockBundleContext() {
+            @Override
+            public void addServiceListener(ServiceListener listener) {
+                throw new IllegalStateException("BundleContext is no longer valid");
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                ServiceEventDispatcher.getDispatcher(failing, false);
+                Assert.fail("IllegalStateException is expected");
+            } catch (IllegalStateException e) {
+                // expected, failed dispatcher is not kept
+            }
+        }
+        Assert.assertEquals(0, failing.getBundleListenerCount());
+    }
+
+    @Test
+    public void testGetDispatcher_concurrentCallerWaitsForRegistration() throws Exception {
+        final CountDownLatch adding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockBundleContext slow = new MockBundleContext() {
+            @Override
+            public void addServiceListener(ServiceListener listener) {
+                adding.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.addServiceListener(listener);
+            }
+        };
+        Callable<ServiceEventDispatcher> getDispatcher = new Callable<ServiceEventDispatcher>() {
+            public ServiceEventDispatcher call() {
+                return ServiceEventDispatcher.getDispatcher(slow, false);
+            }
+        };
+        Future<ServiceEventDispatcher> creator = executor.submit(getDispatcher);
+        Assert.assertTrue(adding.await(5, TimeUnit.SECONDS));
+        Future<ServiceEventDispatcher> other = executor.submit(getDispatcher);
+        try {
+            other.get(50, TimeUnit.MILLISECONDS);
+            Assert.fail("Dispatcher is returned before its listener is added");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        release.countDown();
+        Assert.assertSame(creator.get(5, TimeUnit.SECONDS), other.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, slow.getServiceListenerCount());
+    }
+
+    private Future<ServiceEvent> waitFor(final ServiceEventDispatcher dispatcher, final String className,
+                                         final Filter filter, final int eventTypeMask) {
+        return executor.submit(new Callable<ServiceEvent>() {
+            public ServiceEvent call() throws Exception {
+                return dispatcher.waitForServiceEvent(className, filter, eventTypeMask, Deadline.after(5, TimeUnit.SECONDS));
+            }
+        });
+    }
+
+    private static void awaitWaiters(ServiceEventDispatcher dispatcher, int bucketCount) throws InterruptedException {
+        Deadline deadline = Deadline.after(5, TimeUnit.SECONDS);
+        while (dispatcher.getBucketCount() < bucketCount && !deadline.isExpired()) {
+            Thread.sleep(1);
+        }
+        // waiters are added to buckets right after buckets are created
+        Thread.sleep(50);
+    }
+
+    private static String objectClass(ServiceEvent event) {
+        return ((String[]) event.getServiceReference().getProperty(Constants.OBJECTCLASS))[0];
+    }
+}
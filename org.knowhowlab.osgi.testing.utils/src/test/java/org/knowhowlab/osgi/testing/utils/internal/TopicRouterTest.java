@@ -0,0 +1,78 @@
+package org.knowhowlab.osgi.testing.utils.internal;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+import java.util.*;
+
+/**
+ * @author dmytro.pishchukhin
+ */
+public class TopicRouterTest {
+    private final TopicRouter router = new TopicRouter();
+
+    @Test
+    public void testTopicMatching() {
+        TopicsHandler exact = subscribe(new String[]{"a/b"});
+        TopicsHandler prefix = subscribe(new String[]{"a/*"});
+        TopicsHandler all = subscribe(null);
+        TopicsHandler wildcard = subscribe(new String[]{"*"});
+        TopicsHandler nested = subscribe(new String[]{"a/b/*"});
+
+        for (String topic : new String[]{"a", "a/b", "a/b/c", "a/bc", "b", "b/a/b"}) {
+            router.handleEvent(event(topic, 0));
+        }
+
+        Assert.assertEquals(Arrays.asList("a/b"), exact.topics);
+        Assert.assertEquals(Arrays.asList("a/b", "a/b/c", "a/bc"), prefix.topics);
+        Assert.assertEquals(Arrays.asList("a", "a/b", "a/b/c", "a/bc", "b", "b/a/b"), all.topics);
+        Assert.assertEquals(all.topics, wildcard.topics);
+        Assert.assertEquals(Arrays.asList("a/b/c"), nested.topics);
+    }
+
+    @Test
+    public void testSubscribe_coveredTopicsAreDeliveredOnce() {
+        TopicsHandler handler = subscribe(new String[]{"a/*", "a/b", "a/b/*", "a/*", "c"});
+        router.handleEvent(event("a/b", 0));
+        router.handleEvent(event("a/b/c", 0));
+        router.handleEvent(event("c", 0));
+        Assert.assertEquals(Arrays.asList("a/b", "a/b/c", "c"), handler.topics);
+    }
+
+    @Test
+    public void testSubscribe_filterAndClose() throws Exception {
+        TopicsHandler handler = new TopicsHandler();
+        TopicRouter.Subscription subscription = router.subscribe(new String[]{"a"}, FrameworkUtil.createFilter("(size>=10)"), handler);
+        Assert.assertEquals(1, router.getSubscriptionCount());
+        router.handleEvent(event("a", 1));
+        router.handleEvent(event("a", 10));
+        subscription.close();
+        subscription.close();
+        router.handleEvent(event("a", 20));
+        Assert.assertEquals(Arrays.asList("a"), handler.topics);
+        Assert.assertEquals(0, router.getSubscriptionCount());
+    }
+
+    private TopicsHandler subscribe(String[] topics) {
+        TopicsHandler handler = new TopicsHandler();
+        router.subscribe(topics, null, handler);
+        return handler;
+    }
+
+    private static Event event(String topic, int size) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("size", size);
+        return new Event(topic, properties);
+    }
+
+    private static class TopicsHandler implements EventHandler {
+        private final List<String> topics = new ArrayList<String>();
+
+        public void handleEvent(Event event) {
+            topics.add(event.getTopic());
+        }
+    }
+}